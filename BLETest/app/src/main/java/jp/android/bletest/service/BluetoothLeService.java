@@ -13,8 +13,11 @@ import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.UUID;
 
@@ -29,6 +32,10 @@ public class BluetoothLeService extends Service {
     private BluetoothAdapter mBluetoothAdapter;
     private String mBluetoothDeviceAddress;
     private BluetoothGatt mBluetoothGatt;
+    // Read once into a local by the GATT callbacks, which run on a binder thread and may come
+    // before connect() has created the queue of a new connection.
+    private volatile GattOperationQueue mGattQueue;
+    private final Handler mHandler = new Handler();
     private int mConnectionState = STATE_DISCONNECTED;
     private static final int STATE_DISCONNECTED = 0;
     private static final int STATE_CONNECTING = 1;
@@ -40,13 +47,34 @@ public class BluetoothLeService extends Service {
             "com.example.bluetooth.le.ACTION_GATT_DISCONNECTED";
     public final static String ACTION_GATT_SERVICES_DISCOVERED =
             "com.example.bluetooth.le.ACTION_GATT_SERVICES_DISCOVERED";
-    public final static String ACTION_DATA_AVAILABLE =
-            "com.example.bluetooth.le.ACTION_DATA_AVAILABLE";
-    public final static String EXTRA_DATA =
-            "com.example.bluetooth.le.EXTRA_DATA";
 
     public final static UUID UUID_HEART_RATE_MEASUREMENT =
             UUID.fromString(SampleGattAttributes.HEART_RATE_MEASUREMENT);
+    private final static UUID UUID_CLIENT_CHARACTERISTIC_CONFIG =
+            UUID.fromString(SampleGattAttributes.CLIENT_CHARACTERISTIC_CONFIG);
+
+    // Enough RR intervals for a notification with the maximum ATT payload.
+    private static final int MAX_RR_INTERVALS = 256;
+
+    // Time without bursts after which the link goes to low power.
+    private static final long PRIORITY_IDLE_TIMEOUT = 10000; // milliseconds
+
+    // Values waiting for the decode worker, at most one attribute value each.
+    private static final int RING_CAPACITY = 32;
+    private static final int RING_SLOT_SIZE = 512;
+
+    private final GattEventBus mEventBus = new GattEventBus();
+    // Filled by the GATT callbacks; the worker decodes and publishes the values.
+    private final SpscByteRing mRing = new SpscByteRing(RING_CAPACITY, RING_SLOT_SIZE);
+    private final DecodeWorker mWorker = new DecodeWorker(TAG + "-decode");
+    private final ConnectionPriorityPolicy mPriorityPolicy =
+            new ConnectionPriorityPolicy(new HandlerScheduler(mHandler), PRIORITY_IDLE_TIMEOUT);
+    // Held from the connection until the services are discovered.
+    private final Object mDiscoveryBurst = new Object();
+
+    // Reused for every notification.  Only accessed from the decode worker thread.
+    private final HeartRateMeasurement mHeartRateMeasurement =
+            new HeartRateMeasurement(MAX_RR_INTERVALS);
 
     // Implements callback methods for GATT events that the app cares about.  For example,
     // connection change and services discovered.
@@ -59,6 +87,9 @@ public class BluetoothLeService extends Service {
                 mConnectionState = STATE_CONNECTED;
                 broadcastUpdate(intentAction);
                 Log.i(TAG, "Connected to GATT server.");
+                // Requests are ignored below API level 21, where the stack keeps its interval.
+                mPriorityPolicy.start(new BluetoothGattTarget(gatt));
+                mPriorityPolicy.acquire(mDiscoveryBurst);
                 // Attempts to discover services after successful connection.
                 Log.i(TAG, "Attempting to start service discovery:" +
                         mBluetoothGatt.discoverServices());
@@ -66,13 +97,19 @@ public class BluetoothLeService extends Service {
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 intentAction = ACTION_GATT_DISCONNECTED;
                 mConnectionState = STATE_DISCONNECTED;
-                Log.i(TAG, "Disconnected from GATT server.");
+                Log.i(TAG, "Disconnected from GATT server: " + mPriorityPolicy);
+                mPriorityPolicy.stop();
+                GattOperationQueue queue = mGattQueue;
+                if (queue != null) {
+                    queue.clear();
+                }
                 broadcastUpdate(intentAction);
             }
         }
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            mPriorityPolicy.release(mDiscoveryBurst);
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
             } else {
@@ -85,14 +122,57 @@ public class BluetoothLeService extends Service {
                                          BluetoothGattCharacteristic characteristic,
                                          int status) {
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+                publishUpdate(characteristic);
+            }
+            GattOperationQueue queue = mGattQueue;
+            if (queue != null) {
+                queue.onCharacteristicRead(characteristic.getUuid(), status,
+                        characteristic.getValue());
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic,
+                                          int status) {
+            GattOperationQueue queue = mGattQueue;
+            if (queue != null) {
+                queue.onCharacteristicWrite(characteristic.getUuid(), status);
+            }
+        }
+
+        @Override
+        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                     int status) {
+            GattOperationQueue queue = mGattQueue;
+            if (queue != null) {
+                queue.onDescriptorRead(descriptor.getCharacteristic().getUuid(),
+                        descriptor.getUuid(), status, descriptor.getValue());
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {
+            GattOperationQueue queue = mGattQueue;
+            if (queue != null) {
+                queue.onDescriptorWrite(descriptor.getCharacteristic().getUuid(),
+                        descriptor.getUuid(), status);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            GattOperationQueue queue = mGattQueue;
+            if (queue != null) {
+                queue.onMtuChanged(status);
             }
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic) {
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+            publishUpdate(characteristic);
         }
     };
 
@@ -101,37 +181,83 @@ public class BluetoothLeService extends Service {
         sendBroadcast(intent);
     }
 
-    private void broadcastUpdate(final String action,
-                                 final BluetoothGattCharacteristic characteristic) {
-        final Intent intent = new Intent(action);
+    // Only copies the value into the ring, so that the GATT callback thread returns at once.
+    // Values dropped on a full ring are counted by the ring.
+    private void publishUpdate(final BluetoothGattCharacteristic characteristic) {
+        if (!mEventBus.hasSubscribers()) {
+            return;
+        }
+        final byte[] data = characteristic.getValue();
+        if (data == null) {
+            return;
+        }
+        if (mRing.offer(characteristic.getUuid(), data, 0, data.length)) {
+            mWorker.signal();
+        }
+    }
 
-        // This is special handling for the Heart Rate Measurement profile.  Data parsing is
-        // carried out as per profile specifications:
-        // http://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.heart_rate_measurement.xml
-        if (UUID_HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
-            int flag = characteristic.getProperties();
-            int format = -1;
-            if ((flag & 0x01) != 0) {
-                format = BluetoothGattCharacteristic.FORMAT_UINT16;
-                Log.d(TAG, "Heart rate format UINT16.");
+    // Delivers data to in-process subscribers through the event bus, on the decode worker
+    // thread.  Intents are only used for connection state changes.
+    private final SpscByteRing.Consumer mRingConsumer = new SpscByteRing.Consumer() {
+        @Override
+        public void onValue(Object tag, byte[] value, int offset, int length) {
+            UUID characteristicUuid = (UUID) tag;
+            // This is special handling for the Heart Rate Measurement profile.
+            if (UUID_HEART_RATE_MEASUREMENT.equals(characteristicUuid)) {
+                final HeartRateMeasurement measurement = mHeartRateMeasurement;
+                if (!HeartRateMeasurementDecoder.decode(value, offset, length, measurement)) {
+                    Log.w(TAG, "Malformed heart rate measurement.");
+                    return;
+                }
+                mEventBus.publishHeartRateMeasurement(measurement);
             } else {
-                format = BluetoothGattCharacteristic.FORMAT_UINT8;
-                Log.d(TAG, "Heart rate format UINT8.");
-            }
-            final int heartRate = characteristic.getIntValue(format, 1);
-            Log.d(TAG, String.format("Received heart rate: %d", heartRate));
-            intent.putExtra(EXTRA_DATA, String.valueOf(heartRate));
-        } else {
-            // For all other profiles, writes the data formatted in HEX.
-            final byte[] data = characteristic.getValue();
-            if (data != null && data.length > 0) {
-                final StringBuilder stringBuilder = new StringBuilder(data.length);
-                for(byte byteChar : data)
-                    stringBuilder.append(String.format("%02X ", byteChar));
-                intent.putExtra(EXTRA_DATA, new String(data) + "\n" + stringBuilder.toString());
+                mEventBus.publishCharacteristicValue(characteristicUuid, value, offset, length);
             }
         }
-        sendBroadcast(intent);
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mWorker.register(mRing, mRingConsumer);
+        mWorker.start();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mWorker.stop();
+    }
+
+    /**
+     * @return The ring between the GATT callbacks and the decode worker, for its fill level and
+     *         drop counts.
+     */
+    public SpscByteRing getRing() {
+        return mRing;
+    }
+
+    /**
+     * Sets what happens to values arriving faster than the event bus subscribers take them.
+     * Dropped values are counted by the ring.
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        mRing.setPolicy(policy);
+    }
+
+    /**
+     * @return The connection priority policy, with which bursts of traffic, e.g. reading a batch
+     *         of characteristics, can raise the priority of the link.
+     */
+    public ConnectionPriorityPolicy getPriorityPolicy() {
+        return mPriorityPolicy;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println(mRing);
+        writer.println(mWorker);
+        writer.println(mPriorityPolicy);
     }
 
     public class LocalBinder extends Binder {
@@ -156,6 +282,14 @@ public class BluetoothLeService extends Service {
 
     private final IBinder mBinder = new LocalBinder();
 
+    /**
+     * Returns the bus through which characteristic values read or notified by the device are
+     * delivered.  Subscribers are called on the decode worker thread.
+     */
+    public GattEventBus getEventBus() {
+        return mEventBus;
+    }
+
     /**
      * Initializes a reference to the local Bluetooth adapter.
      *
@@ -214,9 +348,18 @@ public class BluetoothLeService extends Service {
             Log.w(TAG, "Device not found.  Unable to connect.");
             return false;
         }
+        // Callbacks of the new connection arriving before its queue is created must not reach
+        // the queue of a previous one.
+        mGattQueue = null;
         // We want to directly connect to the device, so we are setting the autoConnect
         // parameter to false.
         mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
+        if (mBluetoothGatt == null) {
+            Log.w(TAG, "Failed to connect.");
+            return false;
+        }
+        mGattQueue = new GattOperationQueue(new BluetoothGattTarget(mBluetoothGatt),
+                new HandlerScheduler(mHandler));
         Log.d(TAG, "Trying to create a new connection.");
         mBluetoothDeviceAddress = address;
         mConnectionState = STATE_CONNECTING;
@@ -245,12 +388,16 @@ public class BluetoothLeService extends Service {
         if (mBluetoothGatt == null) {
             return;
         }
+        Log.i(TAG, "Closing GATT: " + mGattQueue + ", " + mPriorityPolicy);
+        mGattQueue.clear();
+        mPriorityPolicy.stop();
         mBluetoothGatt.close();
         mBluetoothGatt = null;
     }
 
     /**
-     * Request a read on a given {@code BluetoothGattCharacteristic}. The read result is reported
+     * Request a read on a given {@code BluetoothGattCharacteristic}. The read is serialized with
+     * the other GATT operations of the connection, and the read result is reported
      * asynchronously through the {@code BluetoothGattCallback#onCharacteristicRead(android.bluetooth.BluetoothGatt, android.bluetooth.BluetoothGattCharacteristic, int)}
      * callback.
      *
@@ -261,7 +408,8 @@ public class BluetoothLeService extends Service {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.readCharacteristic(characteristic);
+        mGattQueue.enqueue(GattOperation.readCharacteristic(
+                characteristic.getService().getUuid(), characteristic.getUuid()));
     }
 
     /**
@@ -276,14 +424,18 @@ public class BluetoothLeService extends Service {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
 
-        // This is specific to Heart Rate Measurement.
+        // This is specific to Heart Rate Measurement.  The queue enables the local notification
+        // routing right before the descriptor write is issued.
         if (UUID_HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
-                    UUID.fromString(SampleGattAttributes.CLIENT_CHARACTERISTIC_CONFIG));
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            mBluetoothGatt.writeDescriptor(descriptor);
+            mGattQueue.enqueue(GattOperation.writeDescriptor(
+                    characteristic.getService().getUuid(),
+                    characteristic.getUuid(),
+                    UUID_CLIENT_CHARACTERISTIC_CONFIG,
+                    enabled ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                            : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE));
+        } else {
+            mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
         }
     }
 
@@ -0,0 +1,223 @@
+package jp.android.bletest.service;
+
+import java.util.ArrayList;
+
+/**
+ * Chooses the connection priority of a link from its traffic.
+ *
+ * <p>The link runs at high priority, i.e. the shortest connection interval, while any burst is
+ * held: service discovery, a bulk transfer, a download of stored records.  When the last burst
+ * is released it goes back to balanced, and after the idle timeout without bursts to low power.
+ * Only changes are requested.  The time spent in each priority is accumulated over all the
+ * connections the policy is started for.
+ */
+public class ConnectionPriorityPolicy {
+    // Same values as BluetoothGatt.CONNECTION_PRIORITY_*.
+    public static final int PRIORITY_BALANCED = 0;
+    public static final int PRIORITY_HIGH = 1;
+    public static final int PRIORITY_LOW_POWER = 2;
+
+    private static final int PRIORITY_COUNT = 3;
+
+    /**
+     * Applies a priority to the link, e.g. with {@code BluetoothGatt.requestConnectionPriority}.
+     */
+    public interface Target {
+        /**
+         * @return false if the request was not accepted.
+         */
+        boolean requestConnectionPriority(int priority);
+    }
+
+    private final Scheduler mScheduler;
+    private long mIdleTimeout;
+
+    private Target mTarget;
+    private final ArrayList<Object> mBursts = new ArrayList<Object>();
+    private int mPriority = PRIORITY_BALANCED;
+    private long mPrioritySince;
+    // Nanoseconds, indexed by priority.
+    private final long[] mTimeInPriority = new long[PRIORITY_COUNT];
+    private int mRequestCount;
+
+    private final Runnable mIdleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ConnectionPriorityPolicy.this) {
+                if (mTarget != null && mBursts.isEmpty()) {
+                    setPriority(PRIORITY_LOW_POWER);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param idleTimeout Time in milliseconds without bursts after which the link goes to low
+     *                    power.
+     */
+    public ConnectionPriorityPolicy(Scheduler scheduler, long idleTimeout) {
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler must not be null");
+        }
+        mScheduler = scheduler;
+        setIdleTimeout(idleTimeout);
+    }
+
+    /**
+     * Takes effect from the next release of the last burst.
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("idleTimeout must be positive: " + idleTimeout);
+        }
+        mIdleTimeout = idleTimeout;
+    }
+
+    /**
+     * Starts controlling a new connection, which is at balanced priority.
+     */
+    public synchronized void start(Target target) {
+        if (target == null) {
+            throw new NullPointerException("target must not be null");
+        }
+        if (mTarget != null) {
+            stop();
+        }
+        mTarget = target;
+        mPriority = PRIORITY_BALANCED;
+        mPrioritySince = mScheduler.nanoTime();
+        if (mBursts.isEmpty()) {
+            mScheduler.postDelayed(mIdleRunnable, mIdleTimeout);
+        } else {
+            setPriority(PRIORITY_HIGH);
+        }
+    }
+
+    /**
+     * Stops controlling the connection, when it is closed.  The bursts are released.
+     */
+    public synchronized void stop() {
+        if (mTarget == null) {
+            return;
+        }
+        account();
+        mTarget = null;
+        mBursts.clear();
+        mScheduler.removeCallbacks(mIdleRunnable);
+    }
+
+    /**
+     * Raises the priority until the burst is released.  Acquiring a burst which is already held
+     * has no effect.
+     *
+     * @param burst Identifies the burst, e.g. the object performing the transfer.
+     */
+    public synchronized void acquire(Object burst) {
+        if (burst == null) {
+            throw new NullPointerException("burst must not be null");
+        }
+        if (indexOf(burst) >= 0) {
+            return;
+        }
+        mBursts.add(burst);
+        if (mTarget != null) {
+            mScheduler.removeCallbacks(mIdleRunnable);
+            setPriority(PRIORITY_HIGH);
+        }
+    }
+
+    /**
+     * Releases a burst.  Releasing a burst which is not held has no effect.
+     */
+    public synchronized void release(Object burst) {
+        int index = indexOf(burst);
+        if (index < 0) {
+            return;
+        }
+        mBursts.remove(index);
+        if (mTarget != null && mBursts.isEmpty()) {
+            setPriority(PRIORITY_BALANCED);
+            mScheduler.postDelayed(mIdleRunnable, mIdleTimeout);
+        }
+    }
+
+    /**
+     * @return The priority of the connection, or the one it ended with.
+     */
+    public synchronized int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return The time in milliseconds spent in the priority over all connections.
+     */
+    public synchronized long getTimeInPriority(int priority) {
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            throw new IllegalArgumentException("Invalid priority: " + priority);
+        }
+        long time = mTimeInPriority[priority];
+        if (mTarget != null && priority == mPriority) {
+            time += mScheduler.nanoTime() - mPrioritySince;
+        }
+        return time / 1000000;
+    }
+
+    /**
+     * @return The number of priority changes requested.
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    // Must be called with the lock held.
+    private void setPriority(int priority) {
+        if (priority == mPriority) {
+            return;
+        }
+        // The link stays at its priority if the request fails, e.g. while the stack is busy.
+        mRequestCount++;
+        if (!mTarget.requestConnectionPriority(priority)) {
+            return;
+        }
+        account();
+        mPriority = priority;
+    }
+
+    // Must be called with the lock held.
+    private void account() {
+        long now = mScheduler.nanoTime();
+        mTimeInPriority[mPriority] += now - mPrioritySince;
+        mPrioritySince = now;
+    }
+
+    private int indexOf(Object burst) {
+        for (int i = 0; i < mBursts.size(); i++) {
+            if (mBursts.get(i) == burst) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String toString(int priority) {
+        switch (priority) {
+            case PRIORITY_HIGH:
+                return "HIGH";
+            case PRIORITY_LOW_POWER:
+                return "LOW_POWER";
+            default:
+                return "BALANCED";
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConnectionPriorityPolicy{priority=" + toString(mPriority)
+                + ", bursts=" + mBursts.size()
+                + ", highMs=" + getTimeInPriority(PRIORITY_HIGH)
+                + ", balancedMs=" + getTimeInPriority(PRIORITY_BALANCED)
+                + ", lowPowerMs=" + getTimeInPriority(PRIORITY_LOW_POWER)
+                + ", requests=" + mRequestCount
+                + "}";
+    }
+}
@@ -0,0 +1,180 @@
+package jp.android.bletest.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread draining {@link SpscByteRing}s into their consumers, so that the GATT callbacks only
+ * copy bytes and return.
+ *
+ * <p>The worker is the single consumer of every ring registered with it.  It drains the rings in
+ * turn until all are empty, then parks until a producer calls {@link #signal}.  A producer only
+ * unparks the worker when it is about to park or parked, so a burst of values costs one wakeup.
+ */
+public class DecodeWorker {
+    private static final Entry[] EMPTY_ENTRIES = new Entry[0];
+
+    private static final class Entry {
+        final SpscByteRing mRing;
+        final SpscByteRing.Consumer mConsumer;
+
+        Entry(SpscByteRing ring, SpscByteRing.Consumer consumer) {
+            mRing = ring;
+            mConsumer = consumer;
+        }
+    }
+
+    private final String mName;
+    // Copied on write, read by the worker without locking.
+    private volatile Entry[] mEntries = EMPTY_ENTRIES;
+
+    private volatile Thread mThread;
+    private volatile boolean mRunning;
+    private volatile boolean mWaiting;
+
+    private final AtomicLong mWakeupCount = new AtomicLong();
+    private final AtomicLong mValueCount = new AtomicLong();
+
+    private final Runnable mLoop = new Runnable() {
+        @Override
+        public void run() {
+            loop();
+        }
+    };
+
+    public DecodeWorker(String name) {
+        if (name == null) {
+            throw new NullPointerException("name must not be null");
+        }
+        mName = name;
+    }
+
+    /**
+     * Adds a ring, whose values are passed to the consumer on the worker thread.
+     */
+    public synchronized void register(SpscByteRing ring, SpscByteRing.Consumer consumer) {
+        if (ring == null) {
+            throw new NullPointerException("ring must not be null");
+        }
+        if (consumer == null) {
+            throw new NullPointerException("consumer must not be null");
+        }
+        int count = mEntries.length;
+        Entry[] entries = new Entry[count + 1];
+        System.arraycopy(mEntries, 0, entries, 0, count);
+        entries[count] = new Entry(ring, consumer);
+        mEntries = entries;
+    }
+
+    /**
+     * Removes a ring, e.g. of a connection closed for good.  The values left in it are not
+     * delivered.  A value being delivered when this is called may still reach the consumer.
+     */
+    public synchronized void unregister(SpscByteRing ring) {
+        int count = mEntries.length;
+        for (int i = 0; i < count; i++) {
+            if (mEntries[i].mRing == ring) {
+                Entry[] entries = new Entry[count - 1];
+                System.arraycopy(mEntries, 0, entries, 0, i);
+                System.arraycopy(mEntries, i + 1, entries, i, count - i - 1);
+                mEntries = entries;
+                return;
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(mLoop, mName);
+        mThread.start();
+    }
+
+    /**
+     * Stops the worker and waits for it.  The values left in the rings are not delivered.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            if (thread == null) {
+                return;
+            }
+            mThread = null;
+            mRunning = false;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wakes the worker up after offering a value.  Called by the producers.
+     */
+    public void signal() {
+        if (mWaiting) {
+            Thread thread = mThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private void loop() {
+        while (mRunning) {
+            if (drain()) {
+                continue;
+            }
+            mWaiting = true;
+            // Checked again after announcing the wait, against a value offered meanwhile.
+            if (isIdle() && mRunning) {
+                LockSupport.park(this);
+                mWakeupCount.incrementAndGet();
+            }
+            mWaiting = false;
+        }
+    }
+
+    // Delivers one value per ring in turn, so that a busy ring does not starve the others.
+    private boolean drain() {
+        boolean any = false;
+        for (Entry entry : mEntries) {
+            if (entry.mRing.poll(entry.mConsumer)) {
+                mValueCount.incrementAndGet();
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    private boolean isIdle() {
+        for (Entry entry : mEntries) {
+            if (!entry.mRing.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of times the worker woke up from waiting.
+     */
+    public long getWakeupCount() {
+        return mWakeupCount.get();
+    }
+
+    public long getValueCount() {
+        return mValueCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DecodeWorker{name=" + mName + ", rings=" + mEntries.length
+                + ", values=" + getValueCount() + ", wakeups=" + getWakeupCount() + "}";
+    }
+}
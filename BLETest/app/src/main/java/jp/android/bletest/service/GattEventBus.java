@@ -0,0 +1,108 @@
+package jp.android.bletest.service;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process delivery of GATT data to subscribers.
+ *
+ * <p>Data events are dispatched synchronously on the publishing thread (the decode worker thread)
+ * with primitive payloads, instead of going through {@code Context#sendBroadcast}.  The
+ * subscriber list is copy-on-write, so publishing takes no lock and allocates nothing.
+ * Subscribers must not block, and must copy any data they need to keep since the buffers are
+ * reused for the next event.
+ */
+public class GattEventBus {
+    public interface Subscriber {
+        /**
+         * Called for every characteristic value read or notified, except for those decoded into
+         * a dedicated event.
+         */
+        void onCharacteristicValue(UUID characteristicUuid, byte[] value, int offset, int length);
+
+        void onHeartRateMeasurement(HeartRateMeasurement measurement);
+    }
+
+    /**
+     * Convenience {@link Subscriber} with empty implementations.
+     */
+    public static class SimpleSubscriber implements Subscriber {
+        @Override
+        public void onCharacteristicValue(UUID characteristicUuid, byte[] value, int offset,
+                                          int length) {
+        }
+
+        @Override
+        public void onHeartRateMeasurement(HeartRateMeasurement measurement) {
+        }
+    }
+
+    private static final Subscriber[] EMPTY = new Subscriber[0];
+
+    private final AtomicReference<Subscriber[]> mSubscribers =
+            new AtomicReference<Subscriber[]>(EMPTY);
+
+    public void subscribe(Subscriber subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+        while (true) {
+            Subscriber[] current = mSubscribers.get();
+            for (Subscriber s : current) {
+                if (s == subscriber) {
+                    return;
+                }
+            }
+            Subscriber[] updated = new Subscriber[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = subscriber;
+            if (mSubscribers.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        while (true) {
+            Subscriber[] current = mSubscribers.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscriber) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            Subscriber[] updated;
+            if (current.length == 1) {
+                updated = EMPTY;
+            } else {
+                updated = new Subscriber[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            }
+            if (mSubscribers.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    public boolean hasSubscribers() {
+        return mSubscribers.get().length > 0;
+    }
+
+    public void publishCharacteristicValue(UUID characteristicUuid, byte[] value, int offset,
+                                           int length) {
+        for (Subscriber subscriber : mSubscribers.get()) {
+            subscriber.onCharacteristicValue(characteristicUuid, value, offset, length);
+        }
+    }
+
+    public void publishHeartRateMeasurement(HeartRateMeasurement measurement) {
+        for (Subscriber subscriber : mSubscribers.get()) {
+            subscriber.onHeartRateMeasurement(measurement);
+        }
+    }
+}
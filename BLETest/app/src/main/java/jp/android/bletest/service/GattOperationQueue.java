@@ -0,0 +1,267 @@
+package jp.android.bletest.service;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Serializes GATT operations of a single connection.
+ *
+ * <p>The Android Bluetooth stack rejects a new request while another one is still in flight, so
+ * every read, write and MTU request is put into this queue instead of being issued on
+ * {@code BluetoothGatt} directly.  The next operation is dispatched as soon as the completion
+ * callback of the current one is forwarded through one of the {@code on*} methods, or when the
+ * current operation times out.
+ */
+public class GattOperationQueue {
+    /**
+     * Issues an operation to the GATT client.
+     */
+    public interface Target {
+        /**
+         * @return true if the request was accepted by the stack, in which case the result must be
+         *         reported later through the corresponding {@code on*} method of the queue.
+         */
+        boolean dispatch(GattOperation operation);
+    }
+
+    private final Target mTarget;
+    private final Scheduler mScheduler;
+    private final ArrayDeque<GattOperation> mPending = new ArrayDeque<GattOperation>();
+    private GattOperation mCurrent;
+
+    // Statistics. Times are in nanoseconds.
+    private int mMaxDepth;
+    private long mCompletedCount;
+    private long mFailedCount;
+    private long mTimeoutCount;
+    private long mRejectedCount;
+    private long mTotalWaitTime;
+    private long mTotalServiceTime;
+    private long mMaxServiceTime;
+    private long mLastServiceTime;
+
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+
+    public GattOperationQueue(Target target, Scheduler scheduler) {
+        if (target == null) {
+            throw new NullPointerException("target must not be null");
+        }
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler must not be null");
+        }
+        mTarget = target;
+        mScheduler = scheduler;
+    }
+
+    public void enqueue(GattOperation operation) {
+        if (operation == null) {
+            throw new NullPointerException("operation must not be null");
+        }
+        synchronized (this) {
+            operation.enqueueTime = mScheduler.nanoTime();
+            mPending.add(operation);
+            mMaxDepth = Math.max(mMaxDepth, getDepth());
+        }
+        dispatchNext();
+    }
+
+    public void onCharacteristicRead(UUID characteristicUuid, int status, byte[] value) {
+        complete(GattOperation.Type.READ_CHARACTERISTIC, characteristicUuid, null, status, value);
+    }
+
+    public void onCharacteristicWrite(UUID characteristicUuid, int status) {
+        complete(GattOperation.Type.WRITE_CHARACTERISTIC, characteristicUuid, null, status, null);
+    }
+
+    public void onDescriptorRead(UUID characteristicUuid, UUID descriptorUuid, int status, byte[] value) {
+        complete(GattOperation.Type.READ_DESCRIPTOR, characteristicUuid, descriptorUuid, status, value);
+    }
+
+    public void onDescriptorWrite(UUID characteristicUuid, UUID descriptorUuid, int status) {
+        complete(GattOperation.Type.WRITE_DESCRIPTOR, characteristicUuid, descriptorUuid, status, null);
+    }
+
+    public void onMtuChanged(int status) {
+        complete(GattOperation.Type.REQUEST_MTU, null, null, status, null);
+    }
+
+    /**
+     * Cancels the current and all pending operations, e.g. when the connection is lost.
+     */
+    public void clear() {
+        GattOperation[] cancelled;
+        synchronized (this) {
+            int count = mPending.size() + (mCurrent != null ? 1 : 0);
+            cancelled = new GattOperation[count];
+            int i = 0;
+            if (mCurrent != null) {
+                cancelled[i++] = mCurrent;
+                mCurrent = null;
+                mScheduler.removeCallbacks(mTimeoutRunnable);
+            }
+            while (!mPending.isEmpty()) {
+                cancelled[i++] = mPending.poll();
+            }
+            mFailedCount += count;
+        }
+        for (GattOperation operation : cancelled) {
+            notifyComplete(operation, GattOperation.STATUS_CANCELLED, null);
+        }
+    }
+
+    /**
+     * @return The number of operations in the queue, including the one in flight.
+     */
+    public synchronized int getDepth() {
+        return mPending.size() + (mCurrent != null ? 1 : 0);
+    }
+
+    public synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    public synchronized long getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return mFailedCount;
+    }
+
+    public synchronized long getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * @return The average time in nanoseconds that completed operations spent waiting in the
+     *         queue before being dispatched.
+     */
+    public synchronized long getAverageWaitTime() {
+        return mCompletedCount == 0 ? 0 : mTotalWaitTime / mCompletedCount;
+    }
+
+    /**
+     * @return The average time in nanoseconds between dispatching an operation and receiving its
+     *         completion callback.
+     */
+    public synchronized long getAverageServiceTime() {
+        return mCompletedCount == 0 ? 0 : mTotalServiceTime / mCompletedCount;
+    }
+
+    public synchronized long getMaxServiceTime() {
+        return mMaxServiceTime;
+    }
+
+    public synchronized long getLastServiceTime() {
+        return mLastServiceTime;
+    }
+
+    private void complete(GattOperation.Type type, UUID characteristicUuid, UUID descriptorUuid,
+                          int status, byte[] value) {
+        GattOperation operation;
+        synchronized (this) {
+            operation = mCurrent;
+            // Ignores late callbacks of operations which have already timed out.
+            if (operation == null || !operation.matches(type, characteristicUuid, descriptorUuid)) {
+                return;
+            }
+            mCurrent = null;
+            mScheduler.removeCallbacks(mTimeoutRunnable);
+            long now = mScheduler.nanoTime();
+            long serviceTime = now - operation.dispatchTime;
+            mCompletedCount++;
+            if (status != GattOperation.STATUS_SUCCESS) {
+                mFailedCount++;
+            }
+            mTotalWaitTime += operation.dispatchTime - operation.enqueueTime;
+            mTotalServiceTime += serviceTime;
+            mMaxServiceTime = Math.max(mMaxServiceTime, serviceTime);
+            mLastServiceTime = serviceTime;
+        }
+        notifyComplete(operation, status, value);
+        dispatchNext();
+    }
+
+    private void onTimeout() {
+        GattOperation operation;
+        synchronized (this) {
+            operation = mCurrent;
+            if (operation == null) {
+                return;
+            }
+            long elapsed = mScheduler.nanoTime() - operation.dispatchTime;
+            long remaining = operation.timeout * 1000000L - elapsed;
+            if (remaining > 0) {
+                // Fired before the deadline of the current operation: either a stale timeout of
+                // an operation which has already completed, or an early one, since Handler
+                // truncates its deadline to milliseconds.  Re-armed for the rest, rounded up.
+                mScheduler.removeCallbacks(mTimeoutRunnable);
+                mScheduler.postDelayed(mTimeoutRunnable, (remaining + 999999) / 1000000);
+                return;
+            }
+            mCurrent = null;
+            mTimeoutCount++;
+            mFailedCount++;
+        }
+        notifyComplete(operation, GattOperation.STATUS_TIMEOUT, null);
+        dispatchNext();
+    }
+
+    private void dispatchNext() {
+        while (true) {
+            GattOperation operation;
+            synchronized (this) {
+                if (mCurrent != null || mPending.isEmpty()) {
+                    return;
+                }
+                operation = mPending.poll();
+                operation.dispatchTime = mScheduler.nanoTime();
+                mCurrent = operation;
+                // Arms the timeout before dispatching since the target may complete synchronously.
+                mScheduler.postDelayed(mTimeoutRunnable, operation.timeout);
+            }
+            if (mTarget.dispatch(operation)) {
+                return;
+            }
+            synchronized (this) {
+                if (mCurrent != operation) {
+                    continue;
+                }
+                mCurrent = null;
+                mScheduler.removeCallbacks(mTimeoutRunnable);
+                mRejectedCount++;
+                mFailedCount++;
+            }
+            notifyComplete(operation, GattOperation.STATUS_REJECTED, null);
+        }
+    }
+
+    private void notifyComplete(GattOperation operation, int status, byte[] value) {
+        if (operation.callback != null) {
+            operation.callback.onComplete(operation, status, value);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GattOperationQueue{depth=" + getDepth()
+                + ", maxDepth=" + mMaxDepth
+                + ", completed=" + mCompletedCount
+                + ", failed=" + mFailedCount
+                + ", timeouts=" + mTimeoutCount
+                + ", rejected=" + mRejectedCount
+                + ", avgWaitUs=" + getAverageWaitTime() / 1000
+                + ", avgServiceUs=" + getAverageServiceTime() / 1000
+                + ", maxServiceUs=" + mMaxServiceTime / 1000
+                + "}";
+    }
+}
@@ -0,0 +1,792 @@
+// Generated by tools/generate_gatt_registry.py from tools/gatt_assigned_numbers.tsv.  Do not edit.
+package jp.android.bletest.service;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Names of the GATT services, declarations, descriptors and characteristics with a 16-bit UUID
+ * assigned by the Bluetooth SIG.
+ *
+ * <p>The UUIDs are kept as a sorted {@code char} table searched by bisection, with the names in
+ * a parallel array, so that lookups neither parse strings nor box.
+ */
+public class GattRegistry {
+    // Bluetooth Base UUID 00000000-0000-1000-8000-00805F9B34FB.
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private static final char[] UUIDS = {
+            0x1800, // Generic Access
+            0x1801, // Generic Attribute
+            0x1802, // Immediate Alert
+            0x1803, // Link Loss
+            0x1804, // Tx Power
+            0x1805, // Current Time
+            0x1806, // Reference Time Update
+            0x1807, // Next DST Change
+            0x1808, // Glucose
+            0x1809, // Health Thermometer
+            0x180A, // Device Information
+            0x180D, // Heart Rate
+            0x180E, // Phone Alert Status
+            0x180F, // Battery
+            0x1810, // Blood Pressure
+            0x1811, // Alert Notification
+            0x1812, // Human Interface Device
+            0x1813, // Scan Parameters
+            0x1814, // Running Speed and Cadence
+            0x1815, // Automation IO
+            0x1816, // Cycling Speed and Cadence
+            0x1818, // Cycling Power
+            0x1819, // Location and Navigation
+            0x181A, // Environmental Sensing
+            0x181B, // Body Composition
+            0x181C, // User Data
+            0x181D, // Weight Scale
+            0x181E, // Bond Management
+            0x181F, // Continuous Glucose Monitoring
+            0x1820, // Internet Protocol Support
+            0x1821, // Indoor Positioning
+            0x1822, // Pulse Oximeter
+            0x1823, // HTTP Proxy
+            0x1824, // Transport Discovery
+            0x1825, // Object Transfer
+            0x1826, // Fitness Machine
+            0x1827, // Mesh Provisioning
+            0x1828, // Mesh Proxy
+            0x1829, // Reconnection Configuration
+            0x183A, // Insulin Delivery
+            0x183B, // Binary Sensor
+            0x183C, // Emergency Configuration
+            0x183E, // Physical Activity Monitor
+            0x1843, // Audio Input Control
+            0x1844, // Volume Control
+            0x1845, // Volume Offset Control
+            0x1846, // Coordinated Set Identification
+            0x1847, // Device Time
+            0x1848, // Media Control
+            0x1849, // Generic Media Control
+            0x184A, // Constant Tone Extension
+            0x184B, // Telephone Bearer
+            0x184C, // Generic Telephone Bearer
+            0x184D, // Microphone Control
+            0x184E, // Audio Stream Control
+            0x184F, // Broadcast Audio Scan
+            0x1850, // Published Audio Capabilities
+            0x1851, // Basic Audio Announcement
+            0x1852, // Broadcast Audio Announcement
+            0x1853, // Common Audio
+            0x1854, // Hearing Access
+            0x1855, // Telephony and Media Audio
+            0x1856, // Public Broadcast Announcement
+            0x2800, // Primary Service
+            0x2801, // Secondary Service
+            0x2802, // Include
+            0x2803, // Characteristic
+            0x2900, // Characteristic Extended Properties
+            0x2901, // Characteristic User Description
+            0x2902, // Client Characteristic Configuration
+            0x2903, // Server Characteristic Configuration
+            0x2904, // Characteristic Presentation Format
+            0x2905, // Characteristic Aggregate Format
+            0x2906, // Valid Range
+            0x2907, // External Report Reference
+            0x2908, // Report Reference
+            0x2909, // Number of Digitals
+            0x290A, // Value Trigger Setting
+            0x290B, // Environmental Sensing Configuration
+            0x290C, // Environmental Sensing Measurement
+            0x290D, // Environmental Sensing Trigger Setting
+            0x290E, // Time Trigger Setting
+            0x290F, // Complete BR-EDR Transport Block Data
+            0x2910, // Observation Schedule
+            0x2911, // Valid Range and Accuracy
+            0x2A00, // Device Name
+            0x2A01, // Appearance
+            0x2A02, // Peripheral Privacy Flag
+            0x2A03, // Reconnection Address
+            0x2A04, // Peripheral Preferred Connection Parameters
+            0x2A05, // Service Changed
+            0x2A06, // Alert Level
+            0x2A07, // Tx Power Level
+            0x2A08, // Date Time
+            0x2A09, // Day of Week
+            0x2A0A, // Day Date Time
+            0x2A0C, // Exact Time 256
+            0x2A0D, // DST Offset
+            0x2A0E, // Time Zone
+            0x2A0F, // Local Time Information
+            0x2A11, // Time with DST
+            0x2A12, // Time Accuracy
+            0x2A13, // Time Source
+            0x2A14, // Reference Time Information
+            0x2A16, // Time Update Control Point
+            0x2A17, // Time Update State
+            0x2A18, // Glucose Measurement
+            0x2A19, // Battery Level
+            0x2A1C, // Temperature Measurement
+            0x2A1D, // Temperature Type
+            0x2A1E, // Intermediate Temperature
+            0x2A21, // Measurement Interval
+            0x2A22, // Boot Keyboard Input Report
+            0x2A23, // System ID
+            0x2A24, // Model Number String
+            0x2A25, // Serial Number String
+            0x2A26, // Firmware Revision String
+            0x2A27, // Hardware Revision String
+            0x2A28, // Software Revision String
+            0x2A29, // Manufacturer Name String
+            0x2A2A, // IEEE 11073-20601 Regulatory Certification Data List
+            0x2A2B, // Current Time
+            0x2A2C, // Magnetic Declination
+            0x2A31, // Scan Refresh
+            0x2A32, // Boot Keyboard Output Report
+            0x2A33, // Boot Mouse Input Report
+            0x2A34, // Glucose Measurement Context
+            0x2A35, // Blood Pressure Measurement
+            0x2A36, // Intermediate Cuff Pressure
+            0x2A37, // Heart Rate Measurement
+            0x2A38, // Body Sensor Location
+            0x2A39, // Heart Rate Control Point
+            0x2A3F, // Alert Status
+            0x2A40, // Ringer Control Point
+            0x2A41, // Ringer Setting
+            0x2A42, // Alert Category ID Bit Mask
+            0x2A43, // Alert Category ID
+            0x2A44, // Alert Notification Control Point
+            0x2A45, // Unread Alert Status
+            0x2A46, // New Alert
+            0x2A47, // Supported New Alert Category
+            0x2A48, // Supported Unread Alert Category
+            0x2A49, // Blood Pressure Feature
+            0x2A4A, // HID Information
+            0x2A4B, // Report Map
+            0x2A4C, // HID Control Point
+            0x2A4D, // Report
+            0x2A4E, // Protocol Mode
+            0x2A4F, // Scan Interval Window
+            0x2A50, // PnP ID
+            0x2A51, // Glucose Feature
+            0x2A52, // Record Access Control Point
+            0x2A53, // RSC Measurement
+            0x2A54, // RSC Feature
+            0x2A55, // SC Control Point
+            0x2A5A, // Aggregate
+            0x2A5B, // CSC Measurement
+            0x2A5C, // CSC Feature
+            0x2A5D, // Sensor Location
+            0x2A5E, // PLX Spot-Check Measurement
+            0x2A5F, // PLX Continuous Measurement
+            0x2A60, // PLX Features
+            0x2A63, // Cycling Power Measurement
+            0x2A64, // Cycling Power Vector
+            0x2A65, // Cycling Power Feature
+            0x2A66, // Cycling Power Control Point
+            0x2A67, // Location and Speed
+            0x2A68, // Navigation
+            0x2A69, // Position Quality
+            0x2A6A, // LN Feature
+            0x2A6B, // LN Control Point
+            0x2A6C, // Elevation
+            0x2A6D, // Pressure
+            0x2A6E, // Temperature
+            0x2A6F, // Humidity
+            0x2A70, // True Wind Speed
+            0x2A71, // True Wind Direction
+            0x2A72, // Apparent Wind Speed
+            0x2A73, // Apparent Wind Direction
+            0x2A74, // Gust Factor
+            0x2A75, // Pollen Concentration
+            0x2A76, // UV Index
+            0x2A77, // Irradiance
+            0x2A78, // Rainfall
+            0x2A79, // Wind Chill
+            0x2A7A, // Heat Index
+            0x2A7B, // Dew Point
+            0x2A7D, // Descriptor Value Changed
+            0x2A7E, // Aerobic Heart Rate Lower Limit
+            0x2A7F, // Aerobic Threshold
+            0x2A80, // Age
+            0x2A81, // Anaerobic Heart Rate Lower Limit
+            0x2A82, // Anaerobic Heart Rate Upper Limit
+            0x2A83, // Anaerobic Threshold
+            0x2A84, // Aerobic Heart Rate Upper Limit
+            0x2A85, // Date of Birth
+            0x2A86, // Date of Threshold Assessment
+            0x2A87, // Email Address
+            0x2A88, // Fat Burn Heart Rate Lower Limit
+            0x2A89, // Fat Burn Heart Rate Upper Limit
+            0x2A8A, // First Name
+            0x2A8B, // Five Zone Heart Rate Limits
+            0x2A8C, // Gender
+            0x2A8D, // Heart Rate Max
+            0x2A8E, // Height
+            0x2A8F, // Hip Circumference
+            0x2A90, // Last Name
+            0x2A91, // Maximum Recommended Heart Rate
+            0x2A92, // Resting Heart Rate
+            0x2A93, // Sport Type for Aerobic and Anaerobic Thresholds
+            0x2A94, // Three Zone Heart Rate Limits
+            0x2A95, // Two Zone Heart Rate Limits
+            0x2A96, // VO2 Max
+            0x2A97, // Waist Circumference
+            0x2A98, // Weight
+            0x2A99, // Database Change Increment
+            0x2A9A, // User Index
+            0x2A9B, // Body Composition Feature
+            0x2A9C, // Body Composition Measurement
+            0x2A9D, // Weight Measurement
+            0x2A9E, // Weight Scale Feature
+            0x2A9F, // User Control Point
+            0x2AA0, // Magnetic Flux Density - 2D
+            0x2AA1, // Magnetic Flux Density - 3D
+            0x2AA2, // Language
+            0x2AA3, // Barometric Pressure Trend
+            0x2AA4, // Bond Management Control Point
+            0x2AA5, // Bond Management Feature
+            0x2AA6, // Central Address Resolution
+            0x2AA7, // CGM Measurement
+            0x2AA8, // CGM Feature
+            0x2AA9, // CGM Status
+            0x2AAA, // CGM Session Start Time
+            0x2AAB, // CGM Session Run Time
+            0x2AAC, // CGM Specific Ops Control Point
+            0x2AAD, // Indoor Positioning Configuration
+            0x2AAE, // Latitude
+            0x2AAF, // Longitude
+            0x2AB0, // Local North Coordinate
+            0x2AB1, // Local East Coordinate
+            0x2AB2, // Floor Number
+            0x2AB3, // Altitude
+            0x2AB4, // Uncertainty
+            0x2AB5, // Location Name
+            0x2AB6, // URI
+            0x2AB7, // HTTP Headers
+            0x2AB8, // HTTP Status Code
+            0x2AB9, // HTTP Entity Body
+            0x2ABA, // HTTP Control Point
+            0x2ABB, // HTTPS Security
+            0x2ABC, // TDS Control Point
+            0x2ABD, // OTS Feature
+            0x2ABE, // Object Name
+            0x2ABF, // Object Type
+            0x2AC0, // Object Size
+            0x2AC1, // Object First-Created
+            0x2AC2, // Object Last-Modified
+            0x2AC3, // Object ID
+            0x2AC4, // Object Properties
+            0x2AC5, // Object Action Control Point
+            0x2AC6, // Object List Control Point
+            0x2AC7, // Object List Filter
+            0x2AC8, // Object Changed
+            0x2AC9, // Resolvable Private Address Only
+            0x2ACC, // Fitness Machine Feature
+            0x2ACD, // Treadmill Data
+            0x2ACE, // Cross Trainer Data
+            0x2ACF, // Step Climber Data
+            0x2AD0, // Stair Climber Data
+            0x2AD1, // Rower Data
+            0x2AD2, // Indoor Bike Data
+            0x2AD3, // Training Status
+            0x2AD4, // Supported Speed Range
+            0x2AD5, // Supported Inclination Range
+            0x2AD6, // Supported Resistance Level Range
+            0x2AD7, // Supported Heart Rate Range
+            0x2AD8, // Supported Power Range
+            0x2AD9, // Fitness Machine Control Point
+            0x2ADA, // Fitness Machine Status
+            0x2ADB, // Mesh Provisioning Data In
+            0x2ADC, // Mesh Provisioning Data Out
+            0x2ADD, // Mesh Proxy Data In
+            0x2ADE, // Mesh Proxy Data Out
+            0x2AE0, // Average Current
+            0x2AE1, // Average Voltage
+            0x2AE2, // Boolean
+            0x2AE3, // Chromatic Distance from Planckian
+            0x2AE4, // Chromaticity Coordinates
+            0x2AE5, // Chromaticity in CCT and Duv Values
+            0x2AE6, // Chromaticity Tolerance
+            0x2AE7, // CIE 13.3-1995 Color Rendering Index
+            0x2AE8, // Coefficient
+            0x2AE9, // Correlated Color Temperature
+            0x2AEA, // Count 16
+            0x2AEB, // Count 24
+            0x2AEC, // Country Code
+            0x2AED, // Date UTC
+            0x2AEE, // Electric Current
+            0x2AEF, // Electric Current Range
+            0x2AF0, // Electric Current Specification
+            0x2AF1, // Electric Current Statistics
+            0x2AF2, // Energy
+            0x2AF3, // Energy in a Period of Day
+            0x2AF4, // Event Statistics
+            0x2AF5, // Fixed String 16
+            0x2AF6, // Fixed String 24
+            0x2AF7, // Fixed String 36
+            0x2AF8, // Fixed String 8
+            0x2AF9, // Generic Level
+            0x2AFA, // Global Trade Item Number
+            0x2AFB, // Illuminance
+            0x2AFC, // Luminous Efficacy
+            0x2AFD, // Luminous Energy
+            0x2AFE, // Luminous Exposure
+            0x2AFF, // Luminous Flux
+            0x2B00, // Luminous Flux Range
+            0x2B01, // Luminous Intensity
+            0x2B02, // Mass Flow
+            0x2B03, // Perceived Lightness
+            0x2B04, // Percentage 8
+            0x2B05, // Power
+            0x2B06, // Power Specification
+            0x2B07, // Relative Runtime in a Current Range
+            0x2B08, // Relative Runtime in a Generic Level Range
+            0x2B09, // Relative Value in a Voltage Range
+            0x2B0A, // Relative Value in an Illuminance Range
+            0x2B0B, // Relative Value in a Period of Day
+            0x2B0C, // Relative Value in a Temperature Range
+            0x2B0D, // Temperature 8
+            0x2B0E, // Temperature 8 in a Period of Day
+            0x2B0F, // Temperature 8 Statistics
+            0x2B10, // Temperature Range
+            0x2B11, // Temperature Statistics
+            0x2B12, // Time Decihour 8
+            0x2B13, // Time Exponential 8
+            0x2B14, // Time Hour 24
+            0x2B15, // Time Millisecond 24
+            0x2B16, // Time Second 16
+            0x2B17, // Time Second 8
+            0x2B18, // Voltage
+            0x2B19, // Voltage Specification
+            0x2B1A, // Voltage Statistics
+            0x2B1B, // Volume Flow
+            0x2B1C, // Chromaticity Coordinate
+            0x2B1D, // RC Feature
+            0x2B1E, // RC Settings
+            0x2B1F, // Reconnection Configuration Control Point
+            0x2B20, // IDD Status Changed
+            0x2B21, // IDD Status
+            0x2B22, // IDD Annunciation Status
+            0x2B23, // IDD Features
+            0x2B24, // IDD Status Reader Control Point
+            0x2B25, // IDD Command Control Point
+            0x2B26, // IDD Command Data
+            0x2B27, // IDD Record Access Control Point
+            0x2B28, // IDD History Data
+            0x2B29, // Client Supported Features
+            0x2B2A, // Database Hash
+            0x2B2B, // BSS Control Point
+            0x2B2C, // BSS Response
+            0x2B2D, // Emergency ID
+            0x2B2E, // Emergency Text
+            0x2B3A, // Server Supported Features
+    };
+
+    private static final String[] NAMES = {
+            "Generic Access",
+            "Generic Attribute",
+            "Immediate Alert",
+            "Link Loss",
+            "Tx Power",
+            "Current Time",
+            "Reference Time Update",
+            "Next DST Change",
+            "Glucose",
+            "Health Thermometer",
+            "Device Information",
+            "Heart Rate",
+            "Phone Alert Status",
+            "Battery",
+            "Blood Pressure",
+            "Alert Notification",
+            "Human Interface Device",
+            "Scan Parameters",
+            "Running Speed and Cadence",
+            "Automation IO",
+            "Cycling Speed and Cadence",
+            "Cycling Power",
+            "Location and Navigation",
+            "Environmental Sensing",
+            "Body Composition",
+            "User Data",
+            "Weight Scale",
+            "Bond Management",
+            "Continuous Glucose Monitoring",
+            "Internet Protocol Support",
+            "Indoor Positioning",
+            "Pulse Oximeter",
+            "HTTP Proxy",
+            "Transport Discovery",
+            "Object Transfer",
+            "Fitness Machine",
+            "Mesh Provisioning",
+            "Mesh Proxy",
+            "Reconnection Configuration",
+            "Insulin Delivery",
+            "Binary Sensor",
+            "Emergency Configuration",
+            "Physical Activity Monitor",
+            "Audio Input Control",
+            "Volume Control",
+            "Volume Offset Control",
+            "Coordinated Set Identification",
+            "Device Time",
+            "Media Control",
+            "Generic Media Control",
+            "Constant Tone Extension",
+            "Telephone Bearer",
+            "Generic Telephone Bearer",
+            "Microphone Control",
+            "Audio Stream Control",
+            "Broadcast Audio Scan",
+            "Published Audio Capabilities",
+            "Basic Audio Announcement",
+            "Broadcast Audio Announcement",
+            "Common Audio",
+            "Hearing Access",
+            "Telephony and Media Audio",
+            "Public Broadcast Announcement",
+            "Primary Service",
+            "Secondary Service",
+            "Include",
+            "Characteristic",
+            "Characteristic Extended Properties",
+            "Characteristic User Description",
+            "Client Characteristic Configuration",
+            "Server Characteristic Configuration",
+            "Characteristic Presentation Format",
+            "Characteristic Aggregate Format",
+            "Valid Range",
+            "External Report Reference",
+            "Report Reference",
+            "Number of Digitals",
+            "Value Trigger Setting",
+            "Environmental Sensing Configuration",
+            "Environmental Sensing Measurement",
+            "Environmental Sensing Trigger Setting",
+            "Time Trigger Setting",
+            "Complete BR-EDR Transport Block Data",
+            "Observation Schedule",
+            "Valid Range and Accuracy",
+            "Device Name",
+            "Appearance",
+            "Peripheral Privacy Flag",
+            "Reconnection Address",
+            "Peripheral Preferred Connection Parameters",
+            "Service Changed",
+            "Alert Level",
+            "Tx Power Level",
+            "Date Time",
+            "Day of Week",
+            "Day Date Time",
+            "Exact Time 256",
+            "DST Offset",
+            "Time Zone",
+            "Local Time Information",
+            "Time with DST",
+            "Time Accuracy",
+            "Time Source",
+            "Reference Time Information",
+            "Time Update Control Point",
+            "Time Update State",
+            "Glucose Measurement",
+            "Battery Level",
+            "Temperature Measurement",
+            "Temperature Type",
+            "Intermediate Temperature",
+            "Measurement Interval",
+            "Boot Keyboard Input Report",
+            "System ID",
+            "Model Number String",
+            "Serial Number String",
+            "Firmware Revision String",
+            "Hardware Revision String",
+            "Software Revision String",
+            "Manufacturer Name String",
+            "IEEE 11073-20601 Regulatory Certification Data List",
+            "Current Time",
+            "Magnetic Declination",
+            "Scan Refresh",
+            "Boot Keyboard Output Report",
+            "Boot Mouse Input Report",
+            "Glucose Measurement Context",
+            "Blood Pressure Measurement",
+            "Intermediate Cuff Pressure",
+            "Heart Rate Measurement",
+            "Body Sensor Location",
+            "Heart Rate Control Point",
+            "Alert Status",
+            "Ringer Control Point",
+            "Ringer Setting",
+            "Alert Category ID Bit Mask",
+            "Alert Category ID",
+            "Alert Notification Control Point",
+            "Unread Alert Status",
+            "New Alert",
+            "Supported New Alert Category",
+            "Supported Unread Alert Category",
+            "Blood Pressure Feature",
+            "HID Information",
+            "Report Map",
+            "HID Control Point",
+            "Report",
+            "Protocol Mode",
+            "Scan Interval Window",
+            "PnP ID",
+            "Glucose Feature",
+            "Record Access Control Point",
+            "RSC Measurement",
+            "RSC Feature",
+            "SC Control Point",
+            "Aggregate",
+            "CSC Measurement",
+            "CSC Feature",
+            "Sensor Location",
+            "PLX Spot-Check Measurement",
+            "PLX Continuous Measurement",
+            "PLX Features",
+            "Cycling Power Measurement",
+            "Cycling Power Vector",
+            "Cycling Power Feature",
+            "Cycling Power Control Point",
+            "Location and Speed",
+            "Navigation",
+            "Position Quality",
+            "LN Feature",
+            "LN Control Point",
+            "Elevation",
+            "Pressure",
+            "Temperature",
+            "Humidity",
+            "True Wind Speed",
+            "True Wind Direction",
+            "Apparent Wind Speed",
+            "Apparent Wind Direction",
+            "Gust Factor",
+            "Pollen Concentration",
+            "UV Index",
+            "Irradiance",
+            "Rainfall",
+            "Wind Chill",
+            "Heat Index",
+            "Dew Point",
+            "Descriptor Value Changed",
+            "Aerobic Heart Rate Lower Limit",
+            "Aerobic Threshold",
+            "Age",
+            "Anaerobic Heart Rate Lower Limit",
+            "Anaerobic Heart Rate Upper Limit",
+            "Anaerobic Threshold",
+            "Aerobic Heart Rate Upper Limit",
+            "Date of Birth",
+            "Date of Threshold Assessment",
+            "Email Address",
+            "Fat Burn Heart Rate Lower Limit",
+            "Fat Burn Heart Rate Upper Limit",
+            "First Name",
+            "Five Zone Heart Rate Limits",
+            "Gender",
+            "Heart Rate Max",
+            "Height",
+            "Hip Circumference",
+            "Last Name",
+            "Maximum Recommended Heart Rate",
+            "Resting Heart Rate",
+            "Sport Type for Aerobic and Anaerobic Thresholds",
+            "Three Zone Heart Rate Limits",
+            "Two Zone Heart Rate Limits",
+            "VO2 Max",
+            "Waist Circumference",
+            "Weight",
+            "Database Change Increment",
+            "User Index",
+            "Body Composition Feature",
+            "Body Composition Measurement",
+            "Weight Measurement",
+            "Weight Scale Feature",
+            "User Control Point",
+            "Magnetic Flux Density - 2D",
+            "Magnetic Flux Density - 3D",
+            "Language",
+            "Barometric Pressure Trend",
+            "Bond Management Control Point",
+            "Bond Management Feature",
+            "Central Address Resolution",
+            "CGM Measurement",
+            "CGM Feature",
+            "CGM Status",
+            "CGM Session Start Time",
+            "CGM Session Run Time",
+            "CGM Specific Ops Control Point",
+            "Indoor Positioning Configuration",
+            "Latitude",
+            "Longitude",
+            "Local North Coordinate",
+            "Local East Coordinate",
+            "Floor Number",
+            "Altitude",
+            "Uncertainty",
+            "Location Name",
+            "URI",
+            "HTTP Headers",
+            "HTTP Status Code",
+            "HTTP Entity Body",
+            "HTTP Control Point",
+            "HTTPS Security",
+            "TDS Control Point",
+            "OTS Feature",
+            "Object Name",
+            "Object Type",
+            "Object Size",
+            "Object First-Created",
+            "Object Last-Modified",
+            "Object ID",
+            "Object Properties",
+            "Object Action Control Point",
+            "Object List Control Point",
+            "Object List Filter",
+            "Object Changed",
+            "Resolvable Private Address Only",
+            "Fitness Machine Feature",
+            "Treadmill Data",
+            "Cross Trainer Data",
+            "Step Climber Data",
+            "Stair Climber Data",
+            "Rower Data",
+            "Indoor Bike Data",
+            "Training Status",
+            "Supported Speed Range",
+            "Supported Inclination Range",
+            "Supported Resistance Level Range",
+            "Supported Heart Rate Range",
+            "Supported Power Range",
+            "Fitness Machine Control Point",
+            "Fitness Machine Status",
+            "Mesh Provisioning Data In",
+            "Mesh Provisioning Data Out",
+            "Mesh Proxy Data In",
+            "Mesh Proxy Data Out",
+            "Average Current",
+            "Average Voltage",
+            "Boolean",
+            "Chromatic Distance from Planckian",
+            "Chromaticity Coordinates",
+            "Chromaticity in CCT and Duv Values",
+            "Chromaticity Tolerance",
+            "CIE 13.3-1995 Color Rendering Index",
+            "Coefficient",
+            "Correlated Color Temperature",
+            "Count 16",
+            "Count 24",
+            "Country Code",
+            "Date UTC",
+            "Electric Current",
+            "Electric Current Range",
+            "Electric Current Specification",
+            "Electric Current Statistics",
+            "Energy",
+            "Energy in a Period of Day",
+            "Event Statistics",
+            "Fixed String 16",
+            "Fixed String 24",
+            "Fixed String 36",
+            "Fixed String 8",
+            "Generic Level",
+            "Global Trade Item Number",
+            "Illuminance",
+            "Luminous Efficacy",
+            "Luminous Energy",
+            "Luminous Exposure",
+            "Luminous Flux",
+            "Luminous Flux Range",
+            "Luminous Intensity",
+            "Mass Flow",
+            "Perceived Lightness",
+            "Percentage 8",
+            "Power",
+            "Power Specification",
+            "Relative Runtime in a Current Range",
+            "Relative Runtime in a Generic Level Range",
+            "Relative Value in a Voltage Range",
+            "Relative Value in an Illuminance Range",
+            "Relative Value in a Period of Day",
+            "Relative Value in a Temperature Range",
+            "Temperature 8",
+            "Temperature 8 in a Period of Day",
+            "Temperature 8 Statistics",
+            "Temperature Range",
+            "Temperature Statistics",
+            "Time Decihour 8",
+            "Time Exponential 8",
+            "Time Hour 24",
+            "Time Millisecond 24",
+            "Time Second 16",
+            "Time Second 8",
+            "Voltage",
+            "Voltage Specification",
+            "Voltage Statistics",
+            "Volume Flow",
+            "Chromaticity Coordinate",
+            "RC Feature",
+            "RC Settings",
+            "Reconnection Configuration Control Point",
+            "IDD Status Changed",
+            "IDD Status",
+            "IDD Annunciation Status",
+            "IDD Features",
+            "IDD Status Reader Control Point",
+            "IDD Command Control Point",
+            "IDD Command Data",
+            "IDD Record Access Control Point",
+            "IDD History Data",
+            "Client Supported Features",
+            "Database Hash",
+            "BSS Control Point",
+            "BSS Response",
+            "Emergency ID",
+            "Emergency Text",
+            "Server Supported Features",
+    };
+
+    private GattRegistry() {
+    }
+
+    /**
+     * @return The 16-bit UUID, or -1 if the UUID is not derived from the Bluetooth Base UUID or
+     *         does not fit in 16 bits.
+     */
+    public static int toUuid16(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() != BASE_UUID_LSB
+                || (msb & 0xFFFF0000FFFFFFFFL) != BASE_UUID_MSB) {
+            return -1;
+        }
+        return (int) (msb >>> 32);
+    }
+
+    /**
+     * @return The name, or null if the UUID is not assigned.
+     */
+    public static String lookup(UUID uuid) {
+        int uuid16 = toUuid16(uuid);
+        return uuid16 < 0 ? null : lookup(uuid16);
+    }
+
+    /**
+     * @return The name, or null if the UUID is not assigned.
+     */
+    public static String lookup(int uuid16) {
+        if (uuid16 < 0 || uuid16 > 0xFFFF) {
+            return null;
+        }
+        int index = Arrays.binarySearch(UUIDS, (char) uuid16);
+        return index < 0 ? null : NAMES[index];
+    }
+
+    /**
+     * @return The number of assigned UUIDs in the registry.
+     */
+    public static int size() {
+        return UUIDS.length;
+    }
+}
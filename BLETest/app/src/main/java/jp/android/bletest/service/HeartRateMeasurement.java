@@ -0,0 +1,47 @@
+package jp.android.bletest.service;
+
+/**
+ * Mutable Heart Rate Measurement record, filled by {@link HeartRateMeasurementDecoder}.  The
+ * RR-interval buffer is allocated once by the owner so that decoding never allocates.
+ */
+public class HeartRateMeasurement {
+    public static final int ENERGY_EXPENDED_NOT_PRESENT = -1;
+
+    /** Heart rate in beats per minute. */
+    public int heartRate;
+    /** True if the sensor reports the skin contact status at all. */
+    public boolean contactSupported;
+    /** True if skin contact is detected.  Only meaningful if {@link #contactSupported}. */
+    public boolean contactDetected;
+    /** Accumulated energy in kilojoules, or {@link #ENERGY_EXPENDED_NOT_PRESENT}. */
+    public int energyExpended = ENERGY_EXPENDED_NOT_PRESENT;
+    /** RR intervals in units of 1/1024 second.  Only the first {@link #rrCount} are valid. */
+    public final int[] rrIntervals;
+    public int rrCount;
+    /** True if the value carried more RR intervals than {@link #rrIntervals} can hold. */
+    public boolean rrTruncated;
+
+    /**
+     * @param maxRrIntervals The capacity of the RR-interval buffer.  A notification holds at
+     *                       most (MTU - 3 - 2) / 2 intervals.
+     */
+    public HeartRateMeasurement(int maxRrIntervals) {
+        if (maxRrIntervals < 0) {
+            throw new IllegalArgumentException("maxRrIntervals must not be negative: " + maxRrIntervals);
+        }
+        rrIntervals = new int[maxRrIntervals];
+    }
+
+    public void clear() {
+        heartRate = 0;
+        contactSupported = false;
+        contactDetected = false;
+        energyExpended = ENERGY_EXPENDED_NOT_PRESENT;
+        rrCount = 0;
+        rrTruncated = false;
+    }
+
+    public boolean hasEnergyExpended() {
+        return energyExpended != ENERGY_EXPENDED_NOT_PRESENT;
+    }
+}
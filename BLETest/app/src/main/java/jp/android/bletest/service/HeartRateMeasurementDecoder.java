@@ -0,0 +1,96 @@
+package jp.android.bletest.service;
+
+/**
+ * Decodes the Heart Rate Measurement characteristic (0x2A37) as per profile specifications:
+ * http://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.heart_rate_measurement.xml
+ *
+ * <pre>
+ * Flags (uint8) | Heart Rate (uint8 or uint16) | Energy Expended (uint16, optional) | RR-Interval (uint16, 0..n)
+ * </pre>
+ */
+public class HeartRateMeasurementDecoder {
+    private static final int FLAG_HEART_RATE_UINT16 = 0x01;
+    private static final int FLAG_CONTACT_DETECTED = 0x02;
+    private static final int FLAG_CONTACT_SUPPORTED = 0x04;
+    private static final int FLAG_ENERGY_EXPENDED = 0x08;
+    private static final int FLAG_RR_INTERVAL = 0x10;
+
+    private HeartRateMeasurementDecoder() {
+    }
+
+    /**
+     * Decodes a measurement into {@code out} without allocating.
+     *
+     * @param data   The characteristic value.
+     * @param offset The offset of the flags field in {@code data}.
+     * @param length The number of valid bytes from {@code offset}.
+     * @param out    Receives the decoded fields.  It is cleared if decoding fails.
+     *
+     * @return false if the value is too short for the fields announced by its flags.
+     */
+    public static boolean decode(byte[] data, int offset, int length, HeartRateMeasurement out) {
+        if (data == null) {
+            throw new NullPointerException("data must not be null");
+        }
+        if (out == null) {
+            throw new NullPointerException("out must not be null");
+        }
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length
+                    + ", data.length=" + data.length);
+        }
+        out.clear();
+        if (length < 1) {
+            return false;
+        }
+
+        final int end = offset + length;
+        final int flags = data[offset] & 0xFF;
+        int position = offset + 1;
+
+        if ((flags & FLAG_HEART_RATE_UINT16) != 0) {
+            if (position + 2 > end) {
+                return false;
+            }
+            out.heartRate = readUint16(data, position);
+            position += 2;
+        } else {
+            if (position + 1 > end) {
+                return false;
+            }
+            out.heartRate = data[position] & 0xFF;
+            position += 1;
+        }
+
+        out.contactSupported = (flags & FLAG_CONTACT_SUPPORTED) != 0;
+        out.contactDetected = out.contactSupported && (flags & FLAG_CONTACT_DETECTED) != 0;
+
+        if ((flags & FLAG_ENERGY_EXPENDED) != 0) {
+            if (position + 2 > end) {
+                out.clear();
+                return false;
+            }
+            out.energyExpended = readUint16(data, position);
+            position += 2;
+        }
+
+        if ((flags & FLAG_RR_INTERVAL) != 0) {
+            final int[] rrIntervals = out.rrIntervals;
+            int count = 0;
+            while (position + 2 <= end) {
+                if (count == rrIntervals.length) {
+                    out.rrTruncated = true;
+                    break;
+                }
+                rrIntervals[count++] = readUint16(data, position);
+                position += 2;
+            }
+            out.rrCount = count;
+        }
+        return true;
+    }
+
+    private static int readUint16(byte[] data, int position) {
+        return (data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,253 @@
+package jp.android.bletest.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer single-consumer ring of byte values, copied into preallocated slots.
+ *
+ * <p>The producer, a GATT callback, only copies the bytes into the next free slot and publishes
+ * it; the consumer, a {@link DecodeWorker}, reads the values in place and releases their slots.
+ * Neither side locks or allocates.  Each value carries a tag, e.g. its characteristic UUID, which
+ * is stored by reference.
+ *
+ * <p>What happens to values arriving faster than the consumer takes them is set by a
+ * {@link BackpressurePolicy}, dropping the newest values by default.  Values longer than a slot
+ * are always dropped.  Every dropped value is counted.  The oldest values are dropped by the
+ * consumer, which skips them, so that only the consumer ever moves the head.  Callbacks of one
+ * GATT client are serialized, so the producer side holds as long as a ring is fed by one client
+ * only.
+ */
+public class SpscByteRing {
+    // How long a blocked producer parks between looks at the head.
+    private static final long BLOCK_PARK_NANOS = 50000;
+
+    public interface Consumer {
+        /**
+         * @param value Slot holding the value, valid until the method returns.
+         */
+        void onValue(Object tag, byte[] value, int offset, int length);
+    }
+
+    private final int mMask;
+    private final byte[][] mSlots;
+    private final int[] mLengths;
+    private final Object[] mTags;
+
+    // Index of the next slot to read, written by the consumer.
+    private final AtomicLong mHead = new AtomicLong();
+    // Index of the next slot to write, written by the producer.
+    private final AtomicLong mTail = new AtomicLong();
+    // Last head seen by the producer, so that it only reads mHead when the ring looks full.
+    private long mCachedHead;
+    // Values seen by the producer under a SAMPLE policy.
+    private long mSampleCount;
+
+    private volatile BackpressurePolicy mPolicy = BackpressurePolicy.dropNewest();
+
+    private final AtomicLong mFullCount = new AtomicLong();
+    private final AtomicLong mOversizeCount = new AtomicLong();
+    private final AtomicLong mDroppedOldestCount = new AtomicLong();
+    private final AtomicLong mSampledOutCount = new AtomicLong();
+    private final AtomicLong mBlockedCount = new AtomicLong();
+    private volatile int mHighWaterMark;
+
+    /**
+     * @param capacity Number of slots, a power of two.
+     * @param slotSize The longest value, in bytes.
+     */
+    public SpscByteRing(int capacity, int slotSize) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        if (slotSize <= 0) {
+            throw new IllegalArgumentException("slotSize must be positive: " + slotSize);
+        }
+        mMask = capacity - 1;
+        mSlots = new byte[capacity][slotSize];
+        mLengths = new int[capacity];
+        mTags = new Object[capacity];
+    }
+
+    /**
+     * Can be changed at any time; values already in the ring are kept.
+     */
+    public void setPolicy(BackpressurePolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy must not be null");
+        }
+        if (policy.getKind() == BackpressurePolicy.Kind.DROP_OLDEST
+                && policy.getParameter() >= getCapacity()) {
+            throw new IllegalArgumentException(
+                    "limit must be below the capacity " + getCapacity() + ": " + policy);
+        }
+        mPolicy = policy;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Copies a value into the ring.  Producer side.
+     *
+     * @return false if the value was dropped, by the policy or since it is too long.
+     */
+    public boolean offer(Object tag, byte[] value, int offset, int length) {
+        if (length > mSlots[0].length) {
+            mOversizeCount.incrementAndGet();
+            return false;
+        }
+        BackpressurePolicy policy = mPolicy;
+        if (policy.getKind() == BackpressurePolicy.Kind.SAMPLE
+                && mSampleCount++ % policy.getParameter() != 0) {
+            mSampledOutCount.incrementAndGet();
+            return false;
+        }
+        long tail = mTail.get();
+        if (tail - mCachedHead > mMask) {
+            mCachedHead = mHead.get();
+            if (tail - mCachedHead > mMask && !(policy.getKind() == BackpressurePolicy.Kind.BLOCK
+                    && awaitSlot(tail, policy.getParameter()))) {
+                mFullCount.incrementAndGet();
+                return false;
+            }
+        }
+        int index = (int) tail & mMask;
+        System.arraycopy(value, offset, mSlots[index], 0, length);
+        mLengths[index] = length;
+        mTags[index] = tag;
+        // A volatile write rather than a lazy one, so that a consumer about to wait sees it.
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    // Waits for the consumer to release a slot.  Parks in short steps instead of being signalled,
+    // which keeps the consumer side free of any producer bookkeeping.
+    private boolean awaitSlot(long tail, long timeoutMs) {
+        mBlockedCount.incrementAndGet();
+        long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        do {
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            mCachedHead = mHead.get();
+            if (tail - mCachedHead <= mMask) {
+                return true;
+            }
+        } while (System.nanoTime() - deadline < 0);
+        return false;
+    }
+
+    /**
+     * Passes the oldest value to the consumer and releases its slot.  Consumer side.
+     *
+     * @return false if the ring is empty.
+     */
+    public boolean poll(Consumer consumer) {
+        long head = mHead.get();
+        int size = (int) (mTail.get() - head);
+        if (size == 0) {
+            return false;
+        }
+        // Measured by the consumer, which reads both indices anyway.
+        if (size > mHighWaterMark) {
+            mHighWaterMark = size;
+        }
+        BackpressurePolicy policy = mPolicy;
+        if (policy.getKind() == BackpressurePolicy.Kind.DROP_OLDEST
+                && size > policy.getParameter()) {
+            int dropped = size - (int) policy.getParameter();
+            for (int i = 0; i < dropped; i++) {
+                mTags[(int) (head + i) & mMask] = null;
+            }
+            head += dropped;
+            mDroppedOldestCount.addAndGet(dropped);
+        }
+        int index = (int) head & mMask;
+        try {
+            consumer.onValue(mTags[index], mSlots[index], 0, mLengths[index]);
+        } finally {
+            mTags[index] = null;
+            mHead.lazySet(head + 1);
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return The number of values waiting for the consumer.
+     */
+    public int getSize() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * @return The most values seen waiting at once by the consumer.
+     */
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /**
+     * @return The number of values accepted.
+     */
+    public long getOfferedCount() {
+        return mTail.get();
+    }
+
+    /**
+     * @return The number of values dropped since the ring was full, i.e. the producer was ahead of
+     *         the consumer by the whole capacity, including those that timed out blocking.
+     */
+    public long getFullCount() {
+        return mFullCount.get();
+    }
+
+    public long getOversizeCount() {
+        return mOversizeCount.get();
+    }
+
+    /**
+     * @return The number of values skipped by the consumer under a DROP_OLDEST policy.
+     */
+    public long getDroppedOldestCount() {
+        return mDroppedOldestCount.get();
+    }
+
+    /**
+     * @return The number of values not taken under a SAMPLE policy.
+     */
+    public long getSampledOutCount() {
+        return mSampledOutCount.get();
+    }
+
+    /**
+     * @return The number of times the producer waited for a free slot under a BLOCK policy.
+     */
+    public long getBlockedCount() {
+        return mBlockedCount.get();
+    }
+
+    /**
+     * @return The number of values never delivered, for whatever reason.
+     */
+    public long getDroppedCount() {
+        return getFullCount() + getOversizeCount() + getDroppedOldestCount()
+                + getSampledOutCount();
+    }
+
+    @Override
+    public String toString() {
+        return "SpscByteRing{policy=" + getPolicy() + ", size=" + getSize() + "/" + getCapacity()
+                + ", highWaterMark=" + getHighWaterMark() + ", offered=" + getOfferedCount()
+                + ", full=" + getFullCount() + ", oversize=" + getOversizeCount()
+                + ", droppedOldest=" + getDroppedOldestCount()
+                + ", sampledOut=" + getSampledOutCount() + ", blocked=" + getBlockedCount() + "}";
+    }
+}
@@ -0,0 +1,86 @@
+package jp.android.bletest.ui;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest-value-wins channel from the threads producing values to the display.
+ *
+ * <p>Producers store the latest values where the target reads them and call
+ * {@link #requestUpdate}.  The first request after a frame schedules one frame callback; the
+ * requests until that frame are coalesced into it, so that the target runs at most once per frame
+ * and intermediate values are dropped.  The same callback is reused for every frame, so requesting
+ * an update does not allocate.  Requests may come from any thread.
+ */
+public class CoalescingUpdater {
+    public interface FrameScheduler {
+        /**
+         * Runs the callback on the UI thread at the next frame.  At most one callback is pending
+         * at a time.
+         */
+        void postFrameCallback(Runnable callback);
+    }
+
+    public interface Target {
+        /**
+         * Called on the UI thread to display the latest values.
+         */
+        void onFrame();
+    }
+
+    private final FrameScheduler mFrameScheduler;
+    private final Target mTarget;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mFrameCount = new AtomicLong();
+
+    private final Runnable mFrameCallback = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared first, so that values stored while the target runs get another frame.
+            mScheduled.set(false);
+            mFrameCount.incrementAndGet();
+            mTarget.onFrame();
+        }
+    };
+
+    public CoalescingUpdater(FrameScheduler frameScheduler, Target target) {
+        if (frameScheduler == null) {
+            throw new NullPointerException("frameScheduler must not be null");
+        }
+        if (target == null) {
+            throw new NullPointerException("target must not be null");
+        }
+        mFrameScheduler = frameScheduler;
+        mTarget = target;
+    }
+
+    public void requestUpdate() {
+        mRequestCount.incrementAndGet();
+        if (mScheduled.compareAndSet(false, true)) {
+            mFrameScheduler.postFrameCallback(mFrameCallback);
+        }
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getFrameCount() {
+        return mFrameCount.get();
+    }
+
+    /**
+     * @return The number of requests which did not get a frame of their own, including the
+     *         pending one.
+     */
+    public long getCoalescedCount() {
+        return Math.max(0, getRequestCount() - getFrameCount());
+    }
+
+    @Override
+    public String toString() {
+        return "CoalescingUpdater{requests=" + getRequestCount() + ", frames=" + getFrameCount()
+                + ", coalesced=" + getCoalescedCount() + "}";
+    }
+}
@@ -12,20 +12,25 @@ import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseExpandableListAdapter;
 import android.widget.ExpandableListView;
-import android.widget.SimpleExpandableListAdapter;
 import android.widget.TextView;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
+import java.util.UUID;
 
 import jp.android.bletest.R;
+import jp.android.bletest.service.BackpressurePolicy;
 import jp.android.bletest.service.BluetoothLeService;
-import jp.android.bletest.service.SampleGattAttributes;
+import jp.android.bletest.service.GattEventBus;
+import jp.android.bletest.service.HeartRateMeasurement;
 
 /**
  * For a given BLE device, this Activity provides the user interface to connect, display data,
@@ -45,13 +50,22 @@ public class DeviceControlActivity extends Activity {
     private String mDeviceAddress;
     private ExpandableListView mGattServicesList;
     private BluetoothLeService mBluetoothLeService;
-    private ArrayList<ArrayList<BluetoothGattCharacteristic>> mGattCharacteristics =
-            new ArrayList<ArrayList<BluetoothGattCharacteristic>>();
+    private final GattServiceTable<BluetoothGattCharacteristic> mGattServiceTable =
+            new GattServiceTable<BluetoothGattCharacteristic>();
+    private GattServicesAdapter mGattServicesAdapter;
     private boolean mConnected = false;
     private BluetoothGattCharacteristic mNotifyCharacteristic;
+    private CoalescingUpdater mUpdater;
+    // Used on the UI thread only.
+    private final ValueFormatter mFormatter = new ValueFormatter();
 
-    private final String LIST_NAME = "NAME";
-    private final String LIST_UUID = "UUID";
+    // Latest value to display, written on the decode worker thread and formatted on the next
+    // frame.  Either a heart rate or raw bytes.
+    private final Object mDataLock = new Object();
+    private boolean mDataChanged;
+    private int mHeartRate = -1;
+    private byte[] mValue = new byte[20];
+    private int mValueLength;
 
     // Code to manage Service lifecycle.
     private final ServiceConnection mServiceConnection = new ServiceConnection() {
@@ -63,6 +77,9 @@ public class DeviceControlActivity extends Activity {
                 Log.e(TAG, "Unable to initialize Bluetooth");
                 finish();
             }
+            // Only the latest value is displayed, so older ones waiting are not worth decoding.
+            mBluetoothLeService.setBackpressurePolicy(BackpressurePolicy.keepLatest());
+            mBluetoothLeService.getEventBus().subscribe(mGattDataSubscriber);
             // Automatically connects to the device upon successful start-up initialization.
             mBluetoothLeService.connect(mDeviceAddress);
         }
@@ -77,8 +94,6 @@ public class DeviceControlActivity extends Activity {
     // ACTION_GATT_CONNECTED: connected to a GATT server.
     // ACTION_GATT_DISCONNECTED: disconnected from a GATT server.
     // ACTION_GATT_SERVICES_DISCOVERED: discovered GATT services.
-    // ACTION_DATA_AVAILABLE: received data from the device.  This can be a result of read
-    //                        or notification operations.
     private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -95,12 +110,28 @@ public class DeviceControlActivity extends Activity {
             } else if (BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
                 // Show all the supported services and characteristics on the user interface.
                 displayGattServices(mBluetoothLeService.getSupportedGattServices());
-            } else if (BluetoothLeService.ACTION_DATA_AVAILABLE.equals(action)) {
-                displayData(intent.getStringExtra(BluetoothLeService.EXTRA_DATA));
             }
         }
     };
 
+    // Receives data from the device on the decode worker thread.  This can be a result of read
+    // or notification operations.
+    private final GattEventBus.Subscriber mGattDataSubscriber = new GattEventBus.Subscriber() {
+        @Override
+        public void onCharacteristicValue(UUID characteristicUuid, byte[] value, int offset,
+                                          int length) {
+            // For all other profiles, writes the data formatted in HEX.
+            if (length > 0) {
+                setValue(value, offset, length);
+            }
+        }
+
+        @Override
+        public void onHeartRateMeasurement(HeartRateMeasurement measurement) {
+            setHeartRate(measurement.heartRate);
+        }
+    };
+
     // If a given GATT characteristic is selected, check for supported features.  This sample
     // demonstrates 'Read' and 'Notify' features.  See
     // http://d.android.com/reference/android/bluetooth/BluetoothGatt.html for the complete
@@ -110,9 +141,9 @@ public class DeviceControlActivity extends Activity {
                 @Override
                 public boolean onChildClick(ExpandableListView parent, View v, int groupPosition,
                                             int childPosition, long id) {
-                    if (mGattCharacteristics != null) {
-                        final BluetoothGattCharacteristic characteristic =
-                                mGattCharacteristics.get(groupPosition).get(childPosition);
+                    final BluetoothGattCharacteristic characteristic =
+                            mGattServiceTable.getCharacteristicTag(groupPosition, childPosition);
+                    if (characteristic != null) {
                         final int charaProp = characteristic.getProperties();
                         if ((charaProp | BluetoothGattCharacteristic.PROPERTY_READ) > 0) {
                             // If there is an active notification on a characteristic, clear
@@ -135,8 +166,15 @@ public class DeviceControlActivity extends Activity {
                 }
     };
 
+    // Keeps the services of the disconnected device on screen, disabled, so that the next
+    // discovery only has to apply its differences.
     private void clearUI() {
-        mGattServicesList.setAdapter((SimpleExpandableListAdapter) null);
+        mNotifyCharacteristic = null;
+        mGattServiceTable.clearTags();
+        mGattServicesAdapter.notifyDataSetChanged();
+        synchronized (mDataLock) {
+            mDataChanged = false;
+        }
         mDataField.setText(R.string.no_data);
     }
 
@@ -144,6 +182,7 @@ public class DeviceControlActivity extends Activity {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.gatt_services_characteristics);
+        mUpdater = new CoalescingUpdater(new ChoreographerFrameScheduler(), mDataTarget);
 
         final Intent intent = getIntent();
         mDeviceName = intent.getStringExtra(EXTRAS_DEVICE_NAME);
@@ -152,6 +191,8 @@ public class DeviceControlActivity extends Activity {
         // Sets up UI references.
         ((TextView) findViewById(R.id.device_address)).setText(mDeviceAddress);
         mGattServicesList = (ExpandableListView) findViewById(R.id.gatt_services_list);
+        mGattServicesAdapter = new GattServicesAdapter();
+        mGattServicesList.setAdapter(mGattServicesAdapter);
         mGattServicesList.setOnChildClickListener(servicesListClickListner);
         mConnectionState = (TextView) findViewById(R.id.connection_state);
         mDataField = (TextView) findViewById(R.id.data_value);
@@ -167,6 +208,7 @@ public class DeviceControlActivity extends Activity {
         super.onResume();
         registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
         if (mBluetoothLeService != null) {
+            mBluetoothLeService.getEventBus().subscribe(mGattDataSubscriber);
             final boolean result = mBluetoothLeService.connect(mDeviceAddress);
             Log.d(TAG, "Connect request result=" + result);
         }
@@ -176,6 +218,9 @@ public class DeviceControlActivity extends Activity {
     protected void onPause() {
         super.onPause();
         unregisterReceiver(mGattUpdateReceiver);
+        if (mBluetoothLeService != null) {
+            mBluetoothLeService.getEventBus().unsubscribe(mGattDataSubscriber);
+        }
     }
 
     @Override
@@ -223,67 +268,176 @@ public class DeviceControlActivity extends Activity {
         });
     }
 
-    private void displayData(String data) {
-        if (data != null) {
-            mDataField.setText(data);
+    // Copies the value since the buffer of the event bus is reused.
+    private void setValue(byte[] value, int offset, int length) {
+        synchronized (mDataLock) {
+            if (mValue.length < length) {
+                mValue = new byte[length];
+            }
+            System.arraycopy(value, offset, mValue, 0, length);
+            mValueLength = length;
+            mHeartRate = -1;
+            mDataChanged = true;
+        }
+        mUpdater.requestUpdate();
+    }
+
+    private void setHeartRate(int heartRate) {
+        synchronized (mDataLock) {
+            mHeartRate = heartRate;
+            mDataChanged = true;
         }
+        mUpdater.requestUpdate();
+    }
+
+    // Displays the latest value on the next frame.  The values received in between are dropped.
+    private final CoalescingUpdater.Target mDataTarget = new CoalescingUpdater.Target() {
+        @Override
+        public void onFrame() {
+            synchronized (mDataLock) {
+                if (!mDataChanged) {
+                    return;
+                }
+                mDataChanged = false;
+                if (mHeartRate >= 0) {
+                    mFormatter.format(mHeartRate);
+                } else {
+                    mFormatter.format(mValue, 0, mValueLength);
+                }
+            }
+            mDataField.setText(mFormatter.getChars(), 0, mFormatter.getLength());
+        }
+    };
+
+    /**
+     * Prints how many display updates were coalesced:
+     * {@code adb shell dumpsys activity jp.android.bletest/.ui.DeviceControlActivity}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + mUpdater);
     }
 
     // Demonstrates how to iterate through the supported GATT Services/Characteristics.
-    // In this sample, we populate the data structure that is bound to the ExpandableListView
-    // on the UI.
+    // In this sample, we populate the table that is bound to the ExpandableListView on the UI.
+    // The list is only invalidated when the layout differs from the one on screen.
     private void displayGattServices(List<BluetoothGattService> gattServices) {
         if (gattServices == null) return;
-        String uuid = null;
-        String unknownServiceString = getResources().getString(R.string.unknown_service);
-        String unknownCharaString = getResources().getString(R.string.unknown_characteristic);
-        ArrayList<HashMap<String, String>> gattServiceData = new ArrayList<HashMap<String, String>>();
-        ArrayList<ArrayList<HashMap<String, String>>> gattCharacteristicData
-                = new ArrayList<ArrayList<HashMap<String, String>>>();
-        mGattCharacteristics = new ArrayList<ArrayList<BluetoothGattCharacteristic>>();
+        mGattServiceTable.beginUpdate();
 
         // Loops through available GATT Services.
         for (BluetoothGattService gattService : gattServices) {
-            HashMap<String, String> currentServiceData = new HashMap<String, String>();
-            uuid = gattService.getUuid().toString();
-            currentServiceData.put(
-                    LIST_NAME, SampleGattAttributes.lookup(uuid, unknownServiceString));
-            currentServiceData.put(LIST_UUID, uuid);
-            gattServiceData.add(currentServiceData);
-
-            ArrayList<HashMap<String, String>> gattCharacteristicGroupData =
-                    new ArrayList<HashMap<String, String>>();
-            List<BluetoothGattCharacteristic> gattCharacteristics =
-                    gattService.getCharacteristics();
-            ArrayList<BluetoothGattCharacteristic> charas =
-                    new ArrayList<BluetoothGattCharacteristic>();
+            mGattServiceTable.addService(gattService.getUuid(), gattService.getInstanceId());
 
             // Loops through available Characteristics.
-            for (BluetoothGattCharacteristic gattCharacteristic : gattCharacteristics) {
-                charas.add(gattCharacteristic);
-                HashMap<String, String> currentCharaData = new HashMap<String, String>();
-                uuid = gattCharacteristic.getUuid().toString();
-                currentCharaData.put(
-                        LIST_NAME, SampleGattAttributes.lookup(uuid, unknownCharaString));
-                currentCharaData.put(LIST_UUID, uuid);
-                gattCharacteristicGroupData.add(currentCharaData);
+            for (BluetoothGattCharacteristic gattCharacteristic :
+                    gattService.getCharacteristics()) {
+                mGattServiceTable.addCharacteristic(gattCharacteristic.getUuid(),
+                        gattCharacteristic.getInstanceId(), gattCharacteristic.getProperties(),
+                        gattCharacteristic);
             }
-            mGattCharacteristics.add(charas);
-            gattCharacteristicData.add(gattCharacteristicGroupData);
         }
 
-        SimpleExpandableListAdapter gattServiceAdapter = new SimpleExpandableListAdapter(
-                this,
-                gattServiceData,
-                android.R.layout.simple_expandable_list_item_2,
-                new String[] {LIST_NAME, LIST_UUID},
-                new int[] { android.R.id.text1, android.R.id.text2 },
-                gattCharacteristicData,
-                android.R.layout.simple_expandable_list_item_2,
-                new String[] {LIST_NAME, LIST_UUID},
-                new int[] { android.R.id.text1, android.R.id.text2 }
-        );
-        mGattServicesList.setAdapter(gattServiceAdapter);
+        // A detached table is shown disabled and has to be rebound even without changes.
+        boolean detached = mGattServiceTable.isDetached();
+        if (mGattServiceTable.endUpdate() || detached) {
+            mGattServicesAdapter.notifyDataSetChanged();
+        }
+    }
+
+    // Adapter over mGattServiceTable.  Groups are services and children their characteristics,
+    // both shown with their name and UUID.  Ids are derived from the UUIDs and the instance IDs,
+    // so that the list keeps its expanded groups across updates.
+    private class GattServicesAdapter extends BaseExpandableListAdapter {
+        private final LayoutInflater mInflator = getLayoutInflater();
+        private final String mUnknownService = getString(R.string.unknown_service);
+        private final String mUnknownCharacteristic = getString(R.string.unknown_characteristic);
+
+        @Override
+        public int getGroupCount() {
+            return mGattServiceTable.getServiceCount();
+        }
+
+        @Override
+        public int getChildrenCount(int groupPosition) {
+            return mGattServiceTable.getCharacteristicCount(groupPosition);
+        }
+
+        @Override
+        public Object getGroup(int groupPosition) {
+            return mGattServiceTable.getServiceUuid(groupPosition);
+        }
+
+        @Override
+        public Object getChild(int groupPosition, int childPosition) {
+            return mGattServiceTable.getCharacteristicTag(groupPosition, childPosition);
+        }
+
+        @Override
+        public long getGroupId(int groupPosition) {
+            return id(mGattServiceTable.getServiceUuid(groupPosition),
+                    mGattServiceTable.getServiceInstanceId(groupPosition));
+        }
+
+        @Override
+        public long getChildId(int groupPosition, int childPosition) {
+            return id(mGattServiceTable.getCharacteristicUuid(groupPosition, childPosition),
+                    mGattServiceTable.getCharacteristicInstanceId(groupPosition, childPosition));
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getGroupView(int groupPosition, boolean isExpanded, View convertView,
+                                 ViewGroup parent) {
+            String name = mGattServiceTable.getServiceName(groupPosition);
+            return bindView(convertView, parent, name != null ? name : mUnknownService,
+                    mGattServiceTable.getServiceUuidString(groupPosition));
+        }
+
+        @Override
+        public View getChildView(int groupPosition, int childPosition, boolean isLastChild,
+                                 View convertView, ViewGroup parent) {
+            String name = mGattServiceTable.getCharacteristicName(groupPosition, childPosition);
+            return bindView(convertView, parent, name != null ? name : mUnknownCharacteristic,
+                    mGattServiceTable.getCharacteristicUuidString(groupPosition, childPosition));
+        }
+
+        @Override
+        public boolean isChildSelectable(int groupPosition, int childPosition) {
+            return !mGattServiceTable.isDetached();
+        }
+
+        private View bindView(View view, ViewGroup parent, String name, String uuid) {
+            ViewHolder viewHolder;
+            if (view == null) {
+                view = mInflator.inflate(android.R.layout.simple_expandable_list_item_2, parent,
+                        false);
+                viewHolder = new ViewHolder();
+                viewHolder.name = (TextView) view.findViewById(android.R.id.text1);
+                viewHolder.uuid = (TextView) view.findViewById(android.R.id.text2);
+                view.setTag(viewHolder);
+            } else {
+                viewHolder = (ViewHolder) view.getTag();
+            }
+            viewHolder.name.setText(name);
+            viewHolder.uuid.setText(uuid);
+            view.setEnabled(!mGattServiceTable.isDetached());
+            return view;
+        }
+
+        private long id(UUID uuid, int instanceId) {
+            return (long) uuid.hashCode() << 32 | (instanceId & 0xFFFFFFFFL);
+        }
+    }
+
+    static class ViewHolder {
+        TextView name;
+        TextView uuid;
     }
 
     private static IntentFilter makeGattUpdateIntentFilter() {
@@ -291,7 +445,6 @@ public class DeviceControlActivity extends Activity {
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_CONNECTED);
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_DISCONNECTED);
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED);
-        intentFilter.addAction(BluetoothLeService.ACTION_DATA_AVAILABLE);
         return intentFilter;
     }
 }
\ No newline at end of file
@@ -10,6 +10,7 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -20,8 +21,6 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-import java.util.UUID;
 
 import jp.android.bletest.R;
 
@@ -29,6 +28,7 @@ import jp.android.bletest.R;
  * Activity for scanning and displaying available Bluetooth LE devices.
  */
 public class DeviceScanActivity extends ListActivity {
+    private final ScanResultCache mScanResultCache = new ScanResultCache();
     private LeDeviceListAdapter mLeDeviceListAdapter;
     private BluetoothAdapter mBluetoothAdapter;
     private boolean mScanning;
@@ -37,6 +37,8 @@ public class DeviceScanActivity extends ListActivity {
     private static final int REQUEST_ENABLE_BT = 1;
     // Stops scanning after 10 seconds.
     private static final long SCAN_PERIOD = 10000;
+    // Minimum interval between two refreshes of the device list.
+    private static final long REFRESH_INTERVAL = 250;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -166,39 +168,71 @@ public class DeviceScanActivity extends ListActivity {
         invalidateOptionsMenu();
     }
 
-    // Adapter for holding devices found through scanning.
-    private class LeDeviceListAdapter extends BaseAdapter {
-        private ArrayList<BluetoothDevice> mLeDevices;
+    // Publishes the scan results recorded since the previous refresh to the device list.
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mScanResultCache.flush(mLeDeviceListAdapter);
+        }
+    };
+
+    // Adapter for holding devices found through scanning.  Rows whose device was seen again are
+    // rebound in place; the whole list is only invalidated when devices are appended.
+    private class LeDeviceListAdapter extends BaseAdapter implements ScanResultCache.FlushListener {
         private LayoutInflater mInflator;
+        private boolean mInvalidated;
 
         public LeDeviceListAdapter() {
             super();
-            mLeDevices = new ArrayList<BluetoothDevice>();
             mInflator = DeviceScanActivity.this.getLayoutInflater();
         }
 
-        public void addDevice(BluetoothDevice device) {
-            if(!mLeDevices.contains(device)) {
-                mLeDevices.add(device);
-            }
-        }
-
         public BluetoothDevice getDevice(int position) {
-            return mLeDevices.get(position);
+            return mScanResultCache.get(position).device;
         }
 
         public void clear() {
-            mLeDevices.clear();
+            mHandler.removeCallbacks(mRefreshRunnable);
+            mScanResultCache.clear();
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public void onEntriesAdded(int count) {
+            // The list view rebinds all visible rows on the next layout.
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public void onEntryChanged(int position, ScanResultCache.Entry entry) {
+            if (mInvalidated) {
+                return;
+            }
+            ListView listView = getListView();
+            int first = listView.getFirstVisiblePosition();
+            if (position < first || position > listView.getLastVisiblePosition()) {
+                return;
+            }
+            View view = listView.getChildAt(position - first);
+            if (view != null) {
+                bindView((ViewHolder) view.getTag(), entry);
+            }
+        }
+
+        @Override
+        public void notifyDataSetChanged() {
+            super.notifyDataSetChanged();
+            mInvalidated = true;
         }
 
         @Override
         public int getCount() {
-            return mLeDevices.size();
+            return mScanResultCache.size();
         }
 
         @Override
         public Object getItem(int i) {
-            return mLeDevices.get(i);
+            return mScanResultCache.get(i).device;
         }
 
         @Override
@@ -208,6 +242,7 @@ public class DeviceScanActivity extends ListActivity {
 
         @Override
         public View getView(int i, View view, ViewGroup viewGroup) {
+            mInvalidated = false;
             ViewHolder viewHolder;
             // General ListView optimization code.
             if (view == null) {
@@ -215,41 +250,47 @@ public class DeviceScanActivity extends ListActivity {
                 viewHolder = new ViewHolder();
                 viewHolder.deviceAddress = (TextView) view.findViewById(R.id.device_address);
                 viewHolder.deviceName = (TextView) view.findViewById(R.id.device_name);
+                viewHolder.deviceRssi = (TextView) view.findViewById(R.id.device_rssi);
                 view.setTag(viewHolder);
             } else {
                 viewHolder = (ViewHolder) view.getTag();
             }
 
-            BluetoothDevice device = mLeDevices.get(i);
-            final String deviceName = device.getName();
+            ScanResultCache.Entry entry = mScanResultCache.get(i);
+            final String deviceName = entry.device.getName();
             if (deviceName != null && deviceName.length() > 0)
                 viewHolder.deviceName.setText(deviceName);
             else
                 viewHolder.deviceName.setText(R.string.unknown_device);
-            viewHolder.deviceAddress.setText(device.getAddress());
+            viewHolder.deviceAddress.setText(entry.address);
+            bindView(viewHolder, entry);
 
             return view;
         }
+
+        private void bindView(ViewHolder viewHolder, ScanResultCache.Entry entry) {
+            viewHolder.deviceRssi.setText(getString(R.string.device_rssi,
+                    Math.round(entry.smoothedRssi), entry.advertCount));
+        }
     }
 
-    // Device scan callback.
+    // Device scan callback.  Only records the advertisement; the list is refreshed at most once
+    // per REFRESH_INTERVAL.
     private BluetoothAdapter.LeScanCallback mLeScanCallback =
             new BluetoothAdapter.LeScanCallback() {
 
         @Override
         public void onLeScan(final BluetoothDevice device, int rssi, byte[] scanRecord) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    mLeDeviceListAdapter.addDevice(device);
-                    mLeDeviceListAdapter.notifyDataSetChanged();
-                }
-            });
+            if (mScanResultCache.update(device.getAddress(), device, rssi,
+                    SystemClock.elapsedRealtime())) {
+                mHandler.postDelayed(mRefreshRunnable, REFRESH_INTERVAL);
+            }
         }
     };
 
     static class ViewHolder {
         TextView deviceName;
         TextView deviceAddress;
+        TextView deviceRssi;
     }
 }
\ No newline at end of file
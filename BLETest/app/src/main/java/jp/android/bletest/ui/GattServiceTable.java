@@ -0,0 +1,264 @@
+package jp.android.bletest.ui;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import jp.android.bletest.service.GattRegistry;
+
+/**
+ * Services and characteristics of a GATT server, flattened into parallel arrays for an
+ * expandable list.
+ *
+ * <p>The characteristics of all services are stored one after another, so that the children of
+ * a group are a range of the characteristic arrays.  A new discovery is written into a second set
+ * of arrays between {@link #beginUpdate} and {@link #endUpdate}, which then diffs it against the
+ * current content: entries with the same UUID and instance ID keep their resolved name and UUID
+ * string, and the sets are swapped without allocating once their capacity suffices.
+ *
+ * <p>Entries are matched in order, skipping removed entries ahead of the cursor, which is linear
+ * for the usual case of an unchanged or slightly changed layout.  Not thread-safe; used on the UI
+ * thread.
+ *
+ * @param <T> Tag kept for every characteristic, e.g. the {@code BluetoothGattCharacteristic}.
+ */
+public class GattServiceTable<T> {
+    // How far ahead of the cursor a moved or inserted entry is looked for.
+    private static final int MATCH_WINDOW = 16;
+
+    private static class Entries {
+        int size;
+        UUID[] uuids = new UUID[16];
+        int[] instanceIds = new int[16];
+        // Service: index of the first characteristic.  Characteristic: properties.
+        int[] values = new int[16];
+        String[] names = new String[16];
+        // Lazily created by getUuidString.
+        String[] uuidStrings = new String[16];
+        Object[] tags = new Object[16];
+
+        void add(UUID uuid, int instanceId, int value, Object tag) {
+            if (uuid == null) {
+                throw new NullPointerException("uuid must not be null");
+            }
+            if (size == uuids.length) {
+                int capacity = size * 2;
+                uuids = Arrays.copyOf(uuids, capacity);
+                instanceIds = Arrays.copyOf(instanceIds, capacity);
+                values = Arrays.copyOf(values, capacity);
+                names = Arrays.copyOf(names, capacity);
+                uuidStrings = Arrays.copyOf(uuidStrings, capacity);
+                tags = Arrays.copyOf(tags, capacity);
+            }
+            uuids[size] = uuid;
+            instanceIds[size] = instanceId;
+            values[size] = value;
+            names[size] = null;
+            uuidStrings[size] = null;
+            tags[size] = tag;
+            size++;
+        }
+
+        boolean matches(int i, Entries other, int j) {
+            return instanceIds[i] == other.instanceIds[j] && uuids[i].equals(other.uuids[j]);
+        }
+
+        void clear() {
+            // Releases the references to the framework objects.
+            Arrays.fill(uuids, 0, size, null);
+            Arrays.fill(names, 0, size, null);
+            Arrays.fill(uuidStrings, 0, size, null);
+            Arrays.fill(tags, 0, size, null);
+            size = 0;
+        }
+    }
+
+    private Entries mServices = new Entries();
+    private Entries mCharacteristics = new Entries();
+    private Entries mPendingServices = new Entries();
+    private Entries mPendingCharacteristics = new Entries();
+    private boolean mUpdating;
+    private boolean mTagsCleared;
+
+    public int getServiceCount() {
+        return mServices.size;
+    }
+
+    public int getCharacteristicCount(int service) {
+        int end = service + 1 < mServices.size ? mServices.values[service + 1]
+                : mCharacteristics.size;
+        return end - mServices.values[service];
+    }
+
+    public UUID getServiceUuid(int service) {
+        return mServices.uuids[service];
+    }
+
+    public int getServiceInstanceId(int service) {
+        return mServices.instanceIds[service];
+    }
+
+    /**
+     * @return The name assigned by the Bluetooth SIG, or null.
+     */
+    public String getServiceName(int service) {
+        return mServices.names[service];
+    }
+
+    public String getServiceUuidString(int service) {
+        return getUuidString(mServices, service);
+    }
+
+    public UUID getCharacteristicUuid(int service, int characteristic) {
+        return mCharacteristics.uuids[index(service, characteristic)];
+    }
+
+    public int getCharacteristicInstanceId(int service, int characteristic) {
+        return mCharacteristics.instanceIds[index(service, characteristic)];
+    }
+
+    public int getCharacteristicProperties(int service, int characteristic) {
+        return mCharacteristics.values[index(service, characteristic)];
+    }
+
+    /**
+     * @return The name assigned by the Bluetooth SIG, or null.
+     */
+    public String getCharacteristicName(int service, int characteristic) {
+        return mCharacteristics.names[index(service, characteristic)];
+    }
+
+    public String getCharacteristicUuidString(int service, int characteristic) {
+        return getUuidString(mCharacteristics, index(service, characteristic));
+    }
+
+    /**
+     * @return The tag passed to {@link #addCharacteristic}, or null after {@link #clearTags}.
+     */
+    @SuppressWarnings("unchecked")
+    public T getCharacteristicTag(int service, int characteristic) {
+        return (T) mCharacteristics.tags[index(service, characteristic)];
+    }
+
+    /**
+     * @return Whether the tags were dropped by {@link #clearTags} since the last update.
+     */
+    public boolean isDetached() {
+        return mTagsCleared;
+    }
+
+    /**
+     * Drops the characteristic tags but keeps the layout, so that the next update after a
+     * reconnection can be diffed against it.
+     */
+    public void clearTags() {
+        Arrays.fill(mCharacteristics.tags, 0, mCharacteristics.size, null);
+        mTagsCleared = true;
+    }
+
+    /**
+     * Removes all services.
+     *
+     * @return Whether the table was not empty.
+     */
+    public boolean clear() {
+        boolean changed = mServices.size > 0;
+        mServices.clear();
+        mCharacteristics.clear();
+        mTagsCleared = false;
+        return changed;
+    }
+
+    public void beginUpdate() {
+        mPendingServices.clear();
+        mPendingCharacteristics.clear();
+        mUpdating = true;
+    }
+
+    public void addService(UUID uuid, int instanceId) {
+        checkUpdating();
+        mPendingServices.add(uuid, instanceId, mPendingCharacteristics.size, null);
+    }
+
+    /**
+     * @param properties {@code BluetoothGattCharacteristic.PROPERTY_*}.
+     */
+    public void addCharacteristic(UUID uuid, int instanceId, int properties, T tag) {
+        checkUpdating();
+        if (mPendingServices.size == 0) {
+            throw new IllegalStateException("No service to add the characteristic to");
+        }
+        mPendingCharacteristics.add(uuid, instanceId, properties, tag);
+    }
+
+    /**
+     * Replaces the content with the entries added since {@link #beginUpdate}.
+     *
+     * @return Whether the services, the characteristics or their properties changed.  The tags
+     *         are always replaced and do not count as changes.
+     */
+    public boolean endUpdate() {
+        checkUpdating();
+        mUpdating = false;
+        boolean changed = merge(mServices, mPendingServices, false);
+        changed |= merge(mCharacteristics, mPendingCharacteristics, true);
+
+        Entries services = mServices;
+        mServices = mPendingServices;
+        mPendingServices = services;
+        Entries characteristics = mCharacteristics;
+        mCharacteristics = mPendingCharacteristics;
+        mPendingCharacteristics = characteristics;
+        mPendingServices.clear();
+        mPendingCharacteristics.clear();
+        mTagsCleared = false;
+        return changed;
+    }
+
+    // Carries the resolved strings of the matching old entries over to the new entries, and
+    // resolves the names of the others.
+    private static boolean merge(Entries old, Entries pending, boolean compareValues) {
+        boolean changed = old.size != pending.size;
+        int cursor = 0;
+        for (int i = 0; i < pending.size; i++) {
+            int match = -1;
+            int limit = Math.min(old.size, cursor + MATCH_WINDOW);
+            for (int j = cursor; j < limit; j++) {
+                if (pending.matches(i, old, j)) {
+                    match = j;
+                    break;
+                }
+            }
+            if (match < 0) {
+                pending.names[i] = GattRegistry.lookup(pending.uuids[i]);
+                changed = true;
+                continue;
+            }
+            if (match != i || (compareValues && old.values[match] != pending.values[i])) {
+                changed = true;
+            }
+            pending.names[i] = old.names[match];
+            pending.uuidStrings[i] = old.uuidStrings[match];
+            cursor = match + 1;
+        }
+        return changed;
+    }
+
+    private static String getUuidString(Entries entries, int index) {
+        String uuidString = entries.uuidStrings[index];
+        if (uuidString == null) {
+            uuidString = entries.uuids[index].toString();
+            entries.uuidStrings[index] = uuidString;
+        }
+        return uuidString;
+    }
+
+    private int index(int service, int characteristic) {
+        return mServices.values[service] + characteristic;
+    }
+
+    private void checkUpdating() {
+        if (!mUpdating) {
+            throw new IllegalStateException("No update in progress");
+        }
+    }
+}
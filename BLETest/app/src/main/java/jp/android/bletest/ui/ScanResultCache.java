@@ -0,0 +1,140 @@
+package jp.android.bletest.ui;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Scan results keyed by device address.
+ *
+ * <p>Advertisements are recorded from the scan callback thread with {@link #update}, which only
+ * does a hash lookup and updates the entry in place.  The list seen by the adapter is only
+ * changed by {@link #flush}, which is called on the UI thread at a capped rate and reports the
+ * appended and the changed rows since the previous flush.
+ */
+public class ScanResultCache {
+    // Weight of a new sample in the exponentially smoothed RSSI.
+    private static final float RSSI_SMOOTHING_FACTOR = 0.25f;
+
+    public static class Entry {
+        public final String address;
+        public final BluetoothDevice device;
+        public int lastRssi;
+        public float smoothedRssi;
+        public int advertCount;
+        /** Time of the last advertisement in milliseconds, as passed to {@link #update}. */
+        public long lastSeen;
+
+        // Row in the list, or -1 until the entry is published by a flush.
+        int position = -1;
+        boolean changed;
+
+        Entry(String address, BluetoothDevice device) {
+            this.address = address;
+            this.device = device;
+        }
+    }
+
+    public interface FlushListener {
+        /**
+         * Rows were appended to the list.  Called before {@link #onEntryChanged}.
+         */
+        void onEntriesAdded(int count);
+
+        /**
+         * An existing row received new advertisements.
+         */
+        void onEntryChanged(int position, Entry entry);
+    }
+
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    // Rows visible to the adapter.  Only modified on the UI thread.
+    private final ArrayList<Entry> mList = new ArrayList<Entry>();
+    // Entries seen since the previous flush.
+    private final ArrayList<Entry> mAdded = new ArrayList<Entry>();
+    private final ArrayList<Entry> mChanged = new ArrayList<Entry>();
+    private boolean mFlushPending;
+
+    /**
+     * Records an advertisement.
+     *
+     * @param now Current time in milliseconds.
+     *
+     * @return true if this is the first change since the previous flush, in which case the
+     *         caller should schedule a flush.
+     */
+    public synchronized boolean update(String address, BluetoothDevice device, int rssi, long now) {
+        Entry entry = mEntries.get(address);
+        if (entry == null) {
+            entry = new Entry(address, device);
+            entry.smoothedRssi = rssi;
+            mEntries.put(address, entry);
+            mAdded.add(entry);
+        } else {
+            entry.smoothedRssi += RSSI_SMOOTHING_FACTOR * (rssi - entry.smoothedRssi);
+            if (!entry.changed) {
+                entry.changed = true;
+                mChanged.add(entry);
+            }
+        }
+        entry.lastRssi = rssi;
+        entry.advertCount++;
+        entry.lastSeen = now;
+
+        if (mFlushPending) {
+            return false;
+        }
+        mFlushPending = true;
+        return true;
+    }
+
+    /**
+     * Publishes the changes since the previous flush to the list.  Must be called on the UI
+     * thread.
+     */
+    public void flush(FlushListener listener) {
+        int added;
+        synchronized (this) {
+            mFlushPending = false;
+            added = mAdded.size();
+            for (int i = 0; i < added; i++) {
+                Entry entry = mAdded.get(i);
+                entry.position = mList.size();
+                mList.add(entry);
+            }
+            mAdded.clear();
+            if (added > 0) {
+                listener.onEntriesAdded(added);
+            }
+            for (int i = 0; i < mChanged.size(); i++) {
+                Entry entry = mChanged.get(i);
+                entry.changed = false;
+                // Entries added and changed within the same flush are reported as added only.
+                if (entry.position < mList.size() - added) {
+                    listener.onEntryChanged(entry.position, entry);
+                }
+            }
+            mChanged.clear();
+        }
+    }
+
+    /**
+     * Removes all entries.  Must be called on the UI thread.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mList.clear();
+        mAdded.clear();
+        mChanged.clear();
+        mFlushPending = false;
+    }
+
+    public int size() {
+        return mList.size();
+    }
+
+    public Entry get(int position) {
+        return mList.get(position);
+    }
+}
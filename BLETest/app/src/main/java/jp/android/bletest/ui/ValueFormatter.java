@@ -0,0 +1,121 @@
+package jp.android.bletest.ui;
+
+/**
+ * Formats characteristic values for display into a reused character buffer.
+ *
+ * <p>Digits come from lookup tables rather than {@link java.util.Formatter}, so formatting a
+ * value does not allocate once the buffer has grown to the largest value.  The buffer is meant
+ * for {@code TextView.setText(char[], int, int)}, which keeps a reference to it: format again
+ * only right before setting the text again, on the same thread.
+ */
+public class ValueFormatter {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    // Shown for the bytes which are not printable ASCII.
+    private static final char UNPRINTABLE = '.';
+    private static final int MAX_INT_LENGTH = 11; // "-2147483648"
+
+    private char[] mBuffer = new char[64];
+    private int mLength;
+
+    /**
+     * Formats the bytes as printable ASCII, followed on a second line by their hex values, each
+     * followed by a space.  Bytes outside of printable ASCII are shown as {@code '.'}.
+     */
+    public ValueFormatter format(byte[] value, int offset, int length) {
+        if (value == null) {
+            throw new NullPointerException("value must not be null");
+        }
+        if (offset < 0 || length < 0 || offset + length > value.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length
+                    + ", value.length=" + value.length);
+        }
+        ensureCapacity(length * 4 + 1);
+        char[] buffer = mBuffer;
+        int position = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int b = value[i];
+            buffer[position++] = b >= 0x20 && b < 0x7F ? (char) b : UNPRINTABLE;
+        }
+        buffer[position++] = '\n';
+        mLength = appendHex(value, offset, length, buffer, position);
+        return this;
+    }
+
+    /**
+     * Formats a decimal integer, e.g. a heart rate.
+     */
+    public ValueFormatter format(int value) {
+        ensureCapacity(MAX_INT_LENGTH);
+        mLength = appendInt(value, mBuffer, 0);
+        return this;
+    }
+
+    /**
+     * Writes the hex values of the bytes, each followed by a space.
+     *
+     * @param out Must hold {@code 3 * length} characters from {@code position}.
+     * @return The position after the last character written.
+     */
+    public static int appendHex(byte[] value, int offset, int length, char[] out, int position) {
+        for (int i = offset; i < offset + length; i++) {
+            int b = value[i];
+            out[position++] = HEX_DIGITS[(b >> 4) & 0x0F];
+            out[position++] = HEX_DIGITS[b & 0x0F];
+            out[position++] = ' ';
+        }
+        return position;
+    }
+
+    /**
+     * Writes a decimal integer.
+     *
+     * @param out Must hold 11 characters from {@code position}.
+     * @return The position after the last character written.
+     */
+    public static int appendInt(int value, char[] out, int position) {
+        // Widened so that Integer.MIN_VALUE can be negated.
+        long remaining = value;
+        if (remaining < 0) {
+            out[position++] = '-';
+            remaining = -remaining;
+        }
+        int end = position + digitCount(remaining);
+        int i = end;
+        do {
+            out[--i] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        return end;
+    }
+
+    private static int digitCount(long value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mBuffer.length < capacity) {
+            mBuffer = new char[Math.max(capacity, mBuffer.length * 2)];
+        }
+    }
+
+    /**
+     * @return The buffer holding the last value formatted, from index 0 to {@link #getLength()}.
+     */
+    public char[] getChars() {
+        return mBuffer;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mBuffer, 0, mLength);
+    }
+}
@@ -0,0 +1,81 @@
+package jp.android.bletest.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Scheduler} driven by a manually advanced clock.
+ */
+class FakeScheduler implements Scheduler {
+    private static class Task {
+        final Runnable runnable;
+        final long when;
+
+        Task(Runnable runnable, long when) {
+            this.runnable = runnable;
+            this.when = when;
+        }
+    }
+
+    private final List<Task> mTasks = new ArrayList<Task>();
+    private long mNow;
+    private boolean mTruncating;
+
+    @Override
+    public long nanoTime() {
+        return mNow;
+    }
+
+    @Override
+    public void postDelayed(Runnable r, long delayMillis) {
+        long base = mTruncating ? mNow / 1000000L * 1000000L : mNow;
+        mTasks.add(new Task(r, base + delayMillis * 1000000L));
+    }
+
+    /**
+     * Schedules tasks from the clock truncated to milliseconds, as {@code Handler} does, so that
+     * they may run up to a millisecond before the nanosecond deadline.
+     */
+    public void setTruncating(boolean truncating) {
+        mTruncating = truncating;
+    }
+
+    @Override
+    public void removeCallbacks(Runnable r) {
+        for (int i = mTasks.size() - 1; i >= 0; i--) {
+            if (mTasks.get(i).runnable == r) {
+                mTasks.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Advances the clock and runs the tasks which became due, in order.
+     */
+    public void advance(long millis) {
+        advanceNanos(millis * 1000000L);
+    }
+
+    public void advanceNanos(long nanos) {
+        long end = mNow + nanos;
+        while (true) {
+            Task next = null;
+            for (Task task : mTasks) {
+                if (task.when <= end && (next == null || task.when < next.when)) {
+                    next = task;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            mTasks.remove(next);
+            mNow = Math.max(mNow, next.when);
+            next.runnable.run();
+        }
+        mNow = end;
+    }
+
+    public int getPendingCount() {
+        return mTasks.size();
+    }
+}
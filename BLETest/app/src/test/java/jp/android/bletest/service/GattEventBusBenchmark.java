@@ -0,0 +1,107 @@
+package jp.android.bletest.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Compares delivering heart rate notifications through {@link GattEventBus} with the previous
+ * Intent broadcast path.
+ *
+ * <p>The broadcast path is emulated on the JVM by what it did per notification inside the app:
+ * formatting the value into a String, putting it into a fresh extras map and handing it over to
+ * another thread.  The binder round trip of {@code sendBroadcast} is not included, so the
+ * numbers for that path are a lower bound.  Allocation is measured on the publishing thread.
+ *
+ * <p>Run as a plain Java program with the unit test classpath.
+ */
+public class GattEventBusBenchmark {
+    private static final int WARMUP_EVENTS = 200000;
+    private static final int EVENTS = 2000000;
+    private static final String EXTRA_DATA = "com.example.bluetooth.le.EXTRA_DATA";
+
+    // Flags: UINT8, energy expended and two RR intervals present.
+    private static final byte[] NOTIFICATION = {0x18, 72, 0x10, 0x27, 0x00, 0x04, 0x00, 0x02};
+
+    private static volatile int sSink;
+
+    private interface Path {
+        void deliver(byte[] data);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final HeartRateMeasurement measurement = new HeartRateMeasurement(16);
+
+        final GattEventBus bus = new GattEventBus();
+        bus.subscribe(new GattEventBus.SimpleSubscriber() {
+            @Override
+            public void onHeartRateMeasurement(HeartRateMeasurement m) {
+                sSink = m.heartRate;
+            }
+        });
+        Path busPath = new Path() {
+            @Override
+            public void deliver(byte[] data) {
+                HeartRateMeasurementDecoder.decode(data, 0, data.length, measurement);
+                bus.publishHeartRateMeasurement(measurement);
+            }
+        };
+
+        final BlockingQueue<HashMap<String, Object>> mainQueue =
+                new ArrayBlockingQueue<HashMap<String, Object>>(1024);
+        Thread mainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        HashMap<String, Object> extras = mainQueue.take();
+                        sSink = ((String) extras.get(EXTRA_DATA)).length();
+                    }
+                } catch (InterruptedException e) {
+                    // Done.
+                }
+            }
+        });
+        mainThread.setDaemon(true);
+        mainThread.start();
+        Path broadcastPath = new Path() {
+            @Override
+            public void deliver(byte[] data) {
+                HeartRateMeasurementDecoder.decode(data, 0, data.length, measurement);
+                HashMap<String, Object> extras = new HashMap<String, Object>();
+                extras.put(EXTRA_DATA, String.valueOf(measurement.heartRate));
+                try {
+                    mainQueue.put(extras);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        run("broadcast", broadcastPath);
+        run("event bus", busPath);
+        mainThread.interrupt();
+    }
+
+    private static void run(String name, Path path) {
+        for (int i = 0; i < WARMUP_EVENTS; i++) {
+            path.deliver(NOTIFICATION);
+        }
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            path.deliver(NOTIFICATION);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.printf("%-10s %,14.0f events/s %10.1f bytes/event%n",
+                name, EVENTS * 1e9 / elapsed, (double) allocated / EVENTS);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,68 @@
+package jp.android.bletest.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattEventBusTest {
+    private static final UUID UUID_MANUFACTURER_NAME =
+            UUID.fromString("00002a29-0000-1000-8000-00805f9b34fb");
+
+    private final GattEventBus mBus = new GattEventBus();
+
+    private static class RecordingSubscriber extends GattEventBus.SimpleSubscriber {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void onCharacteristicValue(UUID characteristicUuid, byte[] value, int offset,
+                                          int length) {
+            events.add(new String(value, offset, length));
+        }
+
+        @Override
+        public void onHeartRateMeasurement(HeartRateMeasurement measurement) {
+            events.add("hr=" + measurement.heartRate);
+        }
+    }
+
+    @Test
+    public void deliversToAllSubscribers() {
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        mBus.subscribe(first);
+        mBus.subscribe(second);
+        mBus.subscribe(first);
+
+        byte[] value = "xxACMExx".getBytes();
+        mBus.publishCharacteristicValue(UUID_MANUFACTURER_NAME, value, 2, 4);
+        HeartRateMeasurement measurement = new HeartRateMeasurement(0);
+        measurement.heartRate = 72;
+        mBus.publishHeartRateMeasurement(measurement);
+
+        assertEquals(2, first.events.size());
+        assertEquals("ACME", first.events.get(0));
+        assertEquals("hr=72", first.events.get(1));
+        assertEquals(first.events, second.events);
+    }
+
+    @Test
+    public void stopsDeliveringAfterUnsubscribe() {
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        mBus.subscribe(first);
+        mBus.subscribe(second);
+        mBus.unsubscribe(first);
+        mBus.unsubscribe(first);
+
+        mBus.publishHeartRateMeasurement(new HeartRateMeasurement(0));
+        assertTrue(first.events.isEmpty());
+        assertEquals(1, second.events.size());
+
+        mBus.unsubscribe(second);
+        assertFalse(mBus.hasSubscribers());
+    }
+}
@@ -0,0 +1,85 @@
+package jp.android.bletest.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Compares name lookups in {@link GattRegistry} with the previous {@code HashMap} keyed by
+ * lowercase UUID strings, which required {@code UUID.toString()} for every lookup.
+ *
+ * <p>Run as a plain Java program with the unit test classpath.
+ */
+public class GattRegistryBenchmark {
+    private static final int WARMUP_LOOKUPS = 1000000;
+    private static final int LOOKUPS = 10000000;
+
+    private static volatile int sSink;
+
+    private interface Lookup {
+        String lookup(UUID uuid);
+    }
+
+    public static void main(String[] args) {
+        // A typical GATT database: a few well-known attributes and a vendor service.
+        final UUID[] uuids = {
+                UUID.fromString("00001800-0000-1000-8000-00805f9b34fb"),
+                UUID.fromString("00002a00-0000-1000-8000-00805f9b34fb"),
+                UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb"),
+                UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb"),
+                UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"),
+                UUID.fromString("0000180a-0000-1000-8000-00805f9b34fb"),
+                UUID.fromString("00002a29-0000-1000-8000-00805f9b34fb"),
+                UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e"),
+        };
+
+        final HashMap<String, String> map = new HashMap<String, String>();
+        for (int uuid16 = 0; uuid16 <= 0xFFFF; uuid16++) {
+            String name = GattRegistry.lookup(uuid16);
+            if (name != null) {
+                map.put(String.format("%08x-0000-1000-8000-00805f9b34fb", uuid16), name);
+            }
+        }
+        Lookup stringMap = new Lookup() {
+            @Override
+            public String lookup(UUID uuid) {
+                return map.get(uuid.toString());
+            }
+        };
+        Lookup registry = new Lookup() {
+            @Override
+            public String lookup(UUID uuid) {
+                return GattRegistry.lookup(uuid);
+            }
+        };
+
+        System.out.printf("%d assigned UUIDs%n", GattRegistry.size());
+        run("string map", stringMap, uuids);
+        run("registry", registry, uuids);
+    }
+
+    private static void run(String name, Lookup lookup, UUID[] uuids) {
+        for (int i = 0; i < WARMUP_LOOKUPS; i++) {
+            consume(lookup.lookup(uuids[i & 7]));
+        }
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            consume(lookup.lookup(uuids[i & 7]));
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.printf("%-10s %8.1f ns/lookup %10.1f bytes/lookup%n",
+                name, (double) elapsed / LOOKUPS, (double) allocated / LOOKUPS);
+    }
+
+    private static void consume(String name) {
+        sSink += name == null ? 0 : name.length();
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
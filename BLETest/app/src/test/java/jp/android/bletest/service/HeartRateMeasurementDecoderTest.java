@@ -0,0 +1,72 @@
+package jp.android.bletest.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HeartRateMeasurementDecoderTest {
+    private final HeartRateMeasurement mMeasurement = new HeartRateMeasurement(4);
+
+    @Test
+    public void decodesUint8HeartRate() {
+        byte[] data = {0x00, 72};
+        assertTrue(HeartRateMeasurementDecoder.decode(data, 0, data.length, mMeasurement));
+        assertEquals(72, mMeasurement.heartRate);
+        assertFalse(mMeasurement.contactSupported);
+        assertFalse(mMeasurement.hasEnergyExpended());
+        assertEquals(0, mMeasurement.rrCount);
+    }
+
+    @Test
+    public void decodesUint16HeartRate() {
+        byte[] data = {0x01, 0x2C, 0x01};
+        assertTrue(HeartRateMeasurementDecoder.decode(data, 0, data.length, mMeasurement));
+        assertEquals(300, mMeasurement.heartRate);
+    }
+
+    @Test
+    public void decodesContactEnergyAndRrIntervals() {
+        byte[] data = {
+                0x7F, // padding, skipped through the offset
+                0x1E, // UINT8, contact supported and detected, energy and RR present
+                (byte) 180,
+                0x10, 0x27, // 10000 kJ
+                0x00, 0x04, // 1024 = 1 s
+                0x00, 0x02, // 512 = 0.5 s
+        };
+        assertTrue(HeartRateMeasurementDecoder.decode(data, 1, data.length - 1, mMeasurement));
+        assertEquals(180, mMeasurement.heartRate);
+        assertTrue(mMeasurement.contactSupported);
+        assertTrue(mMeasurement.contactDetected);
+        assertEquals(10000, mMeasurement.energyExpended);
+        assertEquals(2, mMeasurement.rrCount);
+        assertEquals(1024, mMeasurement.rrIntervals[0]);
+        assertEquals(512, mMeasurement.rrIntervals[1]);
+        assertFalse(mMeasurement.rrTruncated);
+    }
+
+    @Test
+    public void contactDetectedRequiresSupport() {
+        byte[] data = {0x02, 60};
+        assertTrue(HeartRateMeasurementDecoder.decode(data, 0, data.length, mMeasurement));
+        assertFalse(mMeasurement.contactSupported);
+        assertFalse(mMeasurement.contactDetected);
+    }
+
+    @Test
+    public void truncatesRrIntervalsToBufferCapacity() {
+        byte[] data = {0x10, 60, 1, 0, 2, 0, 3, 0, 4, 0, 5, 0};
+        assertTrue(HeartRateMeasurementDecoder.decode(data, 0, data.length, mMeasurement));
+        assertEquals(4, mMeasurement.rrCount);
+        assertEquals(4, mMeasurement.rrIntervals[3]);
+        assertTrue(mMeasurement.rrTruncated);
+    }
+
+    @Test
+    public void rejectsTruncatedValues() {
+        assertFalse(HeartRateMeasurementDecoder.decode(new byte[] {0x00}, 0, 1, mMeasurement));
+        assertFalse(HeartRateMeasurementDecoder.decode(new byte[] {0x01, 0x2C}, 0, 2, mMeasurement));
+        assertFalse(HeartRateMeasurementDecoder.decode(new byte[] {0x08, 60, 0x10}, 0, 3, mMeasurement));
+        assertEquals(0, mMeasurement.heartRate);
+    }
+}
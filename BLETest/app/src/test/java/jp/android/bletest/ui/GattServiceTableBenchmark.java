@@ -0,0 +1,145 @@
+package jp.android.bletest.ui;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+import jp.android.bletest.service.GattRegistry;
+
+/**
+ * Compares updating a {@link GattServiceTable} with the nested lists of {@code HashMap}s
+ * previously built for a {@code SimpleExpandableListAdapter} on every discovery, for synthetic
+ * GATT servers of increasing size discovered again with an unchanged layout.
+ *
+ * <p>Run as a plain Java program with the unit test classpath.
+ */
+public class GattServiceTableBenchmark {
+    private static final int[][] SIZES = {{5, 4}, {20, 10}, {50, 20}};
+    private static final long TARGET_NANOS = 500000000L;
+
+    private static final String LIST_NAME = "NAME";
+    private static final String LIST_UUID = "UUID";
+
+    private static volatile int sSink;
+
+    private interface Update {
+        void update(UUID[] services, UUID[][] characteristics);
+    }
+
+    public static void main(String[] args) {
+        for (int[] size : SIZES) {
+            int serviceCount = size[0];
+            int characteristicCount = size[1];
+            UUID[] services = new UUID[serviceCount];
+            UUID[][] characteristics = new UUID[serviceCount][characteristicCount];
+            for (int s = 0; s < serviceCount; s++) {
+                // Mix of assigned and vendor UUIDs.
+                services[s] = uuid(s % 2 == 0 ? 0x1800 + s : 0x10000 + s);
+                for (int c = 0; c < characteristicCount; c++) {
+                    characteristics[s][c] = uuid(c % 2 == 0 ? 0x2A00 + c : 0x20000 + s * 1000 + c);
+                }
+            }
+
+            System.out.printf("%d services x %d characteristics%n", serviceCount,
+                    characteristicCount);
+            run("hash maps", new HashMapUpdate(), services, characteristics);
+            run("table", new TableUpdate(), services, characteristics);
+        }
+    }
+
+    private static final class HashMapUpdate implements Update {
+        @Override
+        public void update(UUID[] services, UUID[][] characteristics) {
+            ArrayList<HashMap<String, String>> serviceData = new ArrayList<HashMap<String, String>>();
+            ArrayList<ArrayList<HashMap<String, String>>> characteristicData =
+                    new ArrayList<ArrayList<HashMap<String, String>>>();
+            ArrayList<ArrayList<UUID>> tags = new ArrayList<ArrayList<UUID>>();
+            for (int s = 0; s < services.length; s++) {
+                HashMap<String, String> service = new HashMap<String, String>();
+                service.put(LIST_NAME, name(services[s]));
+                service.put(LIST_UUID, services[s].toString());
+                serviceData.add(service);
+
+                ArrayList<HashMap<String, String>> group = new ArrayList<HashMap<String, String>>();
+                ArrayList<UUID> groupTags = new ArrayList<UUID>();
+                for (UUID uuid : characteristics[s]) {
+                    groupTags.add(uuid);
+                    HashMap<String, String> characteristic = new HashMap<String, String>();
+                    characteristic.put(LIST_NAME, name(uuid));
+                    characteristic.put(LIST_UUID, uuid.toString());
+                    group.add(characteristic);
+                }
+                tags.add(groupTags);
+                characteristicData.add(group);
+            }
+            sSink += serviceData.size() + characteristicData.size() + tags.size();
+        }
+
+        private static String name(UUID uuid) {
+            String name = GattRegistry.lookup(uuid);
+            return name == null ? "Unknown" : name;
+        }
+    }
+
+    private static final class TableUpdate implements Update {
+        private final GattServiceTable<UUID> mTable = new GattServiceTable<UUID>();
+
+        @Override
+        public void update(UUID[] services, UUID[][] characteristics) {
+            mTable.beginUpdate();
+            for (int s = 0; s < services.length; s++) {
+                mTable.addService(services[s], s);
+                UUID[] group = characteristics[s];
+                for (int c = 0; c < group.length; c++) {
+                    mTable.addCharacteristic(group[c], s * 1000 + c, 0x02, group[c]);
+                }
+            }
+            if (mTable.endUpdate()) {
+                // Resolved once per new entry, as the adapter does when binding the rows.
+                for (int s = 0; s < mTable.getServiceCount(); s++) {
+                    sSink += mTable.getServiceUuidString(s).length();
+                    for (int c = 0; c < mTable.getCharacteristicCount(s); c++) {
+                        sSink += mTable.getCharacteristicUuidString(s, c).length();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run(String name, Update update, UUID[] services, UUID[][] characteristics) {
+        int iterations = 1;
+        long elapsed;
+        // Doubles the iterations until a run is long enough, which also warms up the code.
+        while (true) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                update.update(services, characteristics);
+            }
+            elapsed = System.nanoTime() - start;
+            if (elapsed >= TARGET_NANOS) {
+                break;
+            }
+            iterations *= 2;
+        }
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            update.update(services, characteristics);
+        }
+        elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.printf("  %-10s %10.2f us/update %12.1f bytes/update%n",
+                name, elapsed / 1000.0 / iterations, (double) allocated / iterations);
+    }
+
+    private static UUID uuid(long uuid32) {
+        return new UUID(uuid32 << 32 | 0x1000L, 0x800000805F9B34FBL);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
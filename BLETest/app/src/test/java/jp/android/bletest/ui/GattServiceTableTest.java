@@ -0,0 +1,165 @@
+package jp.android.bletest.ui;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GattServiceTableTest {
+    private static final UUID GENERIC_ACCESS = UUID.fromString("00001800-0000-1000-8000-00805f9b34fb");
+    private static final UUID DEVICE_NAME = UUID.fromString("00002a00-0000-1000-8000-00805f9b34fb");
+    private static final UUID HEART_RATE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID HEART_RATE_MEASUREMENT = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID BODY_SENSOR_LOCATION = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
+    private static final UUID VENDOR = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private GattServiceTable<String> mTable;
+
+    @Before
+    public void setUp() {
+        mTable = new GattServiceTable<String>();
+    }
+
+    private void update(boolean withVendor) {
+        mTable.beginUpdate();
+        mTable.addService(GENERIC_ACCESS, 1);
+        mTable.addCharacteristic(DEVICE_NAME, 3, 0x02, "name");
+        mTable.addService(HEART_RATE, 10);
+        mTable.addCharacteristic(HEART_RATE_MEASUREMENT, 12, 0x10, "measurement");
+        mTable.addCharacteristic(BODY_SENSOR_LOCATION, 15, 0x02, "location");
+        if (withVendor) {
+            mTable.addService(VENDOR, 20);
+        }
+    }
+
+    @Test
+    public void flattensServices() {
+        update(true);
+        assertTrue(mTable.endUpdate());
+
+        assertEquals(3, mTable.getServiceCount());
+        assertEquals(1, mTable.getCharacteristicCount(0));
+        assertEquals(2, mTable.getCharacteristicCount(1));
+        assertEquals(0, mTable.getCharacteristicCount(2));
+        assertEquals("Heart Rate", mTable.getServiceName(1));
+        assertEquals(HEART_RATE_MEASUREMENT, mTable.getCharacteristicUuid(1, 0));
+        assertEquals("Body Sensor Location", mTable.getCharacteristicName(1, 1));
+        assertEquals(0x02, mTable.getCharacteristicProperties(1, 1));
+        assertEquals(15, mTable.getCharacteristicInstanceId(1, 1));
+        assertEquals("location", mTable.getCharacteristicTag(1, 1));
+        assertNull(mTable.getServiceName(2));
+        assertEquals(VENDOR.toString(), mTable.getServiceUuidString(2));
+    }
+
+    @Test
+    public void unchangedLayoutKeepsResolvedStrings() {
+        update(true);
+        mTable.endUpdate();
+        String uuidString = mTable.getCharacteristicUuidString(1, 0);
+
+        update(true);
+        assertFalse(mTable.endUpdate());
+        assertSame(uuidString, mTable.getCharacteristicUuidString(1, 0));
+    }
+
+    @Test
+    public void reportsAddedAndRemovedEntries() {
+        update(false);
+        mTable.endUpdate();
+        String uuidString = mTable.getServiceUuidString(1);
+
+        update(true);
+        assertTrue(mTable.endUpdate());
+        assertEquals(3, mTable.getServiceCount());
+        assertSame(uuidString, mTable.getServiceUuidString(1));
+
+        update(false);
+        assertTrue(mTable.endUpdate());
+        assertEquals(2, mTable.getServiceCount());
+    }
+
+    @Test
+    public void matchesEntriesAfterInsertion() {
+        update(false);
+        mTable.endUpdate();
+        String uuidString = mTable.getCharacteristicUuidString(1, 1);
+
+        mTable.beginUpdate();
+        mTable.addService(GENERIC_ACCESS, 1);
+        mTable.addCharacteristic(DEVICE_NAME, 3, 0x02, "name");
+        mTable.addService(HEART_RATE, 10);
+        mTable.addCharacteristic(VENDOR, 11, 0x08, "vendor");
+        mTable.addCharacteristic(HEART_RATE_MEASUREMENT, 12, 0x10, "measurement");
+        mTable.addCharacteristic(BODY_SENSOR_LOCATION, 15, 0x02, "location");
+        assertTrue(mTable.endUpdate());
+
+        assertEquals(3, mTable.getCharacteristicCount(1));
+        assertSame(uuidString, mTable.getCharacteristicUuidString(1, 2));
+    }
+
+    @Test
+    public void reportsChangedProperties() {
+        update(false);
+        mTable.endUpdate();
+
+        mTable.beginUpdate();
+        mTable.addService(GENERIC_ACCESS, 1);
+        mTable.addCharacteristic(DEVICE_NAME, 3, 0x0A, "name");
+        mTable.addService(HEART_RATE, 10);
+        mTable.addCharacteristic(HEART_RATE_MEASUREMENT, 12, 0x10, "measurement");
+        mTable.addCharacteristic(BODY_SENSOR_LOCATION, 15, 0x02, "location");
+        assertTrue(mTable.endUpdate());
+        assertEquals(0x0A, mTable.getCharacteristicProperties(0, 0));
+    }
+
+    @Test
+    public void clearTagsKeepsLayout() {
+        update(false);
+        mTable.endUpdate();
+
+        mTable.clearTags();
+        assertTrue(mTable.isDetached());
+        assertEquals(2, mTable.getServiceCount());
+        assertNull(mTable.getCharacteristicTag(1, 0));
+
+        update(false);
+        assertFalse(mTable.endUpdate());
+        assertFalse(mTable.isDetached());
+        assertEquals("measurement", mTable.getCharacteristicTag(1, 0));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        mTable.beginUpdate();
+        for (int s = 0; s < 40; s++) {
+            mTable.addService(new UUID(s, 0), s);
+            for (int c = 0; c < 10; c++) {
+                mTable.addCharacteristic(new UUID(s, c), s * 100 + c, c, null);
+            }
+        }
+        assertTrue(mTable.endUpdate());
+
+        assertEquals(40, mTable.getServiceCount());
+        assertEquals(10, mTable.getCharacteristicCount(39));
+        assertEquals(3905, mTable.getCharacteristicInstanceId(39, 5));
+        assertTrue(mTable.clear());
+        assertEquals(0, mTable.getServiceCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsCharacteristicWithoutService() {
+        mTable.beginUpdate();
+        mTable.addCharacteristic(DEVICE_NAME, 1, 0, null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsAddOutsideUpdate() {
+        mTable.addService(GENERIC_ACCESS, 1);
+    }
+}
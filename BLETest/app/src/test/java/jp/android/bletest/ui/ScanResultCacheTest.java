@@ -0,0 +1,125 @@
+package jp.android.bletest.ui;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ScanResultCacheTest {
+    private static final String ADDRESS_1 = "00:11:22:33:44:55";
+    private static final String ADDRESS_2 = "66:77:88:99:AA:BB";
+
+    private ScanResultCache mCache;
+    private RecordingListener mListener;
+
+    @Before
+    public void setUp() {
+        mCache = new ScanResultCache();
+        mListener = new RecordingListener();
+    }
+
+    @Test
+    public void requestsOneFlushPerInterval() {
+        assertTrue(mCache.update(ADDRESS_1, null, -60, 0));
+        assertFalse(mCache.update(ADDRESS_1, null, -60, 10));
+        assertFalse(mCache.update(ADDRESS_2, null, -70, 20));
+
+        mCache.flush(mListener);
+        assertTrue(mCache.update(ADDRESS_1, null, -60, 300));
+    }
+
+    @Test
+    public void entriesAreOnlyVisibleAfterFlush() {
+        mCache.update(ADDRESS_1, null, -60, 0);
+        mCache.update(ADDRESS_2, null, -70, 0);
+        assertEquals(0, mCache.size());
+
+        mCache.flush(mListener);
+        assertEquals(2, mCache.size());
+        assertEquals(ADDRESS_1, mCache.get(0).address);
+        assertEquals(ADDRESS_2, mCache.get(1).address);
+        assertEquals(2, mListener.added);
+        assertTrue(mListener.changed.isEmpty());
+    }
+
+    @Test
+    public void repeatedAdvertisementsUpdateEntryInPlace() {
+        mCache.update(ADDRESS_1, null, -60, 0);
+        mCache.update(ADDRESS_1, null, -80, 100);
+        mCache.flush(mListener);
+
+        ScanResultCache.Entry entry = mCache.get(0);
+        assertEquals(1, mCache.size());
+        assertEquals(2, entry.advertCount);
+        assertEquals(-80, entry.lastRssi);
+        assertEquals(-65f, entry.smoothedRssi, 0.001f);
+        assertEquals(100, entry.lastSeen);
+        // Added and changed within the same interval is reported as an addition only.
+        assertEquals(1, mListener.added);
+        assertTrue(mListener.changed.isEmpty());
+    }
+
+    @Test
+    public void reportsChangedRowsOnce() {
+        mCache.update(ADDRESS_1, null, -60, 0);
+        mCache.update(ADDRESS_2, null, -70, 0);
+        mCache.flush(mListener);
+        mListener.reset();
+
+        mCache.update(ADDRESS_2, null, -70, 300);
+        mCache.update(ADDRESS_2, null, -70, 400);
+        mCache.flush(mListener);
+
+        assertEquals(0, mListener.added);
+        assertEquals(1, mListener.changed.size());
+        assertEquals(Integer.valueOf(1), mListener.positions.get(0));
+        assertSame(mCache.get(1), mListener.changed.get(0));
+
+        mListener.reset();
+        mCache.flush(mListener);
+        assertTrue(mListener.changed.isEmpty());
+    }
+
+    @Test
+    public void clearRemovesAllEntries() {
+        mCache.update(ADDRESS_1, null, -60, 0);
+        mCache.flush(mListener);
+        mCache.update(ADDRESS_2, null, -70, 0);
+
+        mCache.clear();
+        assertEquals(0, mCache.size());
+        assertTrue(mCache.update(ADDRESS_1, null, -60, 0));
+        mCache.flush(mListener);
+        assertEquals(1, mCache.size());
+        assertEquals(1, mCache.get(0).advertCount);
+    }
+
+    private static class RecordingListener implements ScanResultCache.FlushListener {
+        int added;
+        final List<Integer> positions = new ArrayList<Integer>();
+        final List<ScanResultCache.Entry> changed = new ArrayList<ScanResultCache.Entry>();
+
+        @Override
+        public void onEntriesAdded(int count) {
+            added += count;
+        }
+
+        @Override
+        public void onEntryChanged(int position, ScanResultCache.Entry entry) {
+            positions.add(position);
+            changed.add(entry);
+        }
+
+        void reset() {
+            added = 0;
+            positions.clear();
+            changed.clear();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package jp.android.bletest.ui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ValueFormatterTest {
+    private final ValueFormatter mFormatter = new ValueFormatter();
+
+    @Test
+    public void formatsTextAndHex() {
+        byte[] value = {'x', 'B', 'L', 'E', 0x00, (byte) 0xFF, 'y'};
+
+        assertEquals("BLE..\n42 4C 45 00 FF ", mFormatter.format(value, 1, 5).toString());
+    }
+
+    @Test
+    public void formatsHexLikeFormatter() {
+        Random random = new Random(1);
+        for (int length = 0; length <= 512; length += 17) {
+            byte[] value = new byte[length];
+            random.nextBytes(value);
+            StringBuilder expected = new StringBuilder();
+            for (byte b : value) {
+                expected.append(String.format("%02X ", b));
+            }
+            char[] out = new char[length * 3];
+            assertEquals(out.length, ValueFormatter.appendHex(value, 0, length, out, 0));
+            assertEquals(expected.toString(), new String(out));
+        }
+    }
+
+    @Test
+    public void formatsIntegers() {
+        int[] values = {0, 7, 10, 72, 255, 65535, -1, -40, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) {
+            assertEquals(String.valueOf(value), mFormatter.format(value).toString());
+        }
+    }
+
+    @Test
+    public void reusesTheBuffer() {
+        mFormatter.format(new byte[8], 0, 8);
+        char[] buffer = mFormatter.getChars();
+        mFormatter.format(72);
+
+        assertSame(buffer, mFormatter.getChars());
+        assertEquals(2, mFormatter.getLength());
+        mFormatter.format(new byte[512], 0, 512);
+        assertEquals(512 * 4 + 1, mFormatter.getLength());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsOutOfBounds() {
+        mFormatter.format(new byte[4], 2, 3);
+    }
+}
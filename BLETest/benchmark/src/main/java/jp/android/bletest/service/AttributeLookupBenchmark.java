@@ -0,0 +1,53 @@
+package jp.android.bletest.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name lookups of GATT attributes in {@link GattRegistry}, as done for every row of the services
+ * list.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AttributeLookupBenchmark {
+    private final UUID mAssigned = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    // On the Bluetooth Base UUID but not assigned.
+    private final UUID mUnassigned = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    // Vendor specific, rejected before the search.
+    private final UUID mVendor = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private final int mAssigned16 = 0x2A37;
+
+    @Benchmark
+    public String assigned() {
+        return GattRegistry.lookup(mAssigned);
+    }
+
+    @Benchmark
+    public String unassigned() {
+        return GattRegistry.lookup(mUnassigned);
+    }
+
+    @Benchmark
+    public String vendor() {
+        return GattRegistry.lookup(mVendor);
+    }
+
+    @Benchmark
+    public String assigned16() {
+        return GattRegistry.lookup(mAssigned16);
+    }
+}
@@ -0,0 +1,73 @@
+package jp.android.bletest.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivery of notifications through {@link GattEventBus}, from the raw value to the subscribers,
+ * as done by {@code BluetoothLeService} on the GATT callback thread.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventDispatchBenchmark {
+    private static final UUID BATTERY_LEVEL =
+            UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
+
+    @Param({"1", "4"})
+    public int subscriberCount;
+
+    // Flags: UINT8, energy expended and two RR intervals present.
+    private final byte[] mHeartRate = {0x18, 72, 0x10, 0x27, 0x00, 0x04, 0x00, 0x02};
+    private final byte[] mBatteryLevel = {87};
+
+    private final GattEventBus mBus = new GattEventBus();
+    private final HeartRateMeasurement mMeasurement = new HeartRateMeasurement(256);
+    private int mSink;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < subscriberCount; i++) {
+            mBus.subscribe(new GattEventBus.Subscriber() {
+                @Override
+                public void onCharacteristicValue(UUID characteristicUuid, byte[] value,
+                                                  int offset, int length) {
+                    mSink += value[offset];
+                }
+
+                @Override
+                public void onHeartRateMeasurement(HeartRateMeasurement measurement) {
+                    mSink += measurement.heartRate;
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public int heartRateMeasurement() {
+        HeartRateMeasurementDecoder.decode(mHeartRate, 0, mHeartRate.length, mMeasurement);
+        mBus.publishHeartRateMeasurement(mMeasurement);
+        return mSink;
+    }
+
+    @Benchmark
+    public int characteristicValue() {
+        mBus.publishCharacteristicValue(BATTERY_LEVEL, mBatteryLevel, 0, mBatteryLevel.length);
+        return mSink;
+    }
+}
@@ -0,0 +1,80 @@
+package jp.android.bletest.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of Heart Rate Measurement notifications into a reused record.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationParsingBenchmark {
+    // Largest notification with the default MTU of 23 bytes.
+    private static final int MAX_DEFAULT_PAYLOAD = 20;
+    // Largest notification with an MTU of 247 bytes, which fits a single data length extended
+    // link layer packet.
+    private static final int MAX_EXTENDED_PAYLOAD = 244;
+
+    // Flags: UINT8 heart rate only.
+    private final byte[] mMinimal = {0x00, 72};
+    // Flags: UINT8, energy expended and two RR intervals present.
+    private final byte[] mTypical = {0x18, 72, 0x10, 0x27, 0x00, 0x04, 0x00, 0x02};
+    private final byte[] mDefaultMtu = new byte[MAX_DEFAULT_PAYLOAD];
+    private final byte[] mExtendedMtu = new byte[MAX_EXTENDED_PAYLOAD];
+
+    private final HeartRateMeasurement mMeasurement = new HeartRateMeasurement(256);
+
+    @Setup
+    public void setUp() {
+        fillRrIntervals(mDefaultMtu);
+        fillRrIntervals(mExtendedMtu);
+    }
+
+    // Flags: UINT8 heart rate and as many RR intervals as fit.
+    private static void fillRrIntervals(byte[] data) {
+        data[0] = 0x10;
+        data[1] = 72;
+        for (int i = 2; i + 1 < data.length; i += 2) {
+            data[i] = (byte) 0x00;
+            data[i + 1] = (byte) (0x03 + i % 2);
+        }
+    }
+
+    @Benchmark
+    public int minimal() {
+        HeartRateMeasurementDecoder.decode(mMinimal, 0, mMinimal.length, mMeasurement);
+        return mMeasurement.heartRate;
+    }
+
+    @Benchmark
+    public int typical() {
+        HeartRateMeasurementDecoder.decode(mTypical, 0, mTypical.length, mMeasurement);
+        return mMeasurement.heartRate + mMeasurement.rrCount;
+    }
+
+    @Benchmark
+    public int rrIntervalsDefaultMtu() {
+        HeartRateMeasurementDecoder.decode(mDefaultMtu, 0, mDefaultMtu.length, mMeasurement);
+        return mMeasurement.rrCount;
+    }
+
+    @Benchmark
+    public int rrIntervalsExtendedMtu() {
+        HeartRateMeasurementDecoder.decode(mExtendedMtu, 0, mExtendedMtu.length, mMeasurement);
+        return mMeasurement.rrCount;
+    }
+}
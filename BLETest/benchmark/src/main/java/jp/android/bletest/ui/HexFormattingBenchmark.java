@@ -0,0 +1,56 @@
+package jp.android.bletest.ui;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of characteristic values for display, done for every value of a profile without
+ * a dedicated decoder.  {@code formatter} is the table-driven {@link ValueFormatter} writing into
+ * its reused buffer; {@code stringFormat} is the previous implementation, kept as the baseline.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HexFormattingBenchmark {
+    // A default MTU notification, a data length extended one and the largest attribute value.
+    @Param({"20", "244", "512"})
+    public int length;
+
+    private byte[] mValue;
+    private final ValueFormatter mFormatter = new ValueFormatter();
+
+    @Setup
+    public void setUp() {
+        mValue = new byte[length];
+        for (int i = 0; i < length; i++) {
+            mValue[i] = (byte) ('A' + i % 26);
+        }
+    }
+
+    @Benchmark
+    public int formatter() {
+        return mFormatter.format(mValue, 0, mValue.length).getLength();
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        final StringBuilder stringBuilder = new StringBuilder(mValue.length);
+        for (byte b : mValue)
+            stringBuilder.append(String.format("%02X ", b));
+        return new String(mValue) + "\n" + stringBuilder.toString();
+    }
+}
@@ -0,0 +1,261 @@
+package jp.android.blethermometer;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * Cursor over the AD structures of an advertising or scan response payload.
+ *
+ * <p>The payload is walked in place: {@link #next} only moves offsets into the array passed to
+ * {@link #reset}, and the lookup helpers compare the raw bytes without creating {@link UUID}s or
+ * copies of the values.  Only {@link #getLocalName} allocates.  An instance can be reused for
+ * every advertisement but is not thread-safe.
+ */
+class AdvertisingData {
+    // AD types, see Bluetooth Core Specification Supplement, Part A.
+    static final int TYPE_FLAGS = 0x01;
+    static final int TYPE_INCOMPLETE_SERVICE_UUIDS_16 = 0x02;
+    static final int TYPE_COMPLETE_SERVICE_UUIDS_16 = 0x03;
+    static final int TYPE_INCOMPLETE_SERVICE_UUIDS_32 = 0x04;
+    static final int TYPE_COMPLETE_SERVICE_UUIDS_32 = 0x05;
+    static final int TYPE_INCOMPLETE_SERVICE_UUIDS_128 = 0x06;
+    static final int TYPE_COMPLETE_SERVICE_UUIDS_128 = 0x07;
+    static final int TYPE_SHORTENED_LOCAL_NAME = 0x08;
+    static final int TYPE_COMPLETE_LOCAL_NAME = 0x09;
+    static final int TYPE_TX_POWER_LEVEL = 0x0A;
+    static final int TYPE_SERVICE_DATA_16 = 0x16;
+    static final int TYPE_SERVICE_DATA_32 = 0x20;
+    static final int TYPE_SERVICE_DATA_128 = 0x21;
+    static final int TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    // Bluetooth Base UUID 00000000-0000-1000-8000-00805F9B34FB.
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] mData;
+    private int mStart;
+    private int mEnd;
+    private int mNext;
+
+    // Current AD structure.
+    private int mType = -1;
+    private int mValueOffset;
+    private int mValueLength;
+
+    AdvertisingData reset(byte[] data) {
+        if (data == null) {
+            throw new NullPointerException("data must not be null");
+        }
+        return reset(data, 0, data.length);
+    }
+
+    AdvertisingData reset(byte[] data, int offset, int length) {
+        if (data == null) {
+            throw new NullPointerException("data must not be null");
+        }
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IllegalArgumentException("offset=" + offset + ", length=" + length
+                    + ", data.length=" + data.length);
+        }
+        mData = data;
+        mStart = offset;
+        mEnd = offset + length;
+        rewind();
+        return this;
+    }
+
+    /**
+     * Moves the cursor back before the first AD structure.
+     */
+    void rewind() {
+        mNext = mStart;
+        mType = -1;
+        mValueOffset = 0;
+        mValueLength = 0;
+    }
+
+    /**
+     * Moves the cursor to the next AD structure.
+     *
+     * @return false at the end of the significant part of the payload.  A zero length field
+     *         (padding) or a structure running past the end of the payload also ends it.
+     */
+    boolean next() {
+        if (mData == null || mNext >= mEnd) {
+            mType = -1;
+            return false;
+        }
+        int length = mData[mNext] & 0xFF;
+        if (length == 0 || mNext + 1 + length > mEnd) {
+            mNext = mEnd;
+            mType = -1;
+            return false;
+        }
+        mType = mData[mNext + 1] & 0xFF;
+        mValueOffset = mNext + 2;
+        mValueLength = length - 1;
+        mNext += 1 + length;
+        return true;
+    }
+
+    /**
+     * Moves the cursor to the first AD structure of the given type.
+     */
+    boolean find(int type) {
+        rewind();
+        while (next()) {
+            if (mType == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getType() {
+        return mType;
+    }
+
+    /**
+     * @return The array passed to {@link #reset}, into which {@link #getValueOffset} points.
+     */
+    byte[] getData() {
+        return mData;
+    }
+
+    int getValueOffset() {
+        return mValueOffset;
+    }
+
+    int getValueLength() {
+        return mValueLength;
+    }
+
+    /**
+     * @return The flags, or -1 if they are not advertised.
+     */
+    int getFlags() {
+        if (!find(TYPE_FLAGS) || mValueLength < 1) {
+            return -1;
+        }
+        return mData[mValueOffset] & 0xFF;
+    }
+
+    /**
+     * @return The TX power level in dBm, or {@link Integer#MIN_VALUE} if it is not advertised.
+     */
+    int getTxPowerLevel() {
+        if (!find(TYPE_TX_POWER_LEVEL) || mValueLength < 1) {
+            return Integer.MIN_VALUE;
+        }
+        return mData[mValueOffset];
+    }
+
+    /**
+     * @return The company identifier of the manufacturer specific data, or -1 if there is none.
+     *         The data following the identifier starts at {@code getValueOffset() + 2}.
+     */
+    int getManufacturerId() {
+        if (!find(TYPE_MANUFACTURER_SPECIFIC_DATA) || mValueLength < 2) {
+            return -1;
+        }
+        return readUInt16(mValueOffset);
+    }
+
+    /**
+     * @return The complete or, if absent, the shortened local name, or null.
+     */
+    String getLocalName() {
+        if (!find(TYPE_COMPLETE_LOCAL_NAME) && !find(TYPE_SHORTENED_LOCAL_NAME)) {
+            return null;
+        }
+        return new String(mData, mValueOffset, mValueLength, UTF_8);
+    }
+
+    boolean hasServiceUuid(UUID uuid) {
+        return hasServiceUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @param uuid16 A 16-bit UUID assigned by the Bluetooth SIG, e.g. 0x1809.
+     */
+    boolean hasServiceUuid16(int uuid16) {
+        return hasServiceUuid(toMostSignificantBits(uuid16), BASE_UUID_LSB);
+    }
+
+    /**
+     * Returns whether the service is listed in any of the service UUID lists, regardless of the
+     * width in which it is advertised.
+     */
+    boolean hasServiceUuid(long msb, long lsb) {
+        boolean shortened = lsb == BASE_UUID_LSB && (msb & 0xFFFFFFFFL) == BASE_UUID_MSB;
+        rewind();
+        while (next()) {
+            int end = mValueOffset + mValueLength;
+            switch (mType) {
+                case TYPE_INCOMPLETE_SERVICE_UUIDS_16:
+                case TYPE_COMPLETE_SERVICE_UUIDS_16:
+                    if (shortened) {
+                        for (int i = mValueOffset; i + 2 <= end; i += 2) {
+                            if (toMostSignificantBits(readUInt16(i)) == msb) {
+                                return true;
+                            }
+                        }
+                    }
+                    break;
+                case TYPE_INCOMPLETE_SERVICE_UUIDS_32:
+                case TYPE_COMPLETE_SERVICE_UUIDS_32:
+                    if (shortened) {
+                        for (int i = mValueOffset; i + 4 <= end; i += 4) {
+                            if (toMostSignificantBits(readUInt32(i)) == msb) {
+                                return true;
+                            }
+                        }
+                    }
+                    break;
+                case TYPE_INCOMPLETE_SERVICE_UUIDS_128:
+                case TYPE_COMPLETE_SERVICE_UUIDS_128:
+                    for (int i = mValueOffset; i + 16 <= end; i += 16) {
+                        if (readInt64(i) == lsb && readInt64(i + 8) == msb) {
+                            return true;
+                        }
+                    }
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the cursor to the service data of a 16-bit service UUID.  The data following the
+     * UUID starts at {@code getValueOffset() + 2}.
+     */
+    boolean findServiceData16(int uuid16) {
+        rewind();
+        while (next()) {
+            if (mType == TYPE_SERVICE_DATA_16 && mValueLength >= 2
+                    && readUInt16(mValueOffset) == uuid16) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long toMostSignificantBits(long uuid32) {
+        return (uuid32 << 32) | BASE_UUID_MSB;
+    }
+
+    // Multi-byte fields are little-endian.
+    private int readUInt16(int offset) {
+        return (mData[offset] & 0xFF) | (mData[offset + 1] & 0xFF) << 8;
+    }
+
+    private long readUInt32(int offset) {
+        return (readUInt16(offset) | (long) readUInt16(offset + 2) << 16) & 0xFFFFFFFFL;
+    }
+
+    private long readInt64(int offset) {
+        return readUInt32(offset) | readUInt32(offset + 4) << 32;
+    }
+}
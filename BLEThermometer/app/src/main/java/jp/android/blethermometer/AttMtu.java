@@ -0,0 +1,103 @@
+package jp.android.blethermometer;
+
+/**
+ * ATT MTU agreed on a connection, and the payload sizes it allows.
+ *
+ * <p>Every connection starts with the default MTU of 23 bytes until an MTU exchange completes.
+ * The payload of a PDU is the MTU minus its opcode and parameters: 3 bytes of opcode and handle
+ * for writes and notifications, 5 bytes with the value offset of a prepared write, and 1 byte of
+ * opcode for read and read blob responses.  No payload exceeds the maximum attribute length.
+ *
+ * <p>The value is set from the GATT callback thread and read from any thread.
+ */
+class AttMtu {
+    static final int DEFAULT_MTU = 23;
+    // Largest MTU requested by Android, so that a 512 byte value fits into a single write.
+    static final int MAX_MTU = 517;
+    static final int MAX_ATTRIBUTE_LENGTH = 512;
+
+    private volatile int mMtu = DEFAULT_MTU;
+
+    public int get() {
+        return mMtu;
+    }
+
+    /**
+     * Records the MTU reported by {@code onMtuChanged}.  Values out of range are clamped.
+     */
+    public void set(int mtu) {
+        mMtu = Math.max(DEFAULT_MTU, Math.min(MAX_MTU, mtu));
+    }
+
+    /**
+     * Goes back to the default MTU, when the connection is closed.
+     */
+    public void reset() {
+        mMtu = DEFAULT_MTU;
+    }
+
+    /**
+     * @return The largest value of a write request, a write command or a notification.
+     */
+    public int getMaxWritePayload() {
+        return maxWritePayload(mMtu);
+    }
+
+    /**
+     * @return The largest part of a value carried by a prepared write of a long write.
+     */
+    public int getMaxPrepareWritePayload() {
+        return maxPrepareWritePayload(mMtu);
+    }
+
+    /**
+     * @return The largest part of a value carried by a read or read blob response.
+     */
+    public int getMaxReadPayload() {
+        return maxReadPayload(mMtu);
+    }
+
+    /**
+     * @return The number of writes needed to send {@code length} bytes in chunks of the maximum
+     *         write payload.
+     */
+    public int getWriteCount(int length) {
+        return chunkCount(length, getMaxWritePayload());
+    }
+
+    /**
+     * @return The number of read and read blob requests needed to read a value of
+     *         {@code length} bytes.  A full response is followed by another read blob, which is
+     *         how the end of a value that fills its last response is detected.
+     */
+    public int getReadCount(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative: " + length);
+        }
+        return length / getMaxReadPayload() + 1;
+    }
+
+    static int maxWritePayload(int mtu) {
+        return Math.min(MAX_ATTRIBUTE_LENGTH, mtu - 3);
+    }
+
+    static int maxPrepareWritePayload(int mtu) {
+        return Math.min(MAX_ATTRIBUTE_LENGTH, mtu - 5);
+    }
+
+    static int maxReadPayload(int mtu) {
+        return Math.min(MAX_ATTRIBUTE_LENGTH, mtu - 1);
+    }
+
+    static int chunkCount(int length, int chunkSize) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative: " + length);
+        }
+        return (length + chunkSize - 1) / chunkSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(mMtu);
+    }
+}
@@ -0,0 +1,91 @@
+package jp.android.blethermometer;
+
+/**
+ * What a {@link SpscByteRing} does with values arriving faster than its consumer takes them.
+ *
+ * <p>Whatever the policy, a ring never holds more than its capacity, so memory stays flat however
+ * fast a device notifies.  Every value not delivered is counted by the ring.
+ */
+final class BackpressurePolicy {
+    enum Kind {
+        /** Drops the arriving value when the ring is full. */
+        DROP_NEWEST,
+        /** Drops the oldest values beyond a limit, so that the consumer sees the newest ones. */
+        DROP_OLDEST,
+        /** Passes one value in every N and drops the others. */
+        SAMPLE,
+        /** Makes the producer wait for a free slot, up to a timeout, then drops the value. */
+        BLOCK,
+    }
+
+    private static final BackpressurePolicy DROP_NEWEST = new BackpressurePolicy(Kind.DROP_NEWEST, 0);
+    private static final BackpressurePolicy KEEP_LATEST = new BackpressurePolicy(Kind.DROP_OLDEST, 1);
+
+    private final Kind mKind;
+    // The limit for DROP_OLDEST, N for SAMPLE, the timeout in ms for BLOCK.
+    private final long mParameter;
+
+    private BackpressurePolicy(Kind kind, long parameter) {
+        mKind = kind;
+        mParameter = parameter;
+    }
+
+    public static BackpressurePolicy dropNewest() {
+        return DROP_NEWEST;
+    }
+
+    /**
+     * @param limit The most values kept waiting for the consumer.  Must be below the capacity of
+     *              the ring; when the consumer stalls altogether the ring still fills up and drops
+     *              the newest values.
+     */
+    public static BackpressurePolicy dropOldest(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        return limit == 1 ? KEEP_LATEST : new BackpressurePolicy(Kind.DROP_OLDEST, limit);
+    }
+
+    /**
+     * Passes only the newest value waiting when the consumer gets to it.  For consumers that only
+     * show the current state.
+     */
+    public static BackpressurePolicy keepLatest() {
+        return KEEP_LATEST;
+    }
+
+    public static BackpressurePolicy sample(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        return new BackpressurePolicy(Kind.SAMPLE, n);
+    }
+
+    /**
+     * Blocks the producer, i.e. the GATT callback thread, so the timeout should stay well below a
+     * connection interval.
+     */
+    public static BackpressurePolicy block(long timeoutMs) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("timeoutMs must be positive: " + timeoutMs);
+        }
+        return new BackpressurePolicy(Kind.BLOCK, timeoutMs);
+    }
+
+    public Kind getKind() {
+        return mKind;
+    }
+
+    /**
+     * @return The limit for {@link Kind#DROP_OLDEST}, N for {@link Kind#SAMPLE}, the timeout in ms
+     *         for {@link Kind#BLOCK}, or 0.
+     */
+    public long getParameter() {
+        return mParameter;
+    }
+
+    @Override
+    public String toString() {
+        return mKind == Kind.DROP_NEWEST ? mKind.toString() : mKind + "(" + mParameter + ")";
+    }
+}
@@ -0,0 +1,75 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Dispatches {@link GattOperation}s to a {@link BluetoothGatt}.
+ */
+class BluetoothGattTarget implements GattOperationQueue.Target {
+    private static final String TAG = BluetoothGattTarget.class.getSimpleName();
+
+    private final BluetoothGatt mGatt;
+
+    public BluetoothGattTarget(BluetoothGatt gatt) {
+        if (gatt == null) {
+            throw new NullPointerException("gatt must not be null");
+        }
+        mGatt = gatt;
+    }
+
+    @Override
+    public boolean dispatch(GattOperation operation) {
+        if (operation.type == GattOperation.Type.REQUEST_MTU) {
+            return mGatt.requestMtu(operation.mtu);
+        }
+
+        BluetoothGattService service = mGatt.getService(operation.serviceUuid);
+        if (service == null) {
+            Log.w(TAG, "Service not found: uuid=" + operation.serviceUuid);
+            return false;
+        }
+        BluetoothGattCharacteristic characteristic = service.getCharacteristic(operation.characteristicUuid);
+        if (characteristic == null) {
+            Log.w(TAG, "Characteristic not found: uuid=" + operation.characteristicUuid);
+            return false;
+        }
+
+        switch (operation.type) {
+            case READ_CHARACTERISTIC:
+                return mGatt.readCharacteristic(characteristic);
+            case WRITE_CHARACTERISTIC:
+                characteristic.setWriteType(operation.writeType);
+                characteristic.setValue(operation.value);
+                return mGatt.writeCharacteristic(characteristic);
+        }
+
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(operation.descriptorUuid);
+        if (descriptor == null) {
+            Log.w(TAG, "Descriptor not found: uuid=" + operation.descriptorUuid);
+            return false;
+        }
+        switch (operation.type) {
+            case READ_DESCRIPTOR:
+                return mGatt.readDescriptor(descriptor);
+            case WRITE_DESCRIPTOR:
+                if (GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION.equals(operation.descriptorUuid)) {
+                    // Local notification routing has to follow the CCCD written to the peer.
+                    boolean enabled = !Arrays.equals(operation.value,
+                            BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                    if (!mGatt.setCharacteristicNotification(characteristic, enabled)) {
+                        return false;
+                    }
+                }
+                descriptor.setValue(operation.value);
+                return mGatt.writeDescriptor(descriptor);
+            default:
+                return false;
+        }
+    }
+}
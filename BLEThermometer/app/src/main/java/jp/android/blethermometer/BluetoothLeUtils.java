@@ -1,84 +1,147 @@
 package jp.android.blethermometer;
 
-import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.util.Log;
 
+import java.util.Arrays;
+import java.util.UUID;
+
 class BluetoothLeUtils {
     private static final String TAG = BluetoothLeUtils.class.getSimpleName();
 
-    public static boolean changeGattMtu(BluetoothGatt gatt, int mtu) {
-        int retry = 5;
-        boolean ok = false;
-        while (!ok && retry > 0) {
-            ok = gatt.requestMtu(mtu);
-            retry--;
+    /**
+     * Enqueues an MTU exchange.  The agreed MTU is reported to {@code onMtuChanged} before the
+     * callback is called.
+     */
+    public static void changeGattMtu(GattOperationQueue queue, int mtu, GattOperation.Callback callback) {
+        if (queue == null) {
+            throw new NullPointerException("queue must not be null");
         }
-        return ok;
-    }
-
-    public static boolean enableNotification(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        return setNotification(gatt, characteristic, true);
+        if (mtu < AttMtu.DEFAULT_MTU || mtu > AttMtu.MAX_MTU) {
+            throw new IllegalArgumentException("mtu out of range: " + mtu);
+        }
+        queue.enqueue(GattOperation.requestMtu(mtu).setCallback(callback));
     }
 
-    public static boolean disableNotification(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        return setNotification(gatt, characteristic, false);
-    }
+    /**
+     * Enqueues the writes of a value.  A write without response carries at most the maximum
+     * write payload of the MTU, so longer values are split into as many writes, each of which
+     * reports to the callback.  Write requests are sent as one operation, which the stack turns
+     * into a long write if needed.
+     *
+     * @param writeType One of {@code BluetoothGattCharacteristic.WRITE_TYPE_*}.
+     *
+     * @return The number of operations enqueued.
+     */
+    public static int writeCharacteristic(GattOperationQueue queue, AttMtu mtu, UUID serviceUuid,
+                                          UUID characteristicUuid, byte[] value, int writeType,
+                                          GattOperation.Callback callback) {
+        if (queue == null) {
+            throw new NullPointerException("queue must not be null");
+        }
+        if (mtu == null) {
+            throw new NullPointerException("mtu must not be null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value must not be null");
+        }
+        if (writeType != BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
+            if (value.length > AttMtu.MAX_ATTRIBUTE_LENGTH) {
+                throw new IllegalArgumentException("value too long: " + value.length);
+            }
+            queue.enqueue(GattOperation.writeCharacteristic(serviceUuid, characteristicUuid, value,
+                    writeType).setCallback(callback));
+            return 1;
+        }
 
-    private static boolean setNotification(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic,
-                                           boolean enabled) {
-        if (gatt == null) {
-            throw new NullPointerException("gatt must not be null");
+        int payload = mtu.getMaxWritePayload();
+        if (value.length <= payload) {
+            queue.enqueue(GattOperation.writeCharacteristic(serviceUuid, characteristicUuid, value,
+                    writeType).setCallback(callback));
+            return 1;
         }
-        if (characteristic == null) {
-            throw new NullPointerException("characteristic must not be null");
+        int count = 0;
+        for (int offset = 0; offset < value.length; offset += payload) {
+            byte[] chunk = Arrays.copyOfRange(value, offset, Math.min(value.length, offset + payload));
+            queue.enqueue(GattOperation.writeCharacteristic(serviceUuid, characteristicUuid, chunk,
+                    writeType).setCallback(callback));
+            count++;
         }
+        return count;
+    }
 
-        gatt.setCharacteristicNotification(characteristic, enabled);
-        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
-                GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION);
-        if (descriptor == null) {
-            Log.w(TAG, "Descriptor not found: uuid=" + GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION);
-            return false;
+    /**
+     * Enqueues a read of a value expected to be up to {@code expectedLength} bytes long.  The
+     * stack reads long values with read blob requests of the maximum read payload of the MTU, so
+     * the timeout is extended by one default timeout for every additional request.
+     */
+    public static void readCharacteristic(GattOperationQueue queue, AttMtu mtu, UUID serviceUuid,
+                                          UUID characteristicUuid, int expectedLength,
+                                          GattOperation.Callback callback) {
+        if (queue == null) {
+            throw new NullPointerException("queue must not be null");
         }
-        if (enabled) {
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        } else {
-            descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        if (mtu == null) {
+            throw new NullPointerException("mtu must not be null");
         }
-        return gatt.writeDescriptor(descriptor);
+        queue.enqueue(GattOperation.readCharacteristic(serviceUuid, characteristicUuid)
+                .setTimeout(GattOperation.DEFAULT_TIMEOUT * mtu.getReadCount(expectedLength))
+                .setCallback(callback));
     }
 
-    public static boolean enableIndication(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        return setIndication(gatt, characteristic, true);
+    public static boolean enableNotification(GattOperationQueue queue, BluetoothGattCharacteristic characteristic,
+                                             GattOperation.Callback callback) {
+        return writeClientCharacteristicConfiguration(queue, characteristic,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, callback);
     }
 
-    public static boolean disableIndication(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        return setIndication(gatt, characteristic, false);
+    public static boolean disableNotification(GattOperationQueue queue, BluetoothGattCharacteristic characteristic,
+                                              GattOperation.Callback callback) {
+        return writeClientCharacteristicConfiguration(queue, characteristic,
+                BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, callback);
     }
 
-    private static boolean setIndication(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic,
-                                         boolean enabled) {
-        if (gatt == null) {
-            throw new NullPointerException("gatt must not be null");
+    public static boolean enableIndication(GattOperationQueue queue, BluetoothGattCharacteristic characteristic,
+                                           GattOperation.Callback callback) {
+        return writeClientCharacteristicConfiguration(queue, characteristic,
+                BluetoothGattDescriptor.ENABLE_INDICATION_VALUE, callback);
+    }
+
+    public static boolean disableIndication(GattOperationQueue queue, BluetoothGattCharacteristic characteristic,
+                                            GattOperation.Callback callback) {
+        return writeClientCharacteristicConfiguration(queue, characteristic,
+                BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, callback);
+    }
+
+    /**
+     * Enqueues a write of the Client Characteristic Configuration descriptor.  The local
+     * notification routing is updated by the queue target right before the write is issued.
+     *
+     * @return false if the characteristic has no Client Characteristic Configuration descriptor.
+     */
+    private static boolean writeClientCharacteristicConfiguration(GattOperationQueue queue,
+                                                                  BluetoothGattCharacteristic characteristic,
+                                                                  byte[] value,
+                                                                  GattOperation.Callback callback) {
+        if (queue == null) {
+            throw new NullPointerException("queue must not be null");
         }
         if (characteristic == null) {
             throw new NullPointerException("characteristic must not be null");
         }
 
-        gatt.setCharacteristicNotification(characteristic, enabled);
         BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
                 GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION);
         if (descriptor == null) {
             Log.w(TAG, "Descriptor not found: uuid=" + GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION);
             return false;
         }
-        if (enabled) {
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
-        } else {
-            descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-        }
-        return gatt.writeDescriptor(descriptor);
+        queue.enqueue(GattOperation.writeDescriptor(
+                characteristic.getService().getUuid(),
+                characteristic.getUuid(),
+                GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION,
+                value).setCallback(callback));
+        return true;
     }
 }
@@ -0,0 +1,29 @@
+package jp.android.blethermometer;
+
+import android.view.Choreographer;
+
+/**
+ * {@link CoalescingUpdater.FrameScheduler} running callbacks at the next vsync.  Must be created
+ * on the UI thread; callbacks may be posted from any thread.
+ */
+class ChoreographerFrameScheduler implements CoalescingUpdater.FrameScheduler {
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private volatile Runnable mCallback;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            Runnable callback = mCallback;
+            mCallback = null;
+            if (callback != null) {
+                callback.run();
+            }
+        }
+    };
+
+    @Override
+    public void postFrameCallback(Runnable callback) {
+        mCallback = callback;
+        mChoreographer.postFrameCallback(mFrameCallback);
+    }
+}
@@ -0,0 +1,321 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Pool of {@link DeviceConnection}s keyed by device address.
+ *
+ * <p>The number of active connections and the number of concurrent connection attempts are
+ * capped.  Connection requests over the attempt cap wait in FIFO order until an attempt finishes.
+ * Direct reconnection attempts count against the same cap; over it they are deferred, without
+ * counting as attempts, until a slot is free.  Connections disconnected for good are removed from the pool, and
+ * their metrics with them.
+ * Events of every device are routed through its own connection and forwarded to a single
+ * {@link DeviceConnection.Listener}.
+ */
+class ConnectionManager {
+    private static final String TAG = ConnectionManager.class.getSimpleName();
+
+    private static final String GATT_LAYOUT_DIRECTORY = "gatt";
+
+    private final Context mContext;
+    private final GattLayoutCache mLayoutCache;
+    private final Scheduler mScheduler;
+    private final DecodeWorker mWorker;
+    private final DeviceConnection.Listener mListener;
+    private final int mMaxConnections;
+    private final int mMaxConnectionAttempts;
+
+    private final HashMap<String, DeviceConnection> mConnections = new HashMap<String, DeviceConnection>();
+    private final ArrayDeque<DeviceConnection> mPending = new ArrayDeque<DeviceConnection>();
+    private boolean mUpdateEnabled;
+    private BackpressurePolicy mBackpressurePolicy = BackpressurePolicy.dropNewest();
+
+    /**
+     * @param worker                Decodes the measurements of every device.
+     * @param maxConnections        The maximum number of devices connected or being connected.
+     * @param maxConnectionAttempts The maximum number of connection attempts in progress at the
+     *                              same time.
+     */
+    public ConnectionManager(Context context, Scheduler scheduler, DecodeWorker worker,
+                             DeviceConnection.Listener listener, int maxConnections,
+                             int maxConnectionAttempts) {
+        if (context == null) {
+            throw new NullPointerException("context must not be null");
+        }
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler must not be null");
+        }
+        if (worker == null) {
+            throw new NullPointerException("worker must not be null");
+        }
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        }
+        if (maxConnectionAttempts <= 0) {
+            throw new IllegalArgumentException("maxConnectionAttempts must be positive: " + maxConnectionAttempts);
+        }
+        mContext = context.getApplicationContext();
+        mLayoutCache = new GattLayoutCache(new File(mContext.getCacheDir(), GATT_LAYOUT_DIRECTORY));
+        mScheduler = scheduler;
+        mWorker = worker;
+        mListener = listener;
+        mMaxConnections = maxConnections;
+        mMaxConnectionAttempts = maxConnectionAttempts;
+    }
+
+    /**
+     * Connects to a device, or queues the request if too many connection attempts are in
+     * progress.
+     *
+     * @return false if the device is already connected or being connected, or if the pool is
+     *         full.
+     */
+    public boolean connect(BluetoothDevice device) {
+        if (device == null) {
+            throw new NullPointerException("device must not be null");
+        }
+        DeviceConnection connection;
+        DeviceConnection closed = null;
+        synchronized (this) {
+            String address = device.getAddress();
+            connection = mConnections.get(address);
+            if (connection != null
+                    && (connection.getConnectionStatus() != ConnectionStatus.DISCONNECTED
+                    || mPending.contains(connection))) {
+                return false;
+            }
+            if (isFull()) {
+                Log.w(TAG, "Too many connections: address=" + address);
+                return false;
+            }
+            // A connection closed for good is replaced rather than reused, since it may be
+            // released concurrently by removeIfClosed().
+            closed = connection;
+            connection = new DeviceConnection(mContext, device, mScheduler, mLayoutCache, mWorker,
+                    mConnectionListener);
+            connection.setUpdateEnabled(mUpdateEnabled);
+            connection.setBackpressurePolicy(mBackpressurePolicy);
+            connection.setAttemptGate(mAttemptGate);
+            mConnections.put(address, connection);
+            if (getConnectingCount() >= mMaxConnectionAttempts) {
+                Log.d(TAG, "Connection attempt queued: address=" + address);
+                mPending.add(connection);
+                connection = null;
+            }
+        }
+        if (closed != null) {
+            closed.release();
+        }
+        if (connection == null) {
+            return true;
+        }
+        if (!connection.connect()) {
+            removeIfClosed(connection);
+            return false;
+        }
+        return true;
+    }
+
+    public void disconnect(String address) {
+        DeviceConnection connection;
+        synchronized (this) {
+            connection = mConnections.get(address);
+            if (connection == null) {
+                return;
+            }
+            mPending.remove(connection);
+        }
+        connection.disconnect();
+        // A connection which was only queued reports no status change.
+        removeIfClosed(connection);
+    }
+
+    public void disconnectAll() {
+        for (DeviceConnection connection : clearPendingAndGetConnections()) {
+            connection.disconnect();
+            removeIfClosed(connection);
+        }
+    }
+
+    /**
+     * Enables or disables temperature updates on all current and future connections.
+     */
+    public void setUpdateEnabled(boolean enabled) {
+        List<DeviceConnection> connections;
+        synchronized (this) {
+            mUpdateEnabled = enabled;
+            connections = new ArrayList<DeviceConnection>(mConnections.values());
+        }
+        for (DeviceConnection connection : connections) {
+            connection.setUpdateEnabled(enabled);
+        }
+    }
+
+    public synchronized boolean isUpdateEnabled() {
+        return mUpdateEnabled;
+    }
+
+    /**
+     * Sets the backpressure policy of all current and future connections.
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy must not be null");
+        }
+        List<DeviceConnection> connections;
+        synchronized (this) {
+            mBackpressurePolicy = policy;
+            connections = new ArrayList<DeviceConnection>(mConnections.values());
+        }
+        for (DeviceConnection connection : connections) {
+            connection.setBackpressurePolicy(policy);
+        }
+    }
+
+    public synchronized BackpressurePolicy getBackpressurePolicy() {
+        return mBackpressurePolicy;
+    }
+
+    public synchronized DeviceConnection get(String address) {
+        return mConnections.get(address);
+    }
+
+    public synchronized List<DeviceConnection> getConnections() {
+        return new ArrayList<DeviceConnection>(mConnections.values());
+    }
+
+    /**
+     * @return true if no more devices can be connected.
+     */
+    public synchronized boolean isFull() {
+        return getActiveCount() >= mMaxConnections;
+    }
+
+    public synchronized int getCount(ConnectionStatus status) {
+        int count = 0;
+        for (DeviceConnection connection : mConnections.values()) {
+            if (connection.getConnectionStatus() == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Prints the metrics of every device for {@code dumpsys}.
+     */
+    public void dumpMetrics(String prefix, PrintWriter writer) {
+        for (DeviceConnection connection : getConnections()) {
+            connection.getMetrics().dump(prefix, writer);
+        }
+    }
+
+    /**
+     * @return The metrics of every device as a JSON array.
+     */
+    public String getMetricsJson() {
+        StringBuilder out = new StringBuilder("[");
+        for (DeviceConnection connection : getConnections()) {
+            if (out.length() > 1) {
+                out.append(',');
+            }
+            connection.getMetrics().appendJson(out);
+        }
+        return out.append(']').toString();
+    }
+
+    private synchronized List<DeviceConnection> clearPendingAndGetConnections() {
+        mPending.clear();
+        return new ArrayList<DeviceConnection>(mConnections.values());
+    }
+
+    // Must be called with the lock held.
+    private int getActiveCount() {
+        return mConnections.size() - getCount(ConnectionStatus.DISCONNECTED) + mPending.size();
+    }
+
+    // Must be called with the lock held.
+    private int getConnectingCount() {
+        return getCount(ConnectionStatus.CONNECTING);
+    }
+
+    private void connectPending() {
+        while (true) {
+            DeviceConnection next;
+            synchronized (this) {
+                if (mPending.isEmpty() || getConnectingCount() >= mMaxConnectionAttempts) {
+                    return;
+                }
+                next = mPending.poll();
+            }
+            // Keeps going while attempts are free, whether the connection started or not.
+            if (!next.connect()) {
+                removeIfClosed(next);
+            }
+        }
+    }
+
+    // Forgets a connection which is disconnected for good, i.e. neither reconnecting nor queued,
+    // so that neither it nor its ring outlive the device.
+    private void removeIfClosed(DeviceConnection connection) {
+        synchronized (this) {
+            String address = connection.getAddress();
+            if (mConnections.get(address) != connection
+                    || connection.getConnectionStatus() != ConnectionStatus.DISCONNECTED
+                    || mPending.contains(connection)) {
+                return;
+            }
+            mConnections.remove(address);
+        }
+        connection.release();
+    }
+
+    // Holds the direct attempts of the reconnection engines to the same cap as connect(), and
+    // behind the requests already waiting.
+    private final DeviceConnection.AttemptGate mAttemptGate = new DeviceConnection.AttemptGate() {
+        @Override
+        public boolean tryAttempt(DeviceConnection connection) {
+            synchronized (ConnectionManager.this) {
+                return mPending.isEmpty() && getConnectingCount() < mMaxConnectionAttempts;
+            }
+        }
+    };
+
+    // Routes the events of every connection to the listener, and starts queued connection
+    // attempts once a running attempt has finished.
+    private final DeviceConnection.Listener mConnectionListener = new DeviceConnection.Listener() {
+        @Override
+        public void onConnectionStatusChanged(DeviceConnection connection, ConnectionStatus status) {
+            mListener.onConnectionStatusChanged(connection, status);
+            if (status == ConnectionStatus.DISCONNECTED) {
+                removeIfClosed(connection);
+            }
+            if (status != ConnectionStatus.CONNECTING) {
+                connectPending();
+            }
+        }
+
+        @Override
+        public void onGattStatusChanged(DeviceConnection connection, GattStatus status) {
+            mListener.onGattStatusChanged(connection, status);
+        }
+
+        @Override
+        public void onTemperature(DeviceConnection connection, Temperature temperature) {
+            mListener.onTemperature(connection, temperature);
+        }
+    };
+}
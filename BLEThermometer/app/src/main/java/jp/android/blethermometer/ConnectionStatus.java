@@ -2,6 +2,9 @@ package jp.android.blethermometer;
 
 enum ConnectionStatus {
     CONNECTING,
+    // Lost and being reconnected: waiting for the next attempt, or for a background attempt
+    // to find the device.
+    RECONNECTING,
     CONNECTED,
     DISCONNECTING,
     DISCONNECTED,
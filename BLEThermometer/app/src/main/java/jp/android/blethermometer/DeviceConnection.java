@@ -0,0 +1,907 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * GATT connection to a single thermometer.
+ *
+ * <p>Each connection owns its {@link BluetoothGatt}, its {@link GattOperationQueue} and its own
+ * {@link BluetoothGattCallback}, and tracks its state with {@link ConnectionStatus} and
+ * {@link GattStatus}:
+ *
+ * <pre>
+ * DISCONNECTED --connect()--> CONNECTING --STATE_CONNECTED--> CONNECTED --disconnect()--> DISCONNECTING
+ *      ^                       |      ^                         |    ^                         |
+ *      |                failed |      | direct attempt     lost |    | background attempt      |
+ *      |                       v      |                         v    |                         |
+ *      |                     RECONNECTING <---------------------+----+                         |
+ *      |                           |                                                           |
+ *      +----- disconnect() --------+------------- STATE_DISCONNECTED / close() ----------------+
+ * </pre>
+ *
+ * A connection which was not closed on purpose is reconnected by a {@link ReconnectionEngine},
+ * direct attempts showing as CONNECTING and background attempts as RECONNECTING.  The update
+ * setting and the writers carry over to the new connection.
+ *
+ * Listener methods are never called while the connection holds its lock.
+ */
+class DeviceConnection {
+    private static final String TAG = DeviceConnection.class.getSimpleName();
+
+    private static final int MTU = AttMtu.MAX_MTU;
+    // Time without bursts after which the link goes to low power.
+    private static final long PRIORITY_IDLE_TIMEOUT = 10000; // milliseconds
+    // Histogram of the rolling statistics: 0.1 degree bins between 30 and 45 degrees Celsius.
+    private static final float STATS_LOWEST = 30f;
+    private static final float STATS_HIGHEST = 45f;
+    private static final int STATS_BIN_COUNT = 150;
+    // Measurements waiting for the decode worker.  A Health Thermometer Measurement is at most 13
+    // bytes, so a slot of one default ATT payload is enough.
+    private static final int RING_CAPACITY = 64;
+    private static final int RING_SLOT_SIZE = AttMtu.DEFAULT_MTU - 3;
+
+    interface Listener {
+        void onConnectionStatusChanged(DeviceConnection connection, ConnectionStatus status);
+
+        void onGattStatusChanged(DeviceConnection connection, GattStatus status);
+
+        /**
+         * Called on the decode worker thread.  The record is reused for the next measurement.
+         */
+        void onTemperature(DeviceConnection connection, Temperature temperature);
+    }
+
+    interface AttemptGate {
+        /**
+         * Called before each direct attempt of the reconnection engine, without the lock of the
+         * connection held.
+         *
+         * @return false if too many attempts are in progress.  The engine then asks again after a
+         *         short delay, without counting the attempt.
+         */
+        boolean tryAttempt(DeviceConnection connection);
+    }
+
+    private final Context mContext;
+    private final BluetoothDevice mDevice;
+    private final String mAddress;
+    private final Scheduler mScheduler;
+    private final GattLayoutCache mLayoutCache;
+    private final Listener mListener;
+    private volatile AttemptGate mAttemptGate;
+
+    private BluetoothGatt mBluetoothGatt;
+    private GattOperationQueue mGattQueue;
+    private final AttMtu mMtu = new AttMtu();
+    // Set once the MTU exchange of the connection completed.  Writers start from then on.
+    private boolean mWritable;
+    private final ArrayList<GattStreamWriter> mWriters = new ArrayList<GattStreamWriter>();
+    private final ConnectionPriorityPolicy mPriorityPolicy;
+    private final ReconnectionEngine mReconnection;
+    // Set by connect() and cleared by disconnect(): whether a lost connection is reconnected.
+    private boolean mAutoReconnect;
+    // Held from the connection until the services are discovered and the MTU is negotiated.
+    private final Object mDiscoveryBurst = new Object();
+    // Resolved once per service discovery.
+    private BluetoothGattCharacteristic mMeasurementCharacteristic;
+    private ConnectionStatus mConnectionStatus = ConnectionStatus.DISCONNECTED;
+    private GattStatus mGattStatus = GattStatus.NOT_AVAILABLE;
+    private boolean mUpdateEnabled;
+    // Set by release(), after which the connection cannot connect again.
+    private boolean mReleased;
+    // Temperatures in degrees Celsius.
+    private final RollingStats mStats = new RollingStats(STATS_LOWEST, STATS_HIGHEST, STATS_BIN_COUNT);
+    private final TemperatureReceiver mReceiver;
+    // Filled by the GATT callbacks and drained by the worker into the receiver.
+    private final SpscByteRing mRing = new SpscByteRing(RING_CAPACITY, RING_SLOT_SIZE);
+    private final DecodeWorker mWorker;
+    private final DeviceMetrics mMetrics;
+    // Start times in nanoseconds of the connection attempt and of the service discovery.
+    private long mConnectStartTime;
+    private long mDiscoveryStartTime;
+
+    /**
+     * @param worker Decodes the measurements of the device, off the GATT callback thread.
+     */
+    public DeviceConnection(Context context, BluetoothDevice device, Scheduler scheduler,
+                            GattLayoutCache layoutCache, DecodeWorker worker, Listener listener) {
+        if (context == null) {
+            throw new NullPointerException("context must not be null");
+        }
+        if (device == null) {
+            throw new NullPointerException("device must not be null");
+        }
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler must not be null");
+        }
+        if (layoutCache == null) {
+            throw new NullPointerException("layoutCache must not be null");
+        }
+        if (worker == null) {
+            throw new NullPointerException("worker must not be null");
+        }
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        mContext = context;
+        mDevice = device;
+        mAddress = device.getAddress();
+        mScheduler = scheduler;
+        mLayoutCache = layoutCache;
+        mListener = listener;
+        mPriorityPolicy = new ConnectionPriorityPolicy(scheduler, PRIORITY_IDLE_TIMEOUT);
+        mReconnection = new ReconnectionEngine(mReconnectionTarget, scheduler, new Random());
+        mMetrics = new DeviceMetrics(mAddress, mRing);
+        mReceiver = new TemperatureReceiver(mStats, scheduler, new TemperatureReceiver.Callback() {
+            @Override
+            public void onTemperature(Temperature temperature) {
+                mListener.onTemperature(DeviceConnection.this, temperature);
+            }
+        });
+        mWorker = worker;
+        worker.register(mRing, mRingConsumer);
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * @return Rolling statistics of the temperatures received, in degrees Celsius.
+     */
+    public RollingStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * @return The MTU of the current connection, which stays at the default until the exchange
+     *         requested after service discovery completes.
+     */
+    public AttMtu getMtu() {
+        return mMtu;
+    }
+
+    /**
+     * Streams a buffer to a characteristic with writes without response.  The writer starts once
+     * the services are discovered and the MTU is negotiated, and is suspended and resumed across
+     * reconnections until it finishes.
+     */
+    public GattStreamWriter write(UUID serviceUuid, UUID characteristicUuid, ByteBuffer data,
+                                  GattStreamWriter.Listener listener) {
+        return startWriter(new GattStreamWriter(serviceUuid, characteristicUuid, data, mMtu,
+                mScheduler, new WriterListener(listener)));
+    }
+
+    /**
+     * Streams an input stream to a characteristic, like {@link #write(UUID, UUID, ByteBuffer,
+     * GattStreamWriter.Listener)}.
+     *
+     * @param length Length of the stream, or -1 if unknown.
+     */
+    public GattStreamWriter write(UUID serviceUuid, UUID characteristicUuid, InputStream data,
+                                  long length, GattStreamWriter.Listener listener) {
+        return startWriter(new GattStreamWriter(serviceUuid, characteristicUuid, data, length, mMtu,
+                mScheduler, new WriterListener(listener)));
+    }
+
+    private GattStreamWriter startWriter(GattStreamWriter writer) {
+        GattOperationQueue queue;
+        synchronized (this) {
+            pruneWriters();
+            mWriters.add(writer);
+            queue = mWritable ? mGattQueue : null;
+        }
+        if (queue != null) {
+            startWriter(writer, queue);
+        }
+        return writer;
+    }
+
+    // Holds a burst of high connection priority while the writer is writing.
+    private void startWriter(GattStreamWriter writer, GattOperationQueue queue) {
+        mPriorityPolicy.acquire(writer);
+        writer.start(queue);
+        if (writer.getState() != GattStreamWriter.State.WRITING) {
+            mPriorityPolicy.release(writer);
+        }
+    }
+
+    // Releases the burst of a writer which stopped writing.
+    private class WriterListener implements GattStreamWriter.Listener {
+        private final GattStreamWriter.Listener mDelegate;
+
+        WriterListener(GattStreamWriter.Listener delegate) {
+            if (delegate == null) {
+                throw new NullPointerException("listener must not be null");
+            }
+            mDelegate = delegate;
+        }
+
+        @Override
+        public void onProgress(GattStreamWriter writer, long bytesWritten) {
+            mDelegate.onProgress(writer, bytesWritten);
+        }
+
+        @Override
+        public void onSuspended(GattStreamWriter writer) {
+            mPriorityPolicy.release(writer);
+            mDelegate.onSuspended(writer);
+        }
+
+        @Override
+        public void onFinished(GattStreamWriter writer, int status) {
+            mPriorityPolicy.release(writer);
+            mDelegate.onFinished(writer, status);
+        }
+    }
+
+    // Must be called with the lock held.
+    private void pruneWriters() {
+        for (int i = mWriters.size() - 1; i >= 0; i--) {
+            if (mWriters.get(i).getState() == GattStreamWriter.State.FINISHED) {
+                mWriters.remove(i);
+            }
+        }
+    }
+
+    /**
+     * @return The connection priority policy, with which other bursts of traffic, e.g. the
+     *         download of stored records, can raise the priority of the link.
+     */
+    public ConnectionPriorityPolicy getPriorityPolicy() {
+        return mPriorityPolicy;
+    }
+
+    /**
+     * @return Latencies and counters of the connection, kept across reconnections.
+     */
+    public DeviceMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return The reconnection engine, with the time-to-reconnect statistics.
+     */
+    public ReconnectionEngine getReconnection() {
+        return mReconnection;
+    }
+
+    /**
+     * Sets what happens to temperature values arriving faster than the decode worker takes them.
+     * Values dropped are counted in the ring section of the metrics.
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        mRing.setPolicy(policy);
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return mRing.getPolicy();
+    }
+
+    /**
+     * Sets the gate through which the direct attempts of the reconnection engine pass, so that
+     * they count against a cap shared with other connections.
+     */
+    public void setAttemptGate(AttemptGate gate) {
+        mAttemptGate = gate;
+    }
+
+    public synchronized ConnectionStatus getConnectionStatus() {
+        return mConnectionStatus;
+    }
+
+    public synchronized GattStatus getGattStatus() {
+        return mGattStatus;
+    }
+
+    /**
+     * Initiates a direct connection.  The result is reported through
+     * {@link Listener#onConnectionStatusChanged(DeviceConnection, ConnectionStatus)}.  From then
+     * on the connection is reconnected whenever it fails or is lost, until {@link #disconnect()}.
+     *
+     * @return false if the connection is not disconnected or could not be initiated.
+     */
+    public boolean connect() {
+        return connectGatt(false, false);
+    }
+
+    // Opens a new GATT client, for connect() or for an attempt of the reconnection engine.
+    private boolean connectGatt(boolean autoConnect, boolean reconnection) {
+        ConnectionStatus status;
+        synchronized (this) {
+            if (mReleased || mConnectionStatus != (reconnection ? ConnectionStatus.RECONNECTING
+                    : ConnectionStatus.DISCONNECTED)) {
+                return false;
+            }
+            mConnectStartTime = mScheduler.nanoTime();
+            mMetrics.connectAttempts.incrementAndGet();
+            mBluetoothGatt = mDevice.connectGatt(mContext, autoConnect, mGattCallback);
+            if (mBluetoothGatt == null) {
+                Log.w(TAG, "Failed to connect: address=" + mAddress);
+                return false;
+            }
+            mGattQueue = new GattOperationQueue(new BluetoothGattTarget(mBluetoothGatt), mScheduler);
+            mGattQueue.setRecorder(mMetrics);
+            mAutoReconnect = true;
+            // A background attempt may wait for the device for hours, so it does not count as a
+            // connection attempt in progress.
+            status = autoConnect ? ConnectionStatus.RECONNECTING : ConnectionStatus.CONNECTING;
+            mConnectionStatus = status;
+        }
+        Log.d(TAG, "Trying to create a new connection: address=" + mAddress
+                + ", autoConnect=" + autoConnect);
+        if (status == ConnectionStatus.CONNECTING) {
+            mListener.onConnectionStatusChanged(this, status);
+        }
+        return true;
+    }
+
+    /**
+     * Disconnects the device and stops reconnecting it.  A pending connection attempt is cancelled
+     * immediately.
+     */
+    public void disconnect() {
+        ConnectionStatus status;
+        ClosedGatt closed = null;
+        synchronized (this) {
+            mAutoReconnect = false;
+            mReconnection.stop();
+            switch (mConnectionStatus) {
+                case CONNECTING:
+                case RECONNECTING:
+                    closed = close();
+                    break;
+                case CONNECTED:
+                    mConnectionStatus = ConnectionStatus.DISCONNECTING;
+                    mBluetoothGatt.disconnect();
+                    break;
+                default:
+                    return;
+            }
+            status = mConnectionStatus;
+        }
+        if (closed != null) {
+            closed.cancel();
+        }
+        notifyStatus(status, GattStatus.NOT_AVAILABLE);
+    }
+
+    /**
+     * Stops the decoding of the measurements of a disconnected connection for good, so that the
+     * worker forgets its ring.  The connection cannot connect again afterwards.
+     */
+    public void release() {
+        synchronized (this) {
+            if (mReleased || mConnectionStatus != ConnectionStatus.DISCONNECTED) {
+                return;
+            }
+            mReleased = true;
+        }
+        mWorker.unregister(mRing);
+    }
+
+    /**
+     * Enables or disables temperature updates.  The setting is applied as soon as the services
+     * of the device are discovered, and kept across reconnections.
+     */
+    public void setUpdateEnabled(boolean enabled) {
+        synchronized (this) {
+            mUpdateEnabled = enabled;
+            if (mGattStatus == GattStatus.NOT_AVAILABLE) {
+                return;
+            }
+        }
+        applyUpdateEnabled(enabled);
+    }
+
+    public synchronized boolean isUpdateEnabled() {
+        return mUpdateEnabled;
+    }
+
+    // Must be called with the lock held.  The operations and writers are only detached: the
+    // caller cancels them through the result once it has released the lock, since that calls
+    // their listeners.
+    private ClosedGatt close() {
+        mConnectionStatus = ConnectionStatus.DISCONNECTED;
+        mGattStatus = GattStatus.NOT_AVAILABLE;
+        mMeasurementCharacteristic = null;
+        mMtu.reset();
+        mWritable = false;
+        if (mGattQueue != null) {
+            Log.i(TAG, "Closing GATT: address=" + mAddress + ", " + mGattQueue + ", "
+                    + mPriorityPolicy);
+        }
+        ClosedGatt closed = new ClosedGatt(mGattQueue,
+                mWriters.toArray(new GattStreamWriter[mWriters.size()]));
+        mGattQueue = null;
+        mPriorityPolicy.stop();
+        if (mBluetoothGatt != null) {
+            mBluetoothGatt.close();
+            mBluetoothGatt = null;
+        }
+        return closed;
+    }
+
+    // What close() detached from the connection.
+    private static final class ClosedGatt {
+        private final GattOperationQueue mQueue;
+        private final GattStreamWriter[] mWriters;
+
+        ClosedGatt(GattOperationQueue queue, GattStreamWriter[] writers) {
+            mQueue = queue;
+            mWriters = writers;
+        }
+
+        // Must be called without the lock of the connection.
+        void cancel() {
+            if (mQueue != null) {
+                mQueue.clear();
+            }
+            // Writers without a chunk in flight were not suspended by the cancellations.
+            for (GattStreamWriter writer : mWriters) {
+                writer.suspend();
+            }
+        }
+    }
+
+    private void notifyStatus(ConnectionStatus connectionStatus, GattStatus gattStatus) {
+        mListener.onConnectionStatusChanged(this, connectionStatus);
+        if (connectionStatus == ConnectionStatus.DISCONNECTED
+                || connectionStatus == ConnectionStatus.RECONNECTING) {
+            mListener.onGattStatusChanged(this, gattStatus);
+        }
+    }
+
+    private void setGattStatus(GattStatus status) {
+        synchronized (this) {
+            if (mGattStatus == GattStatus.NOT_AVAILABLE) {
+                // Disconnected in the meantime.
+                return;
+            }
+            mGattStatus = status;
+        }
+        mListener.onGattStatusChanged(this, status);
+    }
+
+    private void applyUpdateEnabled(boolean enabled) {
+        GattOperationQueue queue;
+        BluetoothGattCharacteristic characteristic;
+        synchronized (this) {
+            queue = mGattQueue;
+            characteristic = findCharacteristic();
+        }
+        if (characteristic == null) {
+            return;
+        }
+        int props = characteristic.getProperties();
+        if (hasCharacteristicProperty(props, BluetoothGattCharacteristic.PROPERTY_NOTIFY)) {
+            if (enabled) {
+                BluetoothLeUtils.enableNotification(queue, characteristic,
+                        newGattStatusCallback(GattStatus.NOTIFICATION_ENABLED));
+            } else {
+                BluetoothLeUtils.disableNotification(queue, characteristic,
+                        newGattStatusCallback(GattStatus.SERVICES_DISCOVERED));
+            }
+        } else if (hasCharacteristicProperty(props, BluetoothGattCharacteristic.PROPERTY_INDICATE)) {
+            if (enabled) {
+                BluetoothLeUtils.enableIndication(queue, characteristic,
+                        newGattStatusCallback(GattStatus.INDICATION_ENABLED));
+            } else {
+                BluetoothLeUtils.disableIndication(queue, characteristic,
+                        newGattStatusCallback(GattStatus.SERVICES_DISCOVERED));
+            }
+        }
+    }
+
+    // Updates the GATT status once the descriptor write has been acknowledged by the device.
+    private GattOperation.Callback newGattStatusCallback(final GattStatus status) {
+        return new GattOperation.Callback() {
+            @Override
+            public void onComplete(GattOperation operation, int result, byte[] value) {
+                if (result == GattOperation.STATUS_SUCCESS) {
+                    setGattStatus(status);
+                } else {
+                    Log.w(TAG, "Failed to change GATT status to " + status + ": address=" + mAddress
+                            + ", " + operation + ", status=" + result);
+                }
+            }
+        };
+    }
+
+    private boolean hasCharacteristicProperty(int properties, int property) {
+        return (properties & property) == property;
+    }
+
+    // Must be called with the lock held.
+    private BluetoothGattCharacteristic findCharacteristic() {
+        if (mMeasurementCharacteristic == null) {
+            Log.w(TAG, "Characteristic not found: uuid=" + GattAttributes.HEALTH_THERMOMETER_MEASUREMENT);
+        }
+        return mMeasurementCharacteristic;
+    }
+
+    private void handleConnectionStateChange(final BluetoothGatt gatt, int status, int newState) {
+        if (newState == BluetoothProfile.STATE_CONNECTED) {
+            synchronized (this) {
+                if (gatt != mBluetoothGatt || (mConnectionStatus != ConnectionStatus.CONNECTING
+                        && mConnectionStatus != ConnectionStatus.RECONNECTING)) {
+                    return;
+                }
+                mConnectionStatus = ConnectionStatus.CONNECTED;
+                mDiscoveryStartTime = mScheduler.nanoTime();
+                mMetrics.connect.record(mDiscoveryStartTime - mConnectStartTime);
+                mReconnection.onConnected();
+                Log.i(TAG, "Connected to GATT server: address=" + mAddress + ", " + mReconnection);
+                mPriorityPolicy.start(new ConnectionPriorityPolicy.Target() {
+                    @Override
+                    public boolean requestConnectionPriority(int priority) {
+                        return gatt.requestConnectionPriority(priority);
+                    }
+                });
+                mPriorityPolicy.acquire(mDiscoveryBurst);
+                // Attempts to discover services after successful connection.
+                Log.i(TAG, "Attempting to start service discovery:" + gatt.discoverServices());
+            }
+            mListener.onConnectionStatusChanged(this, ConnectionStatus.CONNECTED);
+        } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+            ConnectionStatus connectionStatus;
+            ClosedGatt closed;
+            synchronized (this) {
+                if (gatt != mBluetoothGatt) {
+                    return;
+                }
+                Log.i(TAG, "Disconnected from GATT server: address=" + mAddress + ", status=" + status);
+                mMetrics.disconnections.incrementAndGet();
+                // The GATT is closed in any case: one that failed, e.g. with status 133, does not
+                // connect again, so every attempt gets a new one.
+                boolean reconnect = mAutoReconnect
+                        && mConnectionStatus != ConnectionStatus.DISCONNECTING;
+                closed = close();
+                if (reconnect) {
+                    mConnectionStatus = ConnectionStatus.RECONNECTING;
+                }
+                connectionStatus = mConnectionStatus;
+            }
+            closed.cancel();
+            notifyStatus(connectionStatus, GattStatus.NOT_AVAILABLE);
+            if (connectionStatus == ConnectionStatus.RECONNECTING) {
+                mReconnection.onDisconnected(status);
+            }
+        }
+    }
+
+    private void handleServicesDiscovered(BluetoothGatt gatt, int status) {
+        synchronized (this) {
+            if (gatt != mBluetoothGatt || mConnectionStatus != ConnectionStatus.CONNECTED) {
+                return;
+            }
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "onServicesDiscovered received: " + status);
+                mPriorityPolicy.release(mDiscoveryBurst);
+                return;
+            }
+            mMetrics.discovery.record(mScheduler.nanoTime() - mDiscoveryStartTime);
+        }
+
+        // Outside the lock since the cache may do file I/O.
+        List<BluetoothGattService> services = gatt.getServices();
+        GattLayout layout = mLayoutCache.get(mAddress);
+        if (layout == null || !matchesLayout(layout, services)) {
+            layout = buildLayout(services);
+            try {
+                mLayoutCache.put(mAddress, layout);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to cache GATT layout: address=" + mAddress, e);
+            }
+            logGattServices(gatt);
+        }
+        BluetoothGattCharacteristic measurement = getCharacteristic(services, layout,
+                GattAttributes.HEALTH_THERMOMETER_SERVICE, GattAttributes.HEALTH_THERMOMETER_MEASUREMENT);
+        BluetoothGattCharacteristic serviceChanged = getCharacteristic(services, layout,
+                GattAttributes.GENERIC_ATTRIBUTE_SERVICE, GattAttributes.SERVICE_CHANGED);
+
+        boolean updateEnabled;
+        synchronized (this) {
+            if (gatt != mBluetoothGatt || mConnectionStatus != ConnectionStatus.CONNECTED) {
+                return;
+            }
+            mGattStatus = GattStatus.SERVICES_DISCOVERED;
+            mMeasurementCharacteristic = measurement;
+            updateEnabled = mUpdateEnabled;
+            BluetoothLeUtils.changeGattMtu(mGattQueue, MTU, mMtuCallback);
+            if (serviceChanged != null && hasCharacteristicProperty(serviceChanged.getProperties(),
+                    BluetoothGattCharacteristic.PROPERTY_INDICATE)) {
+                BluetoothLeUtils.enableIndication(mGattQueue, serviceChanged, null);
+            }
+        }
+        mListener.onGattStatusChanged(this, GattStatus.SERVICES_DISCOVERED);
+        if (updateEnabled) {
+            applyUpdateEnabled(true);
+        }
+    }
+
+    // The attributes of the device changed: the cached layout is dropped and the services are
+    // discovered again.  The update setting is applied again once they are.
+    private void handleServiceChanged(BluetoothGatt gatt) {
+        synchronized (this) {
+            if (gatt != mBluetoothGatt || mConnectionStatus != ConnectionStatus.CONNECTED) {
+                return;
+            }
+            Log.i(TAG, "Service changed: address=" + mAddress);
+            mMeasurementCharacteristic = null;
+            mPriorityPolicy.acquire(mDiscoveryBurst);
+            mDiscoveryStartTime = mScheduler.nanoTime();
+            gatt.discoverServices();
+        }
+        mLayoutCache.invalidate(mAddress);
+    }
+
+    // Compares the discovered services with a cached layout without allocating.
+    private static boolean matchesLayout(GattLayout layout, List<BluetoothGattService> services) {
+        int index = 0;
+        for (int s = 0; s < services.size(); s++) {
+            BluetoothGattService service = services.get(s);
+            if (index >= layout.size()
+                    || layout.getKind(index) != GattLayout.KIND_SERVICE
+                    || !layout.hasUuid(index, service.getUuid())
+                    || layout.getInstanceId(index) != service.getInstanceId()
+                    || layout.getProperties(index) != service.getType()) {
+                return false;
+            }
+            index++;
+            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            for (int c = 0; c < characteristics.size(); c++) {
+                BluetoothGattCharacteristic characteristic = characteristics.get(c);
+                if (index >= layout.size()
+                        || layout.getKind(index) != GattLayout.KIND_CHARACTERISTIC
+                        || !layout.hasUuid(index, characteristic.getUuid())
+                        || layout.getInstanceId(index) != characteristic.getInstanceId()
+                        || layout.getProperties(index) != characteristic.getProperties()) {
+                    return false;
+                }
+                index++;
+                List<BluetoothGattDescriptor> descriptors = characteristic.getDescriptors();
+                for (int d = 0; d < descriptors.size(); d++) {
+                    if (index >= layout.size()
+                            || layout.getKind(index) != GattLayout.KIND_DESCRIPTOR
+                            || !layout.hasUuid(index, descriptors.get(d).getUuid())) {
+                        return false;
+                    }
+                    index++;
+                }
+            }
+        }
+        return index == layout.size();
+    }
+
+    private static GattLayout buildLayout(List<BluetoothGattService> services) {
+        GattLayout.Builder builder = new GattLayout.Builder();
+        for (BluetoothGattService service : services) {
+            builder.addService(service.getUuid(), service.getInstanceId(), service.getType());
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                builder.addCharacteristic(characteristic.getUuid(), characteristic.getInstanceId(),
+                        characteristic.getProperties());
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    builder.addDescriptor(descriptor.getUuid());
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    // Fetches a characteristic by the positions recorded in a layout matching the services.
+    private static BluetoothGattCharacteristic getCharacteristic(List<BluetoothGattService> services,
+                                                                 GattLayout layout, UUID serviceUuid,
+                                                                 UUID characteristicUuid) {
+        int index = layout.findCharacteristic(serviceUuid, characteristicUuid);
+        if (index < 0) {
+            return null;
+        }
+        BluetoothGattService service = services.get(layout.getPosition(layout.getParent(index)));
+        return service.getCharacteristics().get(layout.getPosition(index));
+    }
+
+    private void logGattServices(BluetoothGatt gatt) {
+        for (BluetoothGattService service : gatt.getServices()) {
+            String serviceName = GattAttributes.lookup(service.getUuid(), "Unknown");
+            Log.d(TAG, "+ Service: name=" + serviceName + ", uuid=" + service.getUuid());
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                String characteristicName = GattAttributes.lookup(characteristic.getUuid(), "Unknown");
+                Log.d(TAG, "- Characteristic: name=" + characteristicName + ", uuid=" + characteristic.getUuid());
+            }
+        }
+    }
+
+    // Implements callback methods for GATT events of this device.
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            handleConnectionStateChange(gatt, status, newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            handleServicesDiscovered(gatt, status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                                         BluetoothGattCharacteristic characteristic,
+                                         int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                handleCharacteristic(characteristic);
+            }
+            GattOperationQueue queue = getQueue(gatt);
+            if (queue != null) {
+                queue.onCharacteristicRead(characteristic.getUuid(), status, characteristic.getValue());
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic,
+                                          int status) {
+            GattOperationQueue queue = getQueue(gatt);
+            if (queue != null) {
+                queue.onCharacteristicWrite(characteristic.getUuid(), status);
+            }
+        }
+
+        @Override
+        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                     int status) {
+            GattOperationQueue queue = getQueue(gatt);
+            if (queue != null) {
+                queue.onDescriptorRead(descriptor.getCharacteristic().getUuid(), descriptor.getUuid(),
+                        status, descriptor.getValue());
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {
+            GattOperationQueue queue = getQueue(gatt);
+            if (queue != null) {
+                queue.onDescriptorWrite(descriptor.getCharacteristic().getUuid(), descriptor.getUuid(),
+                        status);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            Log.i(TAG, "MTU changed: address=" + mAddress + ", mtu=" + mtu + ", status=" + status);
+            GattOperationQueue queue = getQueue(gatt);
+            if (queue != null) {
+                // Recorded before the request completes, so that its callback sees the new MTU.
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    mMtu.set(mtu);
+                }
+                queue.onMtuChanged(status);
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt,
+                                            BluetoothGattCharacteristic characteristic) {
+            mMetrics.notifications.incrementAndGet();
+            if (characteristic.getUuid().equals(GattAttributes.SERVICE_CHANGED)) {
+                handleServiceChanged(gatt);
+                return;
+            }
+            handleCharacteristic(characteristic);
+        }
+
+        // Only copies the value, so that the callback thread returns at once.  Values dropped
+        // on a full ring are counted by the ring.
+        private void handleCharacteristic(BluetoothGattCharacteristic characteristic) {
+            if (!characteristic.getUuid().equals(GattAttributes.HEALTH_THERMOMETER_MEASUREMENT)) {
+                return;
+            }
+            byte[] value = characteristic.getValue();
+            if (value != null && mRing.offer(null, value, 0, value.length)) {
+                mWorker.signal();
+            }
+        }
+    };
+
+    private final SpscByteRing.Consumer mRingConsumer = new SpscByteRing.Consumer() {
+        @Override
+        public void onValue(Object tag, byte[] value, int offset, int length) {
+            if (!mReceiver.onMeasurement(value, offset, length)) {
+                Log.w(TAG, "Malformed health thermometer measurement: address=" + mAddress);
+            }
+        }
+    };
+
+    // Ends the discovery burst, and starts or resumes the writers once the chunk size is known.
+    private final GattOperation.Callback mMtuCallback = new GattOperation.Callback() {
+        @Override
+        public void onComplete(GattOperation operation, int status, byte[] value) {
+            if (status == GattOperation.STATUS_CANCELLED) {
+                return;
+            }
+            mPriorityPolicy.release(mDiscoveryBurst);
+            if (status == GattOperation.STATUS_SUCCESS) {
+                Log.i(TAG, "MTU negotiated: address=" + mAddress + ", mtu=" + mMtu
+                        + ", maxWritePayload=" + mMtu.getMaxWritePayload());
+            } else {
+                // The connection keeps the default MTU.
+                Log.w(TAG, "MTU exchange failed: address=" + mAddress + ", status=" + status);
+            }
+            GattOperationQueue queue;
+            GattStreamWriter[] writers;
+            synchronized (DeviceConnection.this) {
+                if (mGattStatus == GattStatus.NOT_AVAILABLE) {
+                    return;
+                }
+                mWritable = true;
+                queue = mGattQueue;
+                pruneWriters();
+                writers = mWriters.toArray(new GattStreamWriter[mWriters.size()]);
+            }
+            for (GattStreamWriter writer : writers) {
+                startWriter(writer, queue);
+            }
+        }
+    };
+
+    // Makes the attempts of the reconnection engine.  Called outside the lock of the connection.
+    private final ReconnectionEngine.Target mReconnectionTarget = new ReconnectionEngine.Target() {
+        @Override
+        public boolean canAttempt() {
+            AttemptGate gate = mAttemptGate;
+            if (gate != null && !gate.tryAttempt(DeviceConnection.this)) {
+                Log.d(TAG, "Reconnection attempt deferred: address=" + mAddress);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean connect(boolean autoConnect) {
+            return connectGatt(autoConnect, true);
+        }
+
+        @Override
+        public void cancel() {
+            ClosedGatt closed;
+            synchronized (DeviceConnection.this) {
+                if (mConnectionStatus != ConnectionStatus.CONNECTING) {
+                    return;
+                }
+                Log.i(TAG, "Connection attempt timed out: address=" + mAddress);
+                closed = close();
+                mConnectionStatus = ConnectionStatus.RECONNECTING;
+            }
+            closed.cancel();
+            notifyStatus(ConnectionStatus.RECONNECTING, GattStatus.NOT_AVAILABLE);
+        }
+    };
+
+    // Returns the queue of the given GATT, or null for late callbacks of a closed GATT.
+    private synchronized GattOperationQueue getQueue(BluetoothGatt gatt) {
+        return gatt == mBluetoothGatt ? mGattQueue : null;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceConnection{address=" + mAddress + ", connectionStatus=" + getConnectionStatus()
+                + ", gattStatus=" + getGattStatus() + ", mtu=" + mMtu + "}";
+    }
+}
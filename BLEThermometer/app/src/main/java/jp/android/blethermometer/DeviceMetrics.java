@@ -0,0 +1,138 @@
+package jp.android.blethermometer;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters of the connection to a device, kept across reconnections.
+ *
+ * <ul>
+ * <li>connect: from the connection attempt to {@code STATE_CONNECTED}.
+ * <li>discovery: from {@code discoverServices} to {@code onServicesDiscovered}.
+ * <li>read, write, descriptor, mtu: round trip of GATT operations, from their dispatch to their
+ * completion callback or timeout.
+ * <li>display: from the reception of a notification to its display on screen.
+ * </ul>
+ *
+ * The fill level and the drops of the measurement ring of the device, if any, are dumped along.
+ *
+ * Everything is lock-free and may be recorded from any thread.
+ */
+class DeviceMetrics implements GattOperationQueue.Recorder {
+    final LatencyHistogram connect = new LatencyHistogram();
+    final LatencyHistogram discovery = new LatencyHistogram();
+    final LatencyHistogram read = new LatencyHistogram();
+    final LatencyHistogram write = new LatencyHistogram();
+    final LatencyHistogram descriptor = new LatencyHistogram();
+    final LatencyHistogram mtu = new LatencyHistogram();
+    final LatencyHistogram display = new LatencyHistogram();
+
+    final AtomicLong connectAttempts = new AtomicLong();
+    final AtomicLong disconnections = new AtomicLong();
+    final AtomicLong notifications = new AtomicLong();
+    final AtomicLong operationFailures = new AtomicLong();
+
+    private final String mAddress;
+    private final SpscByteRing mRing;
+
+    public DeviceMetrics(String address) {
+        this(address, null);
+    }
+
+    /**
+     * @param ring The measurement ring of the device, or null.
+     */
+    public DeviceMetrics(String address, SpscByteRing ring) {
+        if (address == null) {
+            throw new NullPointerException("address must not be null");
+        }
+        mAddress = address;
+        mRing = ring;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    @Override
+    public void onOperationCompleted(GattOperation.Type type, int status, long serviceTime) {
+        switch (type) {
+            case READ_CHARACTERISTIC:
+                read.record(serviceTime);
+                break;
+            case WRITE_CHARACTERISTIC:
+                write.record(serviceTime);
+                break;
+            case READ_DESCRIPTOR:
+            case WRITE_DESCRIPTOR:
+                descriptor.record(serviceTime);
+                break;
+            case REQUEST_MTU:
+                mtu.record(serviceTime);
+                break;
+        }
+        if (status != GattOperation.STATUS_SUCCESS) {
+            operationFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Prints the metrics for {@code dumpsys}, one line per histogram.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "DeviceMetrics " + mAddress + ":");
+        String indent = prefix + "  ";
+        writer.println(indent + "connectAttempts=" + connectAttempts.get()
+                + ", disconnections=" + disconnections.get()
+                + ", notifications=" + notifications.get()
+                + ", operationFailures=" + operationFailures.get());
+        writer.println(indent + "connect: " + connect);
+        writer.println(indent + "discovery: " + discovery);
+        writer.println(indent + "read: " + read);
+        writer.println(indent + "write: " + write);
+        writer.println(indent + "descriptor: " + descriptor);
+        writer.println(indent + "mtu: " + mtu);
+        writer.println(indent + "display: " + display);
+        if (mRing != null) {
+            writer.println(indent + "ring: " + mRing);
+        }
+    }
+
+    /**
+     * Appends the metrics as a JSON object.
+     */
+    public void appendJson(StringBuilder out) {
+        out.append("{\"address\":\"").append(mAddress).append('"')
+                .append(",\"connectAttempts\":").append(connectAttempts.get())
+                .append(",\"disconnections\":").append(disconnections.get())
+                .append(",\"notifications\":").append(notifications.get())
+                .append(",\"operationFailures\":").append(operationFailures.get());
+        appendJson(out, "connect", connect);
+        appendJson(out, "discovery", discovery);
+        appendJson(out, "read", read);
+        appendJson(out, "write", write);
+        appendJson(out, "descriptor", descriptor);
+        appendJson(out, "mtu", mtu);
+        appendJson(out, "display", display);
+        if (mRing != null) {
+            out.append(",\"ring\":{\"size\":").append(mRing.getSize())
+                    .append(",\"capacity\":").append(mRing.getCapacity())
+                    .append(",\"highWaterMark\":").append(mRing.getHighWaterMark())
+                    .append(",\"offered\":").append(mRing.getOfferedCount())
+                    .append(",\"full\":").append(mRing.getFullCount())
+                    .append(",\"oversize\":").append(mRing.getOversizeCount())
+                    .append(",\"droppedOldest\":").append(mRing.getDroppedOldestCount())
+                    .append(",\"sampledOut\":").append(mRing.getSampledOutCount())
+                    .append(",\"blocked\":").append(mRing.getBlockedCount())
+                    .append(",\"dropped\":").append(mRing.getDroppedCount())
+                    .append(",\"policy\":\"").append(mRing.getPolicy()).append('"')
+                    .append('}');
+        }
+        out.append('}');
+    }
+
+    private static void appendJson(StringBuilder out, String name, LatencyHistogram histogram) {
+        out.append(",\"").append(name).append("\":");
+        histogram.appendJson(out);
+    }
+}
@@ -1,14 +1,11 @@
 package jp.android.blethermometer;
 
-import java.util.HashMap;
 import java.util.UUID;
 
 /**
- * This class includes a small subset of standard GATT attributes for demonstration purposes.
+ * GATT attributes used by this app.  Names are looked up in {@link GattRegistry}.
  */
 class GattAttributes {
-    private static final HashMap<UUID, String> attributes = new HashMap();
-
     // Services.
     public static final UUID GENERIC_ACCESS_SERVICE = UUID
             .fromString("00001800-0000-1000-8000-00805f9b34fb");
@@ -18,6 +15,8 @@ class GattAttributes {
             .fromString("00001809-0000-1000-8000-00805f9b34fb");
 
     // Characteristics.
+    public static final UUID SERVICE_CHANGED = UUID
+            .fromString("00002a05-0000-1000-8000-00805f9b34fb");
     public static final UUID HEALTH_THERMOMETER_MEASUREMENT = UUID
             .fromString("00002a1c-0000-1000-8000-00805f9b34fb");
 
@@ -25,21 +24,8 @@ class GattAttributes {
     public static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION = UUID
             .fromString("00002902-0000-1000-8000-00805f9b34fb");
 
-    static {
-        // Services.
-        attributes.put(GENERIC_ACCESS_SERVICE, "Generic Access Service");
-        attributes.put(GENERIC_ATTRIBUTE_SERVICE, "Generic Attribute Service");
-        attributes.put(HEALTH_THERMOMETER_SERVICE, "Health Thermometer Service");
-
-        // Characteristics.
-        attributes.put(HEALTH_THERMOMETER_MEASUREMENT, "Health Thermometer Measurement");
-
-        // Descriptors.
-        attributes.put(CLIENT_CHARACTERISTIC_CONFIGURATION, "Client Characteristic Configuration");
-    }
-
     public static String lookup(UUID uuid, String defaultName) {
-        String name = attributes.get(uuid);
+        String name = GattRegistry.lookup(uuid);
         return name == null ? defaultName : name;
     }
-}
\ No newline at end of file
+}
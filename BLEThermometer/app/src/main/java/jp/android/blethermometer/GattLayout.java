@@ -0,0 +1,312 @@
+package jp.android.blethermometer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Compact, immutable copy of the attribute layout of a GATT server.
+ *
+ * <p>Services, characteristics and descriptors are stored as entries of parallel primitive
+ * arrays, in discovery order: every service is followed by its characteristics, every
+ * characteristic by its descriptors.  Each entry keeps its position in the list of its parent as
+ * returned by {@code BluetoothGatt}, so that an attribute found in the layout can be fetched from
+ * the discovered services by index.  Characteristics are additionally indexed by service and
+ * characteristic UUID in an open-addressing table.
+ */
+class GattLayout {
+    static final int KIND_SERVICE = 0;
+    static final int KIND_CHARACTERISTIC = 1;
+    static final int KIND_DESCRIPTOR = 2;
+
+    private static final int VERSION = 1;
+
+    private final int mSize;
+    private final byte[] mKinds;
+    private final int[] mParents;
+    private final int[] mPositions;
+    private final long[] mMsbs;
+    private final long[] mLsbs;
+    private final int[] mInstanceIds;
+    private final int[] mProperties;
+    // Entry index + 1 of the characteristics, 0 for free slots.  Power of two length.
+    private final int[] mCharacteristicTable;
+
+    /**
+     * Appends the entries in discovery order.
+     */
+    static class Builder {
+        private int mSize;
+        private byte[] mKinds = new byte[16];
+        private int[] mParents = new int[16];
+        private int[] mPositions = new int[16];
+        private long[] mMsbs = new long[16];
+        private long[] mLsbs = new long[16];
+        private int[] mInstanceIds = new int[16];
+        private int[] mProperties = new int[16];
+
+        private int mService = -1;
+        private int mCharacteristic = -1;
+        private int mServiceCount;
+        private int mCharacteristicCount;
+        private int mDescriptorCount;
+
+        /**
+         * @param type {@code BluetoothGattService.SERVICE_TYPE_*}.
+         */
+        public Builder addService(UUID uuid, int instanceId, int type) {
+            mService = add(KIND_SERVICE, -1, mServiceCount++, uuid, instanceId, type);
+            mCharacteristic = -1;
+            mCharacteristicCount = 0;
+            return this;
+        }
+
+        /**
+         * @param properties {@code BluetoothGattCharacteristic.PROPERTY_*}.
+         */
+        public Builder addCharacteristic(UUID uuid, int instanceId, int properties) {
+            if (mService < 0) {
+                throw new IllegalStateException("No service to add the characteristic to");
+            }
+            mCharacteristic = add(KIND_CHARACTERISTIC, mService, mCharacteristicCount++, uuid,
+                    instanceId, properties);
+            mDescriptorCount = 0;
+            return this;
+        }
+
+        public Builder addDescriptor(UUID uuid) {
+            if (mCharacteristic < 0) {
+                throw new IllegalStateException("No characteristic to add the descriptor to");
+            }
+            add(KIND_DESCRIPTOR, mCharacteristic, mDescriptorCount++, uuid, 0, 0);
+            return this;
+        }
+
+        public GattLayout build() {
+            return new GattLayout(mSize, Arrays.copyOf(mKinds, mSize), Arrays.copyOf(mParents, mSize),
+                    Arrays.copyOf(mPositions, mSize), Arrays.copyOf(mMsbs, mSize),
+                    Arrays.copyOf(mLsbs, mSize), Arrays.copyOf(mInstanceIds, mSize),
+                    Arrays.copyOf(mProperties, mSize));
+        }
+
+        private int add(int kind, int parent, int position, UUID uuid, int instanceId, int properties) {
+            if (uuid == null) {
+                throw new NullPointerException("uuid must not be null");
+            }
+            if (mSize == mKinds.length) {
+                int capacity = mSize * 2;
+                mKinds = Arrays.copyOf(mKinds, capacity);
+                mParents = Arrays.copyOf(mParents, capacity);
+                mPositions = Arrays.copyOf(mPositions, capacity);
+                mMsbs = Arrays.copyOf(mMsbs, capacity);
+                mLsbs = Arrays.copyOf(mLsbs, capacity);
+                mInstanceIds = Arrays.copyOf(mInstanceIds, capacity);
+                mProperties = Arrays.copyOf(mProperties, capacity);
+            }
+            mKinds[mSize] = (byte) kind;
+            mParents[mSize] = parent;
+            mPositions[mSize] = position;
+            mMsbs[mSize] = uuid.getMostSignificantBits();
+            mLsbs[mSize] = uuid.getLeastSignificantBits();
+            mInstanceIds[mSize] = instanceId;
+            mProperties[mSize] = properties;
+            return mSize++;
+        }
+    }
+
+    private GattLayout(int size, byte[] kinds, int[] parents, int[] positions, long[] msbs,
+                       long[] lsbs, int[] instanceIds, int[] properties) {
+        mSize = size;
+        mKinds = kinds;
+        mParents = parents;
+        mPositions = positions;
+        mMsbs = msbs;
+        mLsbs = lsbs;
+        mInstanceIds = instanceIds;
+        mProperties = properties;
+
+        int characteristics = 0;
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] == KIND_CHARACTERISTIC) {
+                characteristics++;
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, characteristics * 2 - 1)) << 1;
+        mCharacteristicTable = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] != KIND_CHARACTERISTIC) {
+                continue;
+            }
+            int parent = parents[i];
+            int slot = hash(msbs[parent], lsbs[parent], msbs[i], lsbs[i]) & (capacity - 1);
+            while (mCharacteristicTable[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            mCharacteristicTable[slot] = i + 1;
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getKind(int index) {
+        return mKinds[index];
+    }
+
+    /**
+     * @return The index of the parent entry, or -1 for a service.
+     */
+    public int getParent(int index) {
+        return mParents[index];
+    }
+
+    /**
+     * @return The position of the entry in the list of its parent.
+     */
+    public int getPosition(int index) {
+        return mPositions[index];
+    }
+
+    public boolean hasUuid(int index, UUID uuid) {
+        return mMsbs[index] == uuid.getMostSignificantBits()
+                && mLsbs[index] == uuid.getLeastSignificantBits();
+    }
+
+    public UUID getUuid(int index) {
+        return new UUID(mMsbs[index], mLsbs[index]);
+    }
+
+    public int getInstanceId(int index) {
+        return mInstanceIds[index];
+    }
+
+    /**
+     * @return The characteristic properties, or the service type of a service.
+     */
+    public int getProperties(int index) {
+        return mProperties[index];
+    }
+
+    /**
+     * Finds the first characteristic with the given UUID in the first service with the given
+     * UUID that contains one.
+     *
+     * @return The index of the characteristic, or -1.
+     */
+    public int findCharacteristic(UUID serviceUuid, UUID characteristicUuid) {
+        long serviceMsb = serviceUuid.getMostSignificantBits();
+        long serviceLsb = serviceUuid.getLeastSignificantBits();
+        long msb = characteristicUuid.getMostSignificantBits();
+        long lsb = characteristicUuid.getLeastSignificantBits();
+        int mask = mCharacteristicTable.length - 1;
+        int found = -1;
+        for (int slot = hash(serviceMsb, serviceLsb, msb, lsb) & mask; mCharacteristicTable[slot] != 0;
+             slot = (slot + 1) & mask) {
+            int i = mCharacteristicTable[slot] - 1;
+            int parent = mParents[i];
+            if (mMsbs[i] == msb && mLsbs[i] == lsb
+                    && mMsbs[parent] == serviceMsb && mLsbs[parent] == serviceLsb
+                    && (found < 0 || i < found)) {
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + mSize * 33);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(mSize);
+            for (int i = 0; i < mSize; i++) {
+                out.writeByte(mKinds[i]);
+                out.writeLong(mMsbs[i]);
+                out.writeLong(mLsbs[i]);
+                out.writeInt(mInstanceIds[i]);
+                out.writeInt(mProperties[i]);
+            }
+        } catch (IOException e) {
+            // Not thrown by ByteArrayOutputStream.
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException if the data is malformed or of an unsupported version.
+     */
+    public static GattLayout fromByteArray(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unsupported version");
+        }
+        int size = in.readInt();
+        if (size < 0 || size > data.length) {
+            throw new IOException("Invalid size: " + size);
+        }
+        Builder builder = new Builder();
+        try {
+            for (int i = 0; i < size; i++) {
+                int kind = in.readByte();
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                int instanceId = in.readInt();
+                int properties = in.readInt();
+                switch (kind) {
+                    case KIND_SERVICE:
+                        builder.addService(uuid, instanceId, properties);
+                        break;
+                    case KIND_CHARACTERISTIC:
+                        builder.addCharacteristic(uuid, instanceId, properties);
+                        break;
+                    case KIND_DESCRIPTOR:
+                        builder.addDescriptor(uuid);
+                        break;
+                    default:
+                        throw new IOException("Invalid kind: " + kind);
+                }
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("Invalid layout", e);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GattLayout)) {
+            return false;
+        }
+        GattLayout other = (GattLayout) o;
+        // The parents and the positions follow from the kinds.
+        return Arrays.equals(mKinds, other.mKinds)
+                && Arrays.equals(mMsbs, other.mMsbs)
+                && Arrays.equals(mLsbs, other.mLsbs)
+                && Arrays.equals(mInstanceIds, other.mInstanceIds)
+                && Arrays.equals(mProperties, other.mProperties);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mMsbs) * 31 + Arrays.hashCode(mLsbs);
+    }
+
+    @Override
+    public String toString() {
+        return "GattLayout{size=" + mSize + "}";
+    }
+
+    private static int hash(long serviceMsb, long serviceLsb, long msb, long lsb) {
+        long h = (serviceMsb ^ serviceLsb) * 31 + (msb ^ lsb);
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+}
@@ -0,0 +1,113 @@
+package jp.android.blethermometer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * {@link GattLayout}s of the devices seen so far, keyed by device address.
+ *
+ * <p>Layouts are kept in memory and written to one file per device, so that they survive the
+ * process.  A file which cannot be read is treated as a cache miss and deleted.
+ */
+class GattLayoutCache {
+    private static final String SUFFIX = ".gatt";
+
+    private final File mDirectory;
+    private final HashMap<String, GattLayout> mLayouts = new HashMap<String, GattLayout>();
+
+    public GattLayoutCache(File directory) {
+        if (directory == null) {
+            throw new NullPointerException("directory must not be null");
+        }
+        mDirectory = directory;
+    }
+
+    /**
+     * @return The cached layout, or null.
+     */
+    public synchronized GattLayout get(String address) {
+        GattLayout layout = mLayouts.get(address);
+        if (layout != null) {
+            return layout;
+        }
+        File file = getFile(address);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            layout = GattLayout.fromByteArray(readFile(file));
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+        mLayouts.put(address, layout);
+        return layout;
+    }
+
+    /**
+     * @throws IOException if the layout could not be written.  It is cached in memory anyway.
+     */
+    public synchronized void put(String address, GattLayout layout) throws IOException {
+        if (layout == null) {
+            throw new NullPointerException("layout must not be null");
+        }
+        mLayouts.put(address, layout);
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        // Written to a temporary file first so that a crash never leaves a truncated layout.
+        File file = getFile(address);
+        File temporary = new File(mDirectory, file.getName() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(layout.toByteArray());
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Cannot rename " + temporary);
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the layout of a device, e.g. when its GATT database changed.
+     */
+    public synchronized void invalidate(String address) {
+        mLayouts.remove(address);
+        getFile(address).delete();
+    }
+
+    private File getFile(String address) {
+        return new File(mDirectory, address.replace(":", "") + SUFFIX);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("File too large: " + file);
+        }
+        byte[] data = new byte[(int) length];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file: " + file);
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
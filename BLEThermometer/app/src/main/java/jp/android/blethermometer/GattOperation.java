@@ -0,0 +1,160 @@
+package jp.android.blethermometer;
+
+import java.util.UUID;
+
+/**
+ * A single GATT request executed through a {@link GattOperationQueue}.
+ */
+class GattOperation {
+    enum Type {
+        READ_CHARACTERISTIC,
+        WRITE_CHARACTERISTIC,
+        READ_DESCRIPTOR,
+        WRITE_DESCRIPTOR,
+        REQUEST_MTU,
+    }
+
+    interface Callback {
+        /**
+         * Called once when the operation completes, fails to dispatch, times out or is cancelled.
+         *
+         * @param status {@link #STATUS_SUCCESS}, a GATT status reported by the stack, or one of
+         *               the negative statuses defined by this class.
+         * @param value  The value read, or null.
+         */
+        void onComplete(GattOperation operation, int status, byte[] value);
+    }
+
+    public static final int STATUS_SUCCESS = 0; // Same as BluetoothGatt.GATT_SUCCESS
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_REJECTED = -2;
+    public static final int STATUS_CANCELLED = -3;
+
+    public static final long DEFAULT_TIMEOUT = 5000; // milliseconds
+
+    final Type type;
+    final UUID serviceUuid;
+    final UUID characteristicUuid;
+    final UUID descriptorUuid;
+    final byte[] value;
+    final int writeType;
+    final int mtu;
+
+    long timeout = DEFAULT_TIMEOUT;
+    Callback callback;
+
+    // Timestamps in nanoseconds, maintained by the queue.
+    long enqueueTime;
+    long dispatchTime;
+
+    private GattOperation(Type type, UUID serviceUuid, UUID characteristicUuid, UUID descriptorUuid,
+                          byte[] value, int writeType, int mtu) {
+        this.type = type;
+        this.serviceUuid = serviceUuid;
+        this.characteristicUuid = characteristicUuid;
+        this.descriptorUuid = descriptorUuid;
+        this.value = value;
+        this.writeType = writeType;
+        this.mtu = mtu;
+    }
+
+    public static GattOperation readCharacteristic(UUID serviceUuid, UUID characteristicUuid) {
+        checkCharacteristic(serviceUuid, characteristicUuid);
+        return new GattOperation(Type.READ_CHARACTERISTIC, serviceUuid, characteristicUuid, null,
+                null, 0, 0);
+    }
+
+    /**
+     * @param writeType One of {@code BluetoothGattCharacteristic.WRITE_TYPE_*}.
+     */
+    public static GattOperation writeCharacteristic(UUID serviceUuid, UUID characteristicUuid,
+                                                    byte[] value, int writeType) {
+        checkCharacteristic(serviceUuid, characteristicUuid);
+        if (value == null) {
+            throw new NullPointerException("value must not be null");
+        }
+        return new GattOperation(Type.WRITE_CHARACTERISTIC, serviceUuid, characteristicUuid, null,
+                value, writeType, 0);
+    }
+
+    public static GattOperation readDescriptor(UUID serviceUuid, UUID characteristicUuid,
+                                               UUID descriptorUuid) {
+        checkCharacteristic(serviceUuid, characteristicUuid);
+        if (descriptorUuid == null) {
+            throw new NullPointerException("descriptorUuid must not be null");
+        }
+        return new GattOperation(Type.READ_DESCRIPTOR, serviceUuid, characteristicUuid,
+                descriptorUuid, null, 0, 0);
+    }
+
+    public static GattOperation writeDescriptor(UUID serviceUuid, UUID characteristicUuid,
+                                                UUID descriptorUuid, byte[] value) {
+        checkCharacteristic(serviceUuid, characteristicUuid);
+        if (descriptorUuid == null) {
+            throw new NullPointerException("descriptorUuid must not be null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value must not be null");
+        }
+        return new GattOperation(Type.WRITE_DESCRIPTOR, serviceUuid, characteristicUuid,
+                descriptorUuid, value, 0, 0);
+    }
+
+    public static GattOperation requestMtu(int mtu) {
+        return new GattOperation(Type.REQUEST_MTU, null, null, null, null, 0, mtu);
+    }
+
+    private static void checkCharacteristic(UUID serviceUuid, UUID characteristicUuid) {
+        if (serviceUuid == null) {
+            throw new NullPointerException("serviceUuid must not be null");
+        }
+        if (characteristicUuid == null) {
+            throw new NullPointerException("characteristicUuid must not be null");
+        }
+    }
+
+    /**
+     * @param timeout Timeout in milliseconds, measured from the time the operation is dispatched.
+     */
+    public GattOperation setTimeout(long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive: " + timeout);
+        }
+        this.timeout = timeout;
+        return this;
+    }
+
+    public GattOperation setCallback(Callback callback) {
+        this.callback = callback;
+        return this;
+    }
+
+    boolean matches(Type type, UUID characteristicUuid, UUID descriptorUuid) {
+        if (this.type != type) {
+            return false;
+        }
+        switch (type) {
+            case REQUEST_MTU:
+                return true;
+            case READ_DESCRIPTOR:
+            case WRITE_DESCRIPTOR:
+                return this.characteristicUuid.equals(characteristicUuid)
+                        && this.descriptorUuid.equals(descriptorUuid);
+            default:
+                return this.characteristicUuid.equals(characteristicUuid);
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case REQUEST_MTU:
+                return type + "(mtu=" + mtu + ")";
+            case READ_DESCRIPTOR:
+            case WRITE_DESCRIPTOR:
+                return type + "(characteristic=" + characteristicUuid + ", descriptor=" + descriptorUuid + ")";
+            default:
+                return type + "(characteristic=" + characteristicUuid + ")";
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Streams data to a characteristic with writes without response, e.g. a configuration blob or a
+ * firmware image.
+ *
+ * <p>The data is sent in chunks of the maximum write payload of the current MTU.  One chunk at a
+ * time is in a {@link GattOperationQueue}, and the next one is enqueued from the completion of
+ * the previous one, i.e. from {@code onCharacteristicWrite}, which the stack reports once it has
+ * buffered the packet.  Since the queue dispatches the next operation right after the completion
+ * callback returns, this paces the stream on the stack without idling the link, and keeps the
+ * chunks in order when a write fails.  Peripherals that grant credits for the packets they can
+ * take can additionally gate the chunks with {@link #setCreditFlowControl} and
+ * {@link #addCredits}.
+ *
+ * <p>A write rejected by a busy stack is retried after a short delay.  When the connection is
+ * lost, the pending operations are cancelled and the writer is suspended with the unacknowledged
+ * chunk kept in its buffer, until it is started again on the queue of the new connection.
+ *
+ * <p>Listener methods are called on the thread of the queue callbacks, never while the writer
+ * holds its lock.
+ */
+class GattStreamWriter {
+    /**
+     * The source could not be read.  In addition to the statuses of {@link GattOperation}.
+     */
+    public static final int STATUS_IO_ERROR = -10;
+
+    // Delay and number of retries of a write rejected by the stack.
+    static final long RETRY_DELAY = 10; // milliseconds
+    static final int MAX_RETRIES = 50;
+
+    enum State {
+        IDLE,
+        WRITING,
+        SUSPENDED,
+        FINISHED,
+    }
+
+    interface Listener {
+        /**
+         * A chunk was written.
+         *
+         * @param bytesWritten Bytes written since the start, including this chunk.
+         */
+        void onProgress(GattStreamWriter writer, long bytesWritten);
+
+        /**
+         * The connection was lost.  The writer continues from the first unacknowledged byte once
+         * it is started again.
+         */
+        void onSuspended(GattStreamWriter writer);
+
+        /**
+         * @param status {@link GattOperation#STATUS_SUCCESS} once all the data was written, a GATT
+         *               status, one of the negative statuses of {@link GattOperation}, or
+         *               {@link #STATUS_IO_ERROR}.
+         */
+        void onFinished(GattStreamWriter writer, int status);
+    }
+
+    private abstract static class Source {
+        /**
+         * @return The number of bytes read, or -1 at the end of the data.
+         */
+        abstract int read(byte[] buffer, int offset, int length) throws IOException;
+
+        void close() {
+        }
+    }
+
+    private static class ByteBufferSource extends Source {
+        private final ByteBuffer mData;
+
+        ByteBufferSource(ByteBuffer data) {
+            // Leaves the position of the caller's buffer alone.
+            mData = data.duplicate();
+        }
+
+        @Override
+        int read(byte[] buffer, int offset, int length) {
+            if (!mData.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, mData.remaining());
+            mData.get(buffer, offset, count);
+            return count;
+        }
+    }
+
+    private static class InputStreamSource extends Source {
+        private final InputStream mInput;
+
+        InputStreamSource(InputStream input) {
+            mInput = input;
+        }
+
+        @Override
+        int read(byte[] buffer, int offset, int length) throws IOException {
+            return mInput.read(buffer, offset, length);
+        }
+
+        @Override
+        void close() {
+            try {
+                mInput.close();
+            } catch (IOException e) {
+                // Nothing left to read from it.
+            }
+        }
+    }
+
+    private final UUID mServiceUuid;
+    private final UUID mCharacteristicUuid;
+    private final Source mSource;
+    private final long mLength;
+    private final AttMtu mMtu;
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+
+    private GattOperationQueue mQueue;
+    private State mState = State.IDLE;
+    private boolean mCreditFlowControl;
+    private int mCredits;
+    private int mRetryCount;
+    private int mStatus = GattOperation.STATUS_SUCCESS;
+
+    // Data read from the source and not yet acknowledged, between start and end.
+    private final byte[] mBuffer = new byte[AttMtu.MAX_ATTRIBUTE_LENGTH];
+    private int mBufferStart;
+    private int mBufferEnd;
+    private boolean mEndOfSource;
+    // Value of the chunk in flight, reused for the next chunk of the same size.
+    private byte[] mChunk = new byte[0];
+    private GattOperation mInFlight;
+
+    private long mBytesWritten;
+    // Time spent writing in nanoseconds, excluding the suspensions.
+    private long mActiveTime;
+    private long mActiveSince;
+
+    private final GattOperation.Callback mWriteCallback = new GattOperation.Callback() {
+        @Override
+        public void onComplete(GattOperation operation, int status, byte[] value) {
+            onWriteComplete(operation, status);
+        }
+    };
+
+    private final Runnable mRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sendNext();
+        }
+    };
+
+    /**
+     * Writes the remaining bytes of a buffer.  The position of the buffer is not changed.
+     */
+    public GattStreamWriter(UUID serviceUuid, UUID characteristicUuid, ByteBuffer data, AttMtu mtu,
+                            Scheduler scheduler, Listener listener) {
+        this(serviceUuid, characteristicUuid, new ByteBufferSource(checkData(data)),
+                data.remaining(), mtu, scheduler, listener);
+    }
+
+    /**
+     * Writes a stream to its end.  The stream is closed when the writer finishes.
+     *
+     * @param length Length of the stream for {@link #getLength}, or -1 if unknown.
+     */
+    public GattStreamWriter(UUID serviceUuid, UUID characteristicUuid, InputStream data, long length,
+                            AttMtu mtu, Scheduler scheduler, Listener listener) {
+        this(serviceUuid, characteristicUuid, new InputStreamSource(checkData(data)), length, mtu,
+                scheduler, listener);
+    }
+
+    private GattStreamWriter(UUID serviceUuid, UUID characteristicUuid, Source source, long length,
+                             AttMtu mtu, Scheduler scheduler, Listener listener) {
+        if (serviceUuid == null) {
+            throw new NullPointerException("serviceUuid must not be null");
+        }
+        if (characteristicUuid == null) {
+            throw new NullPointerException("characteristicUuid must not be null");
+        }
+        if (mtu == null) {
+            throw new NullPointerException("mtu must not be null");
+        }
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler must not be null");
+        }
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        mServiceUuid = serviceUuid;
+        mCharacteristicUuid = characteristicUuid;
+        mSource = source;
+        mLength = length;
+        mMtu = mtu;
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    private static <T> T checkData(T data) {
+        if (data == null) {
+            throw new NullPointerException("data must not be null");
+        }
+        return data;
+    }
+
+    /**
+     * Only sends a chunk for every credit granted with {@link #addCredits}.  Must be set before
+     * the writer is started.
+     */
+    public synchronized GattStreamWriter setCreditFlowControl(boolean enabled) {
+        if (mState != State.IDLE) {
+            throw new IllegalStateException("Writer already started");
+        }
+        mCreditFlowControl = enabled;
+        return this;
+    }
+
+    /**
+     * Starts writing, or resumes a suspended writer on the queue of a new connection.
+     *
+     * @return false if the writer is already writing or finished.
+     */
+    public boolean start(GattOperationQueue queue) {
+        if (queue == null) {
+            throw new NullPointerException("queue must not be null");
+        }
+        synchronized (this) {
+            if (mState != State.IDLE && mState != State.SUSPENDED) {
+                return false;
+            }
+            mQueue = queue;
+            mState = State.WRITING;
+            mRetryCount = 0;
+            mActiveSince = mScheduler.nanoTime();
+        }
+        sendNext();
+        return true;
+    }
+
+    /**
+     * Grants credits for that many more chunks, when credit flow control is enabled.
+     */
+    public void addCredits(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        synchronized (this) {
+            mCredits += count;
+        }
+        sendNext();
+    }
+
+    /**
+     * Stops writing.  The chunk in flight, if any, is still written.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (mState == State.FINISHED) {
+                return;
+            }
+            finish(GattOperation.STATUS_CANCELLED);
+        }
+        mListener.onFinished(this, GattOperation.STATUS_CANCELLED);
+    }
+
+    /**
+     * Suspends the writer when the connection is lost while no chunk is in flight.  Otherwise
+     * the cancellation of the chunk suspends it.
+     */
+    public void suspend() {
+        synchronized (this) {
+            if (mState != State.WRITING) {
+                return;
+            }
+            suspendLocked();
+        }
+        mListener.onSuspended(this);
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return The status passed to {@link Listener#onFinished}.
+     */
+    public synchronized int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return The number of bytes acknowledged by the stack.
+     */
+    public synchronized long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * @return The total number of bytes to write, or -1 if unknown.
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return The average throughput while writing, excluding the time spent suspended.
+     */
+    public synchronized double getBytesPerSecond() {
+        long activeTime = mActiveTime;
+        if (mState == State.WRITING) {
+            activeTime += mScheduler.nanoTime() - mActiveSince;
+        }
+        return activeTime <= 0 ? 0 : mBytesWritten * 1e9 / activeTime;
+    }
+
+    private void sendNext() {
+        GattOperationQueue queue;
+        GattOperation operation;
+        int status;
+        synchronized (this) {
+            if (mState != State.WRITING || mInFlight != null
+                    || (mCreditFlowControl && mCredits == 0)) {
+                return;
+            }
+            int payload = mMtu.getMaxWritePayload();
+            try {
+                fill(payload);
+                status = GattOperation.STATUS_SUCCESS;
+            } catch (IOException e) {
+                status = STATUS_IO_ERROR;
+            }
+            int length = Math.min(payload, mBufferEnd - mBufferStart);
+            if (status != GattOperation.STATUS_SUCCESS || length == 0) {
+                finish(status);
+                queue = null;
+                operation = null;
+            } else {
+                if (mChunk.length != length) {
+                    mChunk = new byte[length];
+                }
+                System.arraycopy(mBuffer, mBufferStart, mChunk, 0, length);
+                operation = GattOperation.writeCharacteristic(mServiceUuid, mCharacteristicUuid,
+                        mChunk, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE)
+                        .setCallback(mWriteCallback);
+                mInFlight = operation;
+                queue = mQueue;
+                if (mCreditFlowControl) {
+                    mCredits--;
+                }
+            }
+        }
+        if (operation == null) {
+            mListener.onFinished(this, status);
+            return;
+        }
+        queue.enqueue(operation);
+    }
+
+    private void onWriteComplete(GattOperation operation, int status) {
+        long bytesWritten;
+        synchronized (this) {
+            if (operation != mInFlight) {
+                // Completion of a chunk sent before the writer was cancelled.
+                return;
+            }
+            mInFlight = null;
+            if (status == GattOperation.STATUS_SUCCESS) {
+                mBufferStart += operation.value.length;
+                mBytesWritten += operation.value.length;
+                mRetryCount = 0;
+                bytesWritten = mBytesWritten;
+            } else {
+                // The chunk is sent again, so its credit is not used up.
+                if (mCreditFlowControl) {
+                    mCredits++;
+                }
+                if (status == GattOperation.STATUS_REJECTED && mRetryCount < MAX_RETRIES) {
+                    mRetryCount++;
+                    mScheduler.postDelayed(mRetryRunnable, RETRY_DELAY);
+                    return;
+                }
+                if (status == GattOperation.STATUS_CANCELLED) {
+                    suspendLocked();
+                } else {
+                    finish(status);
+                }
+                bytesWritten = -1;
+            }
+        }
+        if (bytesWritten >= 0) {
+            mListener.onProgress(this, bytesWritten);
+            sendNext();
+        } else if (status == GattOperation.STATUS_CANCELLED) {
+            mListener.onSuspended(this);
+        } else {
+            mListener.onFinished(this, status);
+        }
+    }
+
+    // Reads from the source until a full chunk is buffered or the source ends.  Must be called
+    // with the lock held.
+    private void fill(int payload) throws IOException {
+        if (mBufferEnd - mBufferStart >= payload || mEndOfSource) {
+            return;
+        }
+        if (mBufferStart > 0) {
+            System.arraycopy(mBuffer, mBufferStart, mBuffer, 0, mBufferEnd - mBufferStart);
+            mBufferEnd -= mBufferStart;
+            mBufferStart = 0;
+        }
+        while (mBufferEnd < mBuffer.length) {
+            int count = mSource.read(mBuffer, mBufferEnd, mBuffer.length - mBufferEnd);
+            if (count < 0) {
+                mEndOfSource = true;
+                return;
+            }
+            mBufferEnd += count;
+            if (mBufferEnd >= payload) {
+                return;
+            }
+        }
+    }
+
+    // Must be called with the lock held.
+    private void suspendLocked() {
+        mState = State.SUSPENDED;
+        mActiveTime += mScheduler.nanoTime() - mActiveSince;
+        mInFlight = null;
+        mQueue = null;
+        mScheduler.removeCallbacks(mRetryRunnable);
+    }
+
+    // Must be called with the lock held.
+    private void finish(int status) {
+        if (mState == State.WRITING) {
+            mActiveTime += mScheduler.nanoTime() - mActiveSince;
+        }
+        mState = State.FINISHED;
+        mStatus = status;
+        mInFlight = null;
+        mQueue = null;
+        mScheduler.removeCallbacks(mRetryRunnable);
+        mSource.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GattStreamWriter{characteristic=" + mCharacteristicUuid + ", state=" + mState
+                + ", written=" + mBytesWritten + "/" + mLength
+                + ", bytesPerSecond=" + Math.round(getBytesPerSecond()) + "}";
+    }
+}
@@ -0,0 +1,32 @@
+package jp.android.blethermometer;
+
+import android.os.Handler;
+
+/**
+ * {@link Scheduler} backed by an {@link Handler}.
+ */
+class HandlerScheduler implements Scheduler {
+    private final Handler mHandler;
+
+    public HandlerScheduler(Handler handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler must not be null");
+        }
+        mHandler = handler;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void postDelayed(Runnable r, long delayMillis) {
+        mHandler.postDelayed(r, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable r) {
+        mHandler.removeCallbacks(r);
+    }
+}
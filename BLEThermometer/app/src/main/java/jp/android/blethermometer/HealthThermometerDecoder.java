@@ -0,0 +1,142 @@
+package jp.android.blethermometer;
+
+/**
+ * Decodes the Health Thermometer Measurement characteristic (0x2A1C).
+ *
+ * <pre>
+ * Flags (uint8) | Temperature (FLOAT) | Time Stamp (7 bytes, optional) | Temperature Type (uint8, optional)
+ * </pre>
+ *
+ * Decoding works on the raw value and writes into a caller supplied {@link Temperature}, so no
+ * objects are allocated per notification.
+ */
+class HealthThermometerDecoder {
+    private static final int FLAG_FAHRENHEIT = 0x01;
+    private static final int FLAG_TIMESTAMP = 0x02;
+    private static final int FLAG_TEMPERATURE_TYPE = 0x04;
+
+    private static final int FLAGS_SIZE = 1;
+    private static final int FLOAT_SIZE = 4;
+    private static final int TIMESTAMP_SIZE = 7;
+    private static final int TEMPERATURE_TYPE_SIZE = 1;
+
+    // IEEE 11073-20601 special values of the 24-bit mantissa.
+    private static final int MANTISSA_POSITIVE_INFINITY = 0x007FFFFE;
+    private static final int MANTISSA_NAN = 0x007FFFFF;
+    private static final int MANTISSA_NRES = 0x00800000;
+    private static final int MANTISSA_RESERVED = 0x00800001;
+    private static final int MANTISSA_NEGATIVE_INFINITY = 0x00800002;
+
+    private static final double[] POWERS_OF_TEN = new double[129];
+
+    static {
+        double power = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+    }
+
+    private HealthThermometerDecoder() {
+    }
+
+    /**
+     * @return The minimum length of a measurement with the given flags.
+     */
+    public static int getLength(int flags) {
+        int length = FLAGS_SIZE + FLOAT_SIZE;
+        if ((flags & FLAG_TIMESTAMP) != 0) {
+            length += TIMESTAMP_SIZE;
+        }
+        if ((flags & FLAG_TEMPERATURE_TYPE) != 0) {
+            length += TEMPERATURE_TYPE_SIZE;
+        }
+        return length;
+    }
+
+    /**
+     * Decodes a measurement.
+     *
+     * @param data   The characteristic value.
+     * @param offset The offset of the flags field in {@code data}.
+     * @param length The number of valid bytes from {@code offset}.
+     * @param out    Receives the decoded fields.  It is cleared if decoding fails.
+     *
+     * @return false if the value is too short for the fields announced by its flags.
+     */
+    public static boolean decode(byte[] data, int offset, int length, Temperature out) {
+        if (data == null) {
+            throw new NullPointerException("data must not be null");
+        }
+        if (out == null) {
+            throw new NullPointerException("out must not be null");
+        }
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length
+                    + ", data.length=" + data.length);
+        }
+        out.clear();
+        if (length < FLAGS_SIZE) {
+            return false;
+        }
+
+        int flags = data[offset] & 0xFF;
+        if (length < getLength(flags)) {
+            return false;
+        }
+        int position = offset + FLAGS_SIZE;
+
+        out.unit = (flags & FLAG_FAHRENHEIT) != 0 ? Temperature.Unit.FAHRENHEIT : Temperature.Unit.CELSIUS;
+        out.value = toFloat(readInt32(data, position));
+        position += FLOAT_SIZE;
+
+        if ((flags & FLAG_TIMESTAMP) != 0) {
+            out.hasTimestamp = true;
+            out.year = (data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8;
+            out.month = data[position + 2] & 0xFF;
+            out.day = data[position + 3] & 0xFF;
+            out.hours = data[position + 4] & 0xFF;
+            out.minutes = data[position + 5] & 0xFF;
+            out.seconds = data[position + 6] & 0xFF;
+            position += TIMESTAMP_SIZE;
+        }
+
+        if ((flags & FLAG_TEMPERATURE_TYPE) != 0) {
+            out.type = Temperature.Type.fromCode(data[position] & 0xFF);
+        }
+        return true;
+    }
+
+    /**
+     * Converts an IEEE 11073-20601 32-bit FLOAT (8-bit exponent, 24-bit mantissa, little endian
+     * already assembled into {@code raw}) to a float.
+     */
+    public static float toFloat(int raw) {
+        int mantissa = raw & 0x00FFFFFF;
+        switch (mantissa) {
+            case MANTISSA_POSITIVE_INFINITY:
+                return Float.POSITIVE_INFINITY;
+            case MANTISSA_NEGATIVE_INFINITY:
+                return Float.NEGATIVE_INFINITY;
+            case MANTISSA_NAN:
+            case MANTISSA_NRES:
+            case MANTISSA_RESERVED:
+                return Float.NaN;
+        }
+        // Sign-extends the 24-bit mantissa.
+        mantissa = (mantissa << 8) >> 8;
+        int exponent = raw >> 24;
+        if (exponent >= 0) {
+            return (float) (mantissa * POWERS_OF_TEN[exponent]);
+        } else {
+            return (float) (mantissa / POWERS_OF_TEN[-exponent]);
+        }
+    }
+
+    private static int readInt32(byte[] data, int position) {
+        return (data[position] & 0xFF)
+                | (data[position + 1] & 0xFF) << 8
+                | (data[position + 2] & 0xFF) << 16
+                | (data[position + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,146 @@
+package jp.android.blethermometer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies with fixed log-linear buckets.
+ *
+ * <p>Latencies are kept in microseconds.  Below 8 µs every value has its own bucket; above, each
+ * power of two is split into 4 buckets, so that a bucket is at most 25% wider than its lower
+ * bound, up to about 71 minutes where the last bucket takes everything longer.  Recording is a
+ * few atomic increments without allocation or locks, cheap enough for every callback.  Reads are
+ * not atomic across buckets, so a snapshot taken while recording may be off by the values
+ * recorded meanwhile.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Values of 2^32 µs and more go to the last bucket.
+    private static final int MAX_EXPONENT = 31;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param nanos Latency in nanoseconds.  Negative values, e.g. from a clock going backwards,
+     *              count as zero.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        mCounts.incrementAndGet(bucketOf(micros));
+        mCount.incrementAndGet();
+        mSum.addAndGet(micros);
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet(max, micros)) {
+            max = mMax.get();
+        }
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < 2 * SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | subBucket;
+    }
+
+    /**
+     * @return The smallest value in microseconds which falls into the bucket.
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int exponent = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket & (SUB_BUCKET_COUNT - 1);
+        return (SUB_BUCKET_COUNT | subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @return The mean latency in microseconds, or 0 if nothing was recorded.
+     */
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * @return The maximum latency in microseconds.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return The upper bound in microseconds of the bucket holding the percentile, capped by the
+     *         maximum, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: "
+                    + percentile);
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += mCounts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                long upper = i + 1 < BUCKET_COUNT ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(upper, mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Appends the summary as a JSON object.  Times are in microseconds.
+     */
+    public void appendJson(StringBuilder out) {
+        out.append("{\"count\":").append(getCount())
+                .append(",\"meanUs\":").append(getMean())
+                .append(",\"p50Us\":").append(getPercentile(50))
+                .append(",\"p90Us\":").append(getPercentile(90))
+                .append(",\"p99Us\":").append(getPercentile(99))
+                .append(",\"maxUs\":").append(getMax())
+                .append('}');
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + ", meanUs=" + getMean()
+                + ", p50Us=" + getPercentile(50)
+                + ", p90Us=" + getPercentile(90)
+                + ", p99Us=" + getPercentile(99)
+                + ", maxUs=" + getMax();
+    }
+}
@@ -0,0 +1,39 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothAdapter;
+
+/**
+ * Source of BLE advertisements.
+ *
+ * <p>Results are delivered through the same callback as {@link BluetoothAdapter#startLeScan}, so
+ * that scan consumers do not depend on how the scan is performed.  When
+ * {@link ScanOptions#getReportDelay} is set, implementations may hold results back and deliver
+ * them in bursts.
+ */
+interface LeScanner {
+    interface FailureListener {
+        /**
+         * Called on the main thread when a started scan fails.  The scan is over, and the callback
+         * can be used for a new one.
+         *
+         * @param errorCode One of the {@code ScanCallback.SCAN_FAILED_*} codes.
+         */
+        void onScanFailed(BluetoothAdapter.LeScanCallback callback, int errorCode);
+    }
+
+    /**
+     * @param failureListener Notified if the scan fails after it was started.
+     *
+     * @return false if the scan could not be started, e.g. because Bluetooth is turned off or the
+     *         callback is already scanning.
+     */
+    boolean startScan(ScanOptions options, BluetoothAdapter.LeScanCallback callback,
+                      FailureListener failureListener);
+
+    void stopScan(BluetoothAdapter.LeScanCallback callback);
+
+    /**
+     * Delivers the results held back for a batched scan immediately.
+     */
+    void flushPendingScanResults(BluetoothAdapter.LeScanCallback callback);
+}
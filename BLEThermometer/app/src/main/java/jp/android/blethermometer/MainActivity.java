@@ -3,58 +3,92 @@ package jp.android.blethermometer;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.UUID;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
+/**
+ * Scans for thermometers and shows their temperatures.
+ *
+ * <p>The connections belong to {@link ThermometerService}, which keeps collecting while the
+ * activity is recreated or in the background; the activity only observes them while it is bound.
+ */
 public class MainActivity extends Activity {
     private static final String TAG = MainActivity.class.getSimpleName();
 
     private static final long SCAN_PERIOD = 10000; // Stops scanning after 10 seconds.
-    private static final String SUPPORTED_DEVICE_NAME = "Thermometer";
+    private static final long SCAN_REPORT_DELAY = 1000; // Delivers scan results once a second.
 
     private BluetoothAdapter mBluetoothAdapter;
-    private BluetoothGatt mBluetoothGatt;
-    private ConnectionStatus mConnectionStatus = ConnectionStatus.DISCONNECTED;
-    private GattStatus mGattStatus = GattStatus.NOT_AVAILABLE;
-    private boolean mScanning;
+    // Set while the activity is bound to the service.
+    private volatile ThermometerService mService;
+    private ConnectionManager mConnectionManager;
+    private ScanSession mScanSession;
+    private final ScanOptions mScanOptions = new ScanOptions()
+            .addServiceUuid(GattAttributes.HEALTH_THERMOMETER_SERVICE)
+            .setReportDelay(SCAN_REPORT_DELAY);
+    // Reused for every advertisement.  Scan callbacks are delivered on a single thread.
+    private final AdvertisingData mAdvertisingData = new AdvertisingData();
 
     // View
     private TextView mTemperatureText;
+    private TextView mStatisticsText;
     private TextView mConnectionStatusText;
     private TextView mGattStatusText;
     private Button mScanButton;
     private Button mUpdateButton;
 
     private Handler mHandler;
+    private CoalescingUpdater mUpdater;
+    private String mCelsiusUnit;
+    private String mFahrenheitUnit;
+    // Text of the temperature, formatted in place on the UI thread.
+    private char[] mTemperatureChars;
+
+    // Latest values to display, written on the GATT callback threads and read on the next frame.
+    private final Object mDisplayLock = new Object();
+    private boolean mConnectionStatusChanged;
+    private GattStatus mGattStatus;
+    // Null once displayed.
+    private Temperature.Unit mTemperatureUnit;
+    private float mTemperatureValue;
+    private DeviceMetrics mTemperatureMetrics;
+    private long mTemperatureReceivedTime;
+    private float mStatisticsMin;
+    private float mStatisticsMean;
+    private float mStatisticsMax;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         mHandler = new Handler();
+        mUpdater = new CoalescingUpdater(new ChoreographerFrameScheduler(), mDisplayTarget);
 
         if (!isBleSupported()) {
             finish();
             return;
         }
 
+        mScanSession = new ScanSession(new SystemLeScanner(mBluetoothAdapter),
+                new HandlerScheduler(mHandler), mScanListener);
         initView();
+        bindService(new Intent(this, ThermometerService.class), mServiceConnection,
+                Context.BIND_AUTO_CREATE);
     }
 
     @Override
@@ -66,9 +100,37 @@ public class MainActivity extends Activity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        disconnectBle();
+        if (mScanSession == null) {
+            // Finished in onCreate, never bound.
+            return;
+        }
+        if (mService != null) {
+            mService.removeListener(mConnectionListener);
+            mService = null;
+            mConnectionManager = null;
+        }
+        // The connections stay with the service.
+        unbindService(mServiceConnection);
     }
 
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mService = ((ThermometerService.LocalBinder) service).getService();
+            mConnectionManager = mService.getConnectionManager();
+            mService.addListener(mConnectionListener);
+            mUpdateButton.setText(mConnectionManager.isUpdateEnabled()
+                    ? R.string.view_btn_update_stop : R.string.view_btn_update);
+            updateConnectionStatus();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+            mConnectionManager = null;
+        }
+    };
+
     private boolean isBleSupported() {
         // Use this check to determine whether BLE is supported on the device.  Then you can
         // selectively disable BLE-related features.
@@ -92,7 +154,12 @@ public class MainActivity extends Activity {
     }
 
     private void initView() {
+        mCelsiusUnit = getString(R.string.unit_celsius);
+        mFahrenheitUnit = getString(R.string.unit_fahrenheit);
+        mTemperatureChars = new char[NumberFormatter.MAX_FIXED_LENGTH
+                + Math.max(mCelsiusUnit.length(), mFahrenheitUnit.length())];
         mTemperatureText = (TextView) findViewById(R.id.txtTemperature);
+        mStatisticsText = (TextView) findViewById(R.id.txtStatistics);
         mConnectionStatusText = (TextView) findViewById(R.id.txtConnectionStatus);
         mGattStatusText = (TextView) findViewById(R.id.txtGattStatus);
         mScanButton = (Button) findViewById(R.id.btnScan);
@@ -113,7 +180,7 @@ public class MainActivity extends Activity {
     }
 
     private void scanLeDevice() {
-        if (mScanning) {
+        if (mScanSession.isScanning()) {
             stopScanningLeDevice();
         } else {
             startScanningLeDevice();
@@ -121,254 +188,207 @@ public class MainActivity extends Activity {
     }
 
     private void startScanningLeDevice() {
-        if (mScanning) {
-            return;
-        }
-
         // Stops scanning after a pre-defined scan period.
-        mHandler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                stopScanningLeDevice();
-            }
-        }, SCAN_PERIOD);
-
-        mScanning = true;
-        mBluetoothAdapter.startLeScan(mLeScanCallback);
-        mScanButton.setText(R.string.view_btn_scan_scanning);
+        if (mScanSession.start(mScanOptions, mLeScanCallback, SCAN_PERIOD)) {
+            mScanButton.setText(R.string.view_btn_scan_scanning);
+        }
     }
 
     private void stopScanningLeDevice() {
-        if (!mScanning) {
-            return;
+        if (mScanSession != null) {
+            mScanSession.stop();
         }
-
-        mScanning = false;
-        mBluetoothAdapter.stopLeScan(mLeScanCallback);
-        mScanButton.setText(R.string.view_btn_scan);
     }
 
-    // Device scan callback.
-    private BluetoothAdapter.LeScanCallback mLeScanCallback = new BluetoothAdapter.LeScanCallback() {
+    private final ScanSession.Listener mScanListener = new ScanSession.Listener() {
         @Override
-        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
-            Log.d(TAG, "Device: name=" + device.getName() + ", address=" + device.getAddress());
-            if (device.getName() != null && device.getName().equals(SUPPORTED_DEVICE_NAME)) {
-                stopScanningLeDevice();
-                mBluetoothGatt = device.connectGatt(getApplicationContext(), false, mGattCallback);
-                setConnectionStatus(ConnectionStatus.CONNECTING);
-            }
+        public void onScanStopped() {
+            mScanButton.setText(R.string.view_btn_scan);
         }
-    };
 
-    private void disconnectBle() {
-        if (mBluetoothGatt != null) {
-            mBluetoothGatt.disconnect();
-            mBluetoothGatt.close();
-            mBluetoothGatt = null;
+        @Override
+        public void onScanFailed(int errorCode) {
+            mScanButton.setText(R.string.view_btn_scan);
+            Toast.makeText(MainActivity.this, getString(R.string.msg_error_scan_failed, errorCode),
+                    Toast.LENGTH_SHORT).show();
         }
-    }
+    };
 
-    private void setConnectionStatus(final ConnectionStatus status) {
-        mConnectionStatus = status;
-        mHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                switch (status) {
-                    case CONNECTING:
-                        mScanButton.setEnabled(false);
-                        break;
-                    case CONNECTED:
-                        mScanButton.setEnabled(false);
-                        mUpdateButton.setEnabled(true);
-                        break;
-                    case DISCONNECTED:
-                        mScanButton.setEnabled(true);
-                        mUpdateButton.setEnabled(false);
-                        break;
+    // Device scan callback.  Connects to the devices advertising the Health Thermometer service.
+    // The scanner filters on the service already; the check is kept so that the callback also
+    // works with scanners which do not filter.
+    private BluetoothAdapter.LeScanCallback mLeScanCallback = new BluetoothAdapter.LeScanCallback() {
+        @Override
+        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+            if (scanRecord == null) {
+                return;
+            }
+            mAdvertisingData.reset(scanRecord);
+            ThermometerService service = mService;
+            if (service != null && mScanOptions.matches(device.getAddress(), mAdvertisingData)) {
+                if (service.connect(device)) {
+                    Log.d(TAG, "Thermometer found: address=" + device.getAddress() + ", rssi=" + rssi);
+                }
+                if (service.getConnectionManager().isFull()) {
+                    stopScanningLeDevice();
                 }
-                mScanButton.setText(R.string.view_btn_scan);
-                mConnectionStatusText.setText(status.toString());
             }
-        });
-    }
-
-    private void updateTemperature() {
-        if (mConnectionStatus == ConnectionStatus.DISCONNECTED || mGattStatus == GattStatus.NOT_AVAILABLE) {
-            return;
         }
+    };
 
-        if (mGattStatus == GattStatus.NOTIFICATION_ENABLED || mGattStatus == GattStatus.INDICATION_ENABLED) {
-            stopUpdateTemperature();
-        } else {
-            startUpdateTemperature();
+    // Receives the events of all connected devices.
+    private final DeviceConnection.Listener mConnectionListener = new DeviceConnection.Listener() {
+        @Override
+        public void onConnectionStatusChanged(DeviceConnection connection, ConnectionStatus status) {
+            Log.i(TAG, "Connection status changed: address=" + connection.getAddress() + ", status=" + status);
+            updateConnectionStatus();
         }
-    }
 
-    private void startUpdateTemperature() {
-        BluetoothGattCharacteristic characteristic = findCharacteristic();
-        if (characteristic == null) {
-            return;
+        @Override
+        public void onGattStatusChanged(DeviceConnection connection, GattStatus status) {
+            setGattStatus(status);
         }
-        int props = characteristic.getProperties();
-        if (hasCharacteristicProperty(props, BluetoothGattCharacteristic.PROPERTY_NOTIFY)) {
-            BluetoothLeUtils.enableNotification(mBluetoothGatt, characteristic);
-            setGattStatus(GattStatus.NOTIFICATION_ENABLED);
-        } else if (hasCharacteristicProperty(props, BluetoothGattCharacteristic.PROPERTY_INDICATE)) {
-            BluetoothLeUtils.enableIndication(mBluetoothGatt, characteristic);
-            setGattStatus(GattStatus.INDICATION_ENABLED);
+
+        @Override
+        public void onTemperature(DeviceConnection connection, Temperature temperature) {
+            setTemperature(connection, temperature);
         }
-    }
+    };
 
-    private void stopUpdateTemperature() {
-        BluetoothGattCharacteristic characteristic = findCharacteristic();
-        if (characteristic == null) {
+    private void updateTemperature() {
+        if (mConnectionManager == null) {
             return;
         }
-        int props = characteristic.getProperties();
-        if (hasCharacteristicProperty(props, BluetoothGattCharacteristic.PROPERTY_NOTIFY)) {
-            BluetoothLeUtils.disableNotification(mBluetoothGatt, characteristic);
-        } else if (hasCharacteristicProperty(props, BluetoothGattCharacteristic.PROPERTY_INDICATE)) {
-            BluetoothLeUtils.disableIndication(mBluetoothGatt, characteristic);
-        }
-        setGattStatus(GattStatus.SERVICES_DISCOVERED);
+        boolean enabled = !mConnectionManager.isUpdateEnabled();
+        mConnectionManager.setUpdateEnabled(enabled);
+        mUpdateButton.setText(enabled ? R.string.view_btn_update_stop : R.string.view_btn_update);
     }
 
-    private boolean hasCharacteristicProperty(int properties, int property) {
-        return (properties & property) == property;
+    private void updateConnectionStatus() {
+        synchronized (mDisplayLock) {
+            mConnectionStatusChanged = true;
+        }
+        mUpdater.requestUpdate();
     }
 
-    private BluetoothGattCharacteristic findCharacteristic() {
-        UUID serviceUuid = GattAttributes.HEALTH_THERMOMETER_SERVICE;
-        UUID characteristicUuid = GattAttributes.HEALTH_THERMOMETER_MEASUREMENT;
-
-        BluetoothGattService service = mBluetoothGatt.getService(serviceUuid);
-        if (service == null) {
-            Log.w(TAG, "Service not found: uuid=" + serviceUuid);
-            return null;
-        }
-        BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
-        if (characteristic == null) {
-            Log.w(TAG, "Characteristic not found: uuid=" + characteristicUuid);
-            return null;
+    private void setGattStatus(GattStatus status) {
+        synchronized (mDisplayLock) {
+            mGattStatus = status;
         }
-        return characteristic;
+        mUpdater.requestUpdate();
     }
 
-    private void setGattStatus(final GattStatus status) {
-        mGattStatus = status;
-        mHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                switch (status) {
-                    case NOTIFICATION_ENABLED:
-                    case INDICATION_ENABLED:
-                        mUpdateButton.setText(R.string.view_btn_update_stop);
-                        break;
-                    default:
-                        mUpdateButton.setText(R.string.view_btn_update);
-                        break;
-                }
-                mGattStatusText.setText(status.toString());
-            }
-        });
+    // Copies the values since the record and the window are reused for the next notification.
+    private void setTemperature(DeviceConnection connection, Temperature temp) {
+        RollingWindow window = connection.getStats().getLastMinute();
+        synchronized (mDisplayLock) {
+            mTemperatureValue = temp.value;
+            mTemperatureUnit = temp.unit;
+            mTemperatureMetrics = connection.getMetrics();
+            mTemperatureReceivedTime = System.nanoTime();
+            mStatisticsMin = window.getMin();
+            mStatisticsMean = window.getMean();
+            mStatisticsMax = window.getMax();
+        }
+        mUpdater.requestUpdate();
     }
 
-    // Implements callback methods for GATT events that the app cares about.  For example,
-    // connection change and services discovered.
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+    // Displays the latest values on the next frame.  The samples received in between are dropped.
+    private final CoalescingUpdater.Target mDisplayTarget = new CoalescingUpdater.Target() {
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                Log.i(TAG, "Connected to GATT server.");
-                // Attempts to discover services after successful connection.
-                Log.i(TAG, "Attempting to start service discovery:" + mBluetoothGatt.discoverServices());
-                setConnectionStatus(ConnectionStatus.CONNECTED);
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                Log.i(TAG, "Disconnected from GATT server.");
-                setConnectionStatus(ConnectionStatus.DISCONNECTED);
-                setGattStatus(GattStatus.NOT_AVAILABLE);
+        public void onFrame() {
+            boolean connectionStatusChanged;
+            GattStatus gattStatus;
+            Temperature.Unit unit;
+            float value;
+            DeviceMetrics metrics;
+            long receivedTime;
+            float min;
+            float mean;
+            float max;
+            synchronized (mDisplayLock) {
+                connectionStatusChanged = mConnectionStatusChanged;
+                mConnectionStatusChanged = false;
+                gattStatus = mGattStatus;
+                mGattStatus = null;
+                unit = mTemperatureUnit;
+                mTemperatureUnit = null;
+                value = mTemperatureValue;
+                metrics = mTemperatureMetrics;
+                receivedTime = mTemperatureReceivedTime;
+                min = mStatisticsMin;
+                mean = mStatisticsMean;
+                max = mStatisticsMax;
             }
-        }
-
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                // Changes the MTU size to 512 in case LOLLIPOP and above devices
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                    BluetoothLeUtils.changeGattMtu(gatt, 512);
-                }
-                setGattStatus(GattStatus.SERVICES_DISCOVERED);
-                logGattServices(gatt);
-            } else {
-                Log.w(TAG, "onServicesDiscovered received: " + status);
+            if (connectionStatusChanged) {
+                displayConnectionStatus();
             }
-        }
-
-        private void logGattServices(BluetoothGatt gatt) {
-            for (BluetoothGattService service : gatt.getServices()) {
-                String serviceName = GattAttributes.lookup(service.getUuid(), "Unknown");
-                Log.d(TAG, "+ Service: name=" + serviceName + ", uuid=" + service.getUuid());
-                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
-                    String characteristicName = GattAttributes.lookup(characteristic.getUuid(), "Unknown");
-                    Log.d(TAG, "- Characteristic: name=" + characteristicName + ", uuid=" + characteristic.getUuid());
-                }
+            if (gattStatus != null) {
+                mGattStatusText.setText(gattStatus.toString());
             }
-        }
-
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic,
-                                         int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                handleCharacteristic(characteristic);
+            if (unit != null) {
+                displayTemperature(value, unit);
+                mStatisticsText.setText(getString(R.string.view_txt_statistics, min, mean, max));
+                metrics.display.record(System.nanoTime() - receivedTime);
             }
         }
+    };
 
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            handleCharacteristic(characteristic);
-        }
+    // TextView keeps the array, which is only changed right before setting it again.
+    private void displayTemperature(float value, Temperature.Unit unit) {
+        int length = NumberFormatter.appendFixed(value, 1, mTemperatureChars, 0);
+        String unitText = getUnitText(unit);
+        unitText.getChars(0, unitText.length(), mTemperatureChars, length);
+        mTemperatureText.setText(mTemperatureChars, 0, length + unitText.length());
+    }
 
-        private void handleCharacteristic(BluetoothGattCharacteristic characteristic) {
-            if (characteristic.getUuid().equals(GattAttributes.HEALTH_THERMOMETER_MEASUREMENT)) {
-                Temperature temp = parseHealthThermometerMeasurement(characteristic);
-                setTemperature(temp);
-            }
+    private String getUnitText(Temperature.Unit unit) {
+        switch (unit) {
+            case CELSIUS:
+                return mCelsiusUnit;
+            case FAHRENHEIT:
+                return mFahrenheitUnit;
+            default:
+                return "";
         }
-    };
+    }
 
-    private Temperature parseHealthThermometerMeasurement(BluetoothGattCharacteristic characteristic) {
-        float value = characteristic.getFloatValue(BluetoothGattCharacteristic.FORMAT_FLOAT, 1);
-        Temperature.Unit unit = Temperature.Unit.UNKNOWN;
-        byte[] data = characteristic.getValue();
-        if (data != null && data.length > 0) {
-            byte flagByte = data[0];
-            if ((flagByte & 0x01) != 0) {
-                unit = Temperature.Unit.FAHRENHEIT;
-            } else {
-                unit = Temperature.Unit.CELSIUS;
-            }
+    private void displayConnectionStatus() {
+        if (mConnectionManager == null) {
+            return;
+        }
+        int connected = mConnectionManager.getCount(ConnectionStatus.CONNECTED);
+        int connecting = mConnectionManager.getCount(ConnectionStatus.CONNECTING);
+        int reconnecting = mConnectionManager.getCount(ConnectionStatus.RECONNECTING);
+        ConnectionStatus status;
+        if (connected > 0) {
+            status = ConnectionStatus.CONNECTED;
+        } else if (connecting > 0) {
+            status = ConnectionStatus.CONNECTING;
+        } else if (reconnecting > 0) {
+            status = ConnectionStatus.RECONNECTING;
+        } else {
+            status = ConnectionStatus.DISCONNECTED;
+        }
+        mScanButton.setEnabled(!mConnectionManager.isFull());
+        mUpdateButton.setEnabled(connected > 0);
+        if (!mScanSession.isScanning()) {
+            mScanButton.setText(R.string.view_btn_scan);
+        }
+        if (connected > 1) {
+            mConnectionStatusText.setText(status + " (" + connected + ")");
+        } else {
+            mConnectionStatusText.setText(status.toString());
         }
-        return new Temperature(value, unit);
     }
 
-    private void setTemperature(final Temperature temp) {
-        mHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                String unit = "";
-                switch (temp.unit) {
-                    case CELSIUS:
-                        unit = getString(R.string.unit_celsius);
-                        break;
-                    case FAHRENHEIT:
-                        unit = getString(R.string.unit_fahrenheit);
-                        break;
-                }
-                mTemperatureText.setText(String.format("%3.1f", temp.value) + unit);
-            }
-        });
+    /**
+     * Prints how many display updates were coalesced:
+     * {@code adb shell dumpsys activity jp.android.blethermometer/.MainActivity}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + mUpdater);
     }
 }
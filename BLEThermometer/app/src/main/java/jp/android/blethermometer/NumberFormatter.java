@@ -0,0 +1,69 @@
+package jp.android.blethermometer;
+
+/**
+ * Fixed-precision formatting of floats into a character buffer, as {@code "%.1f"} does, without
+ * {@link java.util.Formatter}, boxing or allocation.
+ *
+ * <p>Values are rounded half up, away from zero, like the formatter, and the decimal separator is
+ * always a period.  Values beyond 10^15 in magnitude fall back to {@link Float#toString}, which
+ * allocates; they are not temperatures.
+ */
+class NumberFormatter {
+    static final int MAX_DECIMALS = 3;
+    /**
+     * The most characters {@link #appendFixed} writes: sign, 15 digits, period and decimals.
+     */
+    static final int MAX_FIXED_LENGTH = 1 + 15 + 1 + MAX_DECIMALS;
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000};
+    private static final double MAX_FIXED_VALUE = 1e15;
+
+    private NumberFormatter() {
+    }
+
+    /**
+     * @param decimals Number of digits after the period, between 0 and {@link #MAX_DECIMALS}.
+     * @param out      Must hold {@link #MAX_FIXED_LENGTH} characters from {@code position}.
+     * @return The position after the last character written.
+     */
+    static int appendFixed(float value, int decimals, char[] out, int position) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("decimals must be between 0 and " + MAX_DECIMALS
+                    + ": " + decimals);
+        }
+        if (Float.isNaN(value) || Float.isInfinite(value) || Math.abs(value) >= MAX_FIXED_VALUE) {
+            String text = Float.toString(value);
+            int length = Math.min(text.length(), MAX_FIXED_LENGTH);
+            text.getChars(0, length, out, position);
+            return position + length;
+        }
+        // The sign is kept for values rounding to zero, e.g. "-0.0", as by the formatter.
+        if (Float.floatToIntBits(value) < 0) {
+            out[position++] = '-';
+        }
+        long scaled = Math.round(Math.abs((double) value) * POWERS_OF_TEN[decimals]);
+        long integer = scaled / POWERS_OF_TEN[decimals];
+        long fraction = scaled % POWERS_OF_TEN[decimals];
+        position = appendDigits(integer, 1, out, position);
+        if (decimals > 0) {
+            out[position++] = '.';
+            position = appendDigits(fraction, decimals, out, position);
+        }
+        return position;
+    }
+
+    // Writes a non-negative value with at least the given number of digits, padded with zeros.
+    private static int appendDigits(long value, int minDigits, char[] out, int position) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,421 @@
+package jp.android.blethermometer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Append-only log of readings.
+ *
+ * <p>Readings are stored as fixed-width records in segment files of a directory.  The active
+ * segment is memory-mapped, so appending a reading is a handful of stores into the mapping and
+ * does not involve a system call.  When the active segment is full a new one is created, and the
+ * oldest segments are deleted beyond {@code maxSegments}.
+ *
+ * <p>Every record carries a checksum.  Written records survive a crash of the process since they
+ * are in the page cache; {@link #sync} additionally writes them to the storage device.  On open,
+ * the active segment is scanned up to the first record whose checksum does not match, and
+ * appending resumes from there.
+ *
+ * <p>Segment layout: a {@value #HEADER_SIZE} byte header (magic, version, record size, capacity)
+ * followed by the records.  Record layout: timestamp (8 bytes), device address (6), value (4,
+ * IEEE 754), unit (1), type (1), checksum (4).
+ */
+class ReadingStore implements Closeable {
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 24;
+    static final int DEFAULT_RECORDS_PER_SEGMENT = 43690; // About 1 MiB
+    static final int DEFAULT_MAX_SEGMENTS = 64;
+
+    private static final int MAGIC = 0x424C5452; // "BLTR"
+    private static final int VERSION = 1;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long CHECKSUM_SEED = 0x5DEECE66DL;
+
+    private final File mDirectory;
+    private final int mRecordsPerSegment;
+    private final int mMaxSegments;
+    // Indices of the segment files, oldest first.  The last one is the active segment.
+    private final ArrayList<Long> mSegments = new ArrayList<Long>();
+
+    private MappedByteBuffer mBuffer;
+    private int mCapacity;
+    private int mCount;
+    private boolean mClosed;
+
+    /**
+     * Sequential reader over the readings stored when it was opened, oldest first.
+     */
+    class Cursor {
+        private final List<File> mFiles;
+        private final ByteBuffer mActiveBuffer;
+        private final int mActiveCount;
+
+        private int mSegment = -1;
+        private ByteBuffer mSegmentBuffer;
+        private int mSegmentCount;
+        private int mPosition;
+
+        private long mTimestamp;
+        private long mDevice;
+        private float mValue;
+        private int mUnit;
+        private int mType;
+
+        private Cursor(List<File> files, ByteBuffer activeBuffer, int activeCount) {
+            mFiles = files;
+            mActiveBuffer = activeBuffer;
+            mActiveCount = activeCount;
+        }
+
+        /**
+         * Moves to the next reading.
+         *
+         * @return false if there are no more readings.
+         */
+        public boolean next() throws IOException {
+            while (mSegmentBuffer == null || mPosition >= mSegmentCount) {
+                if (!nextSegment()) {
+                    return false;
+                }
+            }
+            int offset = HEADER_SIZE + mPosition * RECORD_SIZE;
+            if (!isValid(mSegmentBuffer, offset)) {
+                // Torn record of a crash; the rest of the segment was never written.
+                mPosition = mSegmentCount;
+                return next();
+            }
+            mTimestamp = mSegmentBuffer.getLong(offset);
+            mDevice = readAddress(mSegmentBuffer, offset + 8);
+            mValue = mSegmentBuffer.getFloat(offset + 14);
+            mUnit = mSegmentBuffer.get(offset + 18) & 0xFF;
+            mType = mSegmentBuffer.get(offset + 19) & 0xFF;
+            mPosition++;
+            return true;
+        }
+
+        /**
+         * @return Time of the reading in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * @return Device address packed by {@link #parseAddress}.
+         */
+        public long getDevice() {
+            return mDevice;
+        }
+
+        public float getValue() {
+            return mValue;
+        }
+
+        public int getUnit() {
+            return mUnit;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        private boolean nextSegment() throws IOException {
+            mSegment++;
+            mPosition = 0;
+            if (mSegment < mFiles.size()) {
+                try {
+                    mSegmentBuffer = map(mFiles.get(mSegment), false);
+                } catch (FileNotFoundException e) {
+                    // Deleted by the retention policy since the cursor was opened.
+                    mSegmentBuffer = null;
+                    return true;
+                }
+                mSegmentCount = readCapacity(mSegmentBuffer);
+                return true;
+            }
+            if (mSegment == mFiles.size()) {
+                mSegmentBuffer = mActiveBuffer;
+                mSegmentCount = mActiveCount;
+                return true;
+            }
+            mSegmentBuffer = null;
+            return false;
+        }
+    }
+
+    public ReadingStore(File directory) throws IOException {
+        this(directory, DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * @param recordsPerSegment Capacity of new segments.  Existing segments keep their capacity.
+     * @param maxSegments       The maximum number of segments kept, including the active one.
+     */
+    public ReadingStore(File directory, int recordsPerSegment, int maxSegments) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("directory must not be null");
+        }
+        if (recordsPerSegment <= 0) {
+            throw new IllegalArgumentException("recordsPerSegment must be positive: " + recordsPerSegment);
+        }
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("maxSegments must be positive: " + maxSegments);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        mDirectory = directory;
+        mRecordsPerSegment = recordsPerSegment;
+        mMaxSegments = maxSegments;
+
+        listSegments();
+        if (mSegments.isEmpty()) {
+            createSegment(0);
+        } else {
+            openActiveSegment();
+        }
+    }
+
+    /**
+     * Appends a reading.  Safe to call from any thread.
+     *
+     * @param device    Device address packed by {@link #parseAddress}.
+     * @param timestamp Time of the reading in milliseconds since the epoch.
+     * @param unit      Unit code, stored as an unsigned byte.
+     * @param type      Type code, stored as an unsigned byte.
+     *
+     * @return false if the store is closed.  Readings may still arrive from connections while
+     *         the store is being closed.
+     */
+    public synchronized boolean append(long device, long timestamp, float value, int unit, int type)
+            throws IOException {
+        if (mClosed) {
+            return false;
+        }
+        if (mCount == mCapacity) {
+            rollOver();
+        }
+        int offset = HEADER_SIZE + mCount * RECORD_SIZE;
+        MappedByteBuffer buffer = mBuffer;
+        buffer.putLong(offset, timestamp);
+        buffer.putShort(offset + 8, (short) (device >>> 32));
+        buffer.putInt(offset + 10, (int) device);
+        buffer.putFloat(offset + 14, value);
+        buffer.put(offset + 18, (byte) unit);
+        buffer.put(offset + 19, (byte) type);
+        // Written last so that a partially written record is detected.
+        buffer.putInt(offset + 20, checksum(buffer, offset));
+        mCount++;
+        return true;
+    }
+
+    /**
+     * Opens a cursor over the readings appended so far.  Readings appended later are not seen by
+     * the cursor.
+     */
+    public synchronized Cursor openCursor() {
+        if (mClosed) {
+            throw new IllegalStateException("Store is closed");
+        }
+        List<File> files = new ArrayList<File>(mSegments.size() - 1);
+        for (int i = 0; i < mSegments.size() - 1; i++) {
+            files.add(getSegmentFile(mSegments.get(i)));
+        }
+        return new Cursor(files, mBuffer.duplicate(), mCount);
+    }
+
+    /**
+     * Writes the appended readings to the storage device.  Expensive; meant to be called
+     * periodically or when the app goes to the background, not per reading.
+     */
+    public synchronized void sync() {
+        if (!mClosed) {
+            mBuffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mBuffer.force();
+        mClosed = true;
+    }
+
+    public synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * @return The number of readings in the active segment.
+     */
+    public synchronized int getActiveCount() {
+        return mCount;
+    }
+
+    /**
+     * Packs a Bluetooth address such as "00:11:22:AA:BB:CC" into the low 48 bits of a long
+     * without allocating.
+     */
+    public static long parseAddress(String address) {
+        if (address == null) {
+            throw new NullPointerException("address must not be null");
+        }
+        if (address.length() != 17) {
+            throw new IllegalArgumentException("Invalid address: " + address);
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    throw new IllegalArgumentException("Invalid address: " + address);
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid address: " + address);
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    public static String formatAddress(long device) {
+        StringBuilder sb = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int b = (int) (device >>> shift) & 0xFF;
+            sb.append(Character.toUpperCase(Character.forDigit(b >>> 4, 16)));
+            sb.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            if (shift > 0) {
+                sb.append(':');
+            }
+        }
+        return sb.toString();
+    }
+
+    private void listSegments() {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                mSegments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // Not a segment.
+            }
+        }
+    }
+
+    private void openActiveSegment() throws IOException {
+        long index = mSegments.get(mSegments.size() - 1);
+        MappedByteBuffer buffer = map(getSegmentFile(index), true);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            // Crashed while the segment was created.
+            mSegments.remove(mSegments.size() - 1);
+            createSegment(index);
+            return;
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+            throw new IOException("Unsupported segment: " + getSegmentFile(index));
+        }
+        mBuffer = buffer;
+        mCapacity = readCapacity(buffer);
+        mCount = 0;
+        while (mCount < mCapacity && isValid(buffer, HEADER_SIZE + mCount * RECORD_SIZE)) {
+            mCount++;
+        }
+    }
+
+    private void rollOver() throws IOException {
+        mBuffer.force();
+        createSegment(mSegments.get(mSegments.size() - 1) + 1);
+        while (mSegments.size() > mMaxSegments) {
+            File file = getSegmentFile(mSegments.remove(0));
+            if (!file.delete()) {
+                throw new IOException("Cannot delete " + file);
+            }
+        }
+    }
+
+    private void createSegment(long index) throws IOException {
+        File file = getSegmentFile(index);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(HEADER_SIZE + (long) mRecordsPerSegment * RECORD_SIZE);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            // Clears the records of a segment reused after a crash during creation.
+            for (int offset = HEADER_SIZE; offset < buffer.capacity(); offset += RECORD_SIZE) {
+                buffer.putInt(offset + 20, 0);
+            }
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putInt(12, mRecordsPerSegment);
+            buffer.putInt(0, MAGIC);
+            mBuffer = buffer;
+        } finally {
+            raf.close();
+        }
+        mSegments.add(index);
+        mCapacity = mRecordsPerSegment;
+        mCount = 0;
+    }
+
+    private File getSegmentFile(long index) {
+        return new File(mDirectory, String.format(Locale.US, "%016d", index) + SEGMENT_SUFFIX);
+    }
+
+    private static MappedByteBuffer map(File file, boolean writable) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            return raf.getChannel().map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    0, raf.length());
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    // Capacity of a segment, bounded by its actual size in case it was truncated.
+    private static int readCapacity(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            return 0;
+        }
+        return Math.min(buffer.getInt(12), (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    private static long readAddress(ByteBuffer buffer, int offset) {
+        return (buffer.getShort(offset) & 0xFFFFL) << 32 | (buffer.getInt(offset + 2) & 0xFFFFFFFFL);
+    }
+
+    private static boolean isValid(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + 20) == checksum(buffer, offset);
+    }
+
+    // Mixes the first 20 bytes of a record.  Never zero for an all-zero record, so that the unused
+    // part of a segment is not mistaken for readings.
+    private static int checksum(ByteBuffer buffer, int offset) {
+        long h = CHECKSUM_SEED;
+        h = (h ^ buffer.getLong(offset)) * 0x9E3779B97F4A7C15L;
+        h = (h ^ buffer.getLong(offset + 8)) * 0x9E3779B97F4A7C15L;
+        h = (h ^ (buffer.getInt(offset + 16) & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+}
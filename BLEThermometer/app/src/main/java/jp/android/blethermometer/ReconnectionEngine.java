@@ -0,0 +1,353 @@
+package jp.android.blethermometer;
+
+import java.util.Random;
+
+/**
+ * Reconnects a lost link with jittered exponential backoff.
+ *
+ * <p>The first attempt is made right away, since a link is mostly lost to a short fade and the
+ * device is still in range.  The first attempts are direct connections, which are fast but given
+ * up after a timeout.  Then the attempts fall back to background connections
+ * ({@code autoConnect}), which the controller keeps open at a low duty cycle until the device
+ * advertises again.  Between failed attempts the delay doubles up to a maximum, and is drawn
+ * between half and all of it so that the devices lost together do not retry in lockstep.
+ *
+ * <p>Every attempt uses a new GATT client: a failed attempt, e.g. with the infamous status 133
+ * ({@code GATT_ERROR}), leaves the client in a state from which it does not recover, so it has to
+ * be closed.
+ *
+ * <p>The engine also measures the time from the loss of a link to its reconnection.
+ */
+class ReconnectionEngine {
+    // GATT_ERROR, reported for most failed connection attempts.
+    static final int STATUS_GATT_ERROR = 133;
+
+    static final long DEFAULT_INITIAL_DELAY = 1000; // milliseconds
+    static final long DEFAULT_MAX_DELAY = 60000; // milliseconds
+    static final int DEFAULT_DIRECT_ATTEMPTS = 2;
+    static final long DEFAULT_DIRECT_TIMEOUT = 10000; // milliseconds
+    // Delay before asking again for a direct attempt which was deferred.
+    static final long DEFERRAL_DELAY = 500; // milliseconds
+
+    interface Target {
+        /**
+         * Called before each direct attempt, e.g. to cap the attempts in progress over several
+         * devices.  A deferred attempt is asked for again after {@link #DEFERRAL_DELAY}, and
+         * counts neither as an attempt nor towards the backoff.
+         *
+         * @return false to defer the attempt.
+         */
+        boolean canAttempt();
+
+        /**
+         * Initiates a connection attempt with a new GATT client.  The result is reported through
+         * {@link #onConnected} or {@link #onDisconnected}.
+         *
+         * @return false if the attempt could not be initiated.
+         */
+        boolean connect(boolean autoConnect);
+
+        /**
+         * Gives up the attempt in progress and closes its GATT client.
+         */
+        void cancel();
+    }
+
+    private final Target mTarget;
+    private final Scheduler mScheduler;
+    private final Random mRandom;
+
+    private long mInitialDelay = DEFAULT_INITIAL_DELAY;
+    private long mMaxDelay = DEFAULT_MAX_DELAY;
+    private int mDirectAttempts = DEFAULT_DIRECT_ATTEMPTS;
+    private long mDirectTimeout = DEFAULT_DIRECT_TIMEOUT;
+
+    private boolean mReconnecting;
+    private boolean mAttemptInProgress;
+    // Attempts since the link was lost.
+    private int mAttempt;
+    private long mLostTime;
+
+    // Statistics.  Times are in milliseconds.
+    private int mReconnectCount;
+    private long mLastReconnectTime;
+    private long mMaxReconnectTime;
+    private long mTotalReconnectTime;
+    private long mAttemptCount;
+    private long mGattErrorCount;
+    private long mTimeoutCount;
+    private long mDeferredCount;
+
+    private final Runnable mAttemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            attempt();
+        }
+    };
+
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+
+    public ReconnectionEngine(Target target, Scheduler scheduler, Random random) {
+        if (target == null) {
+            throw new NullPointerException("target must not be null");
+        }
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler must not be null");
+        }
+        if (random == null) {
+            throw new NullPointerException("random must not be null");
+        }
+        mTarget = target;
+        mScheduler = scheduler;
+        mRandom = random;
+    }
+
+    /**
+     * @param initialDelay Delay in milliseconds before the second attempt.
+     * @param maxDelay     Maximum delay in milliseconds between attempts.
+     */
+    public synchronized ReconnectionEngine setBackoff(long initialDelay, long maxDelay) {
+        if (initialDelay <= 0) {
+            throw new IllegalArgumentException("initialDelay must be positive: " + initialDelay);
+        }
+        if (maxDelay < initialDelay) {
+            throw new IllegalArgumentException("maxDelay must not be less than initialDelay: "
+                    + maxDelay);
+        }
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * @param attempts Number of direct connection attempts before falling back to background
+     *                 connections.
+     * @param timeout  Time in milliseconds after which a direct attempt is given up.
+     */
+    public synchronized ReconnectionEngine setDirectAttempts(int attempts, long timeout) {
+        if (attempts < 0) {
+            throw new IllegalArgumentException("attempts must not be negative: " + attempts);
+        }
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive: " + timeout);
+        }
+        mDirectAttempts = attempts;
+        mDirectTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * Reports that the link was lost or that a connection attempt failed.  Starts reconnecting
+     * if the engine is not reconnecting yet.
+     *
+     * @param status Status of the disconnection reported by the stack.
+     */
+    public void onDisconnected(int status) {
+        boolean attemptNow;
+        synchronized (this) {
+            if (status == STATUS_GATT_ERROR) {
+                mGattErrorCount++;
+            }
+            if (!mReconnecting) {
+                mReconnecting = true;
+                mAttempt = 0;
+                mLostTime = mScheduler.nanoTime();
+                attemptNow = true;
+            } else if (mAttemptInProgress) {
+                mAttemptInProgress = false;
+                mScheduler.removeCallbacks(mTimeoutRunnable);
+                attemptNow = false;
+                scheduleNextAttempt();
+            } else {
+                // Already waiting for the next attempt.
+                return;
+            }
+        }
+        if (attemptNow) {
+            attempt();
+        }
+    }
+
+    /**
+     * Reports that a connection was established.
+     */
+    public synchronized void onConnected() {
+        if (!mReconnecting) {
+            return;
+        }
+        long time = (mScheduler.nanoTime() - mLostTime) / 1000000;
+        mReconnectCount++;
+        mLastReconnectTime = time;
+        mMaxReconnectTime = Math.max(mMaxReconnectTime, time);
+        mTotalReconnectTime += time;
+        reset();
+    }
+
+    /**
+     * Stops reconnecting, e.g. when the link is closed on purpose.  An attempt in progress has to
+     * be closed by the caller.
+     */
+    public synchronized void stop() {
+        reset();
+    }
+
+    public synchronized boolean isReconnecting() {
+        return mReconnecting;
+    }
+
+    /**
+     * @return The number of attempts since the link was lost, including the one in progress.
+     */
+    public synchronized int getAttempt() {
+        return mAttempt;
+    }
+
+    public synchronized int getReconnectCount() {
+        return mReconnectCount;
+    }
+
+    /**
+     * @return The time in milliseconds from the loss of the link to the last reconnection.
+     */
+    public synchronized long getLastReconnectTime() {
+        return mLastReconnectTime;
+    }
+
+    public synchronized long getMaxReconnectTime() {
+        return mMaxReconnectTime;
+    }
+
+    public synchronized long getAverageReconnectTime() {
+        return mReconnectCount == 0 ? 0 : mTotalReconnectTime / mReconnectCount;
+    }
+
+    /**
+     * @return The time in milliseconds since the link was lost, or 0 if it is not being
+     *         reconnected.
+     */
+    public synchronized long getDisconnectedTime() {
+        return mReconnecting ? (mScheduler.nanoTime() - mLostTime) / 1000000 : 0;
+    }
+
+    public synchronized long getAttemptCount() {
+        return mAttemptCount;
+    }
+
+    public synchronized long getGattErrorCount() {
+        return mGattErrorCount;
+    }
+
+    public synchronized long getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    /**
+     * @return The number of direct attempts deferred by the target.
+     */
+    public synchronized long getDeferredCount() {
+        return mDeferredCount;
+    }
+
+    private void attempt() {
+        boolean autoConnect;
+        synchronized (this) {
+            if (!mReconnecting || mAttemptInProgress) {
+                return;
+            }
+            autoConnect = mAttempt >= mDirectAttempts;
+        }
+        // Asked outside the lock, since the target may take locks of its own.  Background
+        // attempts are not capped: they wait for the device at a low duty cycle.
+        if (!autoConnect && !mTarget.canAttempt()) {
+            synchronized (this) {
+                if (mReconnecting && !mAttemptInProgress) {
+                    mDeferredCount++;
+                    mScheduler.postDelayed(mAttemptRunnable, DEFERRAL_DELAY);
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            if (!mReconnecting || mAttemptInProgress) {
+                return;
+            }
+            mAttempt++;
+            mAttemptCount++;
+            mAttemptInProgress = true;
+            // Background connections wait for the device as long as it takes.
+            if (!autoConnect) {
+                mScheduler.postDelayed(mTimeoutRunnable, mDirectTimeout);
+            }
+        }
+        if (mTarget.connect(autoConnect)) {
+            return;
+        }
+        synchronized (this) {
+            if (!mReconnecting || !mAttemptInProgress) {
+                return;
+            }
+            mAttemptInProgress = false;
+            mScheduler.removeCallbacks(mTimeoutRunnable);
+            scheduleNextAttempt();
+        }
+    }
+
+    private void onTimeout() {
+        synchronized (this) {
+            if (!mAttemptInProgress) {
+                return;
+            }
+            mAttemptInProgress = false;
+            mTimeoutCount++;
+            scheduleNextAttempt();
+        }
+        mTarget.cancel();
+    }
+
+    // Must be called with the lock held.
+    private void scheduleNextAttempt() {
+        mScheduler.postDelayed(mAttemptRunnable, getDelay(mAttempt));
+    }
+
+    /**
+     * @return The delay in milliseconds before the attempt following the given number of failed
+     *         attempts.
+     */
+    long getDelay(int failedAttempts) {
+        long delay = mInitialDelay;
+        for (int i = 1; i < failedAttempts && delay < mMaxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, mMaxDelay);
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay - delay / 2));
+    }
+
+    // Must be called with the lock held.
+    private void reset() {
+        mReconnecting = false;
+        mAttemptInProgress = false;
+        mAttempt = 0;
+        mScheduler.removeCallbacks(mAttemptRunnable);
+        mScheduler.removeCallbacks(mTimeoutRunnable);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ReconnectionEngine{reconnecting=" + mReconnecting
+                + ", attempt=" + mAttempt
+                + ", reconnects=" + mReconnectCount
+                + ", lastMs=" + mLastReconnectTime
+                + ", avgMs=" + getAverageReconnectTime()
+                + ", maxMs=" + mMaxReconnectTime
+                + ", attempts=" + mAttemptCount
+                + ", gattErrors=" + mGattErrorCount
+                + ", timeouts=" + mTimeoutCount
+                + ", deferred=" + mDeferredCount
+                + "}";
+    }
+}
@@ -0,0 +1,51 @@
+package jp.android.blethermometer;
+
+/**
+ * Rolling statistics of a sensor over the last minute, hour and day.
+ */
+class RollingStats {
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    private final RollingWindow mLastMinute;
+    private final RollingWindow mLastHour;
+    private final RollingWindow mLastDay;
+
+    /**
+     * @see RollingWindow#RollingWindow
+     */
+    public RollingStats(float lowest, float highest, int binCount) {
+        // Panes of 1 second, 1 minute and 15 minutes.
+        mLastMinute = new RollingWindow(MINUTE, 60, lowest, highest, binCount);
+        mLastHour = new RollingWindow(HOUR, 60, lowest, highest, binCount);
+        mLastDay = new RollingWindow(DAY, 96, lowest, highest, binCount);
+    }
+
+    /**
+     * @param timestamp Time of the sample in milliseconds, from a monotonic clock.
+     */
+    public void add(long timestamp, float value) {
+        mLastMinute.add(timestamp, value);
+        mLastHour.add(timestamp, value);
+        mLastDay.add(timestamp, value);
+    }
+
+    public void advance(long now) {
+        mLastMinute.advance(now);
+        mLastHour.advance(now);
+        mLastDay.advance(now);
+    }
+
+    public RollingWindow getLastMinute() {
+        return mLastMinute;
+    }
+
+    public RollingWindow getLastHour() {
+        return mLastHour;
+    }
+
+    public RollingWindow getLastDay() {
+        return mLastDay;
+    }
+}
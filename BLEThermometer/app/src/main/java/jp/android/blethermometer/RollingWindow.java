@@ -0,0 +1,305 @@
+package jp.android.blethermometer;
+
+/**
+ * Statistics of the samples of a sliding time window, updated incrementally.
+ *
+ * <p>The window is divided into panes of equal duration kept in a ring.  Every pane holds the
+ * count, sum, sum of squares, minimum, maximum and a fixed-bin histogram of its samples, and the
+ * window keeps running totals of them.  Adding a sample updates the current pane and the totals in
+ * constant time; when time moves on to the next pane, the pane leaving the window is subtracted
+ * from the totals.  Minimum and maximum are tracked with monotonic deques of panes, so that no
+ * pane has to be rescanned when the extreme leaves the window.
+ *
+ * <p>The window therefore moves in steps of one pane, and percentiles are estimated with the
+ * resolution of the histogram bins.  Samples older than the current pane are counted in the
+ * current pane.
+ */
+class RollingWindow {
+    private final long mPaneDuration;
+    private final int mPaneCount;
+    private final float mLowest;
+    private final float mBinWidth;
+    private final int mBinCount;
+
+    // Per pane, indexed by pane number modulo the pane count.
+    private final int[] mPaneCounts;
+    private final double[] mPaneSums;
+    private final double[] mPaneSumSquares;
+    private final float[] mPaneMins;
+    private final float[] mPaneMaxs;
+    // Pane histograms, one after another.
+    private final int[] mPaneHistograms;
+
+    // Totals of the panes in the window.
+    private int mCount;
+    private double mSum;
+    private double mSumSquares;
+    private final int[] mHistogram;
+
+    // Pane numbers of the closed panes in the window, in increasing order of minimum (maximum)
+    // from front to back.  Ring buffers of mPaneCount entries.
+    private final long[] mMinDeque;
+    private int mMinHead;
+    private int mMinSize;
+    private final long[] mMaxDeque;
+    private int mMaxHead;
+    private int mMaxSize;
+
+    private long mCurrentPane = Long.MIN_VALUE;
+
+    /**
+     * @param duration  Duration of the window in milliseconds.  Must be a multiple of the pane
+     *                  count.
+     * @param lowest    Lower bound of the histogram.  Smaller values fall into the first bin.
+     * @param highest   Upper bound of the histogram.  Greater values fall into the last bin.
+     * @param binCount  Number of histogram bins between the bounds.
+     */
+    public RollingWindow(long duration, int paneCount, float lowest, float highest, int binCount) {
+        if (paneCount <= 0) {
+            throw new IllegalArgumentException("paneCount must be positive: " + paneCount);
+        }
+        if (duration <= 0 || duration % paneCount != 0) {
+            throw new IllegalArgumentException("duration must be a positive multiple of paneCount: "
+                    + duration);
+        }
+        if (!(highest > lowest)) {
+            throw new IllegalArgumentException("highest must be greater than lowest: " + highest);
+        }
+        if (binCount <= 0) {
+            throw new IllegalArgumentException("binCount must be positive: " + binCount);
+        }
+        mPaneDuration = duration / paneCount;
+        mPaneCount = paneCount;
+        mLowest = lowest;
+        mBinWidth = (highest - lowest) / binCount;
+        mBinCount = binCount;
+
+        mPaneCounts = new int[paneCount];
+        mPaneSums = new double[paneCount];
+        mPaneSumSquares = new double[paneCount];
+        mPaneMins = new float[paneCount];
+        mPaneMaxs = new float[paneCount];
+        mPaneHistograms = new int[paneCount * binCount];
+        mHistogram = new int[binCount];
+        mMinDeque = new long[paneCount];
+        mMaxDeque = new long[paneCount];
+    }
+
+    /**
+     * @param timestamp Time of the sample in milliseconds, from a monotonic clock.
+     */
+    public synchronized void add(long timestamp, float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        advanceTo(timestamp / mPaneDuration);
+        int slot = slot(mCurrentPane);
+        if (mPaneCounts[slot] == 0) {
+            mPaneMins[slot] = value;
+            mPaneMaxs[slot] = value;
+        } else {
+            mPaneMins[slot] = Math.min(mPaneMins[slot], value);
+            mPaneMaxs[slot] = Math.max(mPaneMaxs[slot], value);
+        }
+        mPaneCounts[slot]++;
+        mPaneSums[slot] += value;
+        mPaneSumSquares[slot] += (double) value * value;
+        int bin = bin(value);
+        mPaneHistograms[slot * mBinCount + bin]++;
+
+        mCount++;
+        mSum += value;
+        mSumSquares += (double) value * value;
+        mHistogram[bin]++;
+    }
+
+    /**
+     * Drops the samples which left the window by the given time, for windows which stopped
+     * receiving samples.
+     */
+    public synchronized void advance(long now) {
+        advanceTo(now / mPaneDuration);
+    }
+
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The minimum, or NaN if the window is empty.
+     */
+    public synchronized float getMin() {
+        if (mCount == 0) {
+            return Float.NaN;
+        }
+        float min = Float.POSITIVE_INFINITY;
+        if (mMinSize > 0) {
+            min = mPaneMins[slot(mMinDeque[mMinHead])];
+        }
+        int slot = slot(mCurrentPane);
+        if (mPaneCounts[slot] > 0) {
+            min = Math.min(min, mPaneMins[slot]);
+        }
+        return min;
+    }
+
+    /**
+     * @return The maximum, or NaN if the window is empty.
+     */
+    public synchronized float getMax() {
+        if (mCount == 0) {
+            return Float.NaN;
+        }
+        float max = Float.NEGATIVE_INFINITY;
+        if (mMaxSize > 0) {
+            max = mPaneMaxs[slot(mMaxDeque[mMaxHead])];
+        }
+        int slot = slot(mCurrentPane);
+        if (mPaneCounts[slot] > 0) {
+            max = Math.max(max, mPaneMaxs[slot]);
+        }
+        return max;
+    }
+
+    /**
+     * @return The mean, or NaN if the window is empty.
+     */
+    public synchronized float getMean() {
+        return mCount == 0 ? Float.NaN : (float) (mSum / mCount);
+    }
+
+    /**
+     * @return The population standard deviation, or NaN if the window is empty.
+     */
+    public synchronized float getStandardDeviation() {
+        if (mCount == 0) {
+            return Float.NaN;
+        }
+        double mean = mSum / mCount;
+        return (float) Math.sqrt(Math.max(0, mSumSquares / mCount - mean * mean));
+    }
+
+    /**
+     * Estimates a percentile from the histogram, within the width of a bin.
+     *
+     * @param percentile Between 0 and 100.
+     *
+     * @return The estimate, or NaN if the window is empty.
+     */
+    public synchronized float getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        if (mCount == 0) {
+            return Float.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+        // The smallest and the greatest samples are known exactly.
+        if (rank == 1) {
+            return getMin();
+        }
+        if (rank == mCount) {
+            return getMax();
+        }
+        long seen = 0;
+        int bin = 0;
+        for (; bin < mBinCount - 1; bin++) {
+            seen += mHistogram[bin];
+            if (seen >= rank) {
+                break;
+            }
+        }
+        float estimate = mLowest + (bin + 0.5f) * mBinWidth;
+        // The bins at both ends also hold the values out of range.
+        return Math.max(getMin(), Math.min(getMax(), estimate));
+    }
+
+    private void advanceTo(long pane) {
+        if (mCurrentPane == Long.MIN_VALUE) {
+            mCurrentPane = pane;
+            return;
+        }
+        if (pane <= mCurrentPane) {
+            return;
+        }
+        if (pane - mCurrentPane >= mPaneCount) {
+            reset();
+            mCurrentPane = pane;
+            return;
+        }
+        while (mCurrentPane < pane) {
+            closePane(mCurrentPane);
+            mCurrentPane++;
+            // The slot of the new pane holds the pane leaving the window.
+            expirePane(slot(mCurrentPane));
+            long oldest = mCurrentPane - mPaneCount + 1;
+            while (mMinSize > 0 && mMinDeque[mMinHead] < oldest) {
+                mMinHead = (mMinHead + 1) % mPaneCount;
+                mMinSize--;
+            }
+            while (mMaxSize > 0 && mMaxDeque[mMaxHead] < oldest) {
+                mMaxHead = (mMaxHead + 1) % mPaneCount;
+                mMaxSize--;
+            }
+        }
+    }
+
+    private void closePane(long pane) {
+        int slot = slot(pane);
+        if (mPaneCounts[slot] == 0) {
+            return;
+        }
+        float min = mPaneMins[slot];
+        while (mMinSize > 0 && mPaneMins[slot(mMinDeque[(mMinHead + mMinSize - 1) % mPaneCount])] >= min) {
+            mMinSize--;
+        }
+        mMinDeque[(mMinHead + mMinSize) % mPaneCount] = pane;
+        mMinSize++;
+
+        float max = mPaneMaxs[slot];
+        while (mMaxSize > 0 && mPaneMaxs[slot(mMaxDeque[(mMaxHead + mMaxSize - 1) % mPaneCount])] <= max) {
+            mMaxSize--;
+        }
+        mMaxDeque[(mMaxHead + mMaxSize) % mPaneCount] = pane;
+        mMaxSize++;
+    }
+
+    private void expirePane(int slot) {
+        if (mPaneCounts[slot] == 0) {
+            return;
+        }
+        mCount -= mPaneCounts[slot];
+        mSum -= mPaneSums[slot];
+        mSumSquares -= mPaneSumSquares[slot];
+        int base = slot * mBinCount;
+        for (int bin = 0; bin < mBinCount; bin++) {
+            mHistogram[bin] -= mPaneHistograms[base + bin];
+            mPaneHistograms[base + bin] = 0;
+        }
+        mPaneCounts[slot] = 0;
+        mPaneSums[slot] = 0;
+        mPaneSumSquares[slot] = 0;
+        if (mCount == 0) {
+            // Clears the rounding errors accumulated by the subtractions.
+            mSum = 0;
+            mSumSquares = 0;
+        }
+    }
+
+    private void reset() {
+        for (int slot = 0; slot < mPaneCount; slot++) {
+            expirePane(slot);
+        }
+        mMinSize = 0;
+        mMaxSize = 0;
+    }
+
+    private int slot(long pane) {
+        return (int) (((pane % mPaneCount) + mPaneCount) % mPaneCount);
+    }
+
+    private int bin(float value) {
+        int bin = (int) ((value - mLowest) / mBinWidth);
+        return Math.max(0, Math.min(mBinCount - 1, bin));
+    }
+}
@@ -0,0 +1,112 @@
+package jp.android.blethermometer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Filters and settings of a scan started through a {@link LeScanner}.
+ *
+ * <p>An advertisement passes if it matches any of the service UUIDs or device addresses, or if no
+ * filter is set at all.
+ */
+class ScanOptions {
+    /**
+     * Duty cycle of the scan, in increasing order of power consumption.
+     */
+    enum Mode {
+        LOW_POWER,
+        BALANCED,
+        LOW_LATENCY,
+    }
+
+    private final List<UUID> mServiceUuids = new ArrayList<UUID>();
+    private final List<String> mDeviceAddresses = new ArrayList<String>();
+    private Mode mMode = Mode.BALANCED;
+    private long mReportDelay;
+
+    public ScanOptions addServiceUuid(UUID serviceUuid) {
+        if (serviceUuid == null) {
+            throw new NullPointerException("serviceUuid must not be null");
+        }
+        mServiceUuids.add(serviceUuid);
+        return this;
+    }
+
+    public ScanOptions addDeviceAddress(String address) {
+        if (address == null) {
+            throw new NullPointerException("address must not be null");
+        }
+        mDeviceAddresses.add(address);
+        return this;
+    }
+
+    public ScanOptions setMode(Mode mode) {
+        if (mode == null) {
+            throw new NullPointerException("mode must not be null");
+        }
+        mMode = mode;
+        return this;
+    }
+
+    /**
+     * @param reportDelay Maximum time in milliseconds results may be held back to be delivered in
+     *                    a batch, or 0 to deliver every result immediately.
+     */
+    public ScanOptions setReportDelay(long reportDelay) {
+        if (reportDelay < 0) {
+            throw new IllegalArgumentException("reportDelay must not be negative: " + reportDelay);
+        }
+        mReportDelay = reportDelay;
+        return this;
+    }
+
+    public List<UUID> getServiceUuids() {
+        return Collections.unmodifiableList(mServiceUuids);
+    }
+
+    public List<String> getDeviceAddresses() {
+        return Collections.unmodifiableList(mDeviceAddresses);
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public long getReportDelay() {
+        return mReportDelay;
+    }
+
+    /**
+     * Applies the filters in software, for scanners which cannot filter and for results which
+     * may have bypassed the controller filters.
+     *
+     * @param data The advertising data of the result, already reset to its scan record.
+     */
+    public boolean matches(String address, AdvertisingData data) {
+        if (mServiceUuids.isEmpty() && mDeviceAddresses.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < mDeviceAddresses.size(); i++) {
+            if (mDeviceAddresses.get(i).equalsIgnoreCase(address)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < mServiceUuids.size(); i++) {
+            if (data.hasServiceUuid(mServiceUuids.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanOptions{mode=" + mMode
+                + ", reportDelay=" + mReportDelay
+                + ", serviceUuids=" + mServiceUuids
+                + ", deviceAddresses=" + mDeviceAddresses
+                + "}";
+    }
+}
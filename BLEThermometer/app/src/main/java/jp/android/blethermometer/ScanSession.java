@@ -0,0 +1,98 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothAdapter;
+
+/**
+ * A scan limited in time.
+ *
+ * <p>Results held back by a batched scan are flushed before the scan is stopped, so that none are
+ * lost when the scan period ends.
+ */
+class ScanSession {
+    interface Listener {
+        /**
+         * Called when the scan is stopped, either by {@link #stop} or at the end of the period.
+         */
+        void onScanStopped();
+
+        /**
+         * Called instead of {@link #onScanStopped} when the scanner gives up the scan.
+         */
+        void onScanFailed(int errorCode);
+    }
+
+    private final LeScanner mScanner;
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+    private BluetoothAdapter.LeScanCallback mCallback;
+
+    private final Runnable mStopRunnable = new Runnable() {
+        @Override
+        public void run() {
+            stop();
+        }
+    };
+
+    private final LeScanner.FailureListener mFailureListener = new LeScanner.FailureListener() {
+        @Override
+        public void onScanFailed(BluetoothAdapter.LeScanCallback callback, int errorCode) {
+            if (callback != mCallback) {
+                return;
+            }
+            mCallback = null;
+            mScheduler.removeCallbacks(mStopRunnable);
+            mListener.onScanFailed(errorCode);
+        }
+    };
+
+    public ScanSession(LeScanner scanner, Scheduler scheduler, Listener listener) {
+        if (scanner == null) {
+            throw new NullPointerException("scanner must not be null");
+        }
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler must not be null");
+        }
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        mScanner = scanner;
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    /**
+     * @param period Duration of the scan in milliseconds.
+     *
+     * @return false if a scan is already in progress or could not be started.
+     */
+    public boolean start(ScanOptions options, BluetoothAdapter.LeScanCallback callback, long period) {
+        if (callback == null) {
+            throw new NullPointerException("callback must not be null");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        if (mCallback != null || !mScanner.startScan(options, callback, mFailureListener)) {
+            return false;
+        }
+        mCallback = callback;
+        mScheduler.postDelayed(mStopRunnable, period);
+        return true;
+    }
+
+    public void stop() {
+        BluetoothAdapter.LeScanCallback callback = mCallback;
+        if (callback == null) {
+            return;
+        }
+        mCallback = null;
+        mScheduler.removeCallbacks(mStopRunnable);
+        mScanner.flushPendingScanResults(callback);
+        mScanner.stopScan(callback);
+        mListener.onScanStopped();
+    }
+
+    public boolean isScanning() {
+        return mCallback != null;
+    }
+}
@@ -0,0 +1,16 @@
+package jp.android.blethermometer;
+
+/**
+ * Minimal time source and delayed-execution facility, modeled after {@code android.os.Handler}
+ * so that timing-dependent classes can be driven by a fake clock on the JVM.
+ */
+interface Scheduler {
+    /**
+     * @return Monotonic time in nanoseconds.
+     */
+    long nanoTime();
+
+    void postDelayed(Runnable r, long delayMillis);
+
+    void removeCallbacks(Runnable r);
+}
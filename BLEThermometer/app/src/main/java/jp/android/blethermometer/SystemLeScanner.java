@@ -0,0 +1,147 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link LeScanner} backed by {@link BluetoothLeScanner}.
+ *
+ * <p>The filters are passed down as {@link ScanFilter}s so that the controller can drop
+ * non-matching advertisements without waking up the application processor, and the report delay
+ * is used when the controller supports batching.
+ */
+class SystemLeScanner implements LeScanner {
+    private static final String TAG = SystemLeScanner.class.getSimpleName();
+
+    private final BluetoothAdapter mAdapter;
+    private final HashMap<BluetoothAdapter.LeScanCallback, ScanCallback> mScanCallbacks =
+            new HashMap<BluetoothAdapter.LeScanCallback, ScanCallback>();
+
+    public SystemLeScanner(BluetoothAdapter adapter) {
+        if (adapter == null) {
+            throw new NullPointerException("adapter must not be null");
+        }
+        mAdapter = adapter;
+    }
+
+    @Override
+    public synchronized boolean startScan(ScanOptions options,
+                                          final BluetoothAdapter.LeScanCallback callback,
+                                          final FailureListener failureListener) {
+        if (options == null) {
+            throw new NullPointerException("options must not be null");
+        }
+        if (callback == null) {
+            throw new NullPointerException("callback must not be null");
+        }
+        if (failureListener == null) {
+            throw new NullPointerException("failureListener must not be null");
+        }
+        if (mScanCallbacks.containsKey(callback)) {
+            return false;
+        }
+        // Null while Bluetooth is turned off.
+        BluetoothLeScanner scanner = mAdapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            Log.w(TAG, "Bluetooth LE scanner is not available.");
+            return false;
+        }
+
+        ScanCallback scanCallback = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                deliver(callback, result);
+            }
+
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                for (int i = 0; i < results.size(); i++) {
+                    deliver(callback, results.get(i));
+                }
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                Log.e(TAG, "Scan failed: errorCode=" + errorCode);
+                synchronized (SystemLeScanner.this) {
+                    if (mScanCallbacks.get(callback) != this) {
+                        // Stopped in the meantime.
+                        return;
+                    }
+                    mScanCallbacks.remove(callback);
+                }
+                failureListener.onScanFailed(callback, errorCode);
+            }
+        };
+        Log.d(TAG, "Start scan: " + options);
+        scanner.startScan(buildFilters(options), buildSettings(options), scanCallback);
+        mScanCallbacks.put(callback, scanCallback);
+        return true;
+    }
+
+    @Override
+    public synchronized void stopScan(BluetoothAdapter.LeScanCallback callback) {
+        ScanCallback scanCallback = mScanCallbacks.remove(callback);
+        BluetoothLeScanner scanner = mAdapter.getBluetoothLeScanner();
+        if (scanCallback != null && scanner != null) {
+            scanner.stopScan(scanCallback);
+        }
+    }
+
+    @Override
+    public synchronized void flushPendingScanResults(BluetoothAdapter.LeScanCallback callback) {
+        ScanCallback scanCallback = mScanCallbacks.get(callback);
+        BluetoothLeScanner scanner = mAdapter.getBluetoothLeScanner();
+        if (scanCallback != null && scanner != null) {
+            scanner.flushPendingScanResults(scanCallback);
+        }
+    }
+
+    private List<ScanFilter> buildFilters(ScanOptions options) {
+        List<ScanFilter> filters = new ArrayList<ScanFilter>();
+        for (UUID serviceUuid : options.getServiceUuids()) {
+            filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serviceUuid)).build());
+        }
+        for (String address : options.getDeviceAddresses()) {
+            filters.add(new ScanFilter.Builder().setDeviceAddress(address).build());
+        }
+        return filters;
+    }
+
+    private ScanSettings buildSettings(ScanOptions options) {
+        ScanSettings.Builder builder = new ScanSettings.Builder();
+        switch (options.getMode()) {
+            case LOW_POWER:
+                builder.setScanMode(ScanSettings.SCAN_MODE_LOW_POWER);
+                break;
+            case BALANCED:
+                builder.setScanMode(ScanSettings.SCAN_MODE_BALANCED);
+                break;
+            case LOW_LATENCY:
+                builder.setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+                break;
+        }
+        // The scan fails to start with a report delay the controller cannot honor.
+        if (options.getReportDelay() > 0 && mAdapter.isOffloadedScanBatchingSupported()) {
+            builder.setReportDelay(options.getReportDelay());
+        }
+        return builder.build();
+    }
+
+    private static void deliver(BluetoothAdapter.LeScanCallback callback, ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        callback.onLeScan(result.getDevice(), result.getRssi(), record != null ? record.getBytes() : null);
+    }
+}
@@ -1,5 +1,10 @@
 package jp.android.blethermometer;
 
+/**
+ * Mutable temperature measurement record.  Instances are meant to be reused across
+ * notifications, so consumers must copy the fields they need before handing them off to another
+ * thread.
+ */
 class Temperature {
     enum Unit {
         UNKNOWN,
@@ -7,11 +12,68 @@ class Temperature {
         FAHRENHEIT,
     }
 
-    final float value;
-    final Unit unit;
+    /**
+     * Temperature Type characteristic (0x2A1D) values.
+     */
+    enum Type {
+        UNKNOWN,
+        ARMPIT,
+        BODY,
+        EAR,
+        FINGER,
+        GASTROINTESTINAL_TRACT,
+        MOUTH,
+        RECTUM,
+        TOE,
+        TYMPANUM;
+
+        private static final Type[] VALUES = values();
+
+        static Type fromCode(int code) {
+            if (code <= 0 || code >= VALUES.length) {
+                return UNKNOWN;
+            }
+            return VALUES[code];
+        }
+    }
+
+    float value;
+    Unit unit = Unit.UNKNOWN;
+    Type type = Type.UNKNOWN;
+
+    // Time Stamp field.  Only valid if hasTimestamp is true; zero fields mean "not known".
+    boolean hasTimestamp;
+    int year;
+    int month;
+    int day;
+    int hours;
+    int minutes;
+    int seconds;
+
+    /**
+     * @return The value in degrees Celsius, or NaN if the unit is unknown.
+     */
+    public float toCelsius() {
+        switch (unit) {
+            case CELSIUS:
+                return value;
+            case FAHRENHEIT:
+                return (value - 32) * 5 / 9;
+            default:
+                return Float.NaN;
+        }
+    }
 
-    public Temperature(float value, Unit unit) {
-        this.value = value;
-        this.unit = unit;
+    public void clear() {
+        value = Float.NaN;
+        unit = Unit.UNKNOWN;
+        type = Type.UNKNOWN;
+        hasTimestamp = false;
+        year = 0;
+        month = 0;
+        day = 0;
+        hours = 0;
+        minutes = 0;
+        seconds = 0;
     }
 }
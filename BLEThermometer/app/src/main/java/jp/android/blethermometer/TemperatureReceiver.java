@@ -0,0 +1,80 @@
+package jp.android.blethermometer;
+
+/**
+ * Receives the Health Thermometer measurements of a device, read or notified.
+ *
+ * <p>This is the data side of the GATT callback, free of framework classes so that the simulated
+ * peripherals of the unit tests drive the same code as the radio.  Each measurement is decoded
+ * into a reused {@link Temperature}, added to the rolling statistics and passed to the callback.
+ * Called on a single thread at a time, the {@link DecodeWorker} of the connection.
+ */
+class TemperatureReceiver {
+    interface Callback {
+        /**
+         * The record is reused for the next measurement.
+         */
+        void onTemperature(Temperature temperature);
+    }
+
+    private final RollingStats mStats;
+    private final Scheduler mScheduler;
+    private final Callback mCallback;
+    private final Temperature mTemperature = new Temperature();
+
+    // Written on the receiving thread only.
+    private volatile long mReceivedCount;
+    private volatile long mMalformedCount;
+
+    /**
+     * @param stats Statistics of the temperatures received, in degrees Celsius.
+     */
+    public TemperatureReceiver(RollingStats stats, Scheduler scheduler, Callback callback) {
+        if (stats == null) {
+            throw new NullPointerException("stats must not be null");
+        }
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler must not be null");
+        }
+        if (callback == null) {
+            throw new NullPointerException("callback must not be null");
+        }
+        mStats = stats;
+        mScheduler = scheduler;
+        mCallback = callback;
+    }
+
+    /**
+     * @param value Value of the Health Thermometer Measurement characteristic.
+     * @return false if the value is malformed, in which case it is dropped.
+     */
+    public boolean onMeasurement(byte[] value) {
+        if (value == null) {
+            mMalformedCount++;
+            return false;
+        }
+        return onMeasurement(value, 0, value.length);
+    }
+
+    /**
+     * @param value Buffer holding the value of the Health Thermometer Measurement characteristic.
+     * @return false if the value is malformed, in which case it is dropped.
+     */
+    public boolean onMeasurement(byte[] value, int offset, int length) {
+        if (!HealthThermometerDecoder.decode(value, offset, length, mTemperature)) {
+            mMalformedCount++;
+            return false;
+        }
+        mReceivedCount++;
+        mStats.add(mScheduler.nanoTime() / 1000000, mTemperature.toCelsius());
+        mCallback.onTemperature(mTemperature);
+        return true;
+    }
+
+    public long getReceivedCount() {
+        return mReceivedCount;
+    }
+
+    public long getMalformedCount() {
+        return mMalformedCount;
+    }
+}
@@ -0,0 +1,278 @@
+package jp.android.blethermometer;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.graphics.drawable.Icon;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Foreground service collecting the temperatures of the thermometers.
+ *
+ * <p>The service owns the connections, the decoding and the reading store, so that they outlive
+ * the activity: rotating the screen or leaving the app does not drop the links.  Activities bind
+ * to it and observe the devices through a {@link DeviceConnection.Listener}, called on the GATT
+ * callback threads and, for the temperatures, on the decode worker thread.  The service runs in
+ * the foreground from the first connection until it is stopped from its notification, which
+ * disconnects every device.
+ *
+ * <p>Timers run on a background thread of the service, so the main thread is not woken between
+ * notifications.  The GATT callbacks only copy the measurements into a ring per device; a
+ * {@link DecodeWorker} decodes, stores and forwards them, so a slow observer or disk does not
+ * stall the Bluetooth stack.  Readings are appended to the memory-mapped store as they arrive,
+ * and the store is synced to the storage device once per {@link #SYNC_INTERVAL} rather than after
+ * each reading.
+ */
+public class ThermometerService extends Service {
+    private static final String TAG = ThermometerService.class.getSimpleName();
+
+    private static final String ACTION_STOP = "jp.android.blethermometer.action.STOP";
+    private static final int NOTIFICATION_ID = 1;
+    private static final int MAX_CONNECTIONS = 20;
+    private static final int MAX_CONNECTION_ATTEMPTS = 2;
+    private static final long SYNC_INTERVAL = 30000; // milliseconds
+    // Readings waiting for the decode worker per device, beyond which the oldest are dropped.
+    // Every reading is stored, so a backlog is kept, but a fresh reading beats a stale one.
+    private static final int READING_BACKLOG = 16;
+    private static final String READING_STORE_DIRECTORY = "readings";
+    private static final String METRICS_FILE = "metrics.json";
+
+    public class LocalBinder extends Binder {
+        public ThermometerService getService() {
+            return ThermometerService.this;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+    // Copied on write, so that notifying the observers does not allocate.
+    private volatile DeviceConnection.Listener[] mListeners = new DeviceConnection.Listener[0];
+    private HandlerThread mThread;
+    private DecodeWorker mWorker;
+    private Handler mHandler;
+    private ConnectionManager mConnectionManager;
+    private ReadingStore mReadingStore;
+    private boolean mForeground;
+
+    private final Runnable mSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mReadingStore != null) {
+                mReadingStore.sync();
+            }
+            mHandler.postDelayed(this, SYNC_INTERVAL);
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mWorker = new DecodeWorker(TAG + "-decode");
+        mWorker.start();
+        mConnectionManager = new ConnectionManager(this, new HandlerScheduler(mHandler), mWorker,
+                mConnectionListener, MAX_CONNECTIONS, MAX_CONNECTION_ATTEMPTS);
+        mConnectionManager.setBackpressurePolicy(BackpressurePolicy.dropOldest(READING_BACKLOG));
+        try {
+            mReadingStore = new ReadingStore(new File(getFilesDir(), READING_STORE_DIRECTORY));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open the reading store.", e);
+        }
+        mHandler.postDelayed(mSyncRunnable, SYNC_INTERVAL);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            Log.i(TAG, "Stopping the collection.");
+            mConnectionManager.disconnectAll();
+            stopForeground(true);
+            mForeground = false;
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        if (!mForeground) {
+            startForeground(NOTIFICATION_ID, buildNotification());
+            mForeground = true;
+        }
+        // The connections are not persisted, so there is nothing to restore after a kill.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mConnectionManager.disconnectAll();
+        mWorker.stop();
+        mHandler.removeCallbacks(mSyncRunnable);
+        mThread.quitSafely();
+        if (mReadingStore != null) {
+            mReadingStore.close();
+        }
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    private Notification buildNotification() {
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), 0);
+        PendingIntent stopIntent = PendingIntent.getService(this, 0,
+                new Intent(this, ThermometerService.class).setAction(ACTION_STOP), 0);
+        return new Notification.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.msg_collecting))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .addAction(buildAction(getString(R.string.view_btn_stop), stopIntent))
+                .build();
+    }
+
+    // An action without an icon.  The Icon constructor only exists from API level 23.
+    @SuppressWarnings("deprecation")
+    private static Notification.Action buildAction(CharSequence title, PendingIntent intent) {
+        Notification.Action.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            builder = new Notification.Action.Builder((Icon) null, title, intent);
+        } else {
+            builder = new Notification.Action.Builder(0, title, intent);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Connects to a thermometer, and keeps the service in the foreground until it is stopped.
+     *
+     * @return false if the device is already connected or being connected, or if no more devices
+     *         can be connected.
+     */
+    public boolean connect(BluetoothDevice device) {
+        if (!mConnectionManager.connect(device)) {
+            return false;
+        }
+        startService(new Intent(this, ThermometerService.class));
+        return true;
+    }
+
+    public ConnectionManager getConnectionManager() {
+        return mConnectionManager;
+    }
+
+    /**
+     * Registers an observer of every device.  Call {@link #removeListener} before unbinding.
+     */
+    public void addListener(DeviceConnection.Listener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        synchronized (this) {
+            ArrayList<DeviceConnection.Listener> listeners =
+                    new ArrayList<DeviceConnection.Listener>(Arrays.asList(mListeners));
+            listeners.add(listener);
+            mListeners = listeners.toArray(new DeviceConnection.Listener[listeners.size()]);
+        }
+    }
+
+    public void removeListener(DeviceConnection.Listener listener) {
+        synchronized (this) {
+            ArrayList<DeviceConnection.Listener> listeners =
+                    new ArrayList<DeviceConnection.Listener>(Arrays.asList(mListeners));
+            listeners.remove(listener);
+            mListeners = listeners.toArray(new DeviceConnection.Listener[listeners.size()]);
+        }
+    }
+
+    /**
+     * Dumps the latency metrics of the devices:
+     * {@code adb shell dumpsys activity service jp.android.blethermometer/.ThermometerService
+     * [--json|--file]}.  {@code --json} prints them as JSON, {@code --file} writes the JSON to the
+     * files directory.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        List<String> options = Arrays.asList(args);
+        if (options.contains("--file")) {
+            File file = new File(getFilesDir(), METRICS_FILE);
+            try {
+                writeMetrics(file);
+                writer.println("Metrics written to " + file);
+            } catch (IOException e) {
+                writer.println("Failed to write metrics: " + e);
+            }
+        } else if (options.contains("--json")) {
+            writer.println(mConnectionManager.getMetricsJson());
+        } else {
+            writer.println(mWorker);
+            mConnectionManager.dumpMetrics("", writer);
+        }
+    }
+
+    private void writeMetrics(File file) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(mConnectionManager.getMetricsJson());
+        } finally {
+            out.close();
+        }
+    }
+
+    private void storeTemperature(DeviceConnection connection, Temperature temp) {
+        if (mReadingStore == null) {
+            return;
+        }
+        try {
+            mReadingStore.append(ReadingStore.parseAddress(connection.getAddress()),
+                    System.currentTimeMillis(), temp.value, temp.unit.ordinal(), temp.type.ordinal());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to store a reading.", e);
+        }
+    }
+
+    // Stores the readings and forwards the events of every device to the observers.
+    private final DeviceConnection.Listener mConnectionListener = new DeviceConnection.Listener() {
+        @Override
+        public void onConnectionStatusChanged(DeviceConnection connection, ConnectionStatus status) {
+            for (DeviceConnection.Listener listener : mListeners) {
+                listener.onConnectionStatusChanged(connection, status);
+            }
+        }
+
+        @Override
+        public void onGattStatusChanged(DeviceConnection connection, GattStatus status) {
+            for (DeviceConnection.Listener listener : mListeners) {
+                listener.onGattStatusChanged(connection, status);
+            }
+        }
+
+        @Override
+        public void onTemperature(DeviceConnection connection, Temperature temperature) {
+            storeTemperature(connection, temperature);
+            for (DeviceConnection.Listener listener : mListeners) {
+                listener.onTemperature(connection, temperature);
+            }
+        }
+    };
+}
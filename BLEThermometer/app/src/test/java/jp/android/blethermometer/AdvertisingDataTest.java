@@ -0,0 +1,141 @@
+package jp.android.blethermometer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisingDataTest {
+    private static final UUID CUSTOM_SERVICE = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private AdvertisingData mData;
+
+    @Before
+    public void setUp() {
+        mData = new AdvertisingData();
+    }
+
+    @Test
+    public void walksStructures() {
+        byte[] record = bytes(
+                0x02, 0x01, 0x06,
+                0x03, 0x03, 0x09, 0x18,
+                0x00, 0x00, 0x00);
+        mData.reset(record);
+
+        assertTrue(mData.next());
+        assertEquals(AdvertisingData.TYPE_FLAGS, mData.getType());
+        assertEquals(2, mData.getValueOffset());
+        assertEquals(1, mData.getValueLength());
+        assertTrue(mData.next());
+        assertEquals(AdvertisingData.TYPE_COMPLETE_SERVICE_UUIDS_16, mData.getType());
+        assertEquals(5, mData.getValueOffset());
+        assertEquals(2, mData.getValueLength());
+        assertSame(record, mData.getData());
+        // Stops at the zero padding.
+        assertFalse(mData.next());
+        assertFalse(mData.next());
+    }
+
+    @Test
+    public void stopsAtTruncatedStructure() {
+        mData.reset(bytes(0x02, 0x01, 0x06, 0x05, 0x09, 'A', 'B'));
+
+        assertTrue(mData.next());
+        assertFalse(mData.next());
+        assertNull(mData.getLocalName());
+    }
+
+    @Test
+    public void matchesServiceUuid16() {
+        mData.reset(bytes(0x02, 0x01, 0x06, 0x05, 0x02, 0x0D, 0x18, 0x09, 0x18));
+
+        assertTrue(mData.hasServiceUuid16(0x1809));
+        assertTrue(mData.hasServiceUuid16(0x180D));
+        assertTrue(mData.hasServiceUuid(GattAttributes.HEALTH_THERMOMETER_SERVICE));
+        assertFalse(mData.hasServiceUuid16(0x180F));
+        assertFalse(mData.hasServiceUuid(CUSTOM_SERVICE));
+    }
+
+    @Test
+    public void matchesServiceUuid32() {
+        mData.reset(bytes(0x05, 0x05, 0x09, 0x18, 0x00, 0x00));
+
+        assertTrue(mData.hasServiceUuid(GattAttributes.HEALTH_THERMOMETER_SERVICE));
+    }
+
+    @Test
+    public void matchesServiceUuid128() {
+        // Both lists are little-endian.
+        mData.reset(bytes(
+                0x11, 0x07,
+                0x9E, 0xCA, 0xDC, 0x24, 0x0E, 0xE5, 0xA9, 0xE0,
+                0x93, 0xF3, 0xA3, 0xB5, 0x01, 0x00, 0x40, 0x6E,
+                0x11, 0x06,
+                0xFB, 0x34, 0x9B, 0x5F, 0x80, 0x00, 0x00, 0x80,
+                0x00, 0x10, 0x00, 0x00, 0x09, 0x18, 0x00, 0x00));
+
+        assertTrue(mData.hasServiceUuid(CUSTOM_SERVICE));
+        assertTrue(mData.hasServiceUuid16(0x1809));
+        assertFalse(mData.hasServiceUuid16(0x180D));
+    }
+
+    @Test
+    public void decodesOtherFields() {
+        mData.reset(bytes(
+                0x02, 0x01, 0x06,
+                0x02, 0x0A, 0xF4,
+                0x0C, 0x09, 'T', 'h', 'e', 'r', 'm', 'o', 'm', 'e', 't', 'e', 'r',
+                0x04, 0xFF, 0x59, 0x00, 0x2A,
+                0x05, 0x16, 0x09, 0x18, 0x6E, 0x01));
+
+        assertEquals(0x06, mData.getFlags());
+        assertEquals(-12, mData.getTxPowerLevel());
+        assertEquals("Thermometer", mData.getLocalName());
+        assertEquals(0x0059, mData.getManufacturerId());
+        assertEquals(0x2A, mData.getData()[mData.getValueOffset() + 2]);
+        assertTrue(mData.findServiceData16(0x1809));
+        assertEquals(4, mData.getValueLength());
+        assertEquals(0x6E, mData.getData()[mData.getValueOffset() + 2]);
+        assertFalse(mData.findServiceData16(0x180D));
+    }
+
+    @Test
+    public void reportsAbsentFields() {
+        mData.reset(bytes(0x08, 0x08, 'T', 'h', 'e', 'r', 'm', 'o', '.'));
+
+        assertEquals(-1, mData.getFlags());
+        assertEquals(Integer.MIN_VALUE, mData.getTxPowerLevel());
+        assertEquals(-1, mData.getManufacturerId());
+        assertEquals("Thermo.", mData.getLocalName());
+        assertFalse(mData.hasServiceUuid16(0x1809));
+    }
+
+    @Test
+    public void parsesSlice() {
+        byte[] record = bytes(0xAA, 0x03, 0x03, 0x09, 0x18, 0x03, 0x03, 0x0D, 0x18);
+
+        mData.reset(record, 1, 4);
+        assertTrue(mData.hasServiceUuid16(0x1809));
+        assertFalse(mData.hasServiceUuid16(0x180D));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutOfBoundsSlice() {
+        mData.reset(new byte[4], 2, 3);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+}
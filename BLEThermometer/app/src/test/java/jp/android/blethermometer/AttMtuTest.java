@@ -0,0 +1,157 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AttMtuTest {
+    private static final UUID SERVICE = GattAttributes.HEALTH_THERMOMETER_SERVICE;
+    private static final UUID CHARACTERISTIC = GattAttributes.HEALTH_THERMOMETER_MEASUREMENT;
+
+    // Default, common phone and peripheral limits, and the largest MTU.
+    private static final int[] MTUS = {23, 158, 185, 247, 512, 517};
+
+    @Test
+    public void startsWithDefaultMtu() {
+        AttMtu mtu = new AttMtu();
+        assertEquals(AttMtu.DEFAULT_MTU, mtu.get());
+        assertEquals(20, mtu.getMaxWritePayload());
+        assertEquals(18, mtu.getMaxPrepareWritePayload());
+        assertEquals(22, mtu.getMaxReadPayload());
+    }
+
+    @Test
+    public void sizesPayloadsForNegotiatedMtu() {
+        AttMtu mtu = new AttMtu();
+        mtu.set(247);
+        assertEquals(244, mtu.getMaxWritePayload());
+        assertEquals(242, mtu.getMaxPrepareWritePayload());
+        assertEquals(246, mtu.getMaxReadPayload());
+
+        mtu.set(517);
+        assertEquals(512, mtu.getMaxWritePayload());
+        assertEquals(512, mtu.getMaxPrepareWritePayload());
+        assertEquals(512, mtu.getMaxReadPayload());
+
+        mtu.reset();
+        assertEquals(AttMtu.DEFAULT_MTU, mtu.get());
+    }
+
+    @Test
+    public void clampsMtu() {
+        AttMtu mtu = new AttMtu();
+        mtu.set(10);
+        assertEquals(AttMtu.DEFAULT_MTU, mtu.get());
+        mtu.set(1000);
+        assertEquals(AttMtu.MAX_MTU, mtu.get());
+    }
+
+    @Test
+    public void countsReads() {
+        AttMtu mtu = new AttMtu();
+        assertEquals(1, mtu.getReadCount(0));
+        assertEquals(1, mtu.getReadCount(21));
+        // A full response is followed by an empty read blob response.
+        assertEquals(2, mtu.getReadCount(22));
+        assertEquals(24, mtu.getReadCount(512));
+
+        mtu.set(185);
+        assertEquals(3, mtu.getReadCount(512));
+    }
+
+    @Test
+    public void streamsValueInMaxPayloadWrites() {
+        byte[] value = new byte[4096];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) (i * 31);
+        }
+
+        for (int size : MTUS) {
+            AttMtu mtu = new AttMtu();
+            mtu.set(size);
+            RecordingTarget target = new RecordingTarget();
+            GattOperationQueue queue = new GattOperationQueue(target, new FakeScheduler());
+
+            int count = BluetoothLeUtils.writeCharacteristic(queue, mtu, SERVICE, CHARACTERISTIC,
+                    value, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, null);
+            for (int i = 0; i < count; i++) {
+                queue.onCharacteristicWrite(CHARACTERISTIC, GattOperation.STATUS_SUCCESS);
+            }
+
+            int payload = Math.min(512, size - 3);
+            assertEquals("mtu=" + size, (value.length + payload - 1) / payload, count);
+            assertEquals(count, target.writes.size());
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            for (int i = 0; i < count; i++) {
+                byte[] chunk = target.writes.get(i);
+                // Every write but the last one is full.
+                assertTrue(chunk.length <= payload);
+                if (i < count - 1) {
+                    assertEquals(payload, chunk.length);
+                }
+                received.write(chunk, 0, chunk.length);
+            }
+            assertArrayEquals("mtu=" + size, value, received.toByteArray());
+            assertEquals(count, queue.getCompletedCount());
+        }
+    }
+
+    @Test
+    public void sendsWriteRequestAsSingleOperation() {
+        AttMtu mtu = new AttMtu();
+        RecordingTarget target = new RecordingTarget();
+        GattOperationQueue queue = new GattOperationQueue(target, new FakeScheduler());
+
+        byte[] value = new byte[AttMtu.MAX_ATTRIBUTE_LENGTH];
+        assertEquals(1, BluetoothLeUtils.writeCharacteristic(queue, mtu, SERVICE, CHARACTERISTIC,
+                value, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, null));
+        assertArrayEquals(value, target.writes.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWriteRequestBeyondAttributeLength() {
+        GattOperationQueue queue = new GattOperationQueue(new RecordingTarget(), new FakeScheduler());
+        BluetoothLeUtils.writeCharacteristic(queue, new AttMtu(), SERVICE, CHARACTERISTIC,
+                new byte[AttMtu.MAX_ATTRIBUTE_LENGTH + 1],
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, null);
+    }
+
+    @Test
+    public void scalesLongReadTimeoutWithMtu() {
+        RecordingTarget target = new RecordingTarget();
+        GattOperationQueue queue = new GattOperationQueue(target, new FakeScheduler());
+        AttMtu mtu = new AttMtu();
+
+        BluetoothLeUtils.readCharacteristic(queue, mtu, SERVICE, CHARACTERISTIC, 100, null);
+        assertEquals(5 * GattOperation.DEFAULT_TIMEOUT, target.operations.get(0).timeout);
+
+        queue.onCharacteristicRead(CHARACTERISTIC, GattOperation.STATUS_SUCCESS, new byte[100]);
+        mtu.set(247);
+        BluetoothLeUtils.readCharacteristic(queue, mtu, SERVICE, CHARACTERISTIC, 100, null);
+        assertEquals(GattOperation.DEFAULT_TIMEOUT, target.operations.get(1).timeout);
+    }
+
+    private static class RecordingTarget implements GattOperationQueue.Target {
+        final List<GattOperation> operations = new ArrayList<GattOperation>();
+        final List<byte[]> writes = new ArrayList<byte[]>();
+
+        @Override
+        public boolean dispatch(GattOperation operation) {
+            operations.add(operation);
+            if (operation.type == GattOperation.Type.WRITE_CHARACTERISTIC) {
+                writes.add(Arrays.copyOf(operation.value, operation.value.length));
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package jp.android.blethermometer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CoalescingUpdaterTest {
+    private final List<Runnable> mPosted = new ArrayList<Runnable>();
+    private int mFrames;
+    private CoalescingUpdater mUpdater;
+
+    @Before
+    public void setUp() {
+        mUpdater = new CoalescingUpdater(new CoalescingUpdater.FrameScheduler() {
+            @Override
+            public void postFrameCallback(Runnable callback) {
+                mPosted.add(callback);
+            }
+        }, new CoalescingUpdater.Target() {
+            @Override
+            public void onFrame() {
+                mFrames++;
+            }
+        });
+    }
+
+    private void runFrame() {
+        mPosted.remove(0).run();
+    }
+
+    @Test
+    public void coalescesRequestsIntoOneFrame() {
+        for (int i = 0; i < 10; i++) {
+            mUpdater.requestUpdate();
+        }
+        assertEquals(1, mPosted.size());
+        runFrame();
+
+        assertEquals(1, mFrames);
+        assertEquals(10, mUpdater.getRequestCount());
+        assertEquals(1, mUpdater.getFrameCount());
+        assertEquals(9, mUpdater.getCoalescedCount());
+    }
+
+    @Test
+    public void reusesTheCallback() {
+        mUpdater.requestUpdate();
+        runFrame();
+        mUpdater.requestUpdate();
+
+        assertEquals(1, mPosted.size());
+        Runnable callback = mPosted.get(0);
+        runFrame();
+        mUpdater.requestUpdate();
+        assertSame(callback, mPosted.get(0));
+        assertEquals(2, mFrames);
+    }
+
+    @Test
+    public void requestDuringFrameSchedulesAnother() {
+        mUpdater = new CoalescingUpdater(new CoalescingUpdater.FrameScheduler() {
+            @Override
+            public void postFrameCallback(Runnable callback) {
+                mPosted.add(callback);
+            }
+        }, new CoalescingUpdater.Target() {
+            @Override
+            public void onFrame() {
+                if (mFrames++ == 0) {
+                    mUpdater.requestUpdate();
+                }
+            }
+        });
+        mUpdater.requestUpdate();
+        runFrame();
+
+        assertEquals(1, mPosted.size());
+        runFrame();
+        assertEquals(2, mFrames);
+        assertEquals(0, mUpdater.getCoalescedCount());
+    }
+
+    @Test
+    public void noFrameWithoutRequest() {
+        assertEquals(0, mPosted.size());
+        assertEquals(0, mUpdater.getCoalescedCount());
+    }
+}
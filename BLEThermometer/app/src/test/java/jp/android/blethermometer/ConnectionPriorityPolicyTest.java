@@ -0,0 +1,142 @@
+package jp.android.blethermometer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConnectionPriorityPolicyTest {
+    private static final long IDLE_TIMEOUT = 10000;
+
+    private FakeScheduler mScheduler;
+    private ConnectionPriorityPolicy mPolicy;
+    private final List<Integer> mRequests = new ArrayList<Integer>();
+    private boolean mAccept = true;
+
+    private final ConnectionPriorityPolicy.Target mTarget = new ConnectionPriorityPolicy.Target() {
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            mRequests.add(priority);
+            return mAccept;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mPolicy = new ConnectionPriorityPolicy(mScheduler, IDLE_TIMEOUT);
+    }
+
+    @Test
+    public void raisesPriorityDuringBurst() {
+        Object discovery = new Object();
+        mPolicy.start(mTarget);
+        mPolicy.acquire(discovery);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_HIGH, mPolicy.getPriority());
+
+        mScheduler.advance(500);
+        mPolicy.release(discovery);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_BALANCED, mPolicy.getPriority());
+        assertEquals(Arrays.asList(ConnectionPriorityPolicy.PRIORITY_HIGH,
+                ConnectionPriorityPolicy.PRIORITY_BALANCED), mRequests);
+    }
+
+    @Test
+    public void dropsToLowPowerWhenIdle() {
+        mPolicy.start(mTarget);
+        mScheduler.advance(IDLE_TIMEOUT - 1);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_BALANCED, mPolicy.getPriority());
+
+        mScheduler.advance(1);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_LOW_POWER, mPolicy.getPriority());
+        assertEquals(Arrays.asList(ConnectionPriorityPolicy.PRIORITY_LOW_POWER), mRequests);
+    }
+
+    @Test
+    public void burstCancelsIdleTimeout() {
+        Object transfer = new Object();
+        mPolicy.start(mTarget);
+        mScheduler.advance(5000);
+        mPolicy.acquire(transfer);
+        mScheduler.advance(IDLE_TIMEOUT * 3);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_HIGH, mPolicy.getPriority());
+
+        mPolicy.release(transfer);
+        mScheduler.advance(IDLE_TIMEOUT);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_LOW_POWER, mPolicy.getPriority());
+    }
+
+    @Test
+    public void staysHighUntilLastBurstIsReleased() {
+        Object discovery = new Object();
+        Object transfer = new Object();
+        mPolicy.start(mTarget);
+        mPolicy.acquire(discovery);
+        mPolicy.acquire(transfer);
+        mPolicy.acquire(transfer);
+
+        mPolicy.release(discovery);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_HIGH, mPolicy.getPriority());
+        mPolicy.release(discovery);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_HIGH, mPolicy.getPriority());
+        mPolicy.release(transfer);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_BALANCED, mPolicy.getPriority());
+        assertEquals(2, mPolicy.getRequestCount());
+    }
+
+    @Test
+    public void appliesBurstsHeldBeforeStart() {
+        mPolicy.acquire(new Object());
+        assertEquals(0, mRequests.size());
+
+        mPolicy.start(mTarget);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_HIGH, mPolicy.getPriority());
+    }
+
+    @Test
+    public void tracksTimeInPriority() {
+        Object burst = new Object();
+        mPolicy.start(mTarget);
+        mPolicy.acquire(burst);
+        mScheduler.advance(2000);
+        mPolicy.release(burst);
+        mScheduler.advance(IDLE_TIMEOUT);
+        mScheduler.advance(30000);
+        mPolicy.stop();
+        // Not counted while disconnected.
+        mScheduler.advance(60000);
+
+        mPolicy.start(mTarget);
+        mScheduler.advance(1000);
+
+        assertEquals(2000, mPolicy.getTimeInPriority(ConnectionPriorityPolicy.PRIORITY_HIGH));
+        assertEquals(IDLE_TIMEOUT + 1000,
+                mPolicy.getTimeInPriority(ConnectionPriorityPolicy.PRIORITY_BALANCED));
+        assertEquals(30000, mPolicy.getTimeInPriority(ConnectionPriorityPolicy.PRIORITY_LOW_POWER));
+    }
+
+    @Test
+    public void stopReleasesBursts() {
+        mPolicy.start(mTarget);
+        mPolicy.acquire(new Object());
+        mPolicy.stop();
+        assertEquals(0, mScheduler.getPendingCount());
+
+        mPolicy.start(mTarget);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_BALANCED, mPolicy.getPriority());
+        assertEquals(1, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void keepsPriorityWhenRequestFails() {
+        mAccept = false;
+        mPolicy.start(mTarget);
+        mPolicy.acquire(this);
+        assertEquals(ConnectionPriorityPolicy.PRIORITY_BALANCED, mPolicy.getPriority());
+        assertEquals(1, mPolicy.getRequestCount());
+    }
+}
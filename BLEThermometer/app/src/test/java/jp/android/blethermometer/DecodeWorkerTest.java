@@ -0,0 +1,127 @@
+package jp.android.blethermometer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeWorkerTest {
+    private DecodeWorker mWorker;
+
+    @Before
+    public void setUp() {
+        mWorker = new DecodeWorker("test-decode");
+    }
+
+    @After
+    public void tearDown() {
+        mWorker.stop();
+    }
+
+    @Test
+    public void drainsEveryRing() throws InterruptedException {
+        final int perRing = 10000;
+        final CountDownLatch done = new CountDownLatch(2 * perRing);
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        SpscByteRing[] rings = new SpscByteRing[2];
+        for (int r = 0; r < rings.length; r++) {
+            rings[r] = new SpscByteRing(8, 2);
+            mWorker.register(rings[r], new SpscByteRing.Consumer() {
+                private int mExpected;
+
+                @Override
+                public void onValue(Object tag, byte[] value, int offset, int length) {
+                    int received = (value[0] & 0xFF) << 8 | value[1] & 0xFF;
+                    if (received != (mExpected++ & 0xFFFF)) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        mWorker.start();
+
+        byte[] value = new byte[2];
+        for (int i = 0; i < perRing; i++) {
+            value[0] = (byte) (i >> 8);
+            value[1] = (byte) i;
+            for (SpscByteRing ring : rings) {
+                while (!ring.offer(null, value, 0, 2)) {
+                    mWorker.signal();
+                    Thread.yield();
+                }
+                mWorker.signal();
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // Counted after the consumer returns.
+        mWorker.stop();
+        assertEquals(0, outOfOrder.get());
+        assertEquals(2 * perRing, mWorker.getValueCount());
+    }
+
+    @Test
+    public void wakesUpForEachBurst() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(3);
+        SpscByteRing ring = new SpscByteRing(4, 1);
+        mWorker.register(ring, new SpscByteRing.Consumer() {
+            @Override
+            public void onValue(Object tag, byte[] value, int offset, int length) {
+                done.countDown();
+            }
+        });
+        mWorker.start();
+        for (int i = 0; i < 3; i++) {
+            ring.offer(null, new byte[1], 0, 1);
+            mWorker.signal();
+            Thread.sleep(20);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(mWorker.getWakeupCount() >= 1);
+    }
+
+    @Test
+    public void skipsUnregisteredRings() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger removedValues = new AtomicInteger();
+        SpscByteRing removed = new SpscByteRing(4, 1);
+        SpscByteRing kept = new SpscByteRing(4, 1);
+        mWorker.register(removed, new SpscByteRing.Consumer() {
+            @Override
+            public void onValue(Object tag, byte[] value, int offset, int length) {
+                removedValues.incrementAndGet();
+            }
+        });
+        mWorker.register(kept, new SpscByteRing.Consumer() {
+            @Override
+            public void onValue(Object tag, byte[] value, int offset, int length) {
+                done.countDown();
+            }
+        });
+        mWorker.unregister(removed);
+        mWorker.unregister(removed);
+        mWorker.start();
+        removed.offer(null, new byte[1], 0, 1);
+        kept.offer(null, new byte[1], 0, 1);
+        mWorker.signal();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, removedValues.get());
+        assertEquals(1, removed.getSize());
+    }
+
+    @Test
+    public void stopsWhileWaiting() {
+        mWorker.start();
+        mWorker.stop();
+        mWorker.stop();
+    }
+}
@@ -0,0 +1,102 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceMetricsTest {
+    private static final String ADDRESS = "00:00:00:00:00:01";
+    private static final UUID SERVICE = GattAttributes.HEALTH_THERMOMETER_SERVICE;
+    private static final UUID CHARACTERISTIC = GattAttributes.HEALTH_THERMOMETER_MEASUREMENT;
+
+    private FakeScheduler mScheduler;
+    private GattOperationQueue mQueue;
+    private DeviceMetrics mMetrics;
+    private boolean mAccept = true;
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mQueue = new GattOperationQueue(new GattOperationQueue.Target() {
+            @Override
+            public boolean dispatch(GattOperation operation) {
+                return mAccept;
+            }
+        }, mScheduler);
+        mMetrics = new DeviceMetrics(ADDRESS);
+        mQueue.setRecorder(mMetrics);
+    }
+
+    @Test
+    public void recordsRoundTripsByType() {
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC));
+        mScheduler.advance(20);
+        mQueue.onCharacteristicRead(CHARACTERISTIC, GattOperation.STATUS_SUCCESS, new byte[] {0});
+        mQueue.enqueue(GattOperation.writeCharacteristic(SERVICE, CHARACTERISTIC, new byte[] {1},
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        mScheduler.advance(40);
+        mQueue.onCharacteristicWrite(CHARACTERISTIC, 133);
+        mQueue.enqueue(GattOperation.requestMtu(AttMtu.MAX_MTU));
+        mScheduler.advance(10);
+        mQueue.onMtuChanged(GattOperation.STATUS_SUCCESS);
+
+        assertEquals(1, mMetrics.read.getCount());
+        assertEquals(20000, mMetrics.read.getMax());
+        assertEquals(1, mMetrics.write.getCount());
+        assertEquals(40000, mMetrics.write.getMax());
+        assertEquals(1, mMetrics.mtu.getCount());
+        assertEquals(0, mMetrics.descriptor.getCount());
+        assertEquals(1, mMetrics.operationFailures.get());
+    }
+
+    @Test
+    public void recordsTimeouts() {
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC).setTimeout(100));
+        mScheduler.advance(100);
+
+        assertEquals(1, mMetrics.read.getCount());
+        assertEquals(100000, mMetrics.read.getMax());
+        assertEquals(1, mMetrics.operationFailures.get());
+    }
+
+    @Test
+    public void ignoresRejectedOperations() {
+        mAccept = false;
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC));
+
+        assertEquals(0, mMetrics.read.getCount());
+        assertEquals(0, mMetrics.operationFailures.get());
+    }
+
+    @Test
+    public void dumpsAsJson() {
+        mMetrics.connectAttempts.incrementAndGet();
+        mMetrics.connect.record(250000000L);
+        StringBuilder out = new StringBuilder();
+        mMetrics.appendJson(out);
+        String json = out.toString();
+
+        assertTrue(json, json.startsWith("{\"address\":\"" + ADDRESS + "\",\"connectAttempts\":1,"));
+        assertTrue(json, json.contains("\"connect\":{\"count\":1,\"meanUs\":250000,"));
+        assertTrue(json, json.contains("\"display\":{\"count\":0,"));
+        assertTrue(json, json.endsWith("}}"));
+    }
+
+    @Test
+    public void dumpsAsText() {
+        mMetrics.disconnections.incrementAndGet();
+        StringWriter text = new StringWriter();
+        mMetrics.dump("  ", new PrintWriter(text, true));
+
+        assertTrue(text.toString(), text.toString().startsWith("  DeviceMetrics " + ADDRESS + ":"));
+        assertTrue(text.toString(), text.toString().contains("disconnections=1"));
+    }
+}
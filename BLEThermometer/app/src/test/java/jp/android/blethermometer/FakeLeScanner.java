@@ -0,0 +1,144 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link LeScanner} fed with advertisements by the test.
+ *
+ * <p>The filters are applied in software, and results are held back for the report delay of a
+ * batched scan, as a controller with offloaded batching would do.
+ */
+class FakeLeScanner implements LeScanner {
+    private static class Result {
+        final BluetoothDevice device;
+        final int rssi;
+        final byte[] scanRecord;
+
+        Result(BluetoothDevice device, int rssi, byte[] scanRecord) {
+            this.device = device;
+            this.rssi = rssi;
+            this.scanRecord = scanRecord;
+        }
+    }
+
+    private final Scheduler mScheduler;
+    private final AdvertisingData mAdvertisingData = new AdvertisingData();
+    private final List<Result> mPending = new ArrayList<Result>();
+    private ScanOptions mOptions;
+    private BluetoothAdapter.LeScanCallback mCallback;
+    private FailureListener mFailureListener;
+    private boolean mAvailable = true;
+    private int mStartCount;
+    private int mDeliveryCount;
+
+    private final Runnable mReportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliverPending();
+        }
+    };
+
+    public FakeLeScanner(Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public boolean startScan(ScanOptions options, BluetoothAdapter.LeScanCallback callback,
+                             FailureListener failureListener) {
+        if (!mAvailable || mCallback != null) {
+            return false;
+        }
+        mOptions = options;
+        mCallback = callback;
+        mFailureListener = failureListener;
+        mStartCount++;
+        return true;
+    }
+
+    @Override
+    public void stopScan(BluetoothAdapter.LeScanCallback callback) {
+        if (mCallback == callback) {
+            mScheduler.removeCallbacks(mReportRunnable);
+            mPending.clear();
+            mCallback = null;
+        }
+    }
+
+    @Override
+    public void flushPendingScanResults(BluetoothAdapter.LeScanCallback callback) {
+        if (mCallback == callback) {
+            mScheduler.removeCallbacks(mReportRunnable);
+            deliverPending();
+        }
+    }
+
+    /**
+     * Simulates an advertisement received by the controller.
+     */
+    public void advertise(String address, BluetoothDevice device, int rssi, byte[] scanRecord) {
+        if (mCallback == null || !mOptions.matches(address, mAdvertisingData.reset(scanRecord))) {
+            return;
+        }
+        if (mOptions.getReportDelay() == 0) {
+            mDeliveryCount++;
+            mCallback.onLeScan(device, rssi, scanRecord);
+            return;
+        }
+        if (mPending.isEmpty()) {
+            mScheduler.postDelayed(mReportRunnable, mOptions.getReportDelay());
+        }
+        mPending.add(new Result(device, rssi, scanRecord));
+    }
+
+    /**
+     * Simulates the controller giving up the scan in progress.
+     */
+    public void fail(int errorCode) {
+        BluetoothAdapter.LeScanCallback callback = mCallback;
+        if (callback == null) {
+            return;
+        }
+        mScheduler.removeCallbacks(mReportRunnable);
+        mPending.clear();
+        mCallback = null;
+        mFailureListener.onScanFailed(callback, errorCode);
+    }
+
+    public void setAvailable(boolean available) {
+        mAvailable = available;
+    }
+
+    public boolean isScanning() {
+        return mCallback != null;
+    }
+
+    public ScanOptions getOptions() {
+        return mOptions;
+    }
+
+    public int getStartCount() {
+        return mStartCount;
+    }
+
+    /**
+     * @return The number of times results were passed to the callback, counting a batch once.
+     */
+    public int getDeliveryCount() {
+        return mDeliveryCount;
+    }
+
+    private void deliverPending() {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        mDeliveryCount++;
+        for (Result result : mPending) {
+            mCallback.onLeScan(result.device, result.rssi, result.scanRecord);
+        }
+        mPending.clear();
+    }
+}
@@ -0,0 +1,71 @@
+package jp.android.blethermometer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GattLayoutCacheTest {
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final GattLayout mLayout = new GattLayout.Builder()
+            .addService(GattAttributes.HEALTH_THERMOMETER_SERVICE, 1, 0)
+            .addCharacteristic(GattAttributes.HEALTH_THERMOMETER_MEASUREMENT, 2, 0x20)
+            .addDescriptor(GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION)
+            .build();
+
+    @Test
+    public void returnsNullForUnknownDevice() {
+        assertNull(new GattLayoutCache(mFolder.getRoot()).get(ADDRESS));
+    }
+
+    @Test
+    public void keepsLayoutInMemory() throws IOException {
+        GattLayoutCache cache = new GattLayoutCache(mFolder.getRoot());
+        cache.put(ADDRESS, mLayout);
+
+        assertSame(mLayout, cache.get(ADDRESS));
+    }
+
+    @Test
+    public void persistsLayout() throws IOException {
+        new GattLayoutCache(mFolder.getRoot()).put(ADDRESS, mLayout);
+
+        GattLayoutCache cache = new GattLayoutCache(mFolder.getRoot());
+        assertEquals(mLayout, cache.get(ADDRESS));
+        assertEquals(1, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void invalidatesLayout() throws IOException {
+        GattLayoutCache cache = new GattLayoutCache(mFolder.getRoot());
+        cache.put(ADDRESS, mLayout);
+        cache.invalidate(ADDRESS);
+
+        assertNull(cache.get(ADDRESS));
+        assertNull(new GattLayoutCache(mFolder.getRoot()).get(ADDRESS));
+    }
+
+    @Test
+    public void discardsCorruptFile() throws IOException {
+        new GattLayoutCache(mFolder.getRoot()).put(ADDRESS, mLayout);
+        File file = mFolder.getRoot().listFiles()[0];
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {0, 0, 0, 1, 0, 0, 0, 5});
+        out.close();
+
+        assertNull(new GattLayoutCache(mFolder.getRoot()).get(ADDRESS));
+        assertFalse(file.exists());
+    }
+}
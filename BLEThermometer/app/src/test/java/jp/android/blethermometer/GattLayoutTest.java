@@ -0,0 +1,132 @@
+package jp.android.blethermometer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GattLayoutTest {
+    private static final UUID DEVICE_NAME = UUID.fromString("00002a00-0000-1000-8000-00805f9b34fb");
+    private static final UUID BATTERY_SERVICE = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+    private static final UUID BATTERY_LEVEL = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
+
+    // Generic Access, Health Thermometer with two measurement characteristics, Battery.
+    private static GattLayout newLayout() {
+        return new GattLayout.Builder()
+                .addService(GattAttributes.GENERIC_ACCESS_SERVICE, 1, 0)
+                .addCharacteristic(DEVICE_NAME, 3, 0x02)
+                .addService(GattAttributes.HEALTH_THERMOMETER_SERVICE, 8, 0)
+                .addCharacteristic(GattAttributes.HEALTH_THERMOMETER_MEASUREMENT, 9, 0x20)
+                .addDescriptor(GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION)
+                .addCharacteristic(GattAttributes.HEALTH_THERMOMETER_MEASUREMENT, 12, 0x20)
+                .addService(BATTERY_SERVICE, 16, 0)
+                .addCharacteristic(BATTERY_LEVEL, 17, 0x12)
+                .addDescriptor(GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION)
+                .build();
+    }
+
+    @Test
+    public void recordsPositionsInParents() {
+        GattLayout layout = newLayout();
+
+        assertEquals(9, layout.size());
+        int measurement = layout.findCharacteristic(GattAttributes.HEALTH_THERMOMETER_SERVICE,
+                GattAttributes.HEALTH_THERMOMETER_MEASUREMENT);
+        assertEquals(3, measurement);
+        assertEquals(GattLayout.KIND_CHARACTERISTIC, layout.getKind(measurement));
+        assertEquals(0, layout.getPosition(measurement));
+        assertEquals(1, layout.getPosition(layout.getParent(measurement)));
+        assertEquals(9, layout.getInstanceId(measurement));
+        assertEquals(0x20, layout.getProperties(measurement));
+        assertEquals(-1, layout.getParent(layout.getParent(measurement)));
+
+        int battery = layout.findCharacteristic(BATTERY_SERVICE, BATTERY_LEVEL);
+        assertEquals(0, layout.getPosition(battery));
+        assertEquals(2, layout.getPosition(layout.getParent(battery)));
+        assertEquals(GattLayout.KIND_DESCRIPTOR, layout.getKind(8));
+        assertEquals(0, layout.getPosition(8));
+        assertTrue(layout.hasUuid(8, GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION));
+    }
+
+    @Test
+    public void findsCharacteristicOnlyInItsService() {
+        GattLayout layout = newLayout();
+
+        assertEquals(-1, layout.findCharacteristic(BATTERY_SERVICE, DEVICE_NAME));
+        assertEquals(-1, layout.findCharacteristic(GattAttributes.HEALTH_THERMOMETER_SERVICE,
+                GattAttributes.SERVICE_CHANGED));
+        assertEquals(1, layout.findCharacteristic(GattAttributes.GENERIC_ACCESS_SERVICE, DEVICE_NAME));
+    }
+
+    @Test
+    public void findsCharacteristicsOfLargeLayout() {
+        GattLayout.Builder builder = new GattLayout.Builder();
+        for (int s = 0; s < 20; s++) {
+            builder.addService(new UUID(s, 0), s, 0);
+            for (int c = 0; c < 20; c++) {
+                builder.addCharacteristic(new UUID(c, 0), s * 100 + c, 0);
+            }
+        }
+        GattLayout layout = builder.build();
+
+        for (int s = 0; s < 20; s++) {
+            for (int c = 0; c < 20; c++) {
+                int index = layout.findCharacteristic(new UUID(s, 0), new UUID(c, 0));
+                assertEquals(s * 100 + c, layout.getInstanceId(index));
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsThroughBytes() throws IOException {
+        GattLayout layout = newLayout();
+        GattLayout copy = GattLayout.fromByteArray(layout.toByteArray());
+
+        assertEquals(layout, copy);
+        assertEquals(layout.hashCode(), copy.hashCode());
+        assertEquals(3, copy.findCharacteristic(GattAttributes.HEALTH_THERMOMETER_SERVICE,
+                GattAttributes.HEALTH_THERMOMETER_MEASUREMENT));
+    }
+
+    @Test
+    public void detectsChangedLayout() {
+        GattLayout other = new GattLayout.Builder()
+                .addService(GattAttributes.GENERIC_ACCESS_SERVICE, 1, 0)
+                .addCharacteristic(DEVICE_NAME, 3, 0x0A)
+                .build();
+        assertNotEquals(newLayout(), other);
+        assertFalse(other.equals(new GattLayout.Builder()
+                .addService(GattAttributes.GENERIC_ACCESS_SERVICE, 1, 0)
+                .addCharacteristic(DEVICE_NAME, 3, 0x02)
+                .build()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedData() throws IOException {
+        byte[] data = newLayout().toByteArray();
+        GattLayout.fromByteArray(Arrays.copyOf(data, data.length - 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsDescriptorWithoutCharacteristic() throws IOException {
+        byte[] data = new GattLayout.Builder()
+                .addService(GattAttributes.GENERIC_ACCESS_SERVICE, 1, 0)
+                .addCharacteristic(DEVICE_NAME, 3, 0x02)
+                .build()
+                .toByteArray();
+        // Turns the characteristic into a descriptor of the service.
+        data[8 + 25] = GattLayout.KIND_DESCRIPTOR;
+        GattLayout.fromByteArray(data);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsCharacteristicWithoutService() {
+        new GattLayout.Builder().addCharacteristic(DEVICE_NAME, 1, 0);
+    }
+}
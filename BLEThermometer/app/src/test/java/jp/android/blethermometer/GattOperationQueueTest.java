@@ -0,0 +1,146 @@
+package jp.android.blethermometer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+    private static final UUID SERVICE = GattAttributes.HEALTH_THERMOMETER_SERVICE;
+    private static final UUID CHARACTERISTIC = GattAttributes.HEALTH_THERMOMETER_MEASUREMENT;
+    private static final UUID CCCD = GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION;
+
+    private final List<GattOperation> mDispatched = new ArrayList<GattOperation>();
+    private final List<Integer> mResults = new ArrayList<Integer>();
+    private boolean mAccept = true;
+    private FakeScheduler mScheduler;
+    private GattOperationQueue mQueue;
+
+    private final GattOperation.Callback mCallback = new GattOperation.Callback() {
+        @Override
+        public void onComplete(GattOperation operation, int status, byte[] value) {
+            mResults.add(status);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mQueue = new GattOperationQueue(new GattOperationQueue.Target() {
+            @Override
+            public boolean dispatch(GattOperation operation) {
+                mDispatched.add(operation);
+                return mAccept;
+            }
+        }, mScheduler);
+    }
+
+    @Test
+    public void dispatchesOneOperationAtATime() {
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC).setCallback(mCallback));
+        mQueue.enqueue(GattOperation.writeDescriptor(SERVICE, CHARACTERISTIC, CCCD, new byte[] {1, 0})
+                .setCallback(mCallback));
+        mQueue.enqueue(GattOperation.requestMtu(247).setCallback(mCallback));
+        assertEquals(1, mDispatched.size());
+        assertEquals(3, mQueue.getDepth());
+
+        mQueue.onCharacteristicRead(CHARACTERISTIC, GattOperation.STATUS_SUCCESS, new byte[] {0});
+        assertEquals(2, mDispatched.size());
+        assertEquals(GattOperation.Type.WRITE_DESCRIPTOR, mDispatched.get(1).type);
+
+        mQueue.onDescriptorWrite(CHARACTERISTIC, CCCD, GattOperation.STATUS_SUCCESS);
+        mQueue.onMtuChanged(GattOperation.STATUS_SUCCESS);
+        assertEquals(3, mDispatched.size());
+        assertEquals(0, mQueue.getDepth());
+        assertEquals(3, mQueue.getMaxDepth());
+        assertEquals(3, mQueue.getCompletedCount());
+        assertEquals(3, mResults.size());
+    }
+
+    @Test
+    public void ignoresCompletionOfOtherOperations() {
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC).setCallback(mCallback));
+        mQueue.onDescriptorWrite(CHARACTERISTIC, CCCD, GattOperation.STATUS_SUCCESS);
+        mQueue.onCharacteristicRead(UUID.randomUUID(), GattOperation.STATUS_SUCCESS, null);
+        assertTrue(mResults.isEmpty());
+        assertEquals(1, mQueue.getDepth());
+    }
+
+    @Test
+    public void timesOutAndDispatchesNext() {
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC).setTimeout(100)
+                .setCallback(mCallback));
+        mQueue.enqueue(GattOperation.requestMtu(185).setCallback(mCallback));
+
+        mScheduler.advance(99);
+        assertTrue(mResults.isEmpty());
+        mScheduler.advance(1);
+        assertEquals(GattOperation.STATUS_TIMEOUT, (int) mResults.get(0));
+        assertEquals(2, mDispatched.size());
+        assertEquals(1, mQueue.getTimeoutCount());
+
+        // A late completion of the timed out read must not complete the MTU request.
+        mQueue.onCharacteristicRead(CHARACTERISTIC, GattOperation.STATUS_SUCCESS, null);
+        assertEquals(1, mResults.size());
+        mQueue.onMtuChanged(GattOperation.STATUS_SUCCESS);
+        assertEquals(GattOperation.STATUS_SUCCESS, (int) mResults.get(1));
+    }
+
+    @Test
+    public void timesOutWhenFiredBeforeDeadline() {
+        mScheduler.setTruncating(true);
+        mScheduler.advanceNanos(400000);
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC).setTimeout(100)
+                .setCallback(mCallback));
+
+        // Fires at 100 ms, 0.4 ms before the deadline, and is re-armed.
+        mScheduler.advance(100);
+        assertTrue(mResults.isEmpty());
+        mScheduler.advance(1);
+        assertEquals(GattOperation.STATUS_TIMEOUT, (int) mResults.get(0));
+        assertEquals(0, mQueue.getDepth());
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void reportsRejectedOperations() {
+        mAccept = false;
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC).setCallback(mCallback));
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC).setCallback(mCallback));
+        assertEquals(2, mResults.size());
+        assertEquals(GattOperation.STATUS_REJECTED, (int) mResults.get(0));
+        assertEquals(2, mQueue.getRejectedCount());
+        assertEquals(0, mQueue.getDepth());
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void clearCancelsAllOperations() {
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC).setCallback(mCallback));
+        mQueue.enqueue(GattOperation.requestMtu(185).setCallback(mCallback));
+        mQueue.clear();
+        assertEquals(2, mResults.size());
+        assertEquals(GattOperation.STATUS_CANCELLED, (int) mResults.get(1));
+        assertEquals(0, mQueue.getDepth());
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void measuresLatency() {
+        mQueue.enqueue(GattOperation.readCharacteristic(SERVICE, CHARACTERISTIC));
+        mQueue.enqueue(GattOperation.requestMtu(185));
+        mScheduler.advance(10);
+        mQueue.onCharacteristicRead(CHARACTERISTIC, GattOperation.STATUS_SUCCESS, null);
+        mScheduler.advance(30);
+        mQueue.onMtuChanged(GattOperation.STATUS_SUCCESS);
+
+        assertEquals(30000000L, mQueue.getMaxServiceTime());
+        assertEquals(30000000L, mQueue.getLastServiceTime());
+        assertEquals(20000000L, mQueue.getAverageServiceTime());
+        assertEquals(5000000L, mQueue.getAverageWaitTime());
+    }
+}
@@ -0,0 +1,37 @@
+package jp.android.blethermometer;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GattRegistryTest {
+    @Test
+    public void looksUpAssignedUuids() {
+        assertEquals("Health Thermometer", GattRegistry.lookup(0x1809));
+        assertEquals("Heart Rate Measurement", GattRegistry.lookup(0x2A37));
+        assertEquals("Client Characteristic Configuration",
+                GattRegistry.lookup(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb")));
+        assertEquals("Generic Access", GattRegistry.lookup(0x1800));
+        assertEquals("Server Supported Features", GattRegistry.lookup(0x2B3A));
+    }
+
+    @Test
+    public void returnsNullForUnassignedUuids() {
+        assertNull(GattRegistry.lookup(0x180B));
+        assertNull(GattRegistry.lookup(0xFFFF));
+        assertNull(GattRegistry.lookup(-1));
+        assertNull(GattRegistry.lookup(0x10000));
+    }
+
+    @Test
+    public void detectsBaseUuid() {
+        assertEquals(0x180D, GattRegistry.toUuid16(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb")));
+        // 32-bit UUIDs and vendor UUIDs are not in the registry.
+        assertEquals(-1, GattRegistry.toUuid16(UUID.fromString("0001180d-0000-1000-8000-00805f9b34fb")));
+        assertEquals(-1, GattRegistry.toUuid16(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fc")));
+        assertNull(GattRegistry.lookup(UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e")));
+    }
+}
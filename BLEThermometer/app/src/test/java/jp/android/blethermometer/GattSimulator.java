@@ -0,0 +1,130 @@
+package jp.android.blethermometer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Hosts {@link VirtualPeripheral}s, for tests of the data path without a radio.
+ *
+ * <p>All peripherals share the scheduler, so that hundreds of them run on one virtual clock, and
+ * a seeded random generator, so that the injected errors are reproducible.  Health Thermometer
+ * (0x1809) and Heart Rate (0x180D) peripherals send measurements which drift around a base value.
+ */
+class GattSimulator {
+    static final UUID HEART_RATE_SERVICE = UUID
+            .fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    static final UUID HEART_RATE_MEASUREMENT = UUID
+            .fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+    static final byte[] ENABLE_INDICATION_VALUE = {0x02, 0x00};
+    static final byte[] DISABLE_NOTIFICATION_VALUE = {0x00, 0x00};
+
+    private final Scheduler mScheduler;
+    private final Random mRandom;
+    private final VirtualPeripheral.Listener mListener;
+    private final List<VirtualPeripheral> mPeripherals = new ArrayList<VirtualPeripheral>();
+
+    public GattSimulator(Scheduler scheduler, long seed, VirtualPeripheral.Listener listener) {
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler must not be null");
+        }
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        mScheduler = scheduler;
+        mRandom = new Random(seed);
+        mListener = listener;
+    }
+
+    /**
+     * Adds a thermometer indicating Celsius temperatures in tenths of a degree around the base.
+     */
+    public VirtualPeripheral addHealthThermometer(String address, float baseCelsius) {
+        return add(new VirtualPeripheral(address, GattAttributes.HEALTH_THERMOMETER_SERVICE,
+                GattAttributes.HEALTH_THERMOMETER_MEASUREMENT, temperatures(baseCelsius), mScheduler,
+                mRandom, mListener));
+    }
+
+    /**
+     * Adds a heart rate monitor notifying 8-bit heart rates around the base.
+     */
+    public VirtualPeripheral addHeartRateMonitor(String address, int baseBpm) {
+        return add(new VirtualPeripheral(address, HEART_RATE_SERVICE, HEART_RATE_MEASUREMENT,
+                heartRates(baseBpm), mScheduler, mRandom, mListener));
+    }
+
+    private VirtualPeripheral add(VirtualPeripheral peripheral) {
+        mPeripherals.add(peripheral);
+        return peripheral;
+    }
+
+    public List<VirtualPeripheral> getPeripherals() {
+        return mPeripherals;
+    }
+
+    /**
+     * Drops the link of a random connected peripheral.
+     *
+     * @return The peripheral, or null if none is connected.
+     */
+    public VirtualPeripheral disconnectRandom(int status) {
+        List<VirtualPeripheral> connected = new ArrayList<VirtualPeripheral>();
+        for (VirtualPeripheral peripheral : mPeripherals) {
+            if (peripheral.isConnected()) {
+                connected.add(peripheral);
+            }
+        }
+        if (connected.isEmpty()) {
+            return null;
+        }
+        VirtualPeripheral peripheral = connected.get(mRandom.nextInt(connected.size()));
+        peripheral.disconnect(status);
+        return peripheral;
+    }
+
+    public long getNotificationCount() {
+        long count = 0;
+        for (VirtualPeripheral peripheral : mPeripherals) {
+            count += peripheral.getNotificationCount();
+        }
+        return count;
+    }
+
+    /**
+     * Encodes Health Thermometer Measurements in degrees Celsius, without time stamp or type.
+     */
+    static VirtualPeripheral.ValueGenerator temperatures(final float baseCelsius) {
+        final byte[] value = new byte[5];
+        return new VirtualPeripheral.ValueGenerator() {
+            @Override
+            public byte[] next(int sequence) {
+                // FLOAT: 24-bit mantissa and 8-bit exponent, here tenths of a degree.
+                int mantissa = Math.round(baseCelsius * 10) + sequence % 10 - 5;
+                value[0] = 0x00;
+                value[1] = (byte) mantissa;
+                value[2] = (byte) (mantissa >> 8);
+                value[3] = (byte) (mantissa >> 16);
+                value[4] = (byte) -1;
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Encodes Heart Rate Measurements with an 8-bit heart rate and no optional fields.
+     */
+    static VirtualPeripheral.ValueGenerator heartRates(final int baseBpm) {
+        final byte[] value = new byte[2];
+        return new VirtualPeripheral.ValueGenerator() {
+            @Override
+            public byte[] next(int sequence) {
+                value[0] = 0x00;
+                value[1] = (byte) (baseBpm + sequence % 10 - 5);
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,218 @@
+package jp.android.blethermometer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GattSimulatorTest {
+    private static final int GATT_ERROR = 133;
+
+    private FakeScheduler mScheduler;
+    private GattSimulator mSimulator;
+    private final Map<String, TemperatureReceiver> mReceivers = new HashMap<String, TemperatureReceiver>();
+    private final Map<String, Integer> mHeartRateCounts = new HashMap<String, Integer>();
+    private final List<String> mDisconnected = new ArrayList<String>();
+    private final List<Integer> mStatuses = new ArrayList<Integer>();
+    private float mLastCelsius;
+
+    // Routes the values to the data path of the app, as the GATT callback does.
+    private final VirtualPeripheral.Listener mListener = new VirtualPeripheral.Listener() {
+        @Override
+        public void onCharacteristicChanged(VirtualPeripheral peripheral, UUID characteristicUuid,
+                                            byte[] value) {
+            if (characteristicUuid.equals(GattAttributes.HEALTH_THERMOMETER_MEASUREMENT)) {
+                mReceivers.get(peripheral.getAddress()).onMeasurement(value);
+            } else if (characteristicUuid.equals(GattSimulator.HEART_RATE_MEASUREMENT)) {
+                Integer count = mHeartRateCounts.get(peripheral.getAddress());
+                mHeartRateCounts.put(peripheral.getAddress(), count == null ? 1 : count + 1);
+            }
+        }
+
+        @Override
+        public void onDisconnected(VirtualPeripheral peripheral, int status) {
+            mDisconnected.add(peripheral.getAddress());
+        }
+    };
+
+    private final GattOperation.Callback mCallback = new GattOperation.Callback() {
+        @Override
+        public void onComplete(GattOperation operation, int status, byte[] value) {
+            mStatuses.add(status);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mSimulator = new GattSimulator(mScheduler, 42, mListener);
+    }
+
+    private VirtualPeripheral addThermometer(String address) {
+        VirtualPeripheral peripheral = mSimulator.addHealthThermometer(address, 36.5f);
+        mReceivers.put(address, new TemperatureReceiver(
+                new RollingStats(30f, 45f, 150), mScheduler, new TemperatureReceiver.Callback() {
+                    @Override
+                    public void onTemperature(Temperature temperature) {
+                        mLastCelsius = temperature.toCelsius();
+                    }
+                }));
+        return peripheral;
+    }
+
+    private GattOperationQueue connect(VirtualPeripheral peripheral) {
+        GattOperationQueue queue = new GattOperationQueue(peripheral, mScheduler);
+        peripheral.connect(queue);
+        return queue;
+    }
+
+    private static GattOperation enableNotification(VirtualPeripheral peripheral, byte[] value) {
+        return GattOperation.writeDescriptor(peripheral.getServiceUuid(),
+                peripheral.getCharacteristicUuid(), GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION,
+                value);
+    }
+
+    @Test
+    public void notifiesAtConfiguredRate() {
+        VirtualPeripheral thermometer = addThermometer("00:00:00:00:00:01")
+                .setNotificationInterval(500);
+        GattOperationQueue queue = connect(thermometer);
+        queue.enqueue(enableNotification(thermometer, GattSimulator.ENABLE_INDICATION_VALUE));
+        mScheduler.advance(10000);
+
+        TemperatureReceiver receiver = mReceivers.get("00:00:00:00:00:01");
+        assertEquals(20, receiver.getReceivedCount());
+        assertEquals(0, receiver.getMalformedCount());
+        assertEquals(36.5f, mLastCelsius, 0.51f);
+
+        queue.enqueue(enableNotification(thermometer, GattSimulator.DISABLE_NOTIFICATION_VALUE));
+        mScheduler.advance(10000);
+        assertEquals(20, receiver.getReceivedCount());
+        assertFalse(thermometer.isNotifying());
+    }
+
+    @Test
+    public void completesAfterLatency() {
+        VirtualPeripheral monitor = mSimulator.addHeartRateMonitor("00:00:00:00:00:02", 70)
+                .setLatency(30);
+        GattOperationQueue queue = connect(monitor);
+        queue.enqueue(GattOperation.requestMtu(AttMtu.MAX_MTU).setCallback(mCallback));
+        queue.enqueue(GattOperation.readCharacteristic(GattSimulator.HEART_RATE_SERVICE,
+                GattSimulator.HEART_RATE_MEASUREMENT).setCallback(mCallback));
+
+        mScheduler.advance(29);
+        assertTrue(mStatuses.isEmpty());
+        mScheduler.advance(1);
+        assertEquals(1, mStatuses.size());
+        assertEquals(AttMtu.MAX_MTU, monitor.getMtu());
+        mScheduler.advance(30);
+        assertEquals(2, mStatuses.size());
+        assertEquals(2, monitor.getOperationCount());
+    }
+
+    @Test
+    public void injectsErrors() {
+        VirtualPeripheral thermometer = addThermometer("00:00:00:00:00:03")
+                .failNext(2, GATT_ERROR);
+        GattOperationQueue queue = connect(thermometer);
+        for (int i = 0; i < 3; i++) {
+            queue.enqueue(GattOperation.readCharacteristic(GattAttributes.HEALTH_THERMOMETER_SERVICE,
+                    GattAttributes.HEALTH_THERMOMETER_MEASUREMENT).setCallback(mCallback));
+        }
+        mScheduler.advance(0);
+
+        assertEquals(3, mStatuses.size());
+        assertEquals(GATT_ERROR, (int) mStatuses.get(0));
+        assertEquals(GATT_ERROR, (int) mStatuses.get(1));
+        assertEquals(GattOperation.STATUS_SUCCESS, (int) mStatuses.get(2));
+        assertEquals(2, thermometer.getErrorCount());
+        assertEquals(2, queue.getFailedCount());
+    }
+
+    @Test
+    public void rejectsUnknownAttributes() {
+        VirtualPeripheral thermometer = addThermometer("00:00:00:00:00:04");
+        GattOperationQueue queue = connect(thermometer);
+        queue.enqueue(GattOperation.readCharacteristic(GattSimulator.HEART_RATE_SERVICE,
+                GattSimulator.HEART_RATE_MEASUREMENT).setCallback(mCallback));
+
+        assertEquals(1, mStatuses.size());
+        assertEquals(GattOperation.STATUS_REJECTED, (int) mStatuses.get(0));
+    }
+
+    @Test
+    public void disconnectionCancelsOperationsAndNotifications() {
+        VirtualPeripheral thermometer = addThermometer("00:00:00:00:00:05").setLatency(100);
+        GattOperationQueue queue = connect(thermometer);
+        queue.enqueue(enableNotification(thermometer, GattSimulator.ENABLE_INDICATION_VALUE));
+        mScheduler.advance(5000);
+        queue.enqueue(GattOperation.readCharacteristic(GattAttributes.HEALTH_THERMOMETER_SERVICE,
+                GattAttributes.HEALTH_THERMOMETER_MEASUREMENT).setCallback(mCallback));
+
+        thermometer.disconnect(VirtualPeripheral.STATUS_CONNECTION_TIMEOUT);
+        long received = mReceivers.get("00:00:00:00:00:05").getReceivedCount();
+        mScheduler.advance(5000);
+
+        assertEquals(1, mStatuses.size());
+        assertEquals(GattOperation.STATUS_CANCELLED, (int) mStatuses.get(0));
+        assertEquals(received, mReceivers.get("00:00:00:00:00:05").getReceivedCount());
+        assertEquals(1, mDisconnected.size());
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void carriesHundredsOfDevices() {
+        int deviceCount = 400;
+        for (int i = 0; i < deviceCount; i++) {
+            String address = String.format("00:00:00:00:%02X:%02X", i >> 8, i & 0xFF);
+            VirtualPeripheral peripheral;
+            if (i % 2 == 0) {
+                peripheral = addThermometer(address).setNotificationInterval(1000);
+            } else {
+                peripheral = mSimulator.addHeartRateMonitor(address, 70).setNotificationInterval(250);
+            }
+            peripheral.setLatency(10 + i % 40).setErrorRate(0.01, GATT_ERROR);
+            GattOperationQueue queue = connect(peripheral);
+            queue.enqueue(GattOperation.requestMtu(AttMtu.MAX_MTU));
+            queue.enqueue(enableNotification(peripheral, GattSimulator.ENABLE_NOTIFICATION_VALUE));
+        }
+        mScheduler.advance(60000);
+        int dropped = 0;
+        for (int i = 0; i < 10; i++) {
+            if (mSimulator.disconnectRandom(VirtualPeripheral.STATUS_CONNECTION_TIMEOUT) != null) {
+                dropped++;
+            }
+        }
+        mScheduler.advance(1000);
+
+        long thermometerCount = 0;
+        long heartRateCount = 0;
+        int notifying = 0;
+        for (VirtualPeripheral peripheral : mSimulator.getPeripherals()) {
+            if (peripheral.isNotifying()) {
+                notifying++;
+            }
+        }
+        for (TemperatureReceiver receiver : mReceivers.values()) {
+            assertEquals(0, receiver.getMalformedCount());
+            thermometerCount += receiver.getReceivedCount();
+        }
+        for (int count : mHeartRateCounts.values()) {
+            heartRateCount += count;
+        }
+        assertEquals(10, dropped);
+        assertEquals(mSimulator.getNotificationCount(), thermometerCount + heartRateCount);
+        // Devices whose enabling write failed, and those dropped, stay silent.
+        assertTrue(notifying > deviceCount * 9 / 10);
+        assertTrue(thermometerCount > 200 * 55);
+        assertTrue(heartRateCount > 200 * 220);
+    }
+}
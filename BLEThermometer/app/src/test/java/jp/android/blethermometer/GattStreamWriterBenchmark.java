@@ -0,0 +1,133 @@
+package jp.android.blethermometer;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Streams data through a {@link GattStreamWriter} and its {@link GattOperationQueue} to a
+ * simulated peripheral at several MTUs.
+ *
+ * <p>Reports the CPU time and the allocation per chunk of the pipeline with writes acknowledged
+ * immediately, and the throughput reported by the writer when every write is acknowledged after
+ * its air time on an LE 1M PHY link with 251 byte data length: each link layer packet takes its
+ * length plus 14 bytes of overhead at 8 us per byte, followed by two inter frame spaces and an
+ * empty acknowledgement.
+ *
+ * <p>Run as a plain Java program with the unit test classpath.
+ */
+public class GattStreamWriterBenchmark {
+    private static final UUID SERVICE = UUID.fromString("0000fe59-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC = UUID.fromString("8ec90002-f315-4f60-9fb8-838830daea50");
+
+    private static final int[] MTUS = {23, 185, 247, 517};
+    private static final int WARMUP_LENGTH = 4 << 20;
+    private static final int LENGTH = 32 << 20;
+    private static final int LINK_LENGTH = 1 << 20;
+
+    private static final int LL_MAX_PAYLOAD = 251;
+    private static final long LL_OVERHEAD_NANOS = 150000 + 80000 + 150000;
+
+    // Air time not yet passed to the fake clock, which only advances in milliseconds.
+    private static long sCarry;
+
+    private static final GattStreamWriter.Listener LISTENER = new GattStreamWriter.Listener() {
+        @Override
+        public void onProgress(GattStreamWriter writer, long bytesWritten) {
+        }
+
+        @Override
+        public void onSuspended(GattStreamWriter writer) {
+        }
+
+        @Override
+        public void onFinished(GattStreamWriter writer, int status) {
+            if (status != GattOperation.STATUS_SUCCESS) {
+                throw new AssertionError("status=" + status);
+            }
+        }
+    };
+
+    public static void main(String[] args) {
+        ByteBuffer data = ByteBuffer.allocate(LENGTH);
+        for (int mtu : MTUS) {
+            stream(mtu, data, WARMUP_LENGTH, false);
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            int chunks = stream(mtu, data, LENGTH, false).getChunkCount();
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            double linkRate = stream(mtu, data, LINK_LENGTH, true).getBytesPerSecond();
+            System.out.printf("mtu=%3d  %6.0f ns/chunk %6.1f bytes/chunk %8.1f MB/s pipeline"
+                            + " %6.1f kB/s simulated link%n",
+                    mtu, (double) elapsed / chunks, (double) allocated / chunks,
+                    LENGTH * 1e3 / elapsed, linkRate / 1e3);
+        }
+    }
+
+    private static class Result {
+        final GattStreamWriter writer;
+        final WriteSink sink;
+
+        Result(GattStreamWriter writer, WriteSink sink) {
+            this.writer = writer;
+            this.sink = sink;
+        }
+
+        int getChunkCount() {
+            return sink.getWriteCount();
+        }
+
+        double getBytesPerSecond() {
+            return writer.getBytesPerSecond();
+        }
+    }
+
+    private static Result stream(int mtuValue, ByteBuffer data, int length, boolean simulateLink) {
+        FakeScheduler scheduler = new FakeScheduler();
+        WriteSink sink = new WriteSink();
+        sink.setRecording(false);
+        GattOperationQueue queue = new GattOperationQueue(sink, scheduler);
+        sink.attach(queue);
+        AttMtu mtu = new AttMtu();
+        mtu.set(mtuValue);
+        ByteBuffer slice = data.duplicate();
+        slice.limit(length);
+        GattStreamWriter writer = new GattStreamWriter(SERVICE, CHARACTERISTIC, slice, mtu,
+                scheduler, LISTENER);
+
+        writer.start(queue);
+        long airTime = airTimeNanos(mtu.getMaxWritePayload());
+        while (sink.hasPending()) {
+            if (simulateLink) {
+                advanceNanos(scheduler, airTime);
+            }
+            sink.acknowledge(GattOperation.STATUS_SUCCESS);
+        }
+        return new Result(writer, sink);
+    }
+
+    // Air time of a write without response of a full payload, fragmented into link layer packets.
+    private static long airTimeNanos(int payload) {
+        int remaining = payload + 3 + 4; // ATT opcode and handle, L2CAP header
+        long nanos = 0;
+        while (remaining > 0) {
+            int length = Math.min(LL_MAX_PAYLOAD, remaining);
+            nanos += (length + 14) * 8000L + LL_OVERHEAD_NANOS;
+            remaining -= length;
+        }
+        return nanos;
+    }
+
+    private static void advanceNanos(FakeScheduler scheduler, long nanos) {
+        sCarry += nanos;
+        scheduler.advance(sCarry / 1000000);
+        sCarry %= 1000000;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
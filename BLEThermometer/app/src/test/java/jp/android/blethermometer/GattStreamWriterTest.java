@@ -0,0 +1,291 @@
+package jp.android.blethermometer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GattStreamWriterTest {
+    private static final UUID SERVICE = UUID.fromString("0000fe59-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC = UUID.fromString("8ec90002-f315-4f60-9fb8-838830daea50");
+
+    private FakeScheduler mScheduler;
+    private WriteSink mSink;
+    private GattOperationQueue mQueue;
+    private AttMtu mMtu;
+    private RecordingListener mListener;
+
+    private static class RecordingListener implements GattStreamWriter.Listener {
+        int progressCount;
+        long bytesWritten;
+        int suspendedCount;
+        int finishedCount;
+        int status = Integer.MIN_VALUE;
+
+        @Override
+        public void onProgress(GattStreamWriter writer, long bytesWritten) {
+            progressCount++;
+            this.bytesWritten = bytesWritten;
+        }
+
+        @Override
+        public void onSuspended(GattStreamWriter writer) {
+            suspendedCount++;
+        }
+
+        @Override
+        public void onFinished(GattStreamWriter writer, int status) {
+            finishedCount++;
+            this.status = status;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mSink = new WriteSink();
+        mQueue = new GattOperationQueue(mSink, mScheduler);
+        mSink.attach(mQueue);
+        mMtu = new AttMtu();
+        mListener = new RecordingListener();
+    }
+
+    private static byte[] newData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7 + i / 256);
+        }
+        return data;
+    }
+
+    private GattStreamWriter newWriter(byte[] data) {
+        return new GattStreamWriter(SERVICE, CHARACTERISTIC, ByteBuffer.wrap(data), mMtu,
+                mScheduler, mListener);
+    }
+
+    @Test
+    public void writesBufferInChunksOfMtu() {
+        byte[] data = newData(2000);
+        mMtu.set(185);
+        GattStreamWriter writer = newWriter(data);
+
+        assertTrue(writer.start(mQueue));
+        assertEquals(1, mQueue.getDepth());
+        mSink.drain();
+
+        assertArrayEquals(data, mSink.getReceived());
+        assertEquals(11, mSink.getWriteCount());
+        assertEquals(11, mListener.progressCount);
+        assertEquals(2000, mListener.bytesWritten);
+        assertEquals(1, mListener.finishedCount);
+        assertEquals(GattOperation.STATUS_SUCCESS, mListener.status);
+        assertEquals(GattStreamWriter.State.FINISHED, writer.getState());
+        assertFalse(writer.start(mQueue));
+    }
+
+    @Test
+    public void writesStreamOfUnknownLength() {
+        byte[] data = newData(1001);
+        // Returns a few bytes at a time, like a socket.
+        InputStream input = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        GattStreamWriter writer = new GattStreamWriter(SERVICE, CHARACTERISTIC, input, -1, mMtu,
+                mScheduler, mListener);
+
+        writer.start(mQueue);
+        mSink.drain();
+
+        assertArrayEquals(data, mSink.getReceived());
+        assertEquals(51, mSink.getWriteCount());
+        assertEquals(-1, writer.getLength());
+        assertEquals(GattOperation.STATUS_SUCCESS, mListener.status);
+    }
+
+    @Test
+    public void leavesBufferPositionAlone() {
+        ByteBuffer buffer = ByteBuffer.wrap(newData(100));
+        buffer.position(40);
+        GattStreamWriter writer = new GattStreamWriter(SERVICE, CHARACTERISTIC, buffer, mMtu,
+                mScheduler, mListener);
+
+        writer.start(mQueue);
+        mSink.drain();
+
+        assertEquals(40, buffer.position());
+        assertEquals(60, writer.getLength());
+        assertEquals(60, mSink.getReceived().length);
+    }
+
+    @Test
+    public void retriesRejectedWrite() {
+        byte[] data = newData(100);
+        GattStreamWriter writer = newWriter(data);
+        mSink.rejectNext(2);
+
+        writer.start(mQueue);
+        assertFalse(mSink.hasPending());
+        mScheduler.advance(GattStreamWriter.RETRY_DELAY);
+        assertFalse(mSink.hasPending());
+        mScheduler.advance(GattStreamWriter.RETRY_DELAY);
+        assertTrue(mSink.hasPending());
+        mSink.drain();
+
+        assertArrayEquals(data, mSink.getReceived());
+        assertEquals(0, mListener.suspendedCount);
+        assertEquals(GattOperation.STATUS_SUCCESS, mListener.status);
+    }
+
+    @Test
+    public void failsAfterTooManyRejections() {
+        GattStreamWriter writer = newWriter(newData(100));
+        mSink.rejectNext(GattStreamWriter.MAX_RETRIES + 1);
+
+        writer.start(mQueue);
+        mScheduler.advance(GattStreamWriter.RETRY_DELAY * GattStreamWriter.MAX_RETRIES);
+
+        assertEquals(GattOperation.STATUS_REJECTED, mListener.status);
+        assertEquals(GattStreamWriter.State.FINISHED, writer.getState());
+    }
+
+    @Test
+    public void failsOnGattError() {
+        GattStreamWriter writer = newWriter(newData(100));
+
+        writer.start(mQueue);
+        mSink.acknowledge(GattOperation.STATUS_SUCCESS);
+        mSink.acknowledge(133);
+
+        assertEquals(133, mListener.status);
+        assertEquals(133, writer.getStatus());
+        assertEquals(20, writer.getBytesWritten());
+        assertFalse(mSink.hasPending());
+    }
+
+    @Test
+    public void resumesAfterReconnection() {
+        byte[] data = newData(3000);
+        mMtu.set(247);
+        GattStreamWriter writer = newWriter(data);
+
+        writer.start(mQueue);
+        for (int i = 0; i < 5; i++) {
+            mSink.acknowledge(GattOperation.STATUS_SUCCESS);
+        }
+        // The connection is lost with a chunk in flight.
+        mQueue.clear();
+        assertEquals(GattStreamWriter.State.SUSPENDED, writer.getState());
+        assertEquals(1, mListener.suspendedCount);
+        assertEquals(5 * 244, writer.getBytesWritten());
+
+        // The new connection negotiated a smaller MTU.
+        mMtu.reset();
+        mMtu.set(100);
+        GattOperationQueue queue = new GattOperationQueue(mSink, mScheduler);
+        mSink.attach(queue);
+        assertTrue(writer.start(queue));
+        mSink.drain();
+
+        assertArrayEquals(data, mSink.getReceived());
+        assertEquals(5 + (3000 - 5 * 244 + 96) / 97, mSink.getWriteCount());
+        assertEquals(GattOperation.STATUS_SUCCESS, mListener.status);
+    }
+
+    @Test
+    public void suspendsWhileWaitingForRetry() {
+        GattStreamWriter writer = newWriter(newData(100));
+        mSink.rejectNext(1);
+
+        writer.start(mQueue);
+        writer.suspend();
+
+        assertEquals(GattStreamWriter.State.SUSPENDED, writer.getState());
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(1, mListener.suspendedCount);
+    }
+
+    @Test
+    public void sendsOneChunkPerCredit() {
+        byte[] data = newData(100);
+        GattStreamWriter writer = newWriter(data).setCreditFlowControl(true);
+
+        writer.start(mQueue);
+        assertFalse(mSink.hasPending());
+
+        writer.addCredits(2);
+        mSink.drain();
+        assertEquals(2, mSink.getWriteCount());
+
+        writer.addCredits(10);
+        mSink.drain();
+        assertArrayEquals(data, mSink.getReceived());
+        assertEquals(GattOperation.STATUS_SUCCESS, mListener.status);
+    }
+
+    @Test
+    public void cancelStopsWriting() {
+        GattStreamWriter writer = newWriter(newData(100));
+
+        writer.start(mQueue);
+        writer.cancel();
+        // The chunk in flight still completes, but nothing follows.
+        mSink.drain();
+
+        assertEquals(1, mSink.getWriteCount());
+        assertEquals(GattOperation.STATUS_CANCELLED, mListener.status);
+        assertEquals(1, mListener.finishedCount);
+    }
+
+    @Test
+    public void reportsIoError() {
+        InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        GattStreamWriter writer = new GattStreamWriter(SERVICE, CHARACTERISTIC, input, -1, mMtu,
+                mScheduler, mListener);
+
+        writer.start(mQueue);
+
+        assertEquals(GattStreamWriter.STATUS_IO_ERROR, mListener.status);
+        assertFalse(mSink.hasPending());
+    }
+
+    @Test
+    public void reportsBytesPerSecondExcludingSuspension() {
+        byte[] data = newData(400);
+        GattStreamWriter writer = newWriter(data);
+
+        writer.start(mQueue);
+        for (int i = 0; i < 10; i++) {
+            mScheduler.advance(10);
+            mSink.acknowledge(GattOperation.STATUS_SUCCESS);
+        }
+        mQueue.clear();
+        mScheduler.advance(5000);
+        assertEquals(2000, writer.getBytesPerSecond(), 0.001);
+
+        GattOperationQueue queue = new GattOperationQueue(mSink, mScheduler);
+        mSink.attach(queue);
+        writer.start(queue);
+        while (mSink.hasPending()) {
+            mScheduler.advance(10);
+            mSink.acknowledge(GattOperation.STATUS_SUCCESS);
+        }
+        assertEquals(2000, writer.getBytesPerSecond(), 0.001);
+    }
+}
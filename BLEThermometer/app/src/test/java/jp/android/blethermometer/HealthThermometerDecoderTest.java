@@ -0,0 +1,77 @@
+package jp.android.blethermometer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HealthThermometerDecoderTest {
+    private final Temperature mTemperature = new Temperature();
+
+    @Test
+    public void decodesCelsiusWithoutOptionalFields() {
+        // 36.5 = 365 * 10^-1
+        byte[] data = {0x00, 0x6D, 0x01, 0x00, (byte) 0xFF};
+        assertTrue(HealthThermometerDecoder.decode(data, 0, data.length, mTemperature));
+        assertEquals(36.5f, mTemperature.value, 0.0001f);
+        assertEquals(Temperature.Unit.CELSIUS, mTemperature.unit);
+        assertEquals(Temperature.Type.UNKNOWN, mTemperature.type);
+        assertFalse(mTemperature.hasTimestamp);
+    }
+
+    @Test
+    public void decodesAllFields() {
+        byte[] data = {
+                0x55, // padding, skipped through the offset
+                0x07, // Fahrenheit, timestamp and type present
+                (byte) 0xDA, 0x03, 0x00, (byte) 0xFF, // 98.6 = 986 * 10^-1
+                (byte) 0xE0, 0x07, 10, 18, 9, 30, 15, // 2016-10-18 09:30:15
+                0x03, // Ear
+        };
+        assertTrue(HealthThermometerDecoder.decode(data, 1, data.length - 1, mTemperature));
+        assertEquals(98.6f, mTemperature.value, 0.0001f);
+        assertEquals(Temperature.Unit.FAHRENHEIT, mTemperature.unit);
+        assertEquals(Temperature.Type.EAR, mTemperature.type);
+        assertTrue(mTemperature.hasTimestamp);
+        assertEquals(2016, mTemperature.year);
+        assertEquals(10, mTemperature.month);
+        assertEquals(18, mTemperature.day);
+        assertEquals(9, mTemperature.hours);
+        assertEquals(30, mTemperature.minutes);
+        assertEquals(15, mTemperature.seconds);
+    }
+
+    @Test
+    public void decodesTypeWithoutTimestamp() {
+        byte[] data = {0x04, 0x6D, 0x01, 0x00, (byte) 0xFF, 0x02};
+        assertTrue(HealthThermometerDecoder.decode(data, 0, data.length, mTemperature));
+        assertEquals(Temperature.Type.BODY, mTemperature.type);
+        assertFalse(mTemperature.hasTimestamp);
+    }
+
+    @Test
+    public void rejectsTruncatedValues() {
+        assertFalse(HealthThermometerDecoder.decode(new byte[0], 0, 0, mTemperature));
+        assertFalse(HealthThermometerDecoder.decode(new byte[] {0x00, 0x6D, 0x01}, 0, 3, mTemperature));
+        // Timestamp announced but missing.
+        byte[] data = {0x02, 0x6D, 0x01, 0x00, (byte) 0xFF, (byte) 0xE0, 0x07};
+        assertFalse(HealthThermometerDecoder.decode(data, 0, data.length, mTemperature));
+        assertTrue(Float.isNaN(mTemperature.value));
+    }
+
+    @Test
+    public void convertsFloatSpecialValues() {
+        assertTrue(Float.isNaN(HealthThermometerDecoder.toFloat(0x007FFFFF)));
+        assertTrue(Float.isNaN(HealthThermometerDecoder.toFloat(0x00800000)));
+        assertTrue(Float.isNaN(HealthThermometerDecoder.toFloat(0x00800001)));
+        assertEquals(Float.POSITIVE_INFINITY, HealthThermometerDecoder.toFloat(0x007FFFFE), 0);
+        assertEquals(Float.NEGATIVE_INFINITY, HealthThermometerDecoder.toFloat(0x00800002), 0);
+    }
+
+    @Test
+    public void convertsNegativeMantissaAndPositiveExponent() {
+        // -12 * 10^-2
+        assertEquals(-0.12f, HealthThermometerDecoder.toFloat(0xFEFFFFF4), 0.00001f);
+        // 37 * 10^1
+        assertEquals(370f, HealthThermometerDecoder.toFloat(0x01000025), 0);
+    }
+}
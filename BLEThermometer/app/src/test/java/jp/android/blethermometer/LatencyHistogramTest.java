@@ -0,0 +1,94 @@
+package jp.android.blethermometer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsAreContiguous() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(7, LatencyHistogram.bucketOf(7));
+        for (int bucket = 1; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            long lower = LatencyHistogram.lowerBound(bucket);
+            assertTrue(lower > LatencyHistogram.lowerBound(bucket - 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(lower));
+            assertEquals(bucket - 1, LatencyHistogram.bucketOf(lower - 1));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void bucketsAreAtMostAQuarterWide() {
+        for (int bucket = 8; bucket < LatencyHistogram.BUCKET_COUNT - 1; bucket++) {
+            long lower = LatencyHistogram.lowerBound(bucket);
+            long width = LatencyHistogram.lowerBound(bucket + 1) - lower;
+            assertTrue(width * 4 <= lower);
+        }
+    }
+
+    @Test
+    public void computesPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L); // 1 to 100 ms
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50500, histogram.getMean());
+        assertEquals(100000, histogram.getMax());
+        assertWithin(50000, histogram.getPercentile(50));
+        assertWithin(90000, histogram.getPercentile(90));
+        assertWithin(99000, histogram.getPercentile(99));
+        assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void isEmptyAfterReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000);
+        histogram.record(-1000);
+        assertEquals(2, histogram.getCount());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPercentile() {
+        new LatencyHistogram().getPercentile(101);
+    }
+
+    @Test
+    public void recordsConcurrently() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final long micros = (i + 1) * 100;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        histogram.record(micros * 1000);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * perThread, histogram.getCount());
+        assertEquals(250, histogram.getMean());
+        assertEquals(400, histogram.getMax());
+    }
+
+    // The percentile is the upper bound of its bucket, at most a quarter above the value.
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 4);
+    }
+}
@@ -0,0 +1,66 @@
+package jp.android.blethermometer;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class NumberFormatterTest {
+    private final char[] mOut = new char[NumberFormatter.MAX_FIXED_LENGTH];
+
+    private String format(float value, int decimals) {
+        return new String(mOut, 0, NumberFormatter.appendFixed(value, decimals, mOut, 0));
+    }
+
+    private void assertLikeFormatter(float value, int decimals) {
+        assertEquals("value=" + value, String.format(Locale.US, "%." + decimals + "f", value),
+                format(value, decimals));
+    }
+
+    @Test
+    public void formatsTemperaturesLikeFormatter() {
+        for (int i = -5000; i <= 15000; i++) {
+            assertLikeFormatter(i / 100f, 1);
+        }
+    }
+
+    @Test
+    public void formatsRandomValuesLikeFormatter() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            float value = (random.nextFloat() - 0.5f) * (float) Math.pow(10, random.nextInt(10));
+            assertLikeFormatter(value, random.nextInt(NumberFormatter.MAX_DECIMALS + 1));
+        }
+    }
+
+    @Test
+    public void keepsTheSignOfZero() {
+        assertEquals("-0.0", format(-0.04f, 1));
+        assertEquals("0.0", format(0f, 1));
+        assertEquals("-1", format(-0.5f, 0));
+    }
+
+    @Test
+    public void formatsSpecialValues() {
+        assertEquals("NaN", format(Float.NaN, 1));
+        assertEquals("-Infinity", format(Float.NEGATIVE_INFINITY, 1));
+        assertEquals("1.0E20", format(1e20f, 1));
+    }
+
+    @Test
+    public void appendsAtPosition() {
+        char[] out = new char[2 + NumberFormatter.MAX_FIXED_LENGTH];
+        out[0] = 'T';
+        out[1] = '=';
+        int end = NumberFormatter.appendFixed(36.25f, 1, out, 2);
+
+        assertEquals("T=36.3", new String(out, 0, end));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyDecimals() {
+        NumberFormatter.appendFixed(1f, NumberFormatter.MAX_DECIMALS + 1, mOut, 0);
+    }
+}
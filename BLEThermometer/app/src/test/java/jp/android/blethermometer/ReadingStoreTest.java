@@ -0,0 +1,163 @@
+package jp.android.blethermometer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadingStoreTest {
+    private static final long DEVICE = 0x001122AABBCCL;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsAppendedReadings() throws IOException {
+        ReadingStore store = new ReadingStore(mFolder.getRoot(), 16, 4);
+        store.append(DEVICE, 1000, 36.5f, 1, 3);
+        store.append(DEVICE + 1, 2000, 98.6f, 2, 0);
+
+        ReadingStore.Cursor cursor = store.openCursor();
+        assertTrue(cursor.next());
+        assertEquals(1000, cursor.getTimestamp());
+        assertEquals(DEVICE, cursor.getDevice());
+        assertEquals(36.5f, cursor.getValue(), 0f);
+        assertEquals(1, cursor.getUnit());
+        assertEquals(3, cursor.getType());
+        assertTrue(cursor.next());
+        assertEquals(2000, cursor.getTimestamp());
+        assertEquals(DEVICE + 1, cursor.getDevice());
+        assertEquals(98.6f, cursor.getValue(), 0f);
+        assertFalse(cursor.next());
+        store.close();
+    }
+
+    @Test
+    public void cursorIsSnapshot() throws IOException {
+        ReadingStore store = new ReadingStore(mFolder.getRoot(), 16, 4);
+        store.append(DEVICE, 1000, 36.5f, 1, 0);
+        ReadingStore.Cursor cursor = store.openCursor();
+        store.append(DEVICE, 2000, 36.6f, 1, 0);
+
+        assertEquals(1, count(cursor));
+        assertEquals(2, count(store.openCursor()));
+        store.close();
+    }
+
+    @Test
+    public void rollsOverAndDeletesOldestSegments() throws IOException {
+        ReadingStore store = new ReadingStore(mFolder.getRoot(), 4, 3);
+        for (int i = 0; i < 14; i++) {
+            store.append(DEVICE, i, i, 1, 0);
+        }
+        assertEquals(3, store.getSegmentCount());
+        assertEquals(3, mFolder.getRoot().list().length);
+        assertEquals(2, store.getActiveCount());
+
+        // The first segment (readings 0 to 3) was deleted.
+        ReadingStore.Cursor cursor = store.openCursor();
+        for (int i = 4; i < 14; i++) {
+            assertTrue(cursor.next());
+            assertEquals(i, cursor.getTimestamp());
+        }
+        assertFalse(cursor.next());
+        store.close();
+    }
+
+    @Test
+    public void resumesAfterReopen() throws IOException {
+        ReadingStore store = new ReadingStore(mFolder.getRoot(), 4, 8);
+        for (int i = 0; i < 6; i++) {
+            store.append(DEVICE, i, i, 1, 0);
+        }
+        store.close();
+        assertFalse(store.append(DEVICE, 6, 6, 1, 0));
+
+        store = new ReadingStore(mFolder.getRoot(), 4, 8);
+        assertEquals(2, store.getActiveCount());
+        store.append(DEVICE, 6, 6, 1, 0);
+
+        ReadingStore.Cursor cursor = store.openCursor();
+        for (int i = 0; i < 7; i++) {
+            assertTrue(cursor.next());
+            assertEquals(i, cursor.getTimestamp());
+        }
+        assertFalse(cursor.next());
+        store.close();
+    }
+
+    @Test
+    public void recoversFromTornRecord() throws IOException {
+        ReadingStore store = new ReadingStore(mFolder.getRoot(), 16, 4);
+        for (int i = 0; i < 3; i++) {
+            store.append(DEVICE, i, i, 1, 0);
+        }
+        store.close();
+
+        // Corrupts the value of the last reading, as if the process died while writing it.
+        File segment = mFolder.getRoot().listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(ReadingStore.HEADER_SIZE + 2 * ReadingStore.RECORD_SIZE + 14);
+        raf.writeFloat(42f);
+        raf.close();
+
+        store = new ReadingStore(mFolder.getRoot(), 16, 4);
+        assertEquals(2, store.getActiveCount());
+        store.append(DEVICE, 10, 10, 1, 0);
+        ReadingStore.Cursor cursor = store.openCursor();
+        assertTrue(cursor.next());
+        assertTrue(cursor.next());
+        assertTrue(cursor.next());
+        assertEquals(10, cursor.getTimestamp());
+        assertFalse(cursor.next());
+        store.close();
+    }
+
+    @Test
+    public void recoversFromSegmentWithoutHeader() throws IOException {
+        ReadingStore store = new ReadingStore(mFolder.getRoot(), 4, 8);
+        for (int i = 0; i < 5; i++) {
+            store.append(DEVICE, i, i, 1, 0);
+        }
+        store.close();
+
+        File[] files = mFolder.getRoot().listFiles();
+        File active = files[0].getName().compareTo(files[1].getName()) > 0 ? files[0] : files[1];
+        RandomAccessFile raf = new RandomAccessFile(active, "rw");
+        raf.writeInt(0);
+        raf.close();
+
+        store = new ReadingStore(mFolder.getRoot(), 4, 8);
+        assertEquals(0, store.getActiveCount());
+        assertEquals(4, count(store.openCursor()));
+        store.close();
+    }
+
+    @Test
+    public void packsAddresses() {
+        assertEquals(DEVICE, ReadingStore.parseAddress("00:11:22:AA:BB:CC"));
+        assertEquals(DEVICE, ReadingStore.parseAddress("00:11:22:aa:bb:cc"));
+        assertEquals("00:11:22:AA:BB:CC", ReadingStore.formatAddress(DEVICE));
+        assertEquals("FF:FF:FF:FF:FF:FF", ReadingStore.formatAddress(0xFFFFFFFFFFFFL));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedAddress() {
+        ReadingStore.parseAddress("00-11-22-AA-BB-CC");
+    }
+
+    private static int count(ReadingStore.Cursor cursor) throws IOException {
+        int count = 0;
+        while (cursor.next()) {
+            count++;
+        }
+        return count;
+    }
+}
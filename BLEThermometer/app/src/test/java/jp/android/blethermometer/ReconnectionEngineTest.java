@@ -0,0 +1,222 @@
+package jp.android.blethermometer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectionEngineTest {
+    private static final long INITIAL_DELAY = 1000;
+    private static final long MAX_DELAY = 8000;
+    private static final long DIRECT_TIMEOUT = 5000;
+
+    private FakeScheduler mScheduler;
+    private ReconnectionEngine mEngine;
+    // Attempts made, true for background connections.
+    private final List<Boolean> mAttempts = new ArrayList<Boolean>();
+    private int mCancelCount;
+    private boolean mAccept = true;
+    private boolean mSlotFree = true;
+    private final FixedRandom mRandom = new FixedRandom();
+
+    private final ReconnectionEngine.Target mTarget = new ReconnectionEngine.Target() {
+        @Override
+        public boolean canAttempt() {
+            return mSlotFree;
+        }
+
+        @Override
+        public boolean connect(boolean autoConnect) {
+            mAttempts.add(autoConnect);
+            return mAccept;
+        }
+
+        @Override
+        public void cancel() {
+            mCancelCount++;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mEngine = new ReconnectionEngine(mTarget, mScheduler, mRandom)
+                .setBackoff(INITIAL_DELAY, MAX_DELAY)
+                .setDirectAttempts(2, DIRECT_TIMEOUT);
+    }
+
+    @Test
+    public void reconnectsImmediately() {
+        mEngine.onDisconnected(8);
+        assertEquals(Arrays.asList(false), mAttempts);
+        assertTrue(mEngine.isReconnecting());
+
+        mScheduler.advance(300);
+        mEngine.onConnected();
+        assertFalse(mEngine.isReconnecting());
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(1, mEngine.getReconnectCount());
+        assertEquals(300, mEngine.getLastReconnectTime());
+    }
+
+    @Test
+    public void fallsBackToBackgroundConnections() {
+        mEngine.onDisconnected(8);
+        mEngine.onDisconnected(ReconnectionEngine.STATUS_GATT_ERROR);
+        mScheduler.advance(INITIAL_DELAY);
+        assertEquals(Arrays.asList(false, false), mAttempts);
+
+        mEngine.onDisconnected(ReconnectionEngine.STATUS_GATT_ERROR);
+        mScheduler.advance(INITIAL_DELAY * 2);
+        assertEquals(Arrays.asList(false, false, true), mAttempts);
+        assertEquals(2, mEngine.getGattErrorCount());
+
+        // Background connections do not time out.
+        mScheduler.advance(DIRECT_TIMEOUT * 10);
+        assertEquals(3, mAttempts.size());
+        assertEquals(0, mCancelCount);
+    }
+
+    @Test
+    public void cancelsDirectAttemptAfterTimeout() {
+        mEngine.onDisconnected(8);
+        mScheduler.advance(DIRECT_TIMEOUT);
+        assertEquals(1, mCancelCount);
+        assertEquals(1, mEngine.getTimeoutCount());
+
+        mScheduler.advance(INITIAL_DELAY);
+        assertEquals(Arrays.asList(false, false), mAttempts);
+    }
+
+    @Test
+    public void backsOffExponentiallyUpToMaximum() {
+        assertEquals(1000, mEngine.getDelay(1));
+        assertEquals(2000, mEngine.getDelay(2));
+        assertEquals(4000, mEngine.getDelay(3));
+        assertEquals(8000, mEngine.getDelay(4));
+        assertEquals(8000, mEngine.getDelay(100));
+    }
+
+    @Test
+    public void jitterKeepsAtLeastHalfTheDelay() {
+        mRandom.mValue = 0.0;
+        assertEquals(2000, mEngine.getDelay(3));
+        mRandom.mValue = 0.5;
+        assertEquals(3000, mEngine.getDelay(3));
+    }
+
+    @Test
+    public void retriesAttemptWhichCouldNotBeInitiated() {
+        mAccept = false;
+        mEngine.onDisconnected(8);
+        assertEquals(1, mScheduler.getPendingCount());
+
+        mAccept = true;
+        mScheduler.advance(INITIAL_DELAY);
+        assertEquals(Arrays.asList(false, false), mAttempts);
+    }
+
+    @Test
+    public void deferredAttemptStaysDirect() {
+        mSlotFree = false;
+        mEngine.onDisconnected(8);
+        mScheduler.advance(ReconnectionEngine.DEFERRAL_DELAY);
+        mScheduler.advance(ReconnectionEngine.DEFERRAL_DELAY);
+        assertTrue(mAttempts.isEmpty());
+        assertEquals(0, mEngine.getAttempt());
+        assertEquals(0, mEngine.getAttemptCount());
+        assertEquals(3, mEngine.getDeferredCount());
+
+        mSlotFree = true;
+        mScheduler.advance(ReconnectionEngine.DEFERRAL_DELAY);
+        assertEquals(Arrays.asList(false), mAttempts);
+        assertEquals(1, mEngine.getAttempt());
+    }
+
+    @Test
+    public void backgroundAttemptsAreNotDeferred() {
+        mEngine.setDirectAttempts(0, DIRECT_TIMEOUT);
+        mSlotFree = false;
+        mEngine.onDisconnected(8);
+        assertEquals(Arrays.asList(true), mAttempts);
+        assertEquals(0, mEngine.getDeferredCount());
+    }
+
+    @Test
+    public void ignoresDisconnectionWhileWaiting() {
+        mEngine.onDisconnected(8);
+        mEngine.onDisconnected(8);
+        mEngine.onDisconnected(8);
+        assertEquals(1, mAttempts.size());
+        assertEquals(1, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void stopCancelsPendingAttempts() {
+        mEngine.onDisconnected(8);
+        mEngine.onDisconnected(8);
+        mEngine.stop();
+        assertEquals(0, mScheduler.getPendingCount());
+        assertFalse(mEngine.isReconnecting());
+
+        mScheduler.advance(MAX_DELAY);
+        assertEquals(1, mAttempts.size());
+    }
+
+    @Test
+    public void measuresTimeToReconnect() {
+        mEngine.onDisconnected(8);
+        mScheduler.advance(1000);
+        mEngine.onConnected();
+
+        mEngine.onDisconnected(8);
+        mEngine.onDisconnected(8);
+        mScheduler.advance(INITIAL_DELAY + 2000);
+        assertEquals(3000, mEngine.getDisconnectedTime());
+        mEngine.onConnected();
+
+        assertEquals(2, mEngine.getReconnectCount());
+        assertEquals(3000, mEngine.getLastReconnectTime());
+        assertEquals(3000, mEngine.getMaxReconnectTime());
+        assertEquals(2000, mEngine.getAverageReconnectTime());
+        assertEquals(3, mEngine.getAttemptCount());
+        assertEquals(0, mEngine.getDisconnectedTime());
+    }
+
+    @Test
+    public void startsOverAfterReconnection() {
+        mEngine.onDisconnected(8);
+        mEngine.onDisconnected(8);
+        mScheduler.advance(INITIAL_DELAY);
+        mEngine.onConnected();
+
+        mAttempts.clear();
+        mEngine.onDisconnected(8);
+        assertEquals(Arrays.asList(false), mAttempts);
+        assertEquals(1, mEngine.getAttempt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaxDelayBelowInitialDelay() {
+        mEngine.setBackoff(2000, 1000);
+    }
+
+    // Draws the jitter set by the test.
+    private static class FixedRandom extends Random {
+        private static final long serialVersionUID = 1L;
+
+        double mValue = 1.0;
+
+        @Override
+        public double nextDouble() {
+            return mValue;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package jp.android.blethermometer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Measures feeding samples into the rolling statistics of many devices, and compares the cost of
+ * a query with recomputing it over the raw samples of the last minute.
+ *
+ * <p>Samples arrive round robin from every device at the given rate per device, on a simulated
+ * clock.  Allocation is measured on the benchmark thread.
+ *
+ * <p>Run as a plain Java program with the unit test classpath.
+ */
+public class RollingWindowBenchmark {
+    private static final int DEVICES = 20;
+    private static final int SAMPLES_PER_SECOND = 100; // Per device
+    private static final int WARMUP_SAMPLES = 2000000;
+    private static final int SAMPLES = 20000000;
+    private static final int QUERIES = 100000;
+
+    private static volatile float sSink;
+
+    public static void main(String[] args) {
+        RollingStats[] stats = new RollingStats[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            stats[i] = new RollingStats(30f, 45f, 150);
+        }
+        float[] values = new float[4096];
+        Random random = new Random(1);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 36f + (float) random.nextGaussian() * 0.5f;
+        }
+
+        feed(stats, values, WARMUP_SAMPLES, 0);
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long time = feed(stats, values, SAMPLES, WARMUP_SAMPLES);
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.printf("add        %,14.0f samples/s %10.1f bytes/sample (%d devices, %,d s simulated)%n",
+                SAMPLES * 1e9 / elapsed, (double) allocated / SAMPLES, DEVICES, time / 1000);
+
+        RollingWindow window = stats[0].getLastMinute();
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            sSink = window.getMin() + window.getMax() + window.getMean()
+                    + window.getStandardDeviation() + window.getPercentile(95);
+        }
+        elapsed = System.nanoTime() - start;
+        System.out.printf("query      %,14.0f ns/query (%,d samples in the window)%n",
+                (double) elapsed / QUERIES, window.getCount());
+
+        // Baseline: a rescan of the raw samples of the last minute, without even sorting them for
+        // the percentile.
+        int windowSamples = SAMPLES_PER_SECOND * 60;
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES / 100; i++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            double sum = 0;
+            double sumSquares = 0;
+            for (int j = 0; j < windowSamples; j++) {
+                float v = values[j & (values.length - 1)];
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                sum += v;
+                sumSquares += v * v;
+            }
+            sSink = (float) (min + max + sum + sumSquares);
+        }
+        elapsed = System.nanoTime() - start;
+        System.out.printf("rescan     %,14.0f ns/query (%,d samples in the window)%n",
+                (double) elapsed / (QUERIES / 100), windowSamples);
+    }
+
+    // Returns the simulated time in milliseconds after the last sample.
+    private static long feed(RollingStats[] stats, float[] values, int samples, int first) {
+        long time = 0;
+        for (int i = first; i < first + samples; i++) {
+            time = (long) i * 1000 / (SAMPLES_PER_SECOND * DEVICES);
+            stats[i % DEVICES].add(time, values[i & (values.length - 1)]);
+        }
+        return time;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,146 @@
+package jp.android.blethermometer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RollingWindowTest {
+    // 10 seconds in panes of 1 second, 0.1 bins between 30 and 45.
+    private final RollingWindow mWindow = new RollingWindow(10000, 10, 30f, 45f, 150);
+
+    @Test
+    public void emptyWindow() {
+        assertEquals(0, mWindow.getCount());
+        assertTrue(Float.isNaN(mWindow.getMin()));
+        assertTrue(Float.isNaN(mWindow.getMax()));
+        assertTrue(Float.isNaN(mWindow.getMean()));
+        assertTrue(Float.isNaN(mWindow.getStandardDeviation()));
+        assertTrue(Float.isNaN(mWindow.getPercentile(50)));
+    }
+
+    @Test
+    public void computesStatistics() {
+        mWindow.add(0, 36f);
+        mWindow.add(1000, 37f);
+        mWindow.add(2000, 38f);
+        mWindow.add(2500, 39f);
+
+        assertEquals(4, mWindow.getCount());
+        assertEquals(36f, mWindow.getMin(), 0f);
+        assertEquals(39f, mWindow.getMax(), 0f);
+        assertEquals(37.5f, mWindow.getMean(), 0.0001f);
+        assertEquals((float) Math.sqrt(1.25), mWindow.getStandardDeviation(), 0.0001f);
+    }
+
+    @Test
+    public void ignoresNaN() {
+        mWindow.add(0, Float.NaN);
+        assertEquals(0, mWindow.getCount());
+    }
+
+    @Test
+    public void expiresPanes() {
+        mWindow.add(0, 40f);
+        mWindow.add(5000, 36f);
+
+        mWindow.advance(9999);
+        assertEquals(2, mWindow.getCount());
+        mWindow.advance(10000);
+        assertEquals(1, mWindow.getCount());
+        assertEquals(36f, mWindow.getMax(), 0f);
+        mWindow.advance(15000);
+        assertEquals(0, mWindow.getCount());
+        assertTrue(Float.isNaN(mWindow.getMax()));
+    }
+
+    @Test
+    public void resetsAfterLongGap() {
+        mWindow.add(0, 40f);
+        mWindow.add(100000, 36f);
+
+        assertEquals(1, mWindow.getCount());
+        assertEquals(36f, mWindow.getMin(), 0f);
+        assertEquals(36f, mWindow.getMax(), 0f);
+        assertEquals(36f, mWindow.getMean(), 0f);
+    }
+
+    @Test
+    public void countsLateSampleInCurrentPane() {
+        mWindow.add(5000, 36f);
+        mWindow.add(1000, 37f);
+
+        mWindow.advance(14999);
+        assertEquals(2, mWindow.getCount());
+        mWindow.advance(15000);
+        assertEquals(0, mWindow.getCount());
+    }
+
+    @Test
+    public void estimatesPercentiles() {
+        for (int i = 0; i < 100; i++) {
+            mWindow.add(i * 10, 36f + i * 0.02f);
+        }
+
+        assertEquals(36.0f, mWindow.getPercentile(0), 0.1f);
+        assertEquals(37.0f, mWindow.getPercentile(50), 0.1f);
+        assertEquals(37.8f, mWindow.getPercentile(90), 0.1f);
+        assertEquals(37.98f, mWindow.getPercentile(100), 0.1f);
+    }
+
+    @Test
+    public void clampsPercentilesToObservedRange() {
+        mWindow.add(0, 10f);
+        mWindow.add(0, 50f);
+
+        assertEquals(10f, mWindow.getPercentile(0), 0f);
+        assertEquals(50f, mWindow.getPercentile(100), 0f);
+    }
+
+    @Test
+    public void matchesRecomputation() {
+        Random random = new Random(42);
+        List<long[]> samples = new ArrayList<long[]>();
+        long time = 0;
+        for (int i = 0; i < 5000; i++) {
+            time += random.nextInt(random.nextInt(10) == 0 ? 4000 : 300);
+            float value = 30f + random.nextInt(150) / 10f;
+            mWindow.add(time, value);
+            samples.add(new long[] {time, Float.floatToIntBits(value)});
+
+            // The window holds the samples of the current pane and the 9 panes before it.
+            long oldestPane = time / 1000 - 9;
+            int count = 0;
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            double sum = 0;
+            for (long[] sample : samples) {
+                if (sample[0] / 1000 >= oldestPane) {
+                    float v = Float.intBitsToFloat((int) sample[1]);
+                    count++;
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                    sum += v;
+                }
+            }
+            assertEquals(count, mWindow.getCount());
+            assertEquals(min, mWindow.getMin(), 0f);
+            assertEquals(max, mWindow.getMax(), 0f);
+            assertEquals(sum / count, mWindow.getMean(), 0.001f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnevenPanes() {
+        new RollingWindow(1000, 7, 30f, 45f, 150);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPercentile() {
+        mWindow.getPercentile(101);
+    }
+}
@@ -0,0 +1,145 @@
+package jp.android.blethermometer;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanSessionTest {
+    private static final byte[] THERMOMETER_RECORD = {0x02, 0x01, 0x06, 0x03, 0x03, 0x09, 0x18};
+    private static final byte[] HEART_RATE_RECORD = {0x02, 0x01, 0x06, 0x03, 0x03, 0x0D, 0x18};
+
+    private FakeScheduler mScheduler;
+    private FakeLeScanner mScanner;
+    private ScanSession mSession;
+    private int mStoppedCount;
+    private final List<Integer> mFailures = new ArrayList<Integer>();
+    private final List<Integer> mResults = new ArrayList<Integer>();
+
+    private final ScanSession.Listener mListener = new ScanSession.Listener() {
+        @Override
+        public void onScanStopped() {
+            mStoppedCount++;
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            mFailures.add(errorCode);
+        }
+    };
+
+    private final BluetoothAdapter.LeScanCallback mCallback = new BluetoothAdapter.LeScanCallback() {
+        @Override
+        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+            mResults.add(rssi);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mScanner = new FakeLeScanner(mScheduler);
+        mSession = new ScanSession(mScanner, mScheduler, mListener);
+    }
+
+    @Test
+    public void stopsAfterPeriod() {
+        assertTrue(mSession.start(new ScanOptions(), mCallback, 10000));
+        assertTrue(mSession.isScanning());
+        assertTrue(mScanner.isScanning());
+
+        mScheduler.advance(9999);
+        assertTrue(mSession.isScanning());
+        mScheduler.advance(1);
+        assertFalse(mSession.isScanning());
+        assertFalse(mScanner.isScanning());
+        assertEquals(1, mStoppedCount);
+    }
+
+    @Test
+    public void stoppedScanIsNotCutShortByPreviousPeriod() {
+        mSession.start(new ScanOptions(), mCallback, 10000);
+        mScheduler.advance(5000);
+        mSession.stop();
+        mSession.start(new ScanOptions(), mCallback, 10000);
+
+        mScheduler.advance(9000);
+        assertTrue(mSession.isScanning());
+        assertEquals(1, mStoppedCount);
+    }
+
+    @Test
+    public void reportsFailure() {
+        assertTrue(mSession.start(new ScanOptions(), mCallback, 10000));
+        mScanner.fail(2);
+        assertFalse(mSession.isScanning());
+        assertEquals(Arrays.asList(2), mFailures);
+
+        // The period of the failed scan neither stops nor cuts short the next one.
+        assertTrue(mSession.start(new ScanOptions(), mCallback, 10000));
+        mScheduler.advance(9999);
+        assertTrue(mSession.isScanning());
+        assertEquals(0, mStoppedCount);
+    }
+
+    @Test
+    public void rejectsSecondStart() {
+        assertTrue(mSession.start(new ScanOptions(), mCallback, 10000));
+        assertFalse(mSession.start(new ScanOptions(), mCallback, 10000));
+        assertEquals(1, mScanner.getStartCount());
+    }
+
+    @Test
+    public void reportsUnavailableScanner() {
+        mScanner.setAvailable(false);
+
+        assertFalse(mSession.start(new ScanOptions(), mCallback, 10000));
+        assertFalse(mSession.isScanning());
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void filtersOnServiceUuid() {
+        mSession.start(new ScanOptions().addServiceUuid(GattAttributes.HEALTH_THERMOMETER_SERVICE),
+                mCallback, 10000);
+
+        mScanner.advertise("00:00:00:00:00:01", null, -50, THERMOMETER_RECORD);
+        mScanner.advertise("00:00:00:00:00:02", null, -60, HEART_RATE_RECORD);
+        assertEquals(1, mResults.size());
+        assertEquals(-50, (int) mResults.get(0));
+    }
+
+    @Test
+    public void deliversBatches() {
+        mSession.start(new ScanOptions().setReportDelay(1000), mCallback, 10000);
+
+        for (int i = 0; i < 10; i++) {
+            mScanner.advertise("00:00:00:00:00:01", null, -50 - i, THERMOMETER_RECORD);
+            mScheduler.advance(50);
+        }
+        assertTrue(mResults.isEmpty());
+        mScheduler.advance(500);
+        assertEquals(10, mResults.size());
+        assertEquals(1, mScanner.getDeliveryCount());
+    }
+
+    @Test
+    public void flushesBatchBeforeStopping() {
+        mSession.start(new ScanOptions().setReportDelay(1000), mCallback, 10000);
+        mScheduler.advance(9500);
+        mScanner.advertise("00:00:00:00:00:01", null, -50, THERMOMETER_RECORD);
+
+        mScheduler.advance(500);
+        assertEquals(1, mResults.size());
+        assertFalse(mSession.isScanning());
+    }
+}
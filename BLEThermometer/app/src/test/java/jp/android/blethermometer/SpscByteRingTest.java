@@ -0,0 +1,233 @@
+package jp.android.blethermometer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SpscByteRingTest {
+    private final List<byte[]> mValues = new ArrayList<byte[]>();
+    private final List<Object> mTags = new ArrayList<Object>();
+
+    private final SpscByteRing.Consumer mConsumer = new SpscByteRing.Consumer() {
+        @Override
+        public void onValue(Object tag, byte[] value, int offset, int length) {
+            mTags.add(tag);
+            mValues.add(Arrays.copyOfRange(value, offset, offset + length));
+        }
+    };
+
+    @Test
+    public void deliversInOrderAcrossWrapAround() {
+        SpscByteRing ring = new SpscByteRing(4, 8);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ring.offer(i, new byte[] {0, (byte) i, 0}, 1, 1));
+            assertTrue(ring.poll(mConsumer));
+        }
+        assertFalse(ring.poll(mConsumer));
+
+        assertEquals(10, mValues.size());
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(new byte[] {(byte) i}, mValues.get(i));
+            assertEquals(i, mTags.get(i));
+        }
+        assertEquals(10, ring.getOfferedCount());
+        assertEquals(1, ring.getHighWaterMark());
+    }
+
+    @Test
+    public void dropsWhenFull() {
+        SpscByteRing ring = new SpscByteRing(4, 8);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(null, new byte[] {(byte) i}, 0, 1));
+        }
+        assertFalse(ring.offer(null, new byte[] {4}, 0, 1));
+        assertEquals(4, ring.getSize());
+        assertEquals(1, ring.getFullCount());
+
+        assertTrue(ring.poll(mConsumer));
+        assertTrue(ring.offer(null, new byte[] {5}, 0, 1));
+        while (ring.poll(mConsumer)) {
+            // Drains.
+        }
+        assertArrayEquals(new byte[] {5}, mValues.get(mValues.size() - 1));
+        assertEquals(4, ring.getHighWaterMark());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void dropsOversizeValues() {
+        SpscByteRing ring = new SpscByteRing(4, 2);
+        assertFalse(ring.offer(null, new byte[3], 0, 3));
+        assertEquals(1, ring.getOversizeCount());
+        assertEquals(0, ring.getSize());
+    }
+
+    @Test
+    public void releasesTags() {
+        SpscByteRing ring = new SpscByteRing(2, 1);
+        Object tag = new Object();
+        ring.offer(tag, new byte[1], 0, 1);
+        ring.poll(mConsumer);
+
+        assertSame(tag, mTags.get(0));
+    }
+
+    @Test
+    public void dropsOldestBeyondLimit() {
+        SpscByteRing ring = new SpscByteRing(8, 1);
+        ring.setPolicy(BackpressurePolicy.dropOldest(2));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(ring.offer(i, new byte[] {(byte) i}, 0, 1));
+        }
+        while (ring.poll(mConsumer)) {
+            // Drains.
+        }
+
+        assertEquals(Arrays.<Object>asList(3, 4), mTags);
+        assertEquals(3, ring.getDroppedOldestCount());
+        assertEquals(3, ring.getDroppedCount());
+        assertEquals(0, ring.getFullCount());
+    }
+
+    @Test
+    public void keepsLatest() {
+        SpscByteRing ring = new SpscByteRing(4, 1);
+        ring.setPolicy(BackpressurePolicy.keepLatest());
+        for (int i = 0; i < 3; i++) {
+            ring.offer(i, new byte[] {(byte) i}, 0, 1);
+        }
+        assertTrue(ring.poll(mConsumer));
+        assertFalse(ring.poll(mConsumer));
+
+        assertArrayEquals(new byte[] {2}, mValues.get(0));
+        assertEquals(2, ring.getDroppedOldestCount());
+    }
+
+    @Test
+    public void dropsNewestWhenFullUnderDropOldest() {
+        SpscByteRing ring = new SpscByteRing(2, 1);
+        ring.setPolicy(BackpressurePolicy.keepLatest());
+        assertTrue(ring.offer(null, new byte[1], 0, 1));
+        assertTrue(ring.offer(null, new byte[1], 0, 1));
+        assertFalse(ring.offer(null, new byte[1], 0, 1));
+        assertEquals(1, ring.getFullCount());
+    }
+
+    @Test
+    public void samplesEveryNth() {
+        SpscByteRing ring = new SpscByteRing(8, 1);
+        ring.setPolicy(BackpressurePolicy.sample(3));
+        for (int i = 0; i < 7; i++) {
+            ring.offer(i, new byte[] {(byte) i}, 0, 1);
+        }
+        while (ring.poll(mConsumer)) {
+            // Drains.
+        }
+
+        assertEquals(Arrays.<Object>asList(0, 3, 6), mTags);
+        assertEquals(4, ring.getSampledOutCount());
+    }
+
+    @Test
+    public void blocksUntilTimeout() {
+        SpscByteRing ring = new SpscByteRing(1, 1);
+        ring.setPolicy(BackpressurePolicy.block(5));
+        assertTrue(ring.offer(null, new byte[1], 0, 1));
+        assertFalse(ring.offer(null, new byte[1], 0, 1));
+
+        assertEquals(1, ring.getBlockedCount());
+        assertEquals(1, ring.getFullCount());
+    }
+
+    @Test
+    public void blocksUntilConsumed() throws InterruptedException {
+        final SpscByteRing ring = new SpscByteRing(1, 1);
+        ring.setPolicy(BackpressurePolicy.block(10000));
+        assertTrue(ring.offer(0, new byte[1], 0, 1));
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ring.poll(mConsumer);
+            }
+        });
+        consumer.start();
+        assertTrue(ring.offer(1, new byte[1], 0, 1));
+        consumer.join();
+
+        assertEquals(1, ring.getBlockedCount());
+        assertEquals(0, ring.getFullCount());
+        assertEquals(1, ring.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLimitNotBelowCapacity() {
+        new SpscByteRing(4, 1).setPolicy(BackpressurePolicy.dropOldest(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSampleOfZero() {
+        BackpressurePolicy.sample(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityNotPowerOfTwo() {
+        new SpscByteRing(6, 8);
+    }
+
+    @Test
+    public void transfersBetweenThreads() throws InterruptedException {
+        final SpscByteRing ring = new SpscByteRing(16, 4);
+        final int count = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] value = new byte[4];
+                for (int i = 0; i < count; ) {
+                    value[0] = (byte) (i >> 24);
+                    value[1] = (byte) (i >> 16);
+                    value[2] = (byte) (i >> 8);
+                    value[3] = (byte) i;
+                    if (ring.offer(null, value, 0, 4)) {
+                        i++;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        final int[] expected = {0};
+        final boolean[] inOrder = {true};
+        SpscByteRing.Consumer consumer = new SpscByteRing.Consumer() {
+            @Override
+            public void onValue(Object tag, byte[] value, int offset, int length) {
+                int received = (value[0] & 0xFF) << 24 | (value[1] & 0xFF) << 16
+                        | (value[2] & 0xFF) << 8 | value[3] & 0xFF;
+                inOrder[0] &= received == expected[0]++;
+            }
+        };
+        producer.start();
+        while (expected[0] < count) {
+            if (!ring.poll(consumer)) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+
+        assertTrue(inOrder[0]);
+        assertEquals(count, ring.getOfferedCount());
+        assertTrue(ring.getHighWaterMark() <= ring.getCapacity());
+    }
+}
@@ -0,0 +1,291 @@
+package jp.android.blethermometer;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Simulated GATT server serving one measurement characteristic to a {@link GattOperationQueue}.
+ *
+ * <p>Reads, writes, Client Characteristic Configuration writes and MTU requests complete after
+ * the configured latency.  Once notifications or indications are enabled, values of the generator
+ * are sent at the configured interval until they are disabled or the link is lost.  Errors are
+ * injected into the completions, either at a rate or for the next operations, and the link can be
+ * dropped at any time.  Not thread-safe; driven by the scheduler of the test.
+ */
+class VirtualPeripheral implements GattOperationQueue.Target {
+    interface Listener {
+        /**
+         * A notification or indication.  The value is reused for the next one.
+         */
+        void onCharacteristicChanged(VirtualPeripheral peripheral, UUID characteristicUuid,
+                                     byte[] value);
+
+        void onDisconnected(VirtualPeripheral peripheral, int status);
+    }
+
+    interface ValueGenerator {
+        /**
+         * @param sequence Number of values generated before.
+         * @return The value, which may be reused for the next call.
+         */
+        byte[] next(int sequence);
+    }
+
+    // Connection Timeout, the usual status of a link lost out of range.
+    static final int STATUS_CONNECTION_TIMEOUT = 8;
+
+    private final String mAddress;
+    private final UUID mServiceUuid;
+    private final UUID mCharacteristicUuid;
+    private final ValueGenerator mGenerator;
+    private final Scheduler mScheduler;
+    private final Random mRandom;
+    private final Listener mListener;
+
+    private long mLatency;
+    private long mNotificationInterval = 1000;
+    private double mErrorRate;
+    private int mErrorStatus;
+    private int mFailCount;
+    private int mFailStatus;
+
+    private GattOperationQueue mQueue;
+    private GattOperation mPending;
+    private int mMtu = AttMtu.DEFAULT_MTU;
+    private final byte[] mConfiguration = new byte[2];
+    private byte[] mWrittenValue;
+    private int mSequence;
+
+    private long mOperationCount;
+    private long mErrorCount;
+    private long mNotificationCount;
+
+    private final Runnable mResponseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            respond();
+        }
+    };
+
+    private final Runnable mNotificationRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!isNotifying()) {
+                return;
+            }
+            mNotificationCount++;
+            mListener.onCharacteristicChanged(VirtualPeripheral.this, mCharacteristicUuid,
+                    mGenerator.next(mSequence++));
+            // The listener may have dropped the link.
+            if (isNotifying()) {
+                mScheduler.postDelayed(this, mNotificationInterval);
+            }
+        }
+    };
+
+    public VirtualPeripheral(String address, UUID serviceUuid, UUID characteristicUuid,
+                             ValueGenerator generator, Scheduler scheduler, Random random,
+                             Listener listener) {
+        mAddress = address;
+        mServiceUuid = serviceUuid;
+        mCharacteristicUuid = characteristicUuid;
+        mGenerator = generator;
+        mScheduler = scheduler;
+        mRandom = random;
+        mListener = listener;
+    }
+
+    /**
+     * @param latency Time in milliseconds from the dispatch of an operation to its completion.
+     */
+    public VirtualPeripheral setLatency(long latency) {
+        mLatency = latency;
+        return this;
+    }
+
+    /**
+     * Takes effect from the next notification.
+     */
+    public VirtualPeripheral setNotificationInterval(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        mNotificationInterval = interval;
+        return this;
+    }
+
+    /**
+     * Fails a random share of the operations with the given status, e.g. 133.
+     */
+    public VirtualPeripheral setErrorRate(double rate, int status) {
+        mErrorRate = rate;
+        mErrorStatus = status;
+        return this;
+    }
+
+    /**
+     * Fails the next operations with the given status.
+     */
+    public VirtualPeripheral failNext(int count, int status) {
+        mFailCount = count;
+        mFailStatus = status;
+        return this;
+    }
+
+    /**
+     * Establishes the link.  The completions of the operations are reported to the queue.
+     */
+    public void connect(GattOperationQueue queue) {
+        if (queue == null) {
+            throw new NullPointerException("queue must not be null");
+        }
+        mQueue = queue;
+    }
+
+    /**
+     * Drops the link, which cancels the pending operations and stops the notifications.
+     */
+    public void disconnect(int status) {
+        GattOperationQueue queue = mQueue;
+        if (queue == null) {
+            return;
+        }
+        mQueue = null;
+        mPending = null;
+        mMtu = AttMtu.DEFAULT_MTU;
+        // Not bonded, so the configuration is not kept across connections.
+        mConfiguration[0] = 0;
+        mConfiguration[1] = 0;
+        mScheduler.removeCallbacks(mResponseRunnable);
+        mScheduler.removeCallbacks(mNotificationRunnable);
+        queue.clear();
+        mListener.onDisconnected(this, status);
+    }
+
+    public boolean isConnected() {
+        return mQueue != null;
+    }
+
+    public boolean isNotifying() {
+        return mQueue != null && (mConfiguration[0] & 0x03) != 0;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public UUID getServiceUuid() {
+        return mServiceUuid;
+    }
+
+    public UUID getCharacteristicUuid() {
+        return mCharacteristicUuid;
+    }
+
+    public int getMtu() {
+        return mMtu;
+    }
+
+    /**
+     * @return The last value written to the characteristic, or null.
+     */
+    public byte[] getWrittenValue() {
+        return mWrittenValue;
+    }
+
+    public long getOperationCount() {
+        return mOperationCount;
+    }
+
+    public long getErrorCount() {
+        return mErrorCount;
+    }
+
+    public long getNotificationCount() {
+        return mNotificationCount;
+    }
+
+    @Override
+    public boolean dispatch(GattOperation operation) {
+        if (mQueue == null || mPending != null) {
+            return false;
+        }
+        if (operation.type != GattOperation.Type.REQUEST_MTU
+                && (!mServiceUuid.equals(operation.serviceUuid)
+                || !mCharacteristicUuid.equals(operation.characteristicUuid))) {
+            return false;
+        }
+        if ((operation.type == GattOperation.Type.READ_DESCRIPTOR
+                || operation.type == GattOperation.Type.WRITE_DESCRIPTOR)
+                && !GattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION.equals(operation.descriptorUuid)) {
+            return false;
+        }
+        mOperationCount++;
+        mPending = operation;
+        mScheduler.postDelayed(mResponseRunnable, mLatency);
+        return true;
+    }
+
+    private void respond() {
+        GattOperation operation = mPending;
+        mPending = null;
+        GattOperationQueue queue = mQueue;
+        int status = nextStatus();
+        boolean success = status == GattOperation.STATUS_SUCCESS;
+        switch (operation.type) {
+            case REQUEST_MTU:
+                if (success) {
+                    mMtu = Math.max(AttMtu.DEFAULT_MTU, Math.min(AttMtu.MAX_MTU, operation.mtu));
+                }
+                queue.onMtuChanged(status);
+                break;
+            case READ_CHARACTERISTIC:
+                queue.onCharacteristicRead(mCharacteristicUuid, status,
+                        success ? mGenerator.next(mSequence++) : null);
+                break;
+            case WRITE_CHARACTERISTIC:
+                if (success) {
+                    mWrittenValue = operation.value;
+                }
+                queue.onCharacteristicWrite(mCharacteristicUuid, status);
+                break;
+            case READ_DESCRIPTOR:
+                queue.onDescriptorRead(mCharacteristicUuid, operation.descriptorUuid, status,
+                        success ? mConfiguration.clone() : null);
+                break;
+            case WRITE_DESCRIPTOR:
+                if (success) {
+                    boolean notifying = isNotifying();
+                    mConfiguration[0] = operation.value.length > 0 ? operation.value[0] : 0;
+                    mConfiguration[1] = operation.value.length > 1 ? operation.value[1] : 0;
+                    if (!notifying && isNotifying()) {
+                        mScheduler.removeCallbacks(mNotificationRunnable);
+                        mScheduler.postDelayed(mNotificationRunnable, mNotificationInterval);
+                    }
+                }
+                queue.onDescriptorWrite(mCharacteristicUuid, operation.descriptorUuid, status);
+                break;
+        }
+    }
+
+    private int nextStatus() {
+        if (mFailCount > 0) {
+            mFailCount--;
+            mErrorCount++;
+            return mFailStatus;
+        }
+        if (mErrorRate > 0 && mRandom.nextDouble() < mErrorRate) {
+            mErrorCount++;
+            return mErrorStatus;
+        }
+        return GattOperation.STATUS_SUCCESS;
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualPeripheral{address=" + mAddress + ", service=" + mServiceUuid
+                + ", connected=" + isConnected() + ", notifying=" + isNotifying()
+                + ", operations=" + mOperationCount + ", errors=" + mErrorCount
+                + ", notifications=" + mNotificationCount + "}";
+    }
+}
@@ -0,0 +1,86 @@
+package jp.android.blethermometer;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Simulated peripheral receiving the writes of a {@link GattOperationQueue}.
+ *
+ * <p>Writes are held until {@link #acknowledge} reports their completion to the queue, and only
+ * count as received from then on.
+ */
+class WriteSink implements GattOperationQueue.Target {
+    private final ByteArrayOutputStream mReceived = new ByteArrayOutputStream();
+    private GattOperationQueue mQueue;
+    private GattOperation mPending;
+    private int mRejectCount;
+    private int mWriteCount;
+    private boolean mRecording = true;
+
+    /**
+     * @param queue Queue dispatching to this sink, for the completions.
+     */
+    public void attach(GattOperationQueue queue) {
+        mQueue = queue;
+        mPending = null;
+    }
+
+    /**
+     * Rejects the next writes, as a stack whose buffers are full.
+     */
+    public void rejectNext(int count) {
+        mRejectCount = count;
+    }
+
+    /**
+     * Drops the received data instead of recording it, for long benchmarks.
+     */
+    public void setRecording(boolean recording) {
+        mRecording = recording;
+    }
+
+    @Override
+    public boolean dispatch(GattOperation operation) {
+        if (mRejectCount > 0) {
+            mRejectCount--;
+            return false;
+        }
+        mPending = operation;
+        return true;
+    }
+
+    public boolean hasPending() {
+        return mPending != null;
+    }
+
+    /**
+     * Completes the pending write, which may dispatch the next one.
+     */
+    public void acknowledge(int status) {
+        GattOperation operation = mPending;
+        mPending = null;
+        if (status == GattOperation.STATUS_SUCCESS) {
+            if (mRecording) {
+                mReceived.write(operation.value, 0, operation.value.length);
+            }
+            mWriteCount++;
+        }
+        mQueue.onCharacteristicWrite(operation.characteristicUuid, status);
+    }
+
+    /**
+     * Acknowledges writes until none is pending.
+     */
+    public void drain() {
+        while (mPending != null) {
+            acknowledge(GattOperation.STATUS_SUCCESS);
+        }
+    }
+
+    public byte[] getReceived() {
+        return mReceived.toByteArray();
+    }
+
+    public int getWriteCount() {
+        return mWriteCount;
+    }
+}
@@ -0,0 +1,80 @@
+package jp.android.blethermometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of Health Thermometer Measurements, alone and through {@link TemperatureReceiver}
+ * into the rolling statistics, as done for every notification.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationParsingBenchmark {
+    // 36.5 degrees Celsius, without optional fields.
+    private final byte[] mMinimal = {0x00, 0x6D, 0x01, 0x00, (byte) 0xFF};
+    // 98.6 degrees Fahrenheit, with time stamp and temperature type.
+    private final byte[] mFull = {
+            0x07, (byte) 0xDA, 0x03, 0x00, (byte) 0xFF,
+            (byte) 0xE0, 0x07, 10, 18, 9, 30, 15,
+            0x03,
+    };
+
+    private final Temperature mTemperature = new Temperature();
+    private float mSink;
+
+    private final Scheduler mScheduler = new Scheduler() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void postDelayed(Runnable r, long delayMillis) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private final TemperatureReceiver mReceiver = new TemperatureReceiver(
+            new RollingStats(30f, 45f, 150), mScheduler, new TemperatureReceiver.Callback() {
+                @Override
+                public void onTemperature(Temperature temperature) {
+                    mSink = temperature.value;
+                }
+            });
+
+    @Benchmark
+    public float minimal() {
+        HealthThermometerDecoder.decode(mMinimal, 0, mMinimal.length, mTemperature);
+        return mTemperature.value;
+    }
+
+    @Benchmark
+    public float full() {
+        HealthThermometerDecoder.decode(mFull, 0, mFull.length, mTemperature);
+        return mTemperature.toCelsius();
+    }
+
+    @Benchmark
+    public float receive() {
+        mReceiver.onMeasurement(mMinimal);
+        return mSink;
+    }
+}
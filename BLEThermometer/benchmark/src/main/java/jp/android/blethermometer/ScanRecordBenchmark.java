@@ -0,0 +1,78 @@
+package jp.android.blethermometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of scan records with {@link AdvertisingData}, as done for every scan result.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScanRecordBenchmark {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    // A full 31 byte advertisement of a thermometer: flags, the Health Thermometer and Device
+    // Information services, TX power and a local name, followed by zero padding.
+    private final byte[] mThermometer = bytes(
+            0x02, 0x01, 0x06,
+            0x05, 0x03, 0x09, 0x18, 0x0A, 0x18,
+            0x02, 0x0A, 0x00,
+            0x0B, 0x09, 'T', 'h', 'e', 'r', 'm', 'o', ' ', '0', '0', '1',
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00);
+    // An advertisement of another device with manufacturer specific data.
+    private final byte[] mOther = bytes(
+            0x02, 0x01, 0x1A,
+            0x1A, 0xFF, 0x4C, 0x00, 0x02, 0x15,
+            0xE2, 0xC5, 0x6D, 0xB5, 0xDF, 0xFB, 0x48, 0xD2, 0xB0, 0x60, 0xD0, 0xF5, 0xA7, 0x10,
+            0x96, 0xE0, 0x00, 0x00, 0x00, 0x00, 0xC5);
+
+    private final AdvertisingData mData = new AdvertisingData();
+    private final ScanOptions mOptions = new ScanOptions()
+            .addServiceUuid(GattAttributes.HEALTH_THERMOMETER_SERVICE);
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+
+    @Benchmark
+    public boolean filterMatching() {
+        return mOptions.matches(ADDRESS, mData.reset(mThermometer));
+    }
+
+    @Benchmark
+    public boolean filterOther() {
+        return mOptions.matches(ADDRESS, mData.reset(mOther));
+    }
+
+    @Benchmark
+    public int walk() {
+        mData.reset(mThermometer);
+        int types = 0;
+        while (mData.next()) {
+            types += mData.getType();
+        }
+        return types;
+    }
+
+    @Benchmark
+    public String localName() {
+        return mData.reset(mThermometer).getLocalName();
+    }
+}
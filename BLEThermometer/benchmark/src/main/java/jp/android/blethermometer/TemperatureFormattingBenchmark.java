@@ -0,0 +1,49 @@
+package jp.android.blethermometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of the displayed temperature, once per frame with new values.  {@code appendFixed}
+ * writes into a reused buffer; {@code stringFormat} is the previous implementation, kept as the
+ * baseline.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TemperatureFormattingBenchmark {
+    private static final String UNIT = "°C";
+
+    private final char[] mBuffer = new char[NumberFormatter.MAX_FIXED_LENGTH + UNIT.length()];
+    private float mValue = 36.5f;
+
+    // Changes the value on every call so that nothing is constant folded.
+    private float nextValue() {
+        mValue = mValue < 42f ? mValue + 0.1f : 35f;
+        return mValue;
+    }
+
+    @Benchmark
+    public int appendFixed() {
+        int length = NumberFormatter.appendFixed(nextValue(), 1, mBuffer, 0);
+        UNIT.getChars(0, UNIT.length(), mBuffer, length);
+        return length + UNIT.length();
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        return String.format("%3.1f", nextValue()) + UNIT;
+    }
+}
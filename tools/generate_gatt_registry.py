@@ -0,0 +1,126 @@
+#!/usr/bin/env python3
+"""Generates the GattRegistry classes of both apps from gatt_assigned_numbers.tsv.
+
+Usage: tools/generate_gatt_registry.py
+
+Run from anywhere; paths are resolved relative to the repository.  Commit the generated files
+together with the data file.
+"""
+
+import os
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+DATA = os.path.join(ROOT, "tools", "gatt_assigned_numbers.tsv")
+
+# (source root, package, class modifier)
+TARGETS = [
+    ("BLETest/app/src/main/java", "jp.android.bletest.service", "public "),
+    ("BLEThermometer/app/src/main/java", "jp.android.blethermometer", ""),
+]
+
+TEMPLATE = """\
+// Generated by tools/generate_gatt_registry.py from tools/gatt_assigned_numbers.tsv.  Do not edit.
+package {package};
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Names of the GATT services, declarations, descriptors and characteristics with a 16-bit UUID
+ * assigned by the Bluetooth SIG.
+ *
+ * <p>The UUIDs are kept as a sorted {{@code char}} table searched by bisection, with the names in
+ * a parallel array, so that lookups neither parse strings nor box.
+ */
+{modifier}class GattRegistry {{
+    // Bluetooth Base UUID 00000000-0000-1000-8000-00805F9B34FB.
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private static final char[] UUIDS = {{
+{uuids}
+    }};
+
+    private static final String[] NAMES = {{
+{names}
+    }};
+
+    private GattRegistry() {{
+    }}
+
+    /**
+     * @return The 16-bit UUID, or -1 if the UUID is not derived from the Bluetooth Base UUID or
+     *         does not fit in 16 bits.
+     */
+    public static int toUuid16(UUID uuid) {{
+        long msb = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() != BASE_UUID_LSB
+                || (msb & 0xFFFF0000FFFFFFFFL) != BASE_UUID_MSB) {{
+            return -1;
+        }}
+        return (int) (msb >>> 32);
+    }}
+
+    /**
+     * @return The name, or null if the UUID is not assigned.
+     */
+    public static String lookup(UUID uuid) {{
+        int uuid16 = toUuid16(uuid);
+        return uuid16 < 0 ? null : lookup(uuid16);
+    }}
+
+    /**
+     * @return The name, or null if the UUID is not assigned.
+     */
+    public static String lookup(int uuid16) {{
+        if (uuid16 < 0 || uuid16 > 0xFFFF) {{
+            return null;
+        }}
+        int index = Arrays.binarySearch(UUIDS, (char) uuid16);
+        return index < 0 ? null : NAMES[index];
+    }}
+
+    /**
+     * @return The number of assigned UUIDs in the registry.
+     */
+    public static int size() {{
+        return UUIDS.length;
+    }}
+}}
+"""
+
+
+def read_entries():
+    entries = {}
+    with open(DATA, encoding="utf-8") as f:
+        for line_number, line in enumerate(f, 1):
+            line = line.rstrip("\n")
+            if not line or line.startswith("#"):
+                continue
+            uuid, kind, name = line.split("\t")
+            value = int(uuid, 16)
+            if not 0 <= value <= 0xFFFF:
+                raise ValueError("%s:%d: not a 16-bit UUID: %s" % (DATA, line_number, uuid))
+            if value in entries:
+                raise ValueError("%s:%d: duplicate UUID: %s" % (DATA, line_number, uuid))
+            entries[value] = name
+    return sorted(entries.items())
+
+
+def java_string(s):
+    return '"' + s.replace("\\", "\\\\").replace('"', '\\"') + '"'
+
+
+def main():
+    entries = read_entries()
+    uuids = "\n".join("            0x%04X, // %s" % (uuid, name) for uuid, name in entries)
+    names = "\n".join("            %s," % java_string(name) for _, name in entries)
+    for source_root, package, modifier in TARGETS:
+        path = os.path.join(ROOT, source_root, *package.split("."), "GattRegistry.java")
+        with open(path, "w", encoding="utf-8") as f:
+            f.write(TEMPLATE.format(package=package, modifier=modifier, uuids=uuids, names=names))
+        print("Wrote %d entries to %s" % (len(entries), os.path.relpath(path, ROOT)))
+
+
+if __name__ == "__main__":
+    main()